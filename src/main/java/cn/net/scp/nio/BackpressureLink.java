@@ -0,0 +1,131 @@
+package cn.net.scp.nio;
+
+import cn.net.scp.nio.transform.ChannelWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Links the output buffer of one connection to the reading of another connection, e.g. for relays and proxies.
+ * <br><br>
+ * When more than the high watermark of bytes is buffered in the ChannelWriter of the destination (because the peer
+ * of the destination reads slower than the peer of the source sends), reading from the source is suspended with
+ * {@link HandlerAdapter#suspendReading()}. It is resumed as soon as the buffer was drained down to the low watermark.
+ * The memory of a relay is therefore bounded by the high watermark plus one read buffer. Suspensions are counted by
+ * the HandlerAdapter, so several destinations (fan-out) or several sources of one destination (fan-in, with one link
+ * per source) can be linked.
+ * <pre>
+ * BackpressureLink link = BackpressureLink.link(destination.getChannelWriter(), sourceAdapter, 64 * 1024, 1024 * 1024);
+ * ...
+ * link.unlink(); // e.g. when the destination is closed
+ * </pre>
+ */
+public class BackpressureLink implements BufferListener {
+
+    static final Logger logger = LogManager.getLogger();
+
+    private final ChannelWriter channelWriter;
+    private final HandlerAdapter source;
+    private final int lowWatermark;
+    private final int highWatermark;
+    // @GuardedBy("this")
+    private boolean suspended;
+    // @GuardedBy("this")
+    private boolean linked = true;
+    private final AtomicLong suspendCounter = new AtomicLong();
+
+    private BackpressureLink(ChannelWriter channelWriter, HandlerAdapter source, int lowWatermark, int highWatermark) {
+        if ((lowWatermark < 0) || (highWatermark < lowWatermark)) {
+            throw new IllegalArgumentException("0 <= lowWatermark <= highWatermark required");
+        }
+        this.channelWriter = channelWriter;
+        this.source = source;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * links the buffer of a ChannelWriter to the reading of a source connection
+     *
+     * @param channelWriter the ChannelWriter of the destination connection
+     * @param source the HandlerAdapter of the source connection
+     * @param lowWatermark reading is resumed when at most this many bytes are buffered
+     * @param highWatermark reading is suspended when more than this many bytes are buffered
+     * @return the new link
+     */
+    public static BackpressureLink link(ChannelWriter channelWriter, HandlerAdapter source, int lowWatermark,
+        int highWatermark) {
+        BackpressureLink link = new BackpressureLink(channelWriter, source, lowWatermark, highWatermark);
+        channelWriter.addBufferSizeListener(link);
+        // the buffer may already be full
+        link.bufferChanged(channelWriter, channelWriter.remaining());
+        return link;
+    }
+
+    /**
+     * removes the link, reading from the source is resumed if this link suspended it
+     */
+    public void unlink() {
+        channelWriter.removeBufferSizeListener(this);
+        synchronized (this) {
+            linked = false;
+            if (suspended) {
+                suspended = false;
+                source.resumeReading();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void bufferChanged(Object source, int newLevel) {
+        if (!linked) {
+            return;
+        }
+        if (!suspended && (newLevel > highWatermark)) {
+            logger.debug(newLevel + " bytes buffered, suspending reading from the source");
+            suspended = true;
+            suspendCounter.incrementAndGet();
+            this.source.suspendReading();
+        } else if (suspended && (newLevel <= lowWatermark)) {
+            logger.debug(newLevel + " bytes buffered, resuming reading from the source");
+            suspended = false;
+            this.source.resumeReading();
+        }
+    }
+
+    /**
+     * returns true, if this link currently suspends reading from the source
+     *
+     * @return true, if this link currently suspends reading from the source
+     */
+    public synchronized boolean isSuspended() {
+        return suspended;
+    }
+
+    /**
+     * returns how often reading from the source was suspended
+     *
+     * @return how often reading from the source was suspended
+     */
+    public long getSuspendCounter() {
+        return suspendCounter.get();
+    }
+
+    /**
+     * returns the low watermark
+     *
+     * @return the low watermark
+     */
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    /**
+     * returns the high watermark
+     *
+     * @return the high watermark
+     */
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+}
@@ -0,0 +1,15 @@
+package cn.net.scp.nio;
+
+/**
+ * A listener that is notified by the {@link HandlerAdapter} when its channel was closed with
+ * {@link HandlerAdapter#closeChannel()}, e.g. for releasing state that is kept per connection.
+ */
+public interface ChannelClosedListener {
+
+    /**
+     * called after the channel was closed, possibly more than once for the same HandlerAdapter
+     *
+     * @param handlerAdapter the HandlerAdapter of the closed channel
+     */
+    void channelClosed(HandlerAdapter handlerAdapter);
+}
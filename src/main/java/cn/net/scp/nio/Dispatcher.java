@@ -8,17 +8,21 @@ import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -26,11 +30,30 @@ public class Dispatcher extends Thread {
 
     static final Logger logger = LogManager.getLogger();
 
-    private final Selector selector;
+    /**
+     * the default number of consecutive premature returns of select() that trigger a rebuild of the selector
+     */
+    public static final int DEFAULT_SELECTOR_SPIN_THRESHOLD = 512;
+    /**
+     * how long the select loop pauses after an unexpected exception
+     */
+    private static final long EXCEPTION_PAUSE_MILLIS = 1000;
+
+    // replaced by rebuildSelector(), @GuardedBy("this")
+    private volatile Selector selector;
     private final ThreadFactory threadFactory;
     private final ScheduledExecutorService scheduledExecutorService;
 
     private Executor executor;
+    private final Set<HandlerAdapter> handlerAdapters = ConcurrentHashMap.newKeySet();
+
+    private volatile int selectorSpinThreshold = DEFAULT_SELECTOR_SPIN_THRESHOLD;
+    // set before every selector.wakeup(), so that the select loop can tell wakeups from premature returns
+    private volatile boolean wokenUp;
+    private volatile boolean rebuildRequested;
+    private final AtomicLong prematureSelectCounter = new AtomicLong();
+    private final AtomicLong selectorRebuildCounter = new AtomicLong();
+    private final AtomicLong loopExceptionCounter = new AtomicLong();
 
     public Dispatcher() throws IOException {
         setDaemon(true);
@@ -51,39 +74,208 @@ public class Dispatcher extends Thread {
             }
             notifyAll();
         }
+        int prematureReturns = 0;
         while (true) {
             try {
-                int updatedKeys = selector.select();
-                Set<SelectionKey> selectedKeys = selector.selectedKeys();
+                if (rebuildRequested) {
+                    rebuildRequested = false;
+                    rebuildSelector();
+                    prematureReturns = 0;
+                }
+                Selector currentSelector = selector;
+                int updatedKeys = currentSelector.select();
+                Set<SelectionKey> selectedKeys = currentSelector.selectedKeys();
                 logger.debug(updatedKeys + " keys updated " + selectedKeys.size() + " keys in selector's selected key set");
-                if (!selectedKeys.isEmpty()) {
-                    for (SelectionKey selectedKey : selectedKeys) {
-                        Object attachment = selectedKey.attachment();
-                        if (attachment instanceof HandlerAdapter) {
-                            // run adapter in executor
-                            HandlerAdapter adapter = (HandlerAdapter) attachment;
-                            try {
-                                adapter.cacheOps();
+                if (updatedKeys == 0 && selectedKeys.isEmpty()) {
+                    if (wokenUp) {
+                        wokenUp = false;
+                        prematureReturns = 0;
+                    } else if (Thread.interrupted()) {
+                        // select() returns immediately as long as the interrupt status is set
+                        logger.warn("dispatcher was interrupted, clearing the interrupt status");
+                        prematureReturns = 0;
+                    } else {
+                        // nothing is selected and nobody woke us up: the
+                        // selector spins (e.g. the epoll bug on Linux)
+                        prematureSelectCounter.incrementAndGet();
+                        prematureReturns++;
+                        int threshold = selectorSpinThreshold;
+                        if ((threshold > 0) && (prematureReturns >= threshold)) {
+                            logger.warn("select() returned prematurely " + prematureReturns
+                                + " times in a row, rebuilding the selector");
+                            rebuildSelector();
+                            prematureReturns = 0;
+                        }
+                    }
+                    continue;
+                }
+                prematureReturns = 0;
+                for (SelectionKey selectedKey : selectedKeys) {
+                    if (!selectedKey.isValid()) {
+                        // closed or migrated to another dispatcher
+                        continue;
+                    }
+                    Object attachment = selectedKey.attachment();
+                    if (attachment instanceof HandlerAdapter) {
+                        // run adapter in executor
+                        HandlerAdapter adapter = (HandlerAdapter) attachment;
+                        try {
+                            if (adapter.cacheOps()) {
                                 executor.execute(adapter);
-                            } catch (CancelledKeyException ckException) {
-                                // This may happen if another thread cancelled
-                                // the selection key after we returned from
-                                // select()
-                                Tools.handleStackTrace(logger, ckException);
                             }
-                        } else {
-                            logger.warn("attachment is no HandlerAdapter: " + attachment);
+                        } catch (CancelledKeyException ckException) {
+                            // This may happen if another thread cancelled
+                            // the selection key after we returned from
+                            // select()
+                            Tools.handleStackTrace(logger, ckException);
                         }
+                    } else {
+                        logger.warn("attachment is no HandlerAdapter: " + attachment);
                     }
                 }
                 selectedKeys.clear();
+            } catch (ClosedSelectorException | IOException e) {
+                // the selector is broken, replace it instead of giving up all channels
+                Tools.handleStackTrace(logger, e);
+                loopExceptionCounter.incrementAndGet();
+                try {
+                    rebuildSelector();
+                } catch (IOException ex) {
+                    Tools.handleStackTrace(logger, ex);
+                    pauseAfterException();
+                }
             } catch (Exception e) {
+                // keep dispatching the other channels, but do not burn the
+                // CPU if the exception occurs again and again
                 Tools.handleStackTrace(logger, e);
-                break;
+                loopExceptionCounter.incrementAndGet();
+                pauseAfterException();
             }
         }
     }
 
+    private void pauseAfterException() {
+        try {
+            Thread.sleep(EXCEPTION_PAUSE_MILLIS);
+        } catch (InterruptedException ex) {
+            Tools.handleStackTrace(logger, ex);
+        }
+    }
+
+    /**
+     * replaces the selector with a new one, every valid key is registered at the new selector with the same attachment
+     * and interest ops (must only be called by the dispatcher thread)
+     */
+    private synchronized void rebuildSelector() throws IOException {
+        Selector oldSelector = selector;
+        Selector newSelector = Selector.open();
+        int moved = 0;
+        for (SelectionKey key : oldSelector.keys()) {
+            Object attachment = key.attachment();
+            try {
+                if (!key.isValid()) {
+                    continue;
+                }
+                SelectionKey newKey = key.channel().register(newSelector, key.interestOps(), attachment);
+                // the attachment of the old key stays, see currentKey()
+                key.cancel();
+                if ((attachment instanceof HandlerAdapter)
+                    && !((HandlerAdapter) attachment).replaceSelectionKey(key, newKey)) {
+                    // the channel is just migrating to another dispatcher
+                    newKey.cancel();
+                    newKey.attach(null);
+                    continue;
+                }
+                moved++;
+            } catch (CancelledKeyException | ClosedChannelException ex) {
+                // closed concurrently
+                Tools.handleStackTrace(logger, ex);
+            }
+        }
+        selector = newSelector;
+        try {
+            oldSelector.close();
+        } catch (IOException ex) {
+            Tools.handleStackTrace(logger, ex);
+        }
+        selectorRebuildCounter.incrementAndGet();
+        logger.info(getName() + ": rebuilt selector with " + moved + " channels");
+    }
+
+    /**
+     * lets the dispatcher replace its selector (see {@link #setSelectorSpinThreshold(int)}), e.g. when the selector is
+     * known to be broken. The selector is rebuilt asynchronously by the dispatcher thread.
+     */
+    public void requestSelectorRebuild() {
+        rebuildRequested = true;
+        wakeup();
+    }
+
+    /**
+     * sets after how many consecutive premature returns of select() (no key selected, no wakeup) the selector is
+     * rebuilt
+     *
+     * @param selectorSpinThreshold the number of consecutive premature returns, <code>0</code> disables the rebuilding
+     */
+    public void setSelectorSpinThreshold(int selectorSpinThreshold) {
+        this.selectorSpinThreshold = selectorSpinThreshold;
+    }
+
+    /**
+     * returns after how many consecutive premature returns of select() the selector is rebuilt
+     *
+     * @return after how many consecutive premature returns of select() the selector is rebuilt
+     */
+    public int getSelectorSpinThreshold() {
+        return selectorSpinThreshold;
+    }
+
+    /**
+     * returns how often select() returned without a selected key and without a wakeup
+     *
+     * @return how often select() returned without a selected key and without a wakeup
+     */
+    public long getPrematureSelectCounter() {
+        return prematureSelectCounter.get();
+    }
+
+    /**
+     * returns how often the selector was rebuilt
+     *
+     * @return how often the selector was rebuilt
+     */
+    public long getSelectorRebuildCounter() {
+        return selectorRebuildCounter.get();
+    }
+
+    /**
+     * returns how many unexpected exceptions the select loop survived
+     *
+     * @return how many unexpected exceptions the select loop survived
+     */
+    public long getLoopExceptionCounter() {
+        return loopExceptionCounter.get();
+    }
+
+    private void wakeup() {
+        wokenUp = true;
+        selector.wakeup();
+    }
+
+    /**
+     * returns the current key of the channel of <tt>key</tt> if <tt>key</tt> was cancelled when the selector was
+     * rebuilt
+     */
+    private SelectionKey currentKey(SelectionKey key) {
+        if (!key.isValid()) {
+            SelectionKey currentKey = key.channel().keyFor(selector);
+            if ((currentKey != null) && currentKey.isValid()) {
+                return currentKey;
+            }
+        }
+        return key;
+    }
+
     /**
      * registers a channel at the dispatcher with {@link SelectionKey#OP_READ SelectionKey.OP_READ}
      *
@@ -104,12 +296,16 @@ public class Dispatcher extends Thread {
      * @throws java.nio.channels.ClosedChannelException if the channel to register is already closed
      */
     public synchronized void registerChannel(SelectableChannel channel, ChannelHandler channelHandler, int interestOps) throws ClosedChannelException {
-        selector.wakeup();
+        wakeup();
         // register
         SelectionKey key = channel.register(selector, interestOps);
+        // newer JDKs only apply registrations and interest ops changes when
+        // selecting starts, so a running select() must be woken up afterwards
+        wakeup();
         //
         HandlerAdapter handlerAdapter = new HandlerAdapter(this, channelHandler, key, channelHandler.getClass().getName());
         key.attach(handlerAdapter);
+        handlerAdapters.add(handlerAdapter);
         channelHandler.getChannelReader().setChannel(channel);
 
         if (channel instanceof WritableByteChannel) {
@@ -139,6 +335,72 @@ public class Dispatcher extends Thread {
         executor.execute(new Resolver(host, port, clientSocketChannelHandler, timeout));
     }
 
+    /**
+     * registers a channel that is migrated from another dispatcher, selecting starts when the HandlerAdapter restores
+     * its interest ops
+     */
+    synchronized SelectionKey registerMigrated(SelectableChannel channel, HandlerAdapter handlerAdapter) throws ClosedChannelException {
+        SelectionKey key = null;
+        for (int tries = 0; key == null; tries++) {
+            wakeup();
+            try {
+                key = channel.register(selector, 0, handlerAdapter);
+            } catch (CancelledKeyException ex) {
+                // the channel was migrated away from this dispatcher and the
+                // cancelled key is not yet deregistered by the selector
+                if (tries == 100) {
+                    throw ex;
+                }
+                Thread.yield();
+            }
+        }
+        wakeup();
+        handlerAdapters.add(handlerAdapter);
+        return key;
+    }
+
+    /**
+     * removes a channel that was migrated to another dispatcher without closing it
+     */
+    synchronized void deregister(SelectionKey key, HandlerAdapter handlerAdapter) {
+        key = currentKey(key);
+        key.cancel();
+        key.attach(null);
+        handlerAdapters.remove(handlerAdapter);
+        wakeup();
+    }
+
+    /**
+     * returns the HandlerAdapters of the channels that are registered at this dispatcher
+     *
+     * @return the HandlerAdapters of the channels that are registered at this dispatcher
+     */
+    public Set<HandlerAdapter> getHandlerAdapters() {
+        // remove channels that were closed without closeChannel()
+        handlerAdapters.removeIf(handlerAdapter -> !handlerAdapter.getSelectionKey().isValid());
+        return Collections.unmodifiableSet(handlerAdapters);
+    }
+
+    /**
+     * runs a HandlerAdapter (or the write side of a full-duplex HandlerAdapter) in the executor of this dispatcher
+     *
+     * @param handlerAdapter the HandlerAdapter to run
+     */
+    void execute(Runnable handlerAdapter) {
+        Executor currentExecutor;
+        synchronized (this) {
+            while (executor == null) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Tools.handleStackTrace(logger, ex);
+                }
+            }
+            currentExecutor = executor;
+        }
+        currentExecutor.execute(handlerAdapter);
+    }
+
     /**
      * removes interest ops from a SelectionKey
      *
@@ -147,11 +409,13 @@ public class Dispatcher extends Thread {
      */
     public synchronized void removeInterestOps(
         SelectionKey key, int interestOps) {
-        selector.wakeup();
+        wakeup();
+        key = currentKey(key);
         if (key.isValid()) {
             int newOps = key.interestOps() & ~interestOps;
             logger.debug("set interestOps to " + HandlerAdapter.interestToString(newOps));
             key.interestOps(newOps);
+            wakeup();
         } else {
             logger.warn("key is invalid");
         }
@@ -164,10 +428,12 @@ public class Dispatcher extends Thread {
      * @param interestOps the interestOps to use when resuming the selection
      */
     public synchronized void setInterestOps(SelectionKey key, int interestOps) {
-        selector.wakeup();
+        wakeup();
+        key = currentKey(key);
         if (key.isValid()) {
             logger.debug("set interestOps to " + HandlerAdapter.interestToString(interestOps));
             key.interestOps(interestOps);
+            wakeup();
         } else {
             logger.warn("key is invalid");
         }
@@ -180,13 +446,18 @@ public class Dispatcher extends Thread {
      * @return the interest ops of the selection key
      */
     public synchronized int getInterestOps(SelectionKey key) {
-        selector.wakeup();
+        wakeup();
+        key = currentKey(key);
         return key.interestOps();
     }
 
 
     public synchronized void closeChannel(SelectionKey selectionKey) throws IOException {
-        selector.wakeup();
+        wakeup();
+        Object attachment = selectionKey.attachment();
+        if (attachment instanceof HandlerAdapter) {
+            handlerAdapters.remove(attachment);
+        }
         selectionKey.cancel();
         selectionKey.attach(null);
         selectionKey.channel().close();
@@ -0,0 +1,272 @@
+package cn.net.scp.nio;
+
+import cn.net.scp.nio.utils.Tools;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A group of dispatchers (event loops) that spreads channels over its dispatchers and moves hot channels from busy to
+ * idle dispatchers.
+ * <br><br>
+ * New channels are registered at the dispatcher with the fewest channels. Because connections can become hot long after
+ * they were registered, {@link #rebalance()} measures the load of every dispatcher (the busy time of its HandlerAdapters
+ * since the last call) and migrates channels from the busiest to the least busy dispatcher (see
+ * {@link HandlerAdapter#migrate(Dispatcher)}) while the busiest dispatcher is more than
+ * {@link #setImbalanceThreshold(double) imbalanceThreshold} times above the average. A channel is only moved if this
+ * lowers the load of the busier of both dispatchers, so a single very hot channel is not moved back and forth.
+ * {@link #startRebalancing(long, TimeUnit)} calls {@link #rebalance()} periodically.
+ */
+public class DispatcherGroup {
+
+    static final Logger logger = LogManager.getLogger();
+
+    /**
+     * differences below this busy time (per rebalancing period) are ignored
+     */
+    private static final long MIN_IMBALANCE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Dispatcher[] dispatchers;
+    // @GuardedBy("this")
+    private final Map<HandlerAdapter, Long> lastBusyNanos = new HashMap<>();
+    // @GuardedBy("this")
+    private long[] loads;
+    private volatile double imbalanceThreshold = 1.5;
+    private volatile int maxMigrations;
+    private ScheduledExecutorService scheduledExecutorService;
+    private ScheduledFuture<?> rebalancing;
+
+    /**
+     * creates a group of new dispatchers and starts them
+     *
+     * @param size the number of dispatchers
+     * @throws IOException if a selector can not be opened
+     */
+    public DispatcherGroup(int size) throws IOException {
+        this(createDispatchers(size));
+        for (Dispatcher dispatcher : dispatchers) {
+            dispatcher.start();
+        }
+    }
+
+    /**
+     * creates a group of dispatchers
+     *
+     * @param dispatchers the dispatchers of the group (must be started by the caller)
+     */
+    public DispatcherGroup(Dispatcher... dispatchers) {
+        if (dispatchers.length == 0) {
+            throw new IllegalArgumentException("a group needs at least one dispatcher");
+        }
+        this.dispatchers = dispatchers.clone();
+        loads = new long[dispatchers.length];
+        maxMigrations = dispatchers.length;
+    }
+
+    private static Dispatcher[] createDispatchers(int size) throws IOException {
+        Dispatcher[] dispatchers = new Dispatcher[size];
+        for (int i = 0; i < size; i++) {
+            dispatchers[i] = new Dispatcher();
+            dispatchers[i].setName("Dispatcher-" + i);
+        }
+        return dispatchers;
+    }
+
+    /**
+     * returns the dispatcher with the fewest channels
+     *
+     * @return the dispatcher with the fewest channels
+     */
+    public Dispatcher next() {
+        Dispatcher next = dispatchers[0];
+        int minimum = Integer.MAX_VALUE;
+        for (Dispatcher dispatcher : dispatchers) {
+            int size = dispatcher.getHandlerAdapters().size();
+            if (size < minimum) {
+                minimum = size;
+                next = dispatcher;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * registers a channel at the dispatcher with the fewest channels
+     *
+     * @param channel the channel to register
+     * @param channelHandler an ChannelHandler for this channel
+     * @throws ClosedChannelException if the channel to register is already closed
+     */
+    public void registerChannel(SelectableChannel channel, ChannelHandler channelHandler) throws ClosedChannelException {
+        next().registerChannel(channel, channelHandler);
+    }
+
+    /**
+     * returns a dispatcher of this group
+     *
+     * @param index the index of the dispatcher
+     * @return the dispatcher
+     */
+    public Dispatcher getDispatcher(int index) {
+        return dispatchers[index];
+    }
+
+    /**
+     * returns the number of dispatchers
+     *
+     * @return the number of dispatchers
+     */
+    public int size() {
+        return dispatchers.length;
+    }
+
+    /**
+     * returns the load of every dispatcher measured by the last call of {@link #rebalance()}
+     *
+     * @return the busy time of the HandlerAdapters of every dispatcher in nanoseconds (before migrating)
+     */
+    public synchronized long[] getLoads() {
+        return loads.clone();
+    }
+
+    /**
+     * sets how much busier than the average the busiest dispatcher must be before channels are migrated
+     *
+     * @param imbalanceThreshold the factor, e.g. 1.5 for 50% more than the average
+     */
+    public void setImbalanceThreshold(double imbalanceThreshold) {
+        this.imbalanceThreshold = imbalanceThreshold;
+    }
+
+    /**
+     * returns how much busier than the average the busiest dispatcher must be before channels are migrated
+     *
+     * @return the factor
+     */
+    public double getImbalanceThreshold() {
+        return imbalanceThreshold;
+    }
+
+    /**
+     * sets the maximum number of channels that are migrated by one call of {@link #rebalance()}
+     *
+     * @param maxMigrations the maximum number of migrations per call
+     */
+    public void setMaxMigrations(int maxMigrations) {
+        this.maxMigrations = maxMigrations;
+    }
+
+    /**
+     * measures the load of every dispatcher since the last call and migrates hot channels from busy to idle dispatchers
+     *
+     * @return the number of migrated channels
+     */
+    public synchronized int rebalance() {
+        int size = dispatchers.length;
+        long[] newLoads = new long[size];
+        List<Map<HandlerAdapter, Long>> channelLoads = new ArrayList<>(size);
+        Set<HandlerAdapter> seen = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            Map<HandlerAdapter, Long> dispatcherLoads = new HashMap<>();
+            for (HandlerAdapter handlerAdapter : dispatchers[i].getHandlerAdapters()) {
+                long busyNanos = handlerAdapter.getBusyNanos();
+                Long lastNanos = lastBusyNanos.put(handlerAdapter, busyNanos);
+                // new channels are measured from now on
+                long load = (lastNanos == null) ? 0 : busyNanos - lastNanos;
+                dispatcherLoads.put(handlerAdapter, load);
+                newLoads[i] += load;
+                seen.add(handlerAdapter);
+            }
+            channelLoads.add(dispatcherLoads);
+        }
+        lastBusyNanos.keySet().retainAll(seen);
+        loads = newLoads.clone();
+
+        long total = 0;
+        for (long load : newLoads) {
+            total += load;
+        }
+        double average = (double) total / size;
+        int migrations = 0;
+        while (migrations < maxMigrations) {
+            int busiest = 0;
+            int idlest = 0;
+            for (int i = 1; i < size; i++) {
+                if (newLoads[i] > newLoads[busiest]) {
+                    busiest = i;
+                }
+                if (newLoads[i] < newLoads[idlest]) {
+                    idlest = i;
+                }
+            }
+            long difference = newLoads[busiest] - newLoads[idlest];
+            if ((newLoads[busiest] <= imbalanceThreshold * average) || (difference < MIN_IMBALANCE_NANOS)) {
+                break;
+            }
+            // the hottest channel whose move lowers the load of the busier dispatcher
+            HandlerAdapter candidate = null;
+            long candidateLoad = 0;
+            for (Map.Entry<HandlerAdapter, Long> entry : channelLoads.get(busiest).entrySet()) {
+                long load = entry.getValue();
+                if ((load > candidateLoad) && (load < difference)) {
+                    candidate = entry.getKey();
+                    candidateLoad = load;
+                }
+            }
+            if (candidate == null) {
+                break;
+            }
+            logger.debug("migrating channel with load " + candidateLoad + " ns from " + dispatchers[busiest].getName()
+                + " to " + dispatchers[idlest].getName());
+            candidate.migrate(dispatchers[idlest]);
+            channelLoads.get(busiest).remove(candidate);
+            channelLoads.get(idlest).put(candidate, candidateLoad);
+            newLoads[busiest] -= candidateLoad;
+            newLoads[idlest] += candidateLoad;
+            migrations++;
+        }
+        return migrations;
+    }
+
+    /**
+     * calls {@link #rebalance()} periodically
+     *
+     * @param period the time between two calls
+     * @param timeUnit the unit of <tt>period</tt>
+     */
+    public synchronized void startRebalancing(long period, TimeUnit timeUnit) {
+        stopRebalancing();
+        if (scheduledExecutorService == null) {
+            scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(new CustomThreadFactory());
+        }
+        rebalancing = scheduledExecutorService.scheduleAtFixedRate(() -> {
+            try {
+                rebalance();
+            } catch (RuntimeException ex) {
+                Tools.handleStackTrace(logger, ex);
+            }
+        }, period, period, timeUnit);
+    }
+
+    /**
+     * stops calling {@link #rebalance()} periodically
+     */
+    public synchronized void stopRebalancing() {
+        if (rebalancing != null) {
+            rebalancing.cancel(false);
+            rebalancing = null;
+        }
+    }
+}
@@ -4,27 +4,55 @@ import cn.net.scp.nio.transform.ChannelReader;
 import cn.net.scp.nio.transform.ChannelWriter;
 import cn.net.scp.nio.utils.Tools;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Mix of ChannelHandler & channelReader & channelWriter & Dispatcher & SelectionKey
+ * <br><br>
+ * A HandlerAdapter runs on at most one executor thread at a time (the interest ops of its SelectionKey are cleared
+ * while it runs), this thread owns the connection. All stages that are reached from the ChannelReader therefore run
+ * on the owning thread and need no synchronization. Other threads hand work over to the owning thread with
+ * {@link #execute(Runnable)}.
+ * <br><br>
+ * In {@link #setFullDuplex(boolean) full-duplex mode} the read side (connecting, reading, tasks) and the write side
+ * (draining the ChannelWriter) run independently: only the read interest is cleared while the read side runs, write
+ * readiness is still selected and the ChannelWriter is drained by a separate task. A slow read pipeline then does not
+ * hold back queued output and vice versa. The read side still owns the connection.
  */
 public class HandlerAdapter implements Runnable {
 
     static final Logger logger = LogManager.getLogger();
 
-    private final Dispatcher dispatcher;
+    /**
+     * the interest ops that are handled by the read side in full-duplex mode
+     */
+    private static final int READ_SIDE_OPS = SelectionKey.OP_READ | SelectionKey.OP_CONNECT | SelectionKey.OP_ACCEPT;
+
+    private static final AtomicReferenceFieldUpdater<HandlerAdapter, SelectionKey> SELECTION_KEY_UPDATER =
+        AtomicReferenceFieldUpdater.newUpdater(HandlerAdapter.class, SelectionKey.class, "selectionKey");
+
+    // changed by migrate()
+    private volatile Dispatcher dispatcher;
     private final ChannelHandler channelHandler;
     private final ChannelWriter channelWriter;
     private final ChannelReader channelReader;
 
-    private final SelectionKey selectionKey;
+    // changed by migrate() and when the dispatcher rebuilds its selector
+    private volatile SelectionKey selectionKey;
     private final String debugName;
 
     // @GuardedBy("this")
@@ -33,6 +61,21 @@ public class HandlerAdapter implements Runnable {
     private volatile int cachedReadyOps;
     // @GuardedBy("this")
     private volatile boolean opsCached;
+    // @GuardedBy("this")
+    private boolean fullDuplex;
+    // the write side is running or scheduled (full-duplex mode), @GuardedBy("this")
+    private boolean writing;
+    private final WriteSide writeSide = new WriteSide();
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final List<ReadCompletedListener> readCompletedListeners = new CopyOnWriteArrayList<>();
+    private final List<ChannelClosedListener> channelClosedListeners = new CopyOnWriteArrayList<>();
+    private volatile Thread owner;
+    // @GuardedBy("this")
+    private int readSuspensions;
+    private volatile int affinity = -1;
+    private final AtomicLong eventCounter = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
 
 
     public HandlerAdapter(Dispatcher dispatcher, ChannelHandler channelHandler, SelectionKey selectionKey, String debugName) {
@@ -49,9 +92,12 @@ public class HandlerAdapter implements Runnable {
 
     @Override
     public void run() {
+        long start = System.nanoTime();
+        owner = Thread.currentThread();
         logger.debug(debugName + " output handling");
         try {
-            if ((cachedReadyOps & SelectionKey.OP_READ) != 0) {
+            runTasks();
+            if ((cachedReadyOps & SelectionKey.OP_CONNECT) != 0) {
                 SelectableChannel channel = selectionKey.channel();
                 if (!(channel instanceof SocketChannel)) {
                     throw new IllegalStateException("SelectionKey is connectable but channel is no SocketChannel!");
@@ -85,9 +131,7 @@ public class HandlerAdapter implements Runnable {
                 }
             }
             if ((cachedReadyOps & SelectionKey.OP_WRITE) != 0) {
-                if (channelWriter.drain()) {
-                    removeInterestOps(SelectionKey.OP_WRITE);
-                }
+                drain();
             }
             logger.debug(debugName + " input handling");
             if ((cachedReadyOps & SelectionKey.OP_READ) != 0) {
@@ -98,35 +142,307 @@ public class HandlerAdapter implements Runnable {
                     channelHandler.inputClosed();
                 }
             }
+            runTasks();
+            for (ReadCompletedListener readCompletedListener : readCompletedListeners) {
+                readCompletedListener.readCompleted();
+            }
         } catch (RuntimeException runtimeException) {
             throw runtimeException;
         } catch (Exception e) {
-            Tools.handleStackTrace(logger, e);
+            Exception exception = (e instanceof TaskException) ? ((TaskException) e).getCause() : e;
+            Tools.handleStackTrace(logger, exception);
             try {
                 closeChannel();
             } catch (Exception ex) {
                 Tools.handleStackTrace(logger, ex);
             }
-            channelHandler.channelException(e);
+            channelHandler.channelException(exception);
         } finally {
+            eventCounter.incrementAndGet();
+            busyNanos.addAndGet(System.nanoTime() - start);
+            boolean reschedule = false;
             synchronized (this) {
+                owner = null;
                 if (selectionKey.isValid()) {
-                    logger.debug(debugName + " resuming selection with " + interestToString(cachedInterestOps));
-                    dispatcher.setInterestOps(selectionKey, cachedInterestOps);
+                    if (tasks.isEmpty()) {
+                        opsCached = false;
+                        int interestOps = getSelectedInterestOps();
+                        logger.debug(debugName + " resuming selection with " + interestToString(interestOps));
+                        dispatcher.setInterestOps(selectionKey, interestOps);
+                    } else {
+                        // tasks were added while running, keep the ownership
+                        cachedReadyOps = 0;
+                        reschedule = true;
+                    }
+                } else {
+                    tasks.clear();
+                    opsCached = false;
                 }
-                opsCached = false;
+            }
+            if (reschedule) {
+                dispatcher.execute(this);
             }
         }
         logger.debug(debugName + " done");
     }
 
+    /**
+     * Runs a task on the thread that owns the connection. The task is queued and runs after the current read/write
+     * handling or, if the connection is idle, as soon as the executor of the dispatcher runs this adapter. Tasks run in
+     * the order they were added. Unchecked exceptions of a task (an {@link UncheckedIOException} is unwrapped) are
+     * handled like exceptions while reading: the channel is closed and
+     * {@link ChannelHandler#channelException(Exception)} is called.
+     *
+     * @param task the task to run
+     */
+    public void execute(Runnable task) {
+        tasks.offer(task);
+        synchronized (this) {
+            if (opsCached) {
+                // this adapter is already running or scheduled
+                return;
+            }
+            if (!selectionKey.isValid()) {
+                logger.warn(debugName + ": channel is closed, dropping task " + task);
+                tasks.clear();
+                return;
+            }
+            // take over the selection key like cacheOps() does
+            cachedReadyOps = 0;
+            opsCached = true;
+            dispatcher.setInterestOps(selectionKey, getSelectedInterestOps());
+        }
+        dispatcher.execute(this);
+    }
 
-    public synchronized void cacheOps() throws CancelledKeyException {
-        cachedInterestOps = selectionKey.interestOps();
-        cachedReadyOps = selectionKey.readyOps();
-        logger.debug(debugName + " starting with " + interestToString(cachedInterestOps));
-        selectionKey.interestOps(0);
-        opsCached = true;
+    /**
+     * adds a listener that is notified after every read event and after handed over tasks have run
+     *
+     * @param readCompletedListener the listener to add
+     */
+    public void addReadCompletedListener(ReadCompletedListener readCompletedListener) {
+        readCompletedListeners.add(readCompletedListener);
+    }
+
+    /**
+     * removes a listener that was added with {@link #addReadCompletedListener(ReadCompletedListener)}
+     *
+     * @param readCompletedListener the listener to remove
+     */
+    public void removeReadCompletedListener(ReadCompletedListener readCompletedListener) {
+        readCompletedListeners.remove(readCompletedListener);
+    }
+
+    /**
+     * adds a listener that is notified when the channel was closed with {@link #closeChannel()}
+     *
+     * @param channelClosedListener the listener to add
+     */
+    public void addChannelClosedListener(ChannelClosedListener channelClosedListener) {
+        channelClosedListeners.add(channelClosedListener);
+    }
+
+    /**
+     * removes a listener that was added with {@link #addChannelClosedListener(ChannelClosedListener)}
+     *
+     * @param channelClosedListener the listener to remove
+     */
+    public void removeChannelClosedListener(ChannelClosedListener channelClosedListener) {
+        channelClosedListeners.remove(channelClosedListener);
+    }
+
+    /**
+     * returns true, if the current thread owns the connection, i.e. if it is running this HandlerAdapter
+     *
+     * @return true, if the current thread owns the connection
+     */
+    public boolean isOwner() {
+        return owner == Thread.currentThread();
+    }
+
+    /**
+     * drains the ChannelWriter and removes the write interest if everything was written. The ChannelWriter stays locked,
+     * so that data that is forwarded concurrently can not be left behind without write interest.
+     */
+    private void drain() throws IOException {
+        synchronized (channelWriter) {
+            if (channelWriter.drain()) {
+                removeInterestOps(SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * the write side in full-duplex mode
+     */
+    private void runWriteSide() {
+        long start = System.nanoTime();
+        logger.debug(debugName + " write side");
+        try {
+            drain();
+        } catch (IOException e) {
+            Tools.handleStackTrace(logger, e);
+            if (selectionKey.isValid()) {
+                // not yet closed by the read side
+                try {
+                    closeChannel();
+                } catch (Exception ex) {
+                    Tools.handleStackTrace(logger, ex);
+                }
+                channelHandler.channelException(e);
+            }
+        } finally {
+            eventCounter.incrementAndGet();
+            busyNanos.addAndGet(System.nanoTime() - start);
+            synchronized (this) {
+                writing = false;
+                if (selectionKey.isValid()) {
+                    dispatcher.setInterestOps(selectionKey, getSelectedInterestOps());
+                }
+            }
+        }
+    }
+
+    /**
+     * The write side in full-duplex mode as it is handed to the executor of the dispatcher. Executors that bind
+     * connections to threads (like {@link cn.net.scp.nio.executor.AffinityExecutor}) use
+     * {@link #getHandlerAdapter()} to run it on the thread of the connection.
+     */
+    public final class WriteSide implements Runnable {
+
+        private WriteSide() {
+        }
+
+        /**
+         * returns the HandlerAdapter whose write side this is
+         *
+         * @return the HandlerAdapter whose write side this is
+         */
+        public HandlerAdapter getHandlerAdapter() {
+            return HandlerAdapter.this;
+        }
+
+        @Override
+        public void run() {
+            runWriteSide();
+        }
+    }
+
+    /**
+     * returns the interest ops that are selected while the sides that are running or scheduled are excluded
+     */
+    private int getSelectedInterestOps() {
+        int interestOps = cachedInterestOps;
+        if (opsCached) {
+            interestOps &= fullDuplex ? ~READ_SIDE_OPS : 0;
+        }
+        if (writing) {
+            interestOps &= ~SelectionKey.OP_WRITE;
+        }
+        return interestOps;
+    }
+
+    private void runTasks() throws IOException, TaskException {
+        for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+            try {
+                task.run();
+            } catch (UncheckedIOException exception) {
+                throw exception.getCause();
+            } catch (RuntimeException exception) {
+                // handled like a checked exception, see execute()
+                throw new TaskException(exception);
+            }
+        }
+    }
+
+    /**
+     * carries an unchecked exception of a task to the exception handling of run()
+     */
+    private static final class TaskException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        TaskException(RuntimeException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized RuntimeException getCause() {
+            return (RuntimeException) super.getCause();
+        }
+    }
+
+
+    /**
+     * takes over the selection key before this adapter is run by the executor of the dispatcher
+     *
+     * @return false, if this adapter is already running or scheduled (e.g. for running tasks)
+     * @throws CancelledKeyException if the selection key was cancelled
+     */
+    public boolean cacheOps() throws CancelledKeyException {
+        boolean runWriteSide;
+        boolean runReadSide;
+        synchronized (this) {
+            if (!fullDuplex) {
+                if (opsCached) {
+                    // the ready ops are reported again when the interest ops are restored
+                    return false;
+                }
+                cachedInterestOps = selectionKey.interestOps();
+                cachedReadyOps = selectionKey.readyOps();
+                logger.debug(debugName + " starting with " + interestToString(cachedInterestOps));
+                selectionKey.interestOps(0);
+                opsCached = true;
+                return true;
+            }
+            int readyOps = selectionKey.readyOps();
+            runWriteSide = ((readyOps & SelectionKey.OP_WRITE) != 0) && !writing;
+            if (runWriteSide) {
+                writing = true;
+            }
+            runReadSide = cacheReadSideOps(readyOps);
+        }
+        if (runWriteSide) {
+            // not with the lock of this adapter held, the executor of the dispatcher is looked up with the lock of
+            // the dispatcher held (lock order: dispatcher before adapter)
+            dispatcher.execute(writeSide);
+        }
+        return runReadSide;
+    }
+
+    /**
+     * takes over the ready ops of the read side in full-duplex mode, the write side is scheduled by the caller
+     */
+    private boolean cacheReadSideOps(int readyOps) {
+        boolean runReadSide = false;
+        if (((readyOps & READ_SIDE_OPS) != 0) && !opsCached) {
+            cachedReadyOps = readyOps & READ_SIDE_OPS;
+            logger.debug(debugName + " starting with " + interestToString(cachedInterestOps));
+            opsCached = true;
+            runReadSide = true;
+        }
+        selectionKey.interestOps(getSelectedInterestOps());
+        return runReadSide;
+    }
+
+    /**
+     * enables or disables the full-duplex mode, in which the ChannelWriter is drained independently of the read side
+     * (e.g. for proxies that forward data in both directions). Should be called in
+     * {@link ChannelHandler#channelRegistered(HandlerAdapter)}, before the first event.
+     *
+     * @param fullDuplex true, if the read and the write side should run independently
+     */
+    public synchronized void setFullDuplex(boolean fullDuplex) {
+        this.fullDuplex = fullDuplex;
+    }
+
+    /**
+     * returns true, if the read and the write side run independently
+     *
+     * @return true, if the read and the write side run independently
+     */
+    public synchronized boolean isFullDuplex() {
+        return fullDuplex;
     }
 
 
@@ -140,7 +456,9 @@ public class HandlerAdapter implements Runnable {
         // update cache
         cachedInterestOps &= ~interestOps;
         logger.debug(debugName + ": cachedInterestOps set to " + interestToString(cachedInterestOps));
-        if (!opsCached) {
+        if (fullDuplex) {
+            dispatcher.setInterestOps(selectionKey, getSelectedInterestOps());
+        } else if (!opsCached) {
             dispatcher.removeInterestOps(selectionKey, interestOps);
         }
     }
@@ -153,15 +471,176 @@ public class HandlerAdapter implements Runnable {
         // update cache
         cachedInterestOps |= interestOps;
         logger.debug(debugName + ": cachedInterestOps set to " + interestToString(cachedInterestOps));
-        if (!opsCached) {
+        if (fullDuplex || !opsCached) {
             // forward change to "real" interestOps if not cached
-            dispatcher.setInterestOps(selectionKey, cachedInterestOps);
+            dispatcher.setInterestOps(selectionKey, getSelectedInterestOps());
+        }
+    }
+
+    /**
+     * stops reading from the channel until {@link #resumeReading()} is called, e.g. because a stage can not accept more
+     * input. Suspensions are counted, reading is resumed when every suspension has been resumed.
+     */
+    public synchronized void suspendReading() {
+        if (readSuspensions++ == 0) {
+            logger.debug(debugName + ": suspending reading");
+            removeInterestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * resumes reading from the channel after {@link #suspendReading()}
+     */
+    public synchronized void resumeReading() {
+        if (readSuspensions == 0) {
+            logger.warn(debugName + ": reading is not suspended");
+            return;
+        }
+        if ((--readSuspensions == 0) && !channelReader.isClosed()) {
+            logger.debug(debugName + ": resuming reading");
+            addInterestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * returns true, if reading is suspended
+     *
+     * @return true, if reading is suspended
+     */
+    public synchronized boolean isReadingSuspended() {
+        return readSuspensions > 0;
+    }
+
+    /**
+     * moves the channel to another dispatcher. The channel is registered at the selector of the new dispatcher between
+     * two events (on the thread that owns the connection), all following events are dispatched by the new dispatcher.
+     *
+     * @param target the new dispatcher
+     */
+    public void migrate(final Dispatcher target) {
+        execute(() -> {
+            try {
+                moveTo(target);
+            } catch (ClosedChannelException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+    }
+
+    private void moveTo(Dispatcher target) throws ClosedChannelException {
+        Dispatcher oldDispatcher = dispatcher;
+        if (target == oldDispatcher) {
+            return;
         }
+        SelectionKey oldKey = selectionKey;
+        if (!oldKey.isValid()) {
+            logger.warn(debugName + ": channel is closed, can not migrate");
+            return;
+        }
+        // the interest ops are restored with the new key when this event is done
+        SelectionKey newKey = target.registerMigrated(oldKey.channel(), this);
+        synchronized (this) {
+            selectionKey = newKey;
+            dispatcher = target;
+        }
+        oldDispatcher.deregister(oldKey, this);
+        logger.debug(debugName + ": migrated to " + target.getName());
+    }
+
+    /**
+     * returns the dispatcher that currently dispatches the events of the channel
+     *
+     * @return the dispatcher that currently dispatches the events of the channel
+     */
+    public Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    SelectionKey getSelectionKey() {
+        return selectionKey;
+    }
+
+    /**
+     * replaces the selection key after the dispatcher rebuilt its selector
+     *
+     * @return <code>false</code>, if the selection key was changed in the meantime (the channel was migrated)
+     */
+    boolean replaceSelectionKey(SelectionKey oldKey, SelectionKey newKey) {
+        return SELECTION_KEY_UPDATER.compareAndSet(this, oldKey, newKey);
+    }
+
+    /**
+     * returns how often this adapter was run (for I/O events and handed over tasks)
+     *
+     * @return how often this adapter was run
+     */
+    public long getEventCounter() {
+        return eventCounter.get();
+    }
+
+    /**
+     * returns how long this adapter was running in total, i.e. how much worker time the connection used
+     *
+     * @return how long this adapter was running in nanoseconds
+     */
+    public long getBusyNanos() {
+        return busyNanos.get();
+    }
+
+    /**
+     * returns how many bytes have been read from the channel (see {@link ChannelReader#getReadCounter()})
+     *
+     * @return how many bytes have been read from the channel
+     */
+    public long getReadCounter() {
+        return channelReader.getReadCounter();
+    }
+
+    /**
+     * returns how many bytes have been written to the channel (see {@link ChannelWriter#getWriteCounter()})
+     *
+     * @return how many bytes have been written to the channel
+     */
+    public long getWriteCounter() {
+        return (channelWriter == null) ? 0 : channelWriter.getWriteCounter();
+    }
+
+    /**
+     * returns the index of the worker thread this adapter is bound to by an affinity executor
+     *
+     * @return the index of the worker thread or -1, if this adapter is not bound
+     */
+    public int getAffinity() {
+        return affinity;
+    }
+
+    /**
+     * binds this adapter to a worker thread of an affinity executor, the binding takes effect with the next event
+     *
+     * @param affinity the index of the worker thread or -1 for removing the binding
+     */
+    public void setAffinity(int affinity) {
+        this.affinity = affinity;
     }
 
     public void closeChannel() throws IOException {
         cachedReadyOps = 0;
-        dispatcher.closeChannel(selectionKey);
+        try {
+            dispatcher.closeChannel(selectionKey);
+        } finally {
+            for (ChannelClosedListener channelClosedListener : channelClosedListeners) {
+                channelClosedListener.channelClosed(this);
+            }
+        }
+    }
+
+    /**
+     * returns true, if the channel is still registered, without taking the lock of this adapter
+     *
+     * @return true, if the channel is still registered
+     */
+    public boolean isOpen() {
+        return selectionKey.isValid();
     }
 
     public synchronized Channel getChannel() {
@@ -0,0 +1,17 @@
+package cn.net.scp.nio;
+
+import java.io.IOException;
+
+/**
+ * A listener that is notified by the {@link HandlerAdapter} on the thread that owns the connection when a read event
+ * (and the handed over tasks) has been processed, e.g. for delivering batches that were collected while reading.
+ */
+public interface ReadCompletedListener {
+
+    /**
+     * called when all data of a read event has been forwarded
+     *
+     * @throws IOException if an I/O exception occurs, the channel is closed then
+     */
+    void readCompleted() throws IOException;
+}
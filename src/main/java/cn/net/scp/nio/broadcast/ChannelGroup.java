@@ -0,0 +1,187 @@
+package cn.net.scp.nio.broadcast;
+
+import cn.net.scp.nio.HandlerAdapter;
+import cn.net.scp.nio.transform.ChannelWriter;
+import cn.net.scp.nio.utils.Tools;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A group of connections that receive the same messages (e.g. the subscribers of a topic).
+ * <br><br>
+ * {@link #broadcast(ByteBuffer)} sends a message to all members without copying the payload: every member gets a
+ * read-only duplicate of the message (like {@link cn.net.scp.nio.transform.ByteBufferForwardingMode#DUPLICATE}) that
+ * is written with {@link ChannelWriter#forwardShared(ByteBuffer, boolean)} and queued as it is when the channel does
+ * not take it at once. The payload is therefore held only once, no matter how many members there are. Direct buffers
+ * should be used for messages, otherwise the JDK copies heap buffers into a temporary direct buffer for every write.
+ * <br><br>
+ * A member is a slow consumer when more than its limit of bytes is unwritten in its ChannelWriter. The
+ * {@link SlowConsumerPolicy} of the member decides what happens to messages for slow consumers.
+ * <br><br>
+ * Instances are thread-safe, messages can be broadcast from any thread.
+ */
+public class ChannelGroup {
+
+    static final Logger logger = LogManager.getLogger();
+
+    /**
+     * the default number of unwritten bytes above which a member is a slow consumer
+     */
+    public static final int DEFAULT_MAX_PENDING_BYTES = 1024 * 1024;
+
+    private final Map<ChannelWriter, Member> members = new ConcurrentHashMap<>();
+    private final AtomicLong messageCounter = new AtomicLong();
+    private final AtomicLong dropCounter = new AtomicLong();
+    private final AtomicLong disconnectCounter = new AtomicLong();
+
+    /**
+     * adds a member that drops messages when more than {@link #DEFAULT_MAX_PENDING_BYTES} are unwritten
+     *
+     * @param channelWriter the ChannelWriter of the member
+     */
+    public void add(ChannelWriter channelWriter) {
+        add(channelWriter, SlowConsumerPolicy.DROP, DEFAULT_MAX_PENDING_BYTES);
+    }
+
+    /**
+     * adds a member
+     *
+     * @param channelWriter   the ChannelWriter of the member
+     * @param policy          what happens to messages when the member is a slow consumer
+     * @param maxPendingBytes the number of unwritten bytes above which the member is a slow consumer
+     */
+    public void add(ChannelWriter channelWriter, SlowConsumerPolicy policy, int maxPendingBytes) {
+        members.put(channelWriter, new Member(policy, maxPendingBytes));
+    }
+
+    /**
+     * removes a member
+     *
+     * @param channelWriter the ChannelWriter of the member
+     * @return true, if the ChannelWriter was a member
+     */
+    public boolean remove(ChannelWriter channelWriter) {
+        return members.remove(channelWriter) != null;
+    }
+
+    /**
+     * returns the number of members
+     *
+     * @return the number of members
+     */
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * sends a message to all members, the content of the message must not be changed afterwards
+     *
+     * @param message the message (from its position to its limit), its position is not changed
+     */
+    public void broadcast(ByteBuffer message) {
+        messageCounter.incrementAndGet();
+        ByteBuffer shared = message.asReadOnlyBuffer();
+        for (Map.Entry<ChannelWriter, Member> entry : members.entrySet()) {
+            ChannelWriter channelWriter = entry.getKey();
+            Member member = entry.getValue();
+            boolean slow = channelWriter.remaining() > member.maxPendingBytes;
+            try {
+                if (!slow) {
+                    channelWriter.forwardShared(shared.duplicate(), false);
+                    continue;
+                }
+                switch (member.policy) {
+                    case DROP:
+                        member.dropCounter.incrementAndGet();
+                        dropCounter.incrementAndGet();
+                        break;
+                    case DISCONNECT:
+                        logger.info("disconnecting slow consumer with " + channelWriter.remaining()
+                            + " unwritten bytes");
+                        disconnect(channelWriter);
+                        break;
+                    case CONFLATE:
+                        channelWriter.forwardShared(shared.duplicate(), true);
+                        break;
+                    default:
+                        throw new IllegalStateException("unknown policy " + member.policy);
+                }
+            } catch (IOException ex) {
+                // the connection is broken
+                Tools.handleStackTrace(logger, ex);
+                disconnect(channelWriter);
+            }
+        }
+    }
+
+    /**
+     * returns how many messages the member did not receive because it was a slow consumer with
+     * {@link SlowConsumerPolicy#DROP}
+     *
+     * @param channelWriter the ChannelWriter of the member
+     * @return how many messages were dropped for the member or -1, if it is no member
+     */
+    public long getDropCounter(ChannelWriter channelWriter) {
+        Member member = members.get(channelWriter);
+        return (member == null) ? -1 : member.dropCounter.get();
+    }
+
+    /**
+     * returns how many messages were broadcast
+     *
+     * @return how many messages were broadcast
+     */
+    public long getMessageCounter() {
+        return messageCounter.get();
+    }
+
+    /**
+     * returns how many messages were dropped for slow consumers (counted per member)
+     *
+     * @return how many messages were dropped for slow consumers
+     */
+    public long getDropCounter() {
+        return dropCounter.get();
+    }
+
+    /**
+     * returns how many members were disconnected
+     *
+     * @return how many members were disconnected
+     */
+    public long getDisconnectCounter() {
+        return disconnectCounter.get();
+    }
+
+    private void disconnect(ChannelWriter channelWriter) {
+        if (members.remove(channelWriter) == null) {
+            return;
+        }
+        disconnectCounter.incrementAndGet();
+        HandlerAdapter handlerAdapter = channelWriter.getHandlerAdapter();
+        if (handlerAdapter != null) {
+            try {
+                handlerAdapter.closeChannel();
+            } catch (IOException ex) {
+                Tools.handleStackTrace(logger, ex);
+            }
+        }
+    }
+
+    private static final class Member {
+
+        private final SlowConsumerPolicy policy;
+        private final int maxPendingBytes;
+        private final AtomicLong dropCounter = new AtomicLong();
+
+        Member(SlowConsumerPolicy policy, int maxPendingBytes) {
+            this.policy = policy;
+            this.maxPendingBytes = maxPendingBytes;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package cn.net.scp.nio.broadcast;
+
+/**
+ * What a {@link ChannelGroup} does with a member whose ChannelWriter holds more unwritten data than allowed.
+ */
+public enum SlowConsumerPolicy {
+
+    /**
+     * the message is not sent to the member
+     */
+    DROP,
+    /**
+     * the connection of the member is closed and the member is removed from the group
+     */
+    DISCONNECT,
+    /**
+     * only the latest message is kept for the member, queued messages that were not started to be written are replaced
+     */
+    CONFLATE
+}
@@ -0,0 +1,388 @@
+package cn.net.scp.nio.buffer;
+
+import cn.net.scp.nio.utils.ByteSearch;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * A read-only view over a chain of {@link ByteBuffer} segments.
+ * <br><br>
+ * Forwarders that have to collect partial messages over several read operations can append new input as an additional
+ * segment instead of copying it behind the already collected data. Every byte is therefore copied at most once when it
+ * is appended (and not at all when a segment is handed over with {@link #append(ByteBuffer)}), no matter in how many
+ * pieces a message arrives.
+ * <br><br>
+ * All index based methods are relative to the current read position of the composite buffer, i.e. index {@code 0} is
+ * the next byte that would be returned by {@link #get()}. Multi byte values are read in big-endian byte order unless
+ * another order is given.
+ * <br><br>
+ * Instances are not thread-safe.
+ */
+public final class CompositeByteBuffer {
+
+    private final ArrayDeque<ByteBuffer> segments = new ArrayDeque<>();
+    private int remaining;
+
+    /**
+     * Appends a segment to this composite buffer without copying it.
+     * <br><br>
+     * The range between position and limit of {@code segment} becomes part of this composite buffer. The caller hands
+     * over the ownership of the segment and must not modify its content afterwards.
+     *
+     * @param segment the segment to append
+     */
+    public void append(ByteBuffer segment) {
+        int segmentRemaining = segment.remaining();
+        if (segmentRemaining > 0) {
+            segments.addLast(segment);
+            remaining += segmentRemaining;
+        }
+    }
+
+    /**
+     * Copies the remaining content of {@code source} into a new segment and appends it to this composite buffer. The
+     * position of {@code source} is moved to its limit.
+     * <br><br>
+     * Use this method for buffers that are reused by their owner, e.g. the buffer of a {@code ChannelReader}.
+     *
+     * @param source the buffer to copy
+     */
+    public void appendCopy(ByteBuffer source) {
+        int sourceRemaining = source.remaining();
+        if (sourceRemaining > 0) {
+            ByteBuffer copy = source.isDirect() ? ByteBuffer.allocateDirect(sourceRemaining) : ByteBuffer.allocate(sourceRemaining);
+            copy.put(source);
+            copy.flip();
+            segments.addLast(copy);
+            remaining += sourceRemaining;
+        }
+    }
+
+    /**
+     * Puts a segment in front of this composite buffer without copying it. This is useful for handing back data that
+     * was taken with {@link #readBuffer(int)} but could not be consumed.
+     *
+     * @param segment the segment to prepend
+     */
+    public void prepend(ByteBuffer segment) {
+        int segmentRemaining = segment.remaining();
+        if (segmentRemaining > 0) {
+            segments.addFirst(segment);
+            remaining += segmentRemaining;
+        }
+    }
+
+    /**
+     * returns the number of bytes between the current position and the end of the last segment
+     *
+     * @return the number of bytes between the current position and the end of the last segment
+     */
+    public int remaining() {
+        return remaining;
+    }
+
+    /**
+     * returns <code>true</code>, if there are remaining bytes, <code>false</code> otherwise
+     *
+     * @return <code>true</code>, if there are remaining bytes, <code>false</code> otherwise
+     */
+    public boolean hasRemaining() {
+        return remaining > 0;
+    }
+
+    /**
+     * returns the number of segments this composite buffer currently consists of
+     *
+     * @return the number of segments this composite buffer currently consists of
+     */
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * discards all segments
+     */
+    public void clear() {
+        segments.clear();
+        remaining = 0;
+    }
+
+    /**
+     * returns the byte at the given index without changing the position
+     *
+     * @param index the index relative to the current position
+     * @return the byte at the given index
+     */
+    public byte get(int index) {
+        checkIndex(index, 1);
+        for (ByteBuffer segment : segments) {
+            int segmentRemaining = segment.remaining();
+            if (index < segmentRemaining) {
+                return segment.get(segment.position() + index);
+            }
+            index -= segmentRemaining;
+        }
+        // can not happen, checkIndex() would have failed
+        throw new IndexOutOfBoundsException();
+    }
+
+    /**
+     * returns the byte at the given index as an unsigned value without changing the position
+     *
+     * @param index the index relative to the current position
+     * @return the unsigned byte at the given index
+     */
+    public int getUnsignedByte(int index) {
+        return get(index) & 0xFF;
+    }
+
+    /**
+     * returns the big-endian int at the given index without changing the position
+     *
+     * @param index the index relative to the current position
+     * @return the int at the given index
+     */
+    public int getInt(int index) {
+        return getInt(index, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * returns the int at the given index without changing the position
+     *
+     * @param index the index relative to the current position
+     * @param byteOrder the byte order of the int
+     * @return the int at the given index
+     */
+    public int getInt(int index, ByteOrder byteOrder) {
+        checkIndex(index, 4);
+        ByteBuffer head = segments.peekFirst();
+        if (index + 4 <= head.remaining()) {
+            // fast path, the int does not cross a segment border
+            int absoluteIndex = head.position() + index;
+            int value = head.getInt(absoluteIndex);
+            return head.order() == byteOrder ? value : Integer.reverseBytes(value);
+        }
+        int value = 0;
+        if (byteOrder == ByteOrder.BIG_ENDIAN) {
+            for (int i = 0; i < 4; i++) {
+                value = (value << 8) | getUnsignedByte(index + i);
+            }
+        } else {
+            for (int i = 3; i >= 0; i--) {
+                value = (value << 8) | getUnsignedByte(index + i);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * reads the next byte and moves the position
+     *
+     * @return the next byte
+     */
+    public byte get() {
+        checkIndex(0, 1);
+        ByteBuffer head = segments.peekFirst();
+        byte value = head.get();
+        remaining--;
+        if (!head.hasRemaining()) {
+            segments.pollFirst();
+        }
+        return value;
+    }
+
+    /**
+     * reads the next big-endian int and moves the position
+     *
+     * @return the next int
+     */
+    public int getInt() {
+        int value = getInt(0);
+        skip(4);
+        return value;
+    }
+
+    /**
+     * moves the position by a given number of bytes
+     *
+     * @param length the number of bytes to skip
+     */
+    public void skip(int length) {
+        checkIndex(0, length);
+        remaining -= length;
+        while (length > 0) {
+            ByteBuffer head = segments.peekFirst();
+            int headRemaining = head.remaining();
+            if (length < headRemaining) {
+                head.position(head.position() + length);
+                return;
+            }
+            segments.pollFirst();
+            length -= headRemaining;
+        }
+    }
+
+    /**
+     * returns the index of the first occurrence of a byte value
+     *
+     * @param value the byte value to search for
+     * @param fromIndex the index where the search starts
+     * @return the index relative to the current position or <code>-1</code>, if the value was not found
+     */
+    public int indexOf(byte value, int fromIndex) {
+        int offset = 0;
+        for (ByteBuffer segment : segments) {
+            int segmentRemaining = segment.remaining();
+            if (fromIndex < offset + segmentRemaining) {
+                int position = segment.position();
+                int start = position + Math.max(0, fromIndex - offset);
+                int index = ByteSearch.indexOf(segment, start, segment.limit(), value);
+                if (index != -1) {
+                    return offset + index - position;
+                }
+            }
+            offset += segmentRemaining;
+        }
+        return -1;
+    }
+
+    /**
+     * returns the index of the first occurrence of a byte sequence (that may cross segment borders)
+     *
+     * @param sequence the byte sequence to search for
+     * @param fromIndex the index where the search starts
+     * @return the index relative to the current position or <code>-1</code>, if the sequence was not found
+     */
+    public int indexOf(byte[] sequence, int fromIndex) {
+        int sequenceLength = sequence.length;
+        if (sequenceLength == 0) {
+            return Math.min(Math.max(fromIndex, 0), remaining);
+        }
+        byte first = sequence[0];
+        int lastStart = remaining - sequenceLength;
+        for (int index = indexOf(first, fromIndex); (index != -1) && (index <= lastStart); index = indexOf(first, index + 1)) {
+            int i = 1;
+            while ((i < sequenceLength) && (get(index + i) == sequence[i])) {
+                i++;
+            }
+            if (i == sequenceLength) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the next {@code length} bytes as a new composite buffer and moves the position. The returned composite
+     * buffer shares the content of this composite buffer, no data is copied.
+     *
+     * @param length the number of bytes to slice off
+     * @return the slice
+     */
+    public CompositeByteBuffer readSlice(int length) {
+        checkIndex(0, length);
+        CompositeByteBuffer slice = new CompositeByteBuffer();
+        remaining -= length;
+        while (length > 0) {
+            ByteBuffer head = segments.peekFirst();
+            int headRemaining = head.remaining();
+            if (length < headRemaining) {
+                int position = head.position();
+                ByteBuffer part = head.duplicate();
+                part.limit(position + length);
+                slice.append(part);
+                head.position(position + length);
+                return slice;
+            }
+            slice.append(segments.pollFirst());
+            length -= headRemaining;
+        }
+        return slice;
+    }
+
+    /**
+     * Returns the next {@code length} bytes as a single ByteBuffer and moves the position.
+     * <br><br>
+     * If the bytes are located within a single segment, a duplicate of this segment limited to the requested range is
+     * returned and no data is copied. Otherwise the bytes are gathered into a new ByteBuffer.
+     *
+     * @param length the number of bytes to read
+     * @return a ByteBuffer with the next {@code length} bytes between its position and limit
+     */
+    public ByteBuffer readBuffer(int length) {
+        checkIndex(0, length);
+        ByteBuffer head = segments.peekFirst();
+        if ((head != null) && (length <= head.remaining())) {
+            int position = head.position();
+            ByteBuffer frame = head.duplicate();
+            frame.limit(position + length);
+            head.position(position + length);
+            remaining -= length;
+            if (!head.hasRemaining()) {
+                segments.pollFirst();
+            }
+            return frame;
+        }
+        ByteBuffer frame = ((head != null) && head.isDirect()) ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+        read(frame, length);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * copies as many bytes as possible into {@code destination} and moves the position of both buffers
+     *
+     * @param destination the destination buffer
+     * @return the number of copied bytes
+     */
+    public int read(ByteBuffer destination) {
+        int length = Math.min(destination.remaining(), remaining);
+        read(destination, length);
+        return length;
+    }
+
+    /**
+     * returns duplicates of all segments, e.g. for gathering write operations
+     *
+     * @return duplicates of all segments
+     */
+    public ByteBuffer[] toByteBuffers() {
+        ByteBuffer[] byteBuffers = new ByteBuffer[segments.size()];
+        Iterator<ByteBuffer> iterator = segments.iterator();
+        for (int i = 0; iterator.hasNext(); i++) {
+            byteBuffers[i] = iterator.next().duplicate();
+        }
+        return byteBuffers;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[rem=" + remaining + " segments=" + segments.size() + "]";
+    }
+
+    private void read(ByteBuffer destination, int length) {
+        remaining -= length;
+        while (length > 0) {
+            ByteBuffer head = segments.peekFirst();
+            int headRemaining = head.remaining();
+            if (length < headRemaining) {
+                int oldLimit = head.limit();
+                head.limit(head.position() + length);
+                destination.put(head);
+                head.limit(oldLimit);
+                return;
+            }
+            destination.put(head);
+            segments.pollFirst();
+            length -= headRemaining;
+        }
+    }
+
+    private void checkIndex(int index, int length) {
+        if ((index < 0) || (length < 0) || (index + length > remaining)) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length + ", remaining " + remaining);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package cn.net.scp.nio.buffer;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of encoded, read-only {@link ByteBuffer}s keyed by content and {@link Charset}.
+ * <br><br>
+ * Servers often send the same few strings (status lines, heartbeats, error messages) over and over again. With this
+ * cache every string is encoded only once and the encoded buffer is shared by all connections. {@link #get(String,
+ * Charset)} hands out duplicates (like {@code ByteBufferForwardingMode.DUPLICATE}), so that every receiver has its own
+ * position and limit. The least recently used entry is evicted when the cache is full.
+ * <br><br>
+ * Instances are thread-safe and meant to be shared.
+ */
+public final class EncodedBufferCache {
+
+    /**
+     * The default maximum length of strings that are cached.
+     */
+    public static final int DEFAULT_MAX_CONTENT_LENGTH = 256;
+
+    private final int maxEntries;
+    private final int maxContentLength;
+    private final boolean direct;
+    private final LinkedHashMap<Key, ByteBuffer> entries;
+    /**
+     * The key for lookups, reused (under the lock) so that hits do not allocate.
+     */
+    private final Key lookupKey = new Key(null, null);
+
+    private final AtomicLong hitCounter = new AtomicLong();
+    private final AtomicLong missCounter = new AtomicLong();
+    private final AtomicLong evictionCounter = new AtomicLong();
+
+    /**
+     * Creates a new cache for strings up to {@link #DEFAULT_MAX_CONTENT_LENGTH} chars with heap buffers.
+     *
+     * @param maxEntries the maximum number of cached buffers
+     */
+    public EncodedBufferCache(int maxEntries) {
+        this(maxEntries, DEFAULT_MAX_CONTENT_LENGTH, false);
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxEntries the maximum number of cached buffers
+     * @param maxContentLength the maximum length (in chars) of cached strings, longer strings are not cached
+     * @param direct if {@code true}, the encoded content is stored in direct buffers, which saves a copy when writing
+     * to a channel
+     */
+    public EncodedBufferCache(final int maxEntries, int maxContentLength, boolean direct) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxContentLength = maxContentLength;
+        this.direct = direct;
+        entries = new LinkedHashMap<Key, ByteBuffer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, ByteBuffer> eldest) {
+                if (size() > maxEntries) {
+                    evictionCounter.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns {@code true}, if {@code content} is short enough to be cached.
+     *
+     * @param content the string to check
+     * @return {@code true}, if {@code content} is short enough to be cached
+     */
+    public boolean isCacheable(String content) {
+        return content.length() <= maxContentLength;
+    }
+
+    /**
+     * Returns a read-only duplicate of the encoded {@code content}. The content is encoded and cached on the first
+     * request (if it is not too long, see {@link #isCacheable(String)}).
+     *
+     * @param content the string to encode
+     * @param charset the charset to use for encoding
+     * @return a read-only duplicate of the encoded {@code content}
+     * @throws CharacterCodingException if {@code content} can not be encoded with {@code charset}
+     */
+    public ByteBuffer get(String content, Charset charset) throws CharacterCodingException {
+        ByteBuffer encoded;
+        synchronized (entries) {
+            lookupKey.content = content;
+            lookupKey.charset = charset;
+            encoded = entries.get(lookupKey);
+            lookupKey.content = null;
+            lookupKey.charset = null;
+        }
+        if (encoded != null) {
+            hitCounter.incrementAndGet();
+            return encoded.duplicate();
+        }
+
+        missCounter.incrementAndGet();
+        encoded = encode(content, charset);
+        if (isCacheable(content)) {
+            synchronized (entries) {
+                // another thread may have been faster, keep the first buffer
+                ByteBuffer previous = entries.putIfAbsent(new Key(content, charset), encoded);
+                if (previous != null) {
+                    encoded = previous;
+                }
+            }
+        }
+        return encoded.duplicate();
+    }
+
+    /**
+     * Returns the number of cached buffers.
+     *
+     * @return the number of cached buffers
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the maximum number of cached buffers.
+     *
+     * @return the maximum number of cached buffers
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Removes all cached buffers.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns how many requests were served from the cache.
+     *
+     * @return how many requests were served from the cache
+     */
+    public long getHitCounter() {
+        return hitCounter.get();
+    }
+
+    /**
+     * Returns how many requests had to encode their content.
+     *
+     * @return how many requests had to encode their content
+     */
+    public long getMissCounter() {
+        return missCounter.get();
+    }
+
+    /**
+     * Returns how many buffers have been evicted because the cache was full.
+     *
+     * @return how many buffers have been evicted because the cache was full
+     */
+    public long getEvictionCounter() {
+        return evictionCounter.get();
+    }
+
+    /**
+     * Returns the ratio of hits to all requests (or {@code 0}, if there were no requests).
+     *
+     * @return the ratio of hits to all requests
+     */
+    public double getHitRatio() {
+        long hits = hitCounter.get();
+        long requests = hits + missCounter.get();
+        return (requests == 0) ? 0 : (double) hits / requests;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters back to zero.
+     */
+    public void resetCounters() {
+        hitCounter.set(0);
+        missCounter.set(0);
+        evictionCounter.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[size=" + size() + " hits=" + hitCounter.get() + " misses="
+            + missCounter.get() + " evictions=" + evictionCounter.get() + "]";
+    }
+
+    private ByteBuffer encode(String content, Charset charset) throws CharacterCodingException {
+        ByteBuffer encoded = charset.newEncoder().encode(CharBuffer.wrap(content));
+        if (direct) {
+            ByteBuffer directBuffer = ByteBuffer.allocateDirect(encoded.remaining());
+            directBuffer.put(encoded);
+            directBuffer.flip();
+            encoded = directBuffer;
+        }
+        return encoded.asReadOnlyBuffer();
+    }
+
+    private static final class Key {
+
+        private String content;
+        private Charset charset;
+
+        Key(String content, Charset charset) {
+            this.content = content;
+            this.charset = charset;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) object;
+            return content.equals(other.content) && charset.equals(other.charset);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * content.hashCode() + charset.hashCode();
+        }
+    }
+}
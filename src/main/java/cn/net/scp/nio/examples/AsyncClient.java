@@ -4,13 +4,15 @@ import cn.net.scp.nio.AbstractChannelHandler;
 import cn.net.scp.nio.Dispatcher;
 import cn.net.scp.nio.HandlerAdapter;
 import cn.net.scp.nio.transform.AbstractForwarder;
-import cn.net.scp.nio.transform.ByteBufferToStringConvertor;
+import cn.net.scp.nio.transform.ByteBufferForwardingMode;
+import cn.net.scp.nio.transform.StreamingByteBufferToStringConvertor;
 import cn.net.scp.nio.transform.StringToByteBufferConvertor;
 import cn.net.scp.nio.utils.Tools;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -28,13 +30,14 @@ public class AsyncClient extends AbstractChannelHandler {
 
     public AsyncClient(String host, int port) {
         //input chain
-        ByteBufferToStringConvertor byteBufferToStringConvertor = new ByteBufferToStringConvertor();
+        StreamingByteBufferToStringConvertor byteBufferToStringConvertor = new StreamingByteBufferToStringConvertor();
         reader.setNextForwarder(byteBufferToStringConvertor);
         EchoTransformer echoTransformer = new EchoTransformer();
         byteBufferToStringConvertor.setNextForwarder(echoTransformer);
 
         //output chain
-        StringToByteBufferConvertor stringToByteBufferConvertor = new StringToByteBufferConvertor();
+        // the writer copies unwritten bytes, the convertor can reuse its buffer
+        StringToByteBufferConvertor stringToByteBufferConvertor = new StringToByteBufferConvertor(Charset.defaultCharset(), ByteBufferForwardingMode.DIRECT, null);
         stringToByteBufferConvertor.setNextForwarder(writer);
 
         try {
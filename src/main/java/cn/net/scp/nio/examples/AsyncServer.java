@@ -5,12 +5,14 @@ import cn.net.scp.nio.AbstractChannelHandler;
 import cn.net.scp.nio.ChannelHandler;
 import cn.net.scp.nio.Dispatcher;
 import cn.net.scp.nio.HandlerAdapter;
+import cn.net.scp.nio.transform.ByteBufferForwardingMode;
 import cn.net.scp.nio.transform.StringToByteBufferConvertor;
 import cn.net.scp.nio.utils.Tools;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -66,7 +68,8 @@ public class AsyncServer extends AbstractAcceptor {
 
         public AsyncChannelHandler() {
             //set up I/O
-            stringToByteBufferConvertor = new StringToByteBufferConvertor();
+            // the writer copies unwritten bytes, the convertor can reuse its buffer
+            stringToByteBufferConvertor = new StringToByteBufferConvertor(Charset.defaultCharset(), ByteBufferForwardingMode.DIRECT, null);
             stringToByteBufferConvertor.setNextForwarder(writer);
         }
 
@@ -3,7 +3,8 @@ package cn.net.scp.nio.examples;
 import cn.net.scp.nio.AbstractChannelHandler;
 import cn.net.scp.nio.Dispatcher;
 import cn.net.scp.nio.transform.AbstractForwarder;
-import cn.net.scp.nio.transform.ByteBufferToStringConvertor;
+import cn.net.scp.nio.transform.ByteBufferForwardingMode;
+import cn.net.scp.nio.transform.StreamingByteBufferToStringConvertor;
 import cn.net.scp.nio.transform.StringToByteBufferConvertor;
 import cn.net.scp.nio.utils.Tools;
 import java.io.BufferedReader;
@@ -11,6 +12,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.InetSocketAddress;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -46,13 +48,14 @@ public class EchoClient extends AbstractChannelHandler {
     public EchoClient(String host, int port) {
 
         // setup input chain
-        ByteBufferToStringConvertor byteBufferToStringConvertor = new ByteBufferToStringConvertor();
+        StreamingByteBufferToStringConvertor byteBufferToStringConvertor = new StreamingByteBufferToStringConvertor();
         reader.setNextForwarder(byteBufferToStringConvertor);
         EchoClientForwarder echoTransformer = new EchoClientForwarder();
         byteBufferToStringConvertor.setNextForwarder(echoTransformer);
 
         // setup output chain
-        StringToByteBufferConvertor stringToByteBufferConvertor = new StringToByteBufferConvertor();
+        // the writer copies unwritten bytes, the convertor can reuse its buffer
+        StringToByteBufferConvertor stringToByteBufferConvertor = new StringToByteBufferConvertor(Charset.defaultCharset(), ByteBufferForwardingMode.DIRECT, null);
         stringToByteBufferConvertor.setNextForwarder(writer);
 
         try {
@@ -4,6 +4,10 @@ import cn.net.scp.nio.AbstractAcceptor;
 import cn.net.scp.nio.AbstractChannelHandler;
 import cn.net.scp.nio.ChannelHandler;
 import cn.net.scp.nio.Dispatcher;
+import cn.net.scp.nio.HandlerAdapter;
+import cn.net.scp.nio.pipeline.Pipeline;
+import cn.net.scp.nio.pipeline.PipelineBuilder;
+import cn.net.scp.nio.pipeline.PipelineTemplate;
 import cn.net.scp.nio.transform.AbstractForwarder;
 import cn.net.scp.nio.utils.Tools;
 import java.io.IOException;
@@ -18,6 +22,13 @@ public class EchoServer extends AbstractAcceptor {
 
     static final Logger logger = LogManager.getLogger();
 
+    /**
+     * the input pipeline, built once and instantiated for every connection
+     */
+    private static final PipelineTemplate<ByteBuffer> PIPELINE_TEMPLATE = PipelineBuilder.create(ByteBuffer.class)
+        .then(EchoServerForwarder::new)
+        .build();
+
     /**
      * creates a new EchoServer
      *
@@ -62,11 +73,19 @@ public class EchoServer extends AbstractAcceptor {
 
     private static class EchoChannelHandler extends AbstractChannelHandler {
 
+        private final Pipeline<ByteBuffer> pipeline;
+
         public EchoChannelHandler() {
             // set up I/O
-            EchoServerForwarder echoServerForwarder = new EchoServerForwarder();
-            reader.setNextForwarder(echoServerForwarder);
-            echoServerForwarder.setNextForwarder(writer);
+            pipeline = PIPELINE_TEMPLATE.instantiate();
+            reader.setNextForwarder(pipeline.getHead());
+            pipeline.setNextForwarder(writer);
+        }
+
+        @Override
+        public void channelRegistered(HandlerAdapter handlerAdapter) {
+            super.channelRegistered(handlerAdapter);
+            pipeline.setHandlerAdapter(handlerAdapter);
         }
 
         @Override
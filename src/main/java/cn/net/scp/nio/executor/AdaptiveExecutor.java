@@ -0,0 +1,299 @@
+package cn.net.scp.nio.executor;
+
+import cn.net.scp.nio.CustomThreadFactory;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A worker pool for the Dispatcher that sizes itself by the time tasks wait in its queue.
+ * <br><br>
+ * Every task is stamped when it is queued. The pool measures how long tasks wait until a worker takes them (queueing
+ * delay) and how long they run. Every adjust interval the average queueing delay of the last interval (or the age of
+ * the oldest waiting task, if it is older) is compared with the target:
+ * <ul>
+ * <li>above the target the pool grows by a quarter (at least by one thread) up to the maximum size</li>
+ * <li>below a quarter of the target, with the workers busy less than half of the interval, the pool shrinks by one
+ * thread down to the minimum size</li>
+ * </ul>
+ * Shrinking slowly and growing fast keeps the delay low when the load rises and avoids oscillating when it falls. All
+ * decisions are counted and the measurements of the last interval are kept, so that they can be exported as metrics.
+ * <pre>
+ * Dispatcher dispatcher = new Dispatcher();
+ * dispatcher.setExecutor(new AdaptiveExecutor(2, 64, 500, TimeUnit.MICROSECONDS));
+ * dispatcher.start();
+ * </pre>
+ */
+public class AdaptiveExecutor implements Executor {
+
+    static final Logger logger = LogManager.getLogger();
+
+    /**
+     * the default time between two adjustments of the pool size
+     */
+    public static final long DEFAULT_ADJUST_INTERVAL_MILLIS = 100;
+
+    private final int minThreads;
+    private final int maxThreads;
+    private final long targetQueueDelayNanos;
+    private final LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+    private final ThreadPoolExecutor pool;
+    private final ScheduledExecutorService controller;
+
+    // measurements of the current interval
+    private final AtomicLong queueDelaySum = new AtomicLong();
+    private final AtomicLong runTimeSum = new AtomicLong();
+    private final AtomicLong taskCounter = new AtomicLong();
+
+    // @GuardedBy("this")
+    private long lastAdjustNanos = System.nanoTime();
+    private volatile long lastQueueDelayNanos;
+    private volatile long lastRunNanos;
+    private volatile double lastUtilization;
+    private final AtomicLong growCounter = new AtomicLong();
+    private final AtomicLong shrinkCounter = new AtomicLong();
+    private final AtomicLong completedTaskCounter = new AtomicLong();
+
+    /**
+     * creates a new AdaptiveExecutor that adjusts its size every {@link #DEFAULT_ADJUST_INTERVAL_MILLIS} milliseconds
+     *
+     * @param minThreads the minimum number of worker threads
+     * @param maxThreads the maximum number of worker threads
+     * @param targetQueueDelay the queueing delay to stay below
+     * @param unit the unit of <tt>targetQueueDelay</tt>
+     */
+    public AdaptiveExecutor(int minThreads, int maxThreads, long targetQueueDelay, TimeUnit unit) {
+        this(minThreads, maxThreads, targetQueueDelay, unit, DEFAULT_ADJUST_INTERVAL_MILLIS, new CustomThreadFactory());
+    }
+
+    /**
+     * creates a new AdaptiveExecutor
+     *
+     * @param minThreads the minimum number of worker threads
+     * @param maxThreads the maximum number of worker threads
+     * @param targetQueueDelay the queueing delay to stay below
+     * @param unit the unit of <tt>targetQueueDelay</tt>
+     * @param adjustIntervalMillis the time between two adjustments of the pool size, <code>0</code> if the size is only
+     * adjusted by calling {@link #adjust()}
+     * @param threadFactory creates the worker threads
+     */
+    public AdaptiveExecutor(int minThreads, int maxThreads, long targetQueueDelay, TimeUnit unit,
+        long adjustIntervalMillis, ThreadFactory threadFactory) {
+        if ((minThreads < 1) || (maxThreads < minThreads)) {
+            throw new IllegalArgumentException("0 < minThreads <= maxThreads required");
+        }
+        if (targetQueueDelay <= 0) {
+            throw new IllegalArgumentException("targetQueueDelay must be positive");
+        }
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        targetQueueDelayNanos = unit.toNanos(targetQueueDelay);
+        pool = new ThreadPoolExecutor(minThreads, minThreads, 60, TimeUnit.SECONDS, queue, threadFactory);
+        if (adjustIntervalMillis > 0) {
+            controller = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            controller.scheduleWithFixedDelay(this::adjust, adjustIntervalMillis, adjustIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        } else {
+            controller = null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        pool.execute(new TimedTask(task));
+    }
+
+    /**
+     * adjusts the pool size to the measurements since the last adjustment (called periodically, unless the adjust
+     * interval is <code>0</code>)
+     *
+     * @return the new pool size
+     */
+    public synchronized int adjust() {
+        long now = System.nanoTime();
+        long interval = Math.max(1, now - lastAdjustNanos);
+        lastAdjustNanos = now;
+        long tasks = taskCounter.getAndSet(0);
+        long queueDelay = queueDelaySum.getAndSet(0);
+        long runTime = runTimeSum.getAndSet(0);
+
+        long averageQueueDelay = (tasks == 0) ? 0 : queueDelay / tasks;
+        // tasks that still wait are not measured yet
+        Runnable oldest = queue.peek();
+        if (oldest instanceof TimedTask) {
+            averageQueueDelay = Math.max(averageQueueDelay, now - ((TimedTask) oldest).queuedNanos);
+        }
+        int size = pool.getMaximumPoolSize();
+        double utilization = (double) runTime / ((double) interval * size);
+        lastQueueDelayNanos = averageQueueDelay;
+        lastRunNanos = (tasks == 0) ? 0 : runTime / tasks;
+        lastUtilization = utilization;
+
+        int newSize = size;
+        if ((averageQueueDelay > targetQueueDelayNanos) && (size < maxThreads)) {
+            newSize = Math.min(maxThreads, size + Math.max(1, size / 4));
+            growCounter.incrementAndGet();
+        } else if ((averageQueueDelay < targetQueueDelayNanos / 4) && (utilization < 0.5) && (size > minThreads)) {
+            newSize = size - 1;
+            shrinkCounter.incrementAndGet();
+        }
+        if (newSize != size) {
+            logger.info("resizing pool from " + size + " to " + newSize + " threads (queue delay "
+                + TimeUnit.NANOSECONDS.toMicros(averageQueueDelay) + " us, utilization "
+                + Math.round(utilization * 100) + "%)");
+            resize(newSize);
+        }
+        return newSize;
+    }
+
+    private void resize(int newSize) {
+        // the core size must never exceed the maximum size
+        if (newSize > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(newSize);
+            pool.setCorePoolSize(newSize);
+            pool.prestartAllCoreThreads();
+        } else {
+            // surplus threads stop when they become idle
+            pool.setCorePoolSize(newSize);
+            pool.setMaximumPoolSize(newSize);
+        }
+    }
+
+    /**
+     * stops adjusting and the workers, queued tasks are still executed
+     */
+    public void shutdown() {
+        if (controller != null) {
+            controller.shutdown();
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * returns the current target number of worker threads
+     *
+     * @return the current target number of worker threads
+     */
+    public int getPoolSize() {
+        return pool.getMaximumPoolSize();
+    }
+
+    /**
+     * returns the number of tasks waiting for a worker
+     *
+     * @return the number of tasks waiting for a worker
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * returns the queueing delay that the pool tries to stay below in nanoseconds
+     *
+     * @return the queueing delay that the pool tries to stay below in nanoseconds
+     */
+    public long getTargetQueueDelayNanos() {
+        return targetQueueDelayNanos;
+    }
+
+    /**
+     * returns the average queueing delay of the last adjust interval in nanoseconds
+     *
+     * @return the average queueing delay of the last adjust interval in nanoseconds
+     */
+    public long getLastQueueDelayNanos() {
+        return lastQueueDelayNanos;
+    }
+
+    /**
+     * returns the average run time of the tasks of the last adjust interval in nanoseconds
+     *
+     * @return the average run time of the tasks of the last adjust interval in nanoseconds
+     */
+    public long getLastRunNanos() {
+        return lastRunNanos;
+    }
+
+    /**
+     * returns how busy the workers were in the last adjust interval (<code>1.0</code> if all workers were busy all the
+     * time)
+     *
+     * @return how busy the workers were in the last adjust interval
+     */
+    public double getLastUtilization() {
+        return lastUtilization;
+    }
+
+    /**
+     * returns how often the pool was grown
+     *
+     * @return how often the pool was grown
+     */
+    public long getGrowCounter() {
+        return growCounter.get();
+    }
+
+    /**
+     * returns how often the pool was shrunk
+     *
+     * @return how often the pool was shrunk
+     */
+    public long getShrinkCounter() {
+        return shrinkCounter.get();
+    }
+
+    /**
+     * returns the number of completed tasks
+     *
+     * @return the number of completed tasks
+     */
+    public long getCompletedTaskCounter() {
+        return completedTaskCounter.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[threads=" + getPoolSize() + " queued=" + getQueueSize()
+            + " queueDelay=" + TimeUnit.NANOSECONDS.toMicros(lastQueueDelayNanos) + "us grown=" + growCounter.get()
+            + " shrunk=" + shrinkCounter.get() + "]";
+    }
+
+    private class TimedTask implements Runnable {
+
+        private final Runnable task;
+        private final long queuedNanos = System.nanoTime();
+
+        TimedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                long end = System.nanoTime();
+                queueDelaySum.addAndGet(start - queuedNanos);
+                runTimeSum.addAndGet(end - start);
+                taskCounter.incrementAndGet();
+                completedTaskCounter.incrementAndGet();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return task.toString();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package cn.net.scp.nio.executor;
+
+import cn.net.scp.nio.ChannelClosedListener;
+import cn.net.scp.nio.CustomThreadFactory;
+import cn.net.scp.nio.HandlerAdapter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An executor that runs all events of a connection on the same worker thread.
+ * <br><br>
+ * Every worker has its own {@link RingBufferExecutor} lane with a single thread. A {@link HandlerAdapter} is bound to
+ * a lane when its first event is executed (see {@link Policy}) and stays there until it is moved with
+ * {@link #migrate(HandlerAdapter, int)}, so the state of the connection (ChannelReader, ChannelWriter, forwarders) stays
+ * in the caches of one core and the monitors of the connection are always taken by the same thread. Migrating is safe
+ * at any time because a HandlerAdapter never runs concurrently, the next event simply runs on the new worker. The write
+ * side of a full-duplex HandlerAdapter (see {@link HandlerAdapter.WriteSide}) runs on the same worker, so both sides
+ * of a connection run one after the other. Connections are unbound when they are closed with
+ * {@link HandlerAdapter#closeChannel()}. Channels that were closed otherwise are found by a sweep that checks a few
+ * bound connections whenever a connection is bound, so binding does not depend on the number of open connections.
+ * <br><br>
+ * Other tasks (e.g. resolving addresses) are distributed round robin.
+ */
+public class AffinityExecutor implements Executor {
+
+    static final Logger logger = LogManager.getLogger();
+
+    /**
+     * the number of bound connections that are checked by the sweep when a connection is bound
+     */
+    private static final int SWEEP_LIMIT = 8;
+
+    /**
+     * how connections are assigned to workers
+     */
+    public enum Policy {
+        /**
+         * by the identity hash code of the HandlerAdapter (cheap, but may be uneven)
+         */
+        HASH,
+        /**
+         * to the worker with the fewest open connections
+         */
+        LEAST_LOADED
+    }
+
+    private final Policy policy;
+    private final RingBufferExecutor[] lanes;
+    private final List<Set<HandlerAdapter>> boundAdapters;
+    private final AtomicInteger nextLane = new AtomicInteger();
+    private final ChannelClosedListener channelClosedListener = this::unbind;
+    // @GuardedBy("this")
+    private int sweepLane;
+    // @GuardedBy("this")
+    private Iterator<HandlerAdapter> sweepIterator;
+
+    /**
+     * creates a new AffinityExecutor with blocking workers
+     *
+     * @param workerCount the number of worker threads
+     * @param policy how connections are assigned to workers
+     */
+    public AffinityExecutor(int workerCount, Policy policy) {
+        this(workerCount, policy, 1024, WaitStrategy::blocking, new CustomThreadFactory());
+    }
+
+    /**
+     * creates a new AffinityExecutor
+     *
+     * @param workerCount the number of worker threads
+     * @param policy how connections are assigned to workers
+     * @param laneCapacity the capacity of the ring buffer of every worker
+     * @param waitStrategyFactory creates the wait strategy of every worker (strategies like
+     * {@link WaitStrategy#blocking()} must not be shared by several lanes)
+     * @param threadFactory creates the worker threads
+     */
+    public AffinityExecutor(int workerCount, Policy policy, int laneCapacity, Supplier<WaitStrategy> waitStrategyFactory,
+        ThreadFactory threadFactory) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be positive");
+        }
+        this.policy = policy;
+        lanes = new RingBufferExecutor[workerCount];
+        List<Set<HandlerAdapter>> sets = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            lanes[i] = new RingBufferExecutor(laneCapacity, 1, waitStrategyFactory.get(), threadFactory);
+            sets.add(ConcurrentHashMap.newKeySet());
+        }
+        boundAdapters = Collections.unmodifiableList(sets);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        HandlerAdapter handlerAdapter = null;
+        if (task instanceof HandlerAdapter) {
+            handlerAdapter = (HandlerAdapter) task;
+        } else if (task instanceof HandlerAdapter.WriteSide) {
+            handlerAdapter = ((HandlerAdapter.WriteSide) task).getHandlerAdapter();
+        }
+        if (handlerAdapter != null) {
+            int lane = handlerAdapter.getAffinity();
+            if ((lane < 0) || (lane >= lanes.length)) {
+                lane = bind(handlerAdapter);
+            }
+            lanes[lane].execute(task);
+        } else {
+            lanes[(nextLane.getAndIncrement() & Integer.MAX_VALUE) % lanes.length].execute(task);
+        }
+    }
+
+    /**
+     * moves a connection to another worker, the next event of the connection runs on the new worker
+     *
+     * @param handlerAdapter the HandlerAdapter of the connection
+     * @param worker the index of the new worker
+     */
+    public synchronized void migrate(HandlerAdapter handlerAdapter, int worker) {
+        if ((worker < 0) || (worker >= lanes.length)) {
+            throw new IllegalArgumentException("there is no worker " + worker);
+        }
+        int oldWorker = handlerAdapter.getAffinity();
+        if ((oldWorker >= 0) && (oldWorker < lanes.length)) {
+            boundAdapters.get(oldWorker).remove(handlerAdapter);
+        }
+        boundAdapters.get(worker).add(handlerAdapter);
+        handlerAdapter.setAffinity(worker);
+        logger.debug("migrated " + handlerAdapter + " from worker " + oldWorker + " to worker " + worker);
+    }
+
+    /**
+     * removes the binding of a connection (called automatically when the connection is closed with
+     * {@link HandlerAdapter#closeChannel()})
+     *
+     * @param handlerAdapter the HandlerAdapter of the connection
+     */
+    public synchronized void unbind(HandlerAdapter handlerAdapter) {
+        handlerAdapter.removeChannelClosedListener(channelClosedListener);
+        int worker = handlerAdapter.getAffinity();
+        if ((worker >= 0) && (worker < lanes.length)) {
+            boundAdapters.get(worker).remove(handlerAdapter);
+        }
+        handlerAdapter.setAffinity(-1);
+    }
+
+    /**
+     * returns the number of workers
+     *
+     * @return the number of workers
+     */
+    public int getWorkerCount() {
+        return lanes.length;
+    }
+
+    /**
+     * returns the connections that are bound to a worker
+     *
+     * @param worker the index of the worker
+     * @return the connections that are bound to the worker (a live view)
+     */
+    public Set<HandlerAdapter> getBoundAdapters(int worker) {
+        return Collections.unmodifiableSet(boundAdapters.get(worker));
+    }
+
+    /**
+     * returns the number of events waiting for a worker
+     *
+     * @param worker the index of the worker
+     * @return the number of events waiting for the worker
+     */
+    public int getQueueSize(int worker) {
+        return lanes[worker].size();
+    }
+
+    /**
+     * stops all workers
+     */
+    public void shutdown() {
+        for (RingBufferExecutor lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    private synchronized int bind(HandlerAdapter handlerAdapter) {
+        int lane = handlerAdapter.getAffinity();
+        if ((lane >= 0) && (lane < lanes.length)) {
+            // bound concurrently
+            return lane;
+        }
+        sweep();
+        if (policy == Policy.HASH) {
+            lane = (System.identityHashCode(handlerAdapter) & Integer.MAX_VALUE) % lanes.length;
+        } else {
+            int minimum = Integer.MAX_VALUE;
+            for (int i = 0; i < lanes.length; i++) {
+                int load = boundAdapters.get(i).size();
+                if (load < minimum) {
+                    minimum = load;
+                    lane = i;
+                }
+            }
+        }
+        if (!handlerAdapter.isOpen()) {
+            // the last event of a closed connection, it would never be unbound
+            return lane;
+        }
+        boundAdapters.get(lane).add(handlerAdapter);
+        handlerAdapter.setAffinity(lane);
+        handlerAdapter.addChannelClosedListener(channelClosedListener);
+        logger.debug("bound " + handlerAdapter + " to worker " + lane);
+        return lane;
+    }
+
+    /**
+     * removes closed connections that were not unbound (their channels were closed without
+     * {@link HandlerAdapter#closeChannel()}), at most {@link #SWEEP_LIMIT} connections are checked per call
+     */
+    private void sweep() {
+        for (int checked = 0, emptyLanes = 0; (checked < SWEEP_LIMIT) && (emptyLanes < lanes.length); ) {
+            if ((sweepIterator == null) || !sweepIterator.hasNext()) {
+                sweepLane = (sweepLane + 1) % lanes.length;
+                sweepIterator = boundAdapters.get(sweepLane).iterator();
+                if (!sweepIterator.hasNext()) {
+                    emptyLanes++;
+                    continue;
+                }
+            }
+            HandlerAdapter handlerAdapter = sweepIterator.next();
+            checked++;
+            if (!handlerAdapter.isOpen()) {
+                // the iterators of concurrent sets support removal
+                sweepIterator.remove();
+                handlerAdapter.removeChannelClosedListener(channelClosedListener);
+            }
+        }
+    }
+}
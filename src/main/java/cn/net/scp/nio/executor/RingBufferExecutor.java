@@ -0,0 +1,282 @@
+package cn.net.scp.nio.executor;
+
+import cn.net.scp.nio.CustomThreadFactory;
+import cn.net.scp.nio.utils.Tools;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An executor that hands tasks to its worker threads through a pre-allocated ring buffer instead of a lock based queue.
+ * <br><br>
+ * Every slot of the ring has a sequence counter (like the bounded MPMC queue of Dmitry Vyukov and the ring buffer of
+ * the LMAX Disruptor). Producers and workers claim slots with a single CAS on the producer or consumer sequence and
+ * publish them by setting the slot sequence, so handing a task over neither takes a lock nor allocates. Idle workers
+ * wait according to a {@link WaitStrategy}.
+ * <br><br>
+ * If the ring is full, producers wait (spinning, then yielding and parking) until a worker frees a slot, no task is
+ * ever dropped. Worker threads (of this or any other RingBufferExecutor, e.g. another lane of an
+ * {@link AffinityExecutor}) never wait, because they might be the only ones that could free a slot: their tasks are put
+ * into an unbounded overflow queue that the workers empty before the ring. The Dispatcher uses it like any other
+ * executor:
+ * <pre>
+ * Dispatcher dispatcher = new Dispatcher();
+ * dispatcher.setExecutor(new RingBufferExecutor(1024, 4, WaitStrategy.blocking()));
+ * dispatcher.start();
+ * </pre>
+ */
+public class RingBufferExecutor implements Executor {
+
+    static final Logger logger = LogManager.getLogger();
+
+    /**
+     * the executor whose worker is the current thread, null for other threads
+     */
+    private static final ThreadLocal<RingBufferExecutor> currentExecutor = new ThreadLocal<>();
+
+    private final int mask;
+    private final Runnable[] slots;
+    /**
+     * the sequence of every slot: equal to the producer sequence if the slot is free, producer sequence + 1 if it is
+     * published
+     */
+    private final AtomicLongArray sequences;
+    private final PaddedSequence producerSequence = new PaddedSequence();
+    private final PaddedSequence consumerSequence = new PaddedSequence();
+    private final WaitStrategy waitStrategy;
+    private final Thread[] workers;
+    private final Queue<Runnable> overflow = new ConcurrentLinkedQueue<>();
+    private final AtomicLong fullCounter = new AtomicLong();
+    private final AtomicLong overflowCounter = new AtomicLong();
+    private final BooleanSupplier workAvailable = this::isWorkAvailable;
+    private volatile boolean running = true;
+
+    /**
+     * creates a new RingBufferExecutor and starts its workers
+     *
+     * @param capacity the number of slots, rounded up to a power of two
+     * @param workerCount the number of worker threads
+     * @param waitStrategy determines how idle workers wait
+     */
+    public RingBufferExecutor(int capacity, int workerCount, WaitStrategy waitStrategy) {
+        this(capacity, workerCount, waitStrategy, new CustomThreadFactory());
+    }
+
+    /**
+     * creates a new RingBufferExecutor and starts its workers
+     *
+     * @param capacity the number of slots, rounded up to a power of two
+     * @param workerCount the number of worker threads
+     * @param waitStrategy determines how idle workers wait
+     * @param threadFactory creates the worker threads
+     */
+    public RingBufferExecutor(int capacity, int workerCount, WaitStrategy waitStrategy, ThreadFactory threadFactory) {
+        if ((capacity < 1) || (capacity > (1 << 30))) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        }
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be positive");
+        }
+        int size = (capacity == 1) ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        slots = new Runnable[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.waitStrategy = waitStrategy;
+        workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = threadFactory.newThread(this::work);
+            workers[i].start();
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        boolean worker = currentExecutor.get() != null;
+        if (worker && !overflow.isEmpty()) {
+            // keep the order behind the tasks that already overflowed
+            addToOverflow(task);
+            return;
+        }
+        for (int tries = 0; !offer(task); tries++) {
+            if (!running) {
+                throw new RejectedExecutionException("executor is shut down");
+            }
+            if (tries == 0) {
+                fullCounter.incrementAndGet();
+            }
+            if (worker) {
+                // waiting could block the only threads that free slots
+                addToOverflow(task);
+                return;
+            }
+            if (tries < 100) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(1000);
+            }
+        }
+        waitStrategy.signal();
+    }
+
+    /**
+     * stops the workers, tasks that are still in the ring are not executed
+     */
+    public void shutdown() {
+        running = false;
+        waitStrategy.signalAll();
+    }
+
+    /**
+     * returns the number of slots
+     *
+     * @return the number of slots
+     */
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * returns the number of tasks waiting in the ring and in the overflow queue
+     *
+     * @return the number of waiting tasks
+     */
+    public int size() {
+        long size = Math.max(0, producerSequence.get() - consumerSequence.get()) + overflow.size();
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * returns how often a producer found the ring full and had to wait
+     *
+     * @return how often a producer found the ring full
+     */
+    public long getFullCounter() {
+        return fullCounter.get();
+    }
+
+    /**
+     * returns how many tasks of worker threads were put into the overflow queue because the ring was full
+     *
+     * @return how many tasks were put into the overflow queue
+     */
+    public long getOverflowCounter() {
+        return overflowCounter.get();
+    }
+
+    private void addToOverflow(Runnable task) {
+        overflow.offer(task);
+        overflowCounter.incrementAndGet();
+        waitStrategy.signal();
+    }
+
+    private boolean offer(Runnable task) {
+        long position = producerSequence.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (producerSequence.compareAndSet(position, position + 1)) {
+                    slots[index] = task;
+                    // a volatile write, blocking workers must see it before
+                    // the producer reads their waiting counter
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = producerSequence.get();
+            } else if (difference < 0) {
+                // the slot still holds the task of the previous round
+                return false;
+            } else {
+                position = producerSequence.get();
+            }
+        }
+    }
+
+    private Runnable poll() {
+        long position = consumerSequence.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (consumerSequence.compareAndSet(position, position + 1)) {
+                    Runnable task = slots[index];
+                    slots[index] = null;
+                    sequences.lazySet(index, position + mask + 1);
+                    return task;
+                }
+                position = consumerSequence.get();
+            } else if (difference < 0) {
+                // empty
+                return null;
+            } else {
+                position = consumerSequence.get();
+            }
+        }
+    }
+
+    private boolean isWorkAvailable() {
+        if (!running) {
+            return true;
+        }
+        if (!overflow.isEmpty()) {
+            return true;
+        }
+        long position = consumerSequence.get();
+        return sequences.get((int) position & mask) == position + 1;
+    }
+
+    private void work() {
+        currentExecutor.set(this);
+        int idleCount = 0;
+        while (running) {
+            Runnable task = overflow.poll();
+            if (task == null) {
+                task = poll();
+            }
+            if (task == null) {
+                try {
+                    waitStrategy.idle(idleCount, workAvailable);
+                } catch (InterruptedException ex) {
+                    Tools.handleStackTrace(logger, ex);
+                    return;
+                }
+                if (idleCount < Integer.MAX_VALUE) {
+                    idleCount++;
+                }
+            } else {
+                idleCount = 0;
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    // keep the worker alive
+                    Tools.handleStackTrace(logger, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * an AtomicLong on its own cache line, so that producers and workers do not invalidate each other's sequence
+     */
+    @SuppressWarnings("unused")
+    private static class PaddedSequence extends AtomicLong {
+
+        private static final long serialVersionUID = 1L;
+
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
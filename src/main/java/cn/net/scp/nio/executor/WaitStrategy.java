@@ -0,0 +1,166 @@
+package cn.net.scp.nio.executor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Determines how the worker threads of a {@link RingBufferExecutor} wait for new tasks.
+ * <br><br>
+ * The strategies trade latency for CPU usage: {@link #busySpin()} has the lowest latency but burns a core per worker,
+ * {@link #blocking()} uses no CPU while idle but producers must wake the workers up.
+ */
+public interface WaitStrategy {
+
+    /**
+     * called by a worker that found no task
+     *
+     * @param idleCount the number of calls since the worker ran its last task
+     * @param workAvailable returns true, if a task is available or the executor is shut down
+     * @throws InterruptedException if the worker is interrupted while waiting
+     */
+    void idle(int idleCount, BooleanSupplier workAvailable) throws InterruptedException;
+
+    /**
+     * called by a producer after publishing a task
+     */
+    void signal();
+
+    /**
+     * called when the executor is shut down, wakes up all waiting workers
+     */
+    default void signalAll() {
+        signal();
+    }
+
+    /**
+     * returns a strategy that spins, for the lowest latency when there are more cores than workers
+     *
+     * @return a strategy that spins
+     */
+    static WaitStrategy busySpin() {
+        return new WaitStrategy() {
+            @Override
+            public void idle(int idleCount, BooleanSupplier workAvailable) {
+                // just spin
+            }
+
+            @Override
+            public void signal() {
+            }
+        };
+    }
+
+    /**
+     * returns a strategy that spins for a while and then yields the processor
+     *
+     * @return a strategy that spins and yields
+     */
+    static WaitStrategy yielding() {
+        return new WaitStrategy() {
+            @Override
+            public void idle(int idleCount, BooleanSupplier workAvailable) {
+                if (idleCount >= 100) {
+                    Thread.yield();
+                }
+            }
+
+            @Override
+            public void signal() {
+            }
+        };
+    }
+
+    /**
+     * returns a strategy that spins, yields and finally parks for a short time
+     *
+     * @param parkTime the time to park
+     * @param timeUnit the unit of <tt>parkTime</tt>
+     * @return a strategy that spins, yields and parks
+     */
+    static WaitStrategy sleeping(long parkTime, TimeUnit timeUnit) {
+        final long parkNanos = timeUnit.toNanos(parkTime);
+        return new WaitStrategy() {
+            @Override
+            public void idle(int idleCount, BooleanSupplier workAvailable) {
+                if (idleCount >= 200) {
+                    LockSupport.parkNanos(parkNanos);
+                } else if (idleCount >= 100) {
+                    Thread.yield();
+                }
+            }
+
+            @Override
+            public void signal() {
+            }
+        };
+    }
+
+    /**
+     * returns a strategy that blocks idle workers on a condition, producers signal the condition when workers are
+     * waiting
+     *
+     * @return a strategy that blocks
+     */
+    static WaitStrategy blocking() {
+        return new BlockingWaitStrategy();
+    }
+
+    /**
+     * blocks idle workers, producers only take the lock if a worker is waiting
+     */
+    final class BlockingWaitStrategy implements WaitStrategy {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition workAvailableCondition = lock.newCondition();
+        private volatile int waitingWorkers;
+
+        private BlockingWaitStrategy() {
+        }
+
+        @Override
+        public void idle(int idleCount, BooleanSupplier workAvailable) throws InterruptedException {
+            if (idleCount < 100) {
+                // spin a little before blocking
+                return;
+            }
+            lock.lock();
+            try {
+                waitingWorkers++;
+                // the volatile write above and the read of the producer
+                // sequence in workAvailable are ordered against the publish
+                // and the read of waitingWorkers in signal()
+                while (!workAvailable.getAsBoolean()) {
+                    workAvailableCondition.await();
+                }
+            } finally {
+                waitingWorkers--;
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void signal() {
+            if (waitingWorkers > 0) {
+                lock.lock();
+                try {
+                    workAvailableCondition.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        @Override
+        public void signalAll() {
+            lock.lock();
+            try {
+                workAvailableCondition.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
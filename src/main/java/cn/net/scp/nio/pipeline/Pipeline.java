@@ -0,0 +1,125 @@
+package cn.net.scp.nio.pipeline;
+
+import cn.net.scp.nio.HandlerAdapter;
+import cn.net.scp.nio.transform.AbstractForwarder;
+import cn.net.scp.nio.transform.HandlerAdapterAware;
+import cn.net.scp.nio.transform.HandoffForwarder;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A chain of forwarders with an explicit threading contract.
+ * <br><br>
+ * The stages of a pipeline are owned by the thread that owns the connection (see {@link HandlerAdapter}). Only this
+ * thread calls {@link #forward(Object)}, e.g. because the pipeline is the next forwarder of the ChannelReader, so the
+ * stages need no synchronization and take no monitors per message. All other threads (e.g. application threads
+ * sending messages) enter the pipeline with {@link #submit(Object)}, which hands the input over to the owning thread.
+ * <br><br>
+ * The stages of a pipeline must not be shared with other pipelines or be called directly by other threads.
+ *
+ * @param <I> the type of input the pipeline accepts
+ */
+public class Pipeline<I> {
+
+    private final AbstractForwarder<I, ?> head;
+    private final List<AbstractForwarder<?, ?>> stages;
+    private final HandoffForwarder<I> handoff = new HandoffForwarder<>();
+
+    /**
+     * creates a new pipeline and links the stages in the given order
+     *
+     * @param head the first stage
+     * @param stages the following stages, the output type of every stage must match the input type of its next stage
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Pipeline(AbstractForwarder<I, ?> head, AbstractForwarder<?, ?>... stages) {
+        this.head = head;
+        List<AbstractForwarder<?, ?>> list = new ArrayList<>(stages.length + 1);
+        list.add(head);
+        list.addAll(Arrays.asList(stages));
+        for (int i = 1, size = list.size(); i < size; i++) {
+            ((AbstractForwarder) list.get(i - 1)).setNextForwarder(list.get(i));
+        }
+        this.stages = Collections.unmodifiableList(list);
+        handoff.setNextForwarder(head);
+    }
+
+    /**
+     * sets the HandlerAdapter of the connection that owns this pipeline, must be called when the channel is registered
+     * (see {@link cn.net.scp.nio.ChannelHandler#channelRegistered(HandlerAdapter)}), the HandlerAdapter is passed on to
+     * all stages that implement {@link HandlerAdapterAware}
+     *
+     * @param handlerAdapter the HandlerAdapter of the connection
+     */
+    public void setHandlerAdapter(HandlerAdapter handlerAdapter) {
+        handoff.setHandlerAdapter(handlerAdapter);
+        for (AbstractForwarder<?, ?> stage : stages) {
+            if (stage instanceof HandlerAdapterAware) {
+                ((HandlerAdapterAware) stage).setHandlerAdapter(handlerAdapter);
+            }
+        }
+    }
+
+    /**
+     * returns the HandlerAdapter of the connection that owns this pipeline
+     *
+     * @return the HandlerAdapter of the connection that owns this pipeline or <code>null</code>, if it was not set yet
+     */
+    public HandlerAdapter getHandlerAdapter() {
+        return handoff.getHandlerAdapter();
+    }
+
+    /**
+     * forwards an input through the pipeline, must only be called by the thread that owns the connection
+     *
+     * @param input the input
+     * @throws IOException if an I/O exception occurs
+     */
+    public void forward(I input) throws IOException {
+        head.forward(input);
+    }
+
+    /**
+     * forwards an input through the pipeline from any thread. If the calling thread does not own the connection, the
+     * input is handed over to the owning thread and forwarded later, so the input must not be modified after calling
+     * this method. I/O exceptions of handed over inputs are reported to the ChannelHandler.
+     *
+     * @param input the input
+     * @throws IOException if an I/O exception occurs while forwarding on the owning thread
+     */
+    public void submit(I input) throws IOException {
+        handoff.forward(input);
+    }
+
+    /**
+     * returns the first stage, e.g. for setting it as the next forwarder of a ChannelReader
+     *
+     * @return the first stage
+     */
+    public AbstractForwarder<I, ?> getHead() {
+        return head;
+    }
+
+    /**
+     * returns all stages in the order of forwarding
+     *
+     * @return all stages in the order of forwarding
+     */
+    public List<AbstractForwarder<?, ?>> getStages() {
+        return stages;
+    }
+
+    /**
+     * links the last stage to a forwarder outside of the pipeline, e.g. a ChannelWriter
+     *
+     * @param <O> the output type of the last stage
+     * @param forwarder the forwarder that receives the output of the last stage
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public <O> void setNextForwarder(AbstractForwarder<O, ?> forwarder) {
+        ((AbstractForwarder) stages.get(stages.size() - 1)).setNextForwarder(forwarder);
+    }
+}
@@ -0,0 +1,75 @@
+package cn.net.scp.nio.pipeline;
+
+import cn.net.scp.nio.transform.AbstractForwarder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Builds a {@link PipelineTemplate} from a sequence of stage factories.
+ * <br><br>
+ * Example:
+ * <pre>
+ * PipelineTemplate&lt;ByteBuffer&gt; template = PipelineBuilder.create(ByteBuffer.class)
+ *     .then(StreamingByteBufferToStringConvertor::new)
+ *     .then(() -&gt; new SplitStringForwarder("\n"))
+ *     .build();
+ * </pre>
+ * The template is built once and shared by all connections, every connection gets its own stages with
+ * {@link PipelineTemplate#instantiate()}.
+ *
+ * @param <I> the input type of the pipeline
+ * @param <O> the output type of the last stage added so far
+ */
+public final class PipelineBuilder<I, O> {
+
+    private final Class<I> inputType;
+    private final List<Supplier<? extends AbstractForwarder<?, ?>>> factories;
+
+    private PipelineBuilder(Class<I> inputType, List<Supplier<? extends AbstractForwarder<?, ?>>> factories) {
+        this.inputType = inputType;
+        this.factories = factories;
+    }
+
+    /**
+     * creates a new builder for pipelines with the given input type
+     *
+     * @param <T> the input type of the pipeline
+     * @param inputType the input type of the pipeline
+     * @return a new builder without stages
+     */
+    public static <T> PipelineBuilder<T, T> create(Class<T> inputType) {
+        return new PipelineBuilder<>(inputType, new ArrayList<>());
+    }
+
+    /**
+     * adds a stage at the end of the pipeline
+     *
+     * @param <N> the output type of the new stage
+     * @param factory creates a new instance of the stage for every pipeline
+     * @return this builder, typed with the output type of the new stage
+     */
+    @SuppressWarnings("unchecked")
+    public <N> PipelineBuilder<I, N> then(Supplier<? extends AbstractForwarder<O, N>> factory) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory must not be null");
+        }
+        factories.add(factory);
+        return (PipelineBuilder<I, N>) this;
+    }
+
+    /**
+     * validates the stages, fuses adjacent adapter stages and returns the template (every factory is called twice for
+     * the checks, see {@link PipelineTemplate})
+     *
+     * @return the template for creating pipelines
+     * @throws IllegalArgumentException if a stage does not accept the output of its previous stage or if a factory does
+     * not create a new stage for every call
+     */
+    public PipelineTemplate<I> build() {
+        if (factories.isEmpty()) {
+            throw new IllegalArgumentException("a pipeline needs at least one stage");
+        }
+        return new PipelineTemplate<>(inputType, factories);
+    }
+}
@@ -0,0 +1,173 @@
+package cn.net.scp.nio.pipeline;
+
+import cn.net.scp.nio.transform.AbstractForwarder;
+import cn.net.scp.nio.transform.ByteBufferArraySequenceForwarder;
+import cn.net.scp.nio.transform.ByteBufferToArrayForwarder;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A validated and fused sequence of stage factories, created by {@link PipelineBuilder}.
+ * <br><br>
+ * All checks are done once when the template is built: the input type of every stage (as far as it can be resolved
+ * from the type arguments of the stage class) must accept the output type of its previous stage, and adjacent adapter
+ * stages that cancel each other out (a {@link ByteBufferToArrayForwarder} followed by a
+ * {@link ByteBufferArraySequenceForwarder}) are removed. {@link #instantiate()} only creates and links the stages.
+ * <br><br>
+ * Fusion is limited to that one pair of stages, all other stages are instantiated as they were added. For the checks
+ * every factory is called twice while the template is built (the stage class is taken from the first stage and both
+ * stages must be different instances), these stages are discarded, so factories should not have side effects like
+ * registering the stages somewhere.
+ * <br><br>
+ * Templates are immutable and can be shared by all connections.
+ *
+ * @param <I> the input type of the pipelines
+ */
+public final class PipelineTemplate<I> {
+
+    private final Class<I> inputType;
+    private final List<Supplier<? extends AbstractForwarder<?, ?>>> factories;
+    private final List<Class<?>> stageClasses;
+
+    PipelineTemplate(Class<I> inputType, List<Supplier<? extends AbstractForwarder<?, ?>>> factories) {
+        this.inputType = inputType;
+        int size = factories.size();
+        List<Class<?>> classes = new ArrayList<>(size);
+        Class<?> currentType = inputType;
+        for (int i = 0; i < size; i++) {
+            Supplier<? extends AbstractForwarder<?, ?>> factory = factories.get(i);
+            AbstractForwarder<?, ?> prototype = factory.get();
+            if ((prototype == null) || (prototype == factory.get())) {
+                throw new IllegalArgumentException("the factory of stage " + i + " must create a new stage for every call");
+            }
+            Class<?> stageClass = prototype.getClass();
+            Type[] types = resolveTypes(stageClass);
+            Class<?> stageInput = toClass(types[0]);
+            if ((currentType != null) && (stageInput != null) && !stageInput.isAssignableFrom(currentType)) {
+                throw new IllegalArgumentException("stage " + i + " (" + stageClass.getName() + ") accepts "
+                    + stageInput.getName() + " but gets " + currentType.getName());
+            }
+            if ((types[1] == null) || !types[1].equals(types[0]) || (stageInput != null)) {
+                // otherwise the stage forwards its (unresolved) input type, e.g. HandoffForwarder<T>
+                currentType = toClass(types[1]);
+            }
+            classes.add(stageClass);
+        }
+
+        List<Supplier<? extends AbstractForwarder<?, ?>>> fused = new ArrayList<>(size);
+        List<Class<?>> fusedClasses = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if ((i + 1 < size) && (classes.get(i) == ByteBufferToArrayForwarder.class)
+                && (classes.get(i + 1) == ByteBufferArraySequenceForwarder.class)) {
+                // ByteBuffer -> ByteBuffer[1] -> ByteBuffer is the identity
+                i++;
+                continue;
+            }
+            fused.add(factories.get(i));
+            fusedClasses.add(classes.get(i));
+        }
+        if (fused.isEmpty()) {
+            fused.add(PassThroughForwarder::new);
+            fusedClasses.add(PassThroughForwarder.class);
+        }
+        this.factories = Collections.unmodifiableList(fused);
+        this.stageClasses = Collections.unmodifiableList(fusedClasses);
+    }
+
+    /**
+     * creates a new pipeline with new stages
+     *
+     * @return a new pipeline
+     */
+    @SuppressWarnings("unchecked")
+    public Pipeline<I> instantiate() {
+        int length = factories.size();
+        AbstractForwarder<?, ?>[] tail = new AbstractForwarder<?, ?>[length - 1];
+        for (int i = 1; i < length; i++) {
+            tail[i - 1] = factories.get(i).get();
+        }
+        return new Pipeline<>((AbstractForwarder<I, ?>) factories.get(0).get(), tail);
+    }
+
+    /**
+     * returns the input type of the pipelines
+     *
+     * @return the input type of the pipelines
+     */
+    public Class<I> getInputType() {
+        return inputType;
+    }
+
+    /**
+     * returns the classes of the stages after fusing
+     *
+     * @return the classes of the stages after fusing
+     */
+    public List<Class<?>> getStageClasses() {
+        return stageClasses;
+    }
+
+    /**
+     * resolves the type arguments of AbstractForwarder for a stage class
+     *
+     * @return the input and output type
+     */
+    static Type[] resolveTypes(Class<?> stageClass) {
+        Map<TypeVariable<?>, Type> bindings = new HashMap<>();
+        Class<?> current = stageClass;
+        while ((current != null) && (current != AbstractForwarder.class)) {
+            Type superType = current.getGenericSuperclass();
+            Class<?> superClass = current.getSuperclass();
+            if (superType instanceof ParameterizedType) {
+                Type[] arguments = ((ParameterizedType) superType).getActualTypeArguments();
+                TypeVariable<?>[] parameters = superClass.getTypeParameters();
+                for (int i = 0; i < parameters.length; i++) {
+                    Type argument = arguments[i];
+                    if (bindings.containsKey(argument)) {
+                        argument = bindings.get(argument);
+                    }
+                    bindings.put(parameters[i], argument);
+                }
+            }
+            current = superClass;
+        }
+        TypeVariable<?>[] parameters = AbstractForwarder.class.getTypeParameters();
+        return new Type[]{bindings.get(parameters[0]), bindings.get(parameters[1])};
+    }
+
+    private static Class<?> toClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return toClass(((ParameterizedType) type).getRawType());
+        }
+        if (type instanceof GenericArrayType) {
+            Class<?> componentClass = toClass(((GenericArrayType) type).getGenericComponentType());
+            return (componentClass == null) ? null : Array.newInstance(componentClass, 0).getClass();
+        }
+        // type variables and wildcards can not be checked
+        return null;
+    }
+
+    /**
+     * the only stage of a pipeline whose stages were all fused away
+     */
+    private static class PassThroughForwarder<T> extends AbstractForwarder<T, T> {
+
+        @Override
+        public void forward(T input) throws IOException {
+            nextForwarder.forward(input);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package cn.net.scp.nio.relay;
+
+import cn.net.scp.nio.HandlerAdapter;
+import cn.net.scp.nio.transform.ChannelWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A ChannelWriter that writes the read buffer of another connection straight to its channel.
+ * <br><br>
+ * {@link #relay(ByteBuffer, HandlerAdapter)} writes as much of the input as the channel takes. The unwritten remainder
+ * is not copied: the input buffer (the buffer of the ChannelReader of the source connection) is kept as it is, reading
+ * from the source is suspended and the remainder is written by {@link #drain()} when the channel becomes writable
+ * again. Then reading from the source is resumed, its ChannelReader compacts the buffer before the next read.
+ * <br><br>
+ * The output can be shut down (half-close) with {@link #shutdownOutput()}, this happens after all pending data has
+ * been written.
+ */
+public class RelayChannelWriter extends ChannelWriter {
+
+    static final Logger logger = LogManager.getLogger();
+
+    /**
+     * notified when the output of a RelayChannelWriter has been shut down
+     */
+    interface OutputShutdownListener {
+
+        void outputShutdown() throws IOException;
+    }
+
+    // @GuardedBy("this")
+    private ByteBuffer pendingInput;
+    // @GuardedBy("this")
+    private HandlerAdapter pendingSource;
+    // @GuardedBy("this")
+    private boolean shutdownRequested;
+    // @GuardedBy("this")
+    private boolean outputShutdown;
+    private volatile OutputShutdownListener outputShutdownListener;
+    private final AtomicLong stallCounter = new AtomicLong();
+
+    public RelayChannelWriter() {
+        super(false);
+    }
+
+    void setOutputShutdownListener(OutputShutdownListener outputShutdownListener) {
+        this.outputShutdownListener = outputShutdownListener;
+    }
+
+    /**
+     * writes the input to the channel without copying it, if the channel does not take everything, the input is kept
+     * and reading from the source is suspended until the remainder is written
+     *
+     * @param input  the read buffer of the source connection
+     * @param source the HandlerAdapter of the source connection
+     * @throws IOException if an I/O exception occurs
+     */
+    public synchronized void relay(ByteBuffer input, HandlerAdapter source) throws IOException {
+        if (hasRemaining()) {
+            // there is older output (e.g. from another source), keep the order
+            forward(input);
+            return;
+        }
+        int bytesWritten = channel.write(input);
+        counter.addAndGet(bytesWritten);
+        if (input.hasRemaining()) {
+            logger.debug("keeping " + input.remaining() + " bytes in the buffer of the source");
+            pendingInput = input;
+            pendingSource = source;
+            stallCounter.incrementAndGet();
+            source.suspendReading();
+            handlerAdapter.addInterestOps(SelectionKey.OP_WRITE);
+        }
+    }
+
+    @Override
+    public synchronized void forward(ByteBuffer input) throws IOException {
+        if (pendingInput == null) {
+            super.forward(input);
+        } else {
+            // must be written after the pending input, the write interest is already set
+            queue(input);
+        }
+    }
+
+    @Override
+    public synchronized boolean drain() throws IOException {
+        if (pendingInput != null) {
+            int bytesWritten = channel.write(pendingInput);
+            counter.addAndGet(bytesWritten);
+            if (pendingInput.hasRemaining()) {
+                return false;
+            }
+            HandlerAdapter source = pendingSource;
+            pendingInput = null;
+            pendingSource = null;
+            source.resumeReading();
+        }
+        if (!super.drain()) {
+            return false;
+        }
+        if (shutdownRequested) {
+            shutdownNow();
+        }
+        return true;
+    }
+
+    /**
+     * shuts down the output of the channel after all pending data has been written
+     *
+     * @throws IOException if an I/O exception occurs
+     */
+    public synchronized void shutdownOutput() throws IOException {
+        if (hasRemaining()) {
+            shutdownRequested = true;
+        } else {
+            shutdownNow();
+        }
+    }
+
+    /**
+     * returns true, if the output of the channel has been shut down
+     *
+     * @return true, if the output of the channel has been shut down
+     */
+    public synchronized boolean isOutputShutdown() {
+        return outputShutdown;
+    }
+
+    @Override
+    public synchronized boolean hasRemaining() {
+        return super.hasRemaining() || (pendingInput != null);
+    }
+
+    @Override
+    public synchronized int remaining() {
+        return super.remaining() + ((pendingInput == null) ? 0 : pendingInput.remaining());
+    }
+
+    /**
+     * returns how often the channel did not take the whole input and reading from the source had to be suspended
+     *
+     * @return how often reading from the source had to be suspended
+     */
+    public long getStallCounter() {
+        return stallCounter.get();
+    }
+
+    private void shutdownNow() throws IOException {
+        shutdownRequested = false;
+        if (outputShutdown) {
+            return;
+        }
+        outputShutdown = true;
+        if (channel instanceof SocketChannel) {
+            SocketChannel socketChannel = (SocketChannel) channel;
+            if (socketChannel.isOpen()) {
+                logger.debug("shutting down output");
+                socketChannel.shutdownOutput();
+            }
+        }
+        OutputShutdownListener listener = outputShutdownListener;
+        if (listener != null) {
+            listener.outputShutdown();
+        }
+    }
+}
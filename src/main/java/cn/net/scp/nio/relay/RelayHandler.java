@@ -0,0 +1,327 @@
+package cn.net.scp.nio.relay;
+
+import cn.net.scp.nio.BackpressureLink;
+import cn.net.scp.nio.ChannelHandler;
+import cn.net.scp.nio.HandlerAdapter;
+import cn.net.scp.nio.ssl.HandshakeNotifier;
+import cn.net.scp.nio.transform.AbstractForwarder;
+import cn.net.scp.nio.transform.ByteBufferToArrayForwarder;
+import cn.net.scp.nio.transform.ChannelReader;
+import cn.net.scp.nio.transform.ChannelWriter;
+import cn.net.scp.nio.transform.SSLInputForwarder;
+import cn.net.scp.nio.transform.SSLOutputForwarder;
+import cn.net.scp.nio.utils.Tools;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * One side of a TCP relay. Two RelayHandlers are connected with {@link #link(RelayHandler, RelayHandler)}, then
+ * everything that is read from the channel of one side is written to the channel of the other side.
+ * <br><br>
+ * Between two plain sides the read buffer is written straight to the channel of the peer (see
+ * {@link RelayChannelWriter}), only a remainder that the peer channel did not take is kept (in the read buffer) and
+ * reading is suspended until it was written, so no data is copied or buffered per connection besides the read buffer.
+ * <br><br>
+ * A side can terminate SSL: data read from it is decrypted before it is relayed, data relayed to it is encrypted. Data
+ * that has to be copied (decrypted or encrypted data) is buffered in the ChannelWriter of the peer, a
+ * {@link BackpressureLink} suspends reading from the source when more than the high watermark is buffered.
+ * <br><br>
+ * When the input of one side is closed, the output of the other side is shut down after all pending data has been
+ * written (half-close). A channel is closed when its input is closed and its output has been shut down, or when an
+ * exception occurs at either side.
+ * <pre>
+ * RelayHandler downstream = new RelayHandler();
+ * RelayHandler upstream = new RelayHandler();
+ * RelayHandler.link(downstream, upstream);
+ * dispatcher.registerChannel(acceptedChannel, downstream);
+ * dispatcher.registerChannel(upstreamChannel, upstream);
+ * </pre>
+ */
+public class RelayHandler implements ChannelHandler {
+
+    static final Logger logger = LogManager.getLogger();
+
+    /**
+     * the default size of the read buffer
+     */
+    public static final int DEFAULT_READ_BUFFER_SIZE = 64 * 1024;
+    /**
+     * the default number of buffered bytes at which reading from the source is resumed
+     */
+    public static final int DEFAULT_LOW_WATERMARK = 64 * 1024;
+    /**
+     * the default number of buffered bytes at which reading from the source is suspended
+     */
+    public static final int DEFAULT_HIGH_WATERMARK = 1024 * 1024;
+
+    private final ChannelReader channelReader;
+    private final RelayChannelWriter channelWriter;
+    /**
+     * the SSLEngine of this side or null, if this side is not encrypted
+     */
+    private final SSLEngine sslEngine;
+    private final SSLInputForwarder sslInputForwarder;
+    /**
+     * the forwarder for data that has to be written to the channel of this side
+     */
+    private final AbstractForwarder<ByteBuffer, ?> output;
+    private final HandshakeNotifier handshakeNotifier;
+
+    private volatile int lowWatermark = DEFAULT_LOW_WATERMARK;
+    private volatile int highWatermark = DEFAULT_HIGH_WATERMARK;
+    private volatile RelayHandler peer;
+    private volatile HandlerAdapter handlerAdapter;
+    // @GuardedBy("this")
+    private BackpressureLink backpressureLink;
+    // @GuardedBy("this")
+    private boolean inputClosed;
+    // @GuardedBy("this")
+    private boolean outputShutdown;
+
+    /**
+     * creates a plain side with a read buffer of {@link #DEFAULT_READ_BUFFER_SIZE} bytes
+     */
+    public RelayHandler() {
+        this(DEFAULT_READ_BUFFER_SIZE);
+    }
+
+    /**
+     * creates a plain side
+     *
+     * @param readBufferSize the size of the (direct) read buffer
+     */
+    public RelayHandler(int readBufferSize) {
+        channelReader = new ChannelReader(true, readBufferSize, readBufferSize);
+        channelWriter = new RelayChannelWriter();
+        sslEngine = null;
+        sslInputForwarder = null;
+        handshakeNotifier = null;
+        output = channelWriter;
+        channelWriter.setOutputShutdownListener(this::outputShutdown);
+    }
+
+    /**
+     * creates a side that terminates SSL
+     *
+     * @param socketChannel  the SocketChannel of this side
+     * @param sslContext     the SSLContext for this side
+     * @param clientMode     true, if this side is the client of the SSL connection
+     * @param readBufferSize the size of the read buffer
+     */
+    public RelayHandler(SocketChannel socketChannel, SSLContext sslContext, boolean clientMode, int readBufferSize) {
+        Socket socket = socketChannel.socket();
+        sslEngine = sslContext.createSSLEngine(socket.getInetAddress().getHostAddress(), socket.getPort());
+        sslEngine.setUseClientMode(clientMode);
+        handshakeNotifier = new HandshakeNotifier();
+
+        // reader -> sslInput -> peer
+        sslInputForwarder = new SSLInputForwarder(sslEngine);
+        sslInputForwarder.setHandshakeNotifier(handshakeNotifier);
+        channelReader = new ChannelReader(false, readBufferSize, readBufferSize);
+        channelReader.setNextForwarder(sslInputForwarder);
+
+        // peer -> byteBufferToArray -> sslOutput -> writer
+        SSLOutputForwarder sslOutputForwarder = new SSLOutputForwarder(sslEngine,
+            sslEngine.getSession().getApplicationBufferSize());
+        sslOutputForwarder.setHandshakeNotifier(handshakeNotifier);
+        channelWriter = new RelayChannelWriter();
+        sslOutputForwarder.setNextForwarder(channelWriter);
+        ByteBufferToArrayForwarder byteBufferToArrayForwarder = new ByteBufferToArrayForwarder();
+        byteBufferToArrayForwarder.setNextForwarder(sslOutputForwarder);
+        output = byteBufferToArrayForwarder;
+
+        sslInputForwarder.setSSLOutputForwarder(sslOutputForwarder);
+        sslOutputForwarder.setSSLInputForwarder(sslInputForwarder);
+        channelWriter.setOutputShutdownListener(this::outputShutdown);
+    }
+
+    /**
+     * connects two sides, must be called before the channels are registered
+     *
+     * @param first  one side
+     * @param second the other side
+     */
+    public static void link(RelayHandler first, RelayHandler second) {
+        first.peer = second;
+        second.peer = first;
+        first.getPlainTextSource().setNextForwarder(new ToPeerForwarder(first, second));
+        second.getPlainTextSource().setNextForwarder(new ToPeerForwarder(second, first));
+    }
+
+    /**
+     * sets the watermarks for data that has to be copied (see {@link BackpressureLink}), must be called before the
+     * channel is registered
+     *
+     * @param lowWatermark  reading from the peer is resumed when at most this many bytes are buffered for this side
+     * @param highWatermark reading from the peer is suspended when more than this many bytes are buffered for this side
+     */
+    public void setWatermarks(int lowWatermark, int highWatermark) {
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * returns true, if this side terminates SSL
+     *
+     * @return true, if this side terminates SSL
+     */
+    public boolean isSSL() {
+        return sslEngine != null;
+    }
+
+    /**
+     * returns the notifier for completed SSL handshakes of this side
+     *
+     * @return the notifier for completed SSL handshakes or null, if this side does not terminate SSL
+     */
+    public HandshakeNotifier getHandshakeNotifier() {
+        return handshakeNotifier;
+    }
+
+    /**
+     * returns the other side of the relay
+     *
+     * @return the other side of the relay
+     */
+    public RelayHandler getPeer() {
+        return peer;
+    }
+
+    @Override
+    public ChannelReader getChannelReader() {
+        return channelReader;
+    }
+
+    @Override
+    public ChannelWriter getChannelWriter() {
+        return channelWriter;
+    }
+
+    @Override
+    public void channelRegistered(HandlerAdapter handlerAdapter) {
+        this.handlerAdapter = handlerAdapter;
+        if (sslInputForwarder != null) {
+            sslInputForwarder.setHandlerAdapter(handlerAdapter);
+        }
+        RelayHandler currentPeer = peer;
+        if (currentPeer == null) {
+            throw new IllegalStateException("RelayHandler is not linked");
+        }
+        // the side that is registered last links the buffers of both sides
+        linkBackpressure();
+        currentPeer.linkBackpressure();
+    }
+
+    @Override
+    public void inputClosed() {
+        logger.debug("input closed, shutting down the output of the peer");
+        synchronized (this) {
+            inputClosed = true;
+        }
+        try {
+            peer.channelWriter.shutdownOutput();
+            closeIfDone();
+        } catch (IOException ex) {
+            Tools.handleStackTrace(logger, ex);
+            close();
+            peer.close();
+        }
+    }
+
+    @Override
+    public void channelException(Exception exception) {
+        logger.debug("closing relay after exception", exception);
+        close();
+        peer.close();
+    }
+
+    /**
+     * creates the BackpressureLink from the ChannelWriter of this side to the reading of the peer, when both sides are
+     * registered
+     */
+    private synchronized void linkBackpressure() {
+        HandlerAdapter peerAdapter = peer.handlerAdapter;
+        if ((backpressureLink == null) && (handlerAdapter != null) && (peerAdapter != null)) {
+            backpressureLink = BackpressureLink.link(channelWriter, peerAdapter, lowWatermark, highWatermark);
+        }
+    }
+
+    private void outputShutdown() throws IOException {
+        synchronized (this) {
+            outputShutdown = true;
+        }
+        closeIfDone();
+    }
+
+    private void closeIfDone() throws IOException {
+        boolean done;
+        synchronized (this) {
+            done = inputClosed && outputShutdown;
+        }
+        HandlerAdapter adapter = handlerAdapter;
+        if (done && (adapter != null)) {
+            logger.debug("both directions are closed, closing channel");
+            adapter.closeChannel();
+        }
+    }
+
+    private void close() {
+        BackpressureLink link;
+        synchronized (this) {
+            link = backpressureLink;
+            backpressureLink = null;
+        }
+        if (link != null) {
+            link.unlink();
+        }
+        HandlerAdapter adapter = handlerAdapter;
+        if (adapter != null) {
+            try {
+                adapter.closeChannel();
+            } catch (IOException ex) {
+                Tools.handleStackTrace(logger, ex);
+            }
+        }
+    }
+
+    /**
+     * returns the last forwarder of the input chain, that produces the plain text for the peer
+     */
+    private AbstractForwarder<?, ByteBuffer> getPlainTextSource() {
+        return (sslInputForwarder == null) ? channelReader : sslInputForwarder;
+    }
+
+    /**
+     * relays the plain text of one side to the other side
+     */
+    private static class ToPeerForwarder extends AbstractForwarder<ByteBuffer, Void> {
+
+        private final RelayHandler source;
+        private final RelayHandler target;
+        /**
+         * the read buffer of the source can be written straight to the channel of the target
+         */
+        private final boolean zeroCopy;
+
+        ToPeerForwarder(RelayHandler source, RelayHandler target) {
+            this.source = source;
+            this.target = target;
+            zeroCopy = !source.isSSL() && !target.isSSL();
+        }
+
+        @Override
+        public void forward(ByteBuffer input) throws IOException {
+            if (zeroCopy) {
+                target.channelWriter.relay(input, source.handlerAdapter);
+            } else {
+                target.output.forward(input);
+            }
+        }
+    }
+}
@@ -122,5 +122,7 @@ public abstract class AbstractSSLChannelHandler implements ChannelHandler {
     @Override
     public void channelRegistered(HandlerAdapter handlerAdapter) {
         this.handlerAdapter = handlerAdapter;
+        // needed for running delegated tasks on another executor
+        sslInputForwarder.setHandlerAdapter(handlerAdapter);
     }
 }
@@ -1,11 +1,15 @@
 package cn.net.scp.nio.ssl;
 
+import cn.net.scp.nio.CustomThreadFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
@@ -81,6 +85,26 @@ public final class SSLTools {
         return createSSLContext(keyManagerFactory, trustManagerFactory);
     }
 
+    /**
+     * creates a bounded executor for the delegated tasks of SSLEngines (see
+     * {@link cn.net.scp.nio.transform.SSLInputForwarder#setDelegatedTaskExecutor(java.util.concurrent.Executor)}).
+     * When all threads are busy and the queue is full, the executor rejects
+     * new tasks and they run inline on the thread that owns the connection.
+     * @param threads the maximum number of threads, idle threads terminate
+     * after one minute
+     * @param queueCapacity the maximum number of waiting handshakes
+     * @return a new executor for delegated tasks
+     */
+    public static ThreadPoolExecutor newHandshakeExecutor(
+        int threads, int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            threads, threads, 1, TimeUnit.MINUTES,
+            new ArrayBlockingQueue<Runnable>(queueCapacity),
+            new CustomThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     /**
      * checks, if the certificate is valid with the given keyManagerFactory
      * @param x509TrustManager the X509TrustManager to use for certificate
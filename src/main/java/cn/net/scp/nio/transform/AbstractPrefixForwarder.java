@@ -14,11 +14,11 @@ public abstract class AbstractPrefixForwarder<I, O> extends AbstractForwarder<I,
     /**
      * the prefis that will be added
      */
-    protected ByteBuffer prefix;
+    protected volatile ByteBuffer prefix;
     /**
      * the forwarding mode that will be used for the prefix
      */
-    protected ByteBufferForwardingMode prefixByteBufferForwardingMode;
+    protected volatile ByteBufferForwardingMode prefixByteBufferForwardingMode;
     /**
      * counts how much prefix data volume has been generated
      */
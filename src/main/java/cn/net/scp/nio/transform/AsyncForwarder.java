@@ -0,0 +1,206 @@
+package cn.net.scp.nio.transform;
+
+import cn.net.scp.nio.HandlerAdapter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A forwarder that moves the following stages (e.g. decompression or
+ * business logic) from the I/O thread of the connection to a compute
+ * executor.
+ * <br><br>
+ * Inputs are queued and forwarded by the compute executor one at a time and
+ * in order, i.e. the following stages of one connection never run
+ * concurrently, but different connections are served by different compute
+ * threads. The following stages do not run on the thread that owns the
+ * connection, they can hand their results back with a
+ * {@link HandoffForwarder}.
+ * <br><br>
+ * When <tt>maxQueuedInputs</tt> inputs are queued, reading from the channel
+ * is suspended with {@link HandlerAdapter#suspendReading()} and resumed when
+ * the queue has been drained to half of it. The I/O thread never blocks,
+ * therefore the inputs of the current read operation are still queued and
+ * the queue can exceed the limit a bit. Without a HandlerAdapter there is no
+ * backpressure.
+ * <br><br>
+ * I/O exceptions of the following stages are reported on the owning thread,
+ * i.e. the channel is closed and
+ * {@link cn.net.scp.nio.ChannelHandler#channelException(Exception)} is
+ * called. The input must not be modified after forwarding it (e.g. use
+ * {@link ByteBufferForwardingMode#COPY} before this forwarder).
+ *
+ * @param <T> the type of input this forwarder accepts and forwards
+ */
+public class AsyncForwarder<T> extends AbstractForwarder<T, T> implements HandlerAdapterAware {
+
+    static final Logger logger = LogManager.getLogger();
+
+    /**
+     * the maximum number of inputs forwarded by one run of the compute
+     * executor, so that a busy connection does not monopolize a compute
+     * thread
+     */
+    private static final int MAX_INPUTS_PER_RUN = 64;
+
+    private final Executor executor;
+    private final int maxQueuedInputs;
+    private final int resumeThreshold;
+    private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedInputs = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable drainTask = this::drain;
+    private volatile HandlerAdapter handlerAdapter;
+    private volatile boolean failed;
+    // @GuardedBy("this")
+    private boolean readingSuspended;
+
+    /**
+     * creates a new AsyncForwarder
+     *
+     * @param executor the compute executor, usually shared by all
+     * connections and bounded to the number of cores
+     * @param maxQueuedInputs the number of queued inputs that suspends reading
+     */
+    public AsyncForwarder(Executor executor, int maxQueuedInputs) {
+        if (maxQueuedInputs < 1) {
+            throw new IllegalArgumentException("maxQueuedInputs must be positive");
+        }
+        this.executor = executor;
+        this.maxQueuedInputs = maxQueuedInputs;
+        resumeThreshold = maxQueuedInputs / 2;
+    }
+
+    @Override
+    public void setHandlerAdapter(HandlerAdapter handlerAdapter) {
+        this.handlerAdapter = handlerAdapter;
+    }
+
+    /**
+     * returns the number of queued inputs
+     *
+     * @return the number of queued inputs
+     */
+    public int getQueuedInputs() {
+        return queuedInputs.get();
+    }
+
+    /**
+     * returns true, if this forwarder suspended reading from the channel
+     *
+     * @return true, if this forwarder suspended reading from the channel
+     */
+    public synchronized boolean isReadingSuspended() {
+        return readingSuspended;
+    }
+
+    @Override
+    public void forward(T input) throws IOException {
+        if (failed) {
+            logger.debug("following stages failed => input dropped");
+            return;
+        }
+        queue.offer(input);
+        if (queuedInputs.incrementAndGet() >= maxQueuedInputs) {
+            updateReading();
+        }
+        try {
+            schedule();
+        } catch (RejectedExecutionException ex) {
+            throw new IOException("compute executor rejected input", ex);
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(drainTask);
+            } catch (RejectedExecutionException ex) {
+                scheduled.set(false);
+                throw ex;
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < MAX_INPUTS_PER_RUN; i++) {
+                T input = queue.poll();
+                if (input == null) {
+                    break;
+                }
+                if (queuedInputs.decrementAndGet() <= resumeThreshold) {
+                    updateReading();
+                }
+                if (nextForwarder == null) {
+                    logger.error("no nextForwarder => data lost!");
+                } else {
+                    nextForwarder.forward(input);
+                }
+            }
+        } catch (IOException ex) {
+            fail(ex);
+        } catch (RuntimeException ex) {
+            fail(new IOException(ex));
+        } finally {
+            scheduled.set(false);
+        }
+        if (!queue.isEmpty()) {
+            try {
+                schedule();
+            } catch (RejectedExecutionException ex) {
+                reportException(new IOException("compute executor rejected input", ex));
+            }
+        }
+    }
+
+    /**
+     * suspends or resumes reading depending on the current queue size, the
+     * size is checked again under the lock so that concurrent updates can not
+     * leave reading suspended with an empty queue
+     */
+    private synchronized void updateReading() {
+        HandlerAdapter currentHandlerAdapter = handlerAdapter;
+        if (currentHandlerAdapter == null) {
+            return;
+        }
+        int size = queuedInputs.get();
+        if (!readingSuspended && (size >= maxQueuedInputs)) {
+            readingSuspended = true;
+            currentHandlerAdapter.suspendReading();
+        } else if (readingSuspended && (size <= resumeThreshold)) {
+            readingSuspended = false;
+            currentHandlerAdapter.resumeReading();
+        }
+    }
+
+    /**
+     * drops all queued inputs (the channel will be closed) and reports the
+     * exception
+     */
+    private void fail(IOException exception) {
+        failed = true;
+        queue.clear();
+        queuedInputs.set(0);
+        updateReading();
+        reportException(exception);
+    }
+
+    private void reportException(IOException exception) {
+        HandlerAdapter currentHandlerAdapter = handlerAdapter;
+        if (currentHandlerAdapter == null) {
+            logger.error("exception in compute executor", exception);
+        } else {
+            currentHandlerAdapter.execute(() -> {
+                throw new UncheckedIOException(exception);
+            });
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package cn.net.scp.nio.transform;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * An application handler that processes decoded messages in batches, see
+ * {@link BatchingForwarder}.
+ *
+ * @param <T> the type of the messages
+ */
+public interface BatchHandler<T> {
+
+    /**
+     * processes a batch of messages
+     *
+     * @param batch the messages in the order they were received, the list is
+     * reused for the next batch and must be copied if it is needed after
+     * returning
+     * @throws IOException if an I/O exception occurs
+     */
+    void handleBatch(List<T> batch) throws IOException;
+}
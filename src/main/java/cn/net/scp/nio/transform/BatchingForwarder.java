@@ -0,0 +1,176 @@
+package cn.net.scp.nio.transform;
+
+import cn.net.scp.nio.HandlerAdapter;
+import cn.net.scp.nio.ReadCompletedListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A forwarder that collects messages and forwards them as batches, so that
+ * the following stages (e.g. database writes or index updates) can process
+ * many messages at once.
+ * <br><br>
+ * A batch is forwarded
+ * <ul>
+ * <li>when it contains <tt>maxBatchSize</tt> messages,</li>
+ * <li>when a message is added and the first message of the batch is older
+ * than <tt>maxDelayMicros</tt> (e.g. while processing a large read), or</li>
+ * <li>when the read event is completed (see
+ * {@link HandlerAdapter#addReadCompletedListener(ReadCompletedListener)}),
+ * the HandlerAdapter must be set with
+ * {@link #setHandlerAdapter(HandlerAdapter)} for this.</li>
+ * </ul>
+ * Batches never outlive the read event, therefore messages that are views of
+ * the read buffer (e.g. frames forwarded with
+ * {@link ByteBufferForwardingMode#DUPLICATE}) stay valid. Messages that are
+ * reused by the previous stage ({@link ByteBufferForwardingMode#DIRECT}) can
+ * not be batched.
+ * <br><br>
+ * The list of a batch is reused. This forwarder is not synchronized, it must
+ * only be used by the thread that owns the connection.
+ *
+ * @param <T> the type of the messages
+ */
+public class BatchingForwarder<T> extends AbstractForwarder<T, List<T>> implements HandlerAdapterAware, ReadCompletedListener {
+
+    static final Logger logger = LogManager.getLogger();
+
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final List<T> batch;
+    private long batchStart;
+    private HandlerAdapter handlerAdapter;
+    private final AtomicLong batchCounter = new AtomicLong();
+    private final AtomicLong messageCounter = new AtomicLong();
+
+    /**
+     * creates a new BatchingForwarder
+     *
+     * @param maxBatchSize the maximum number of messages in a batch
+     * @param maxDelayMicros the maximum age of the first message of a batch in
+     * microseconds when the next message arrives, 0 disables the age check
+     */
+    public BatchingForwarder(int maxBatchSize, long maxDelayMicros) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+        maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        batch = new ArrayList<>(Math.min(maxBatchSize, 1024));
+    }
+
+    /**
+     * creates a new BatchingForwarder that delivers its batches to a
+     * BatchHandler
+     *
+     * @param maxBatchSize the maximum number of messages in a batch
+     * @param maxDelayMicros the maximum age of the first message of a batch in
+     * microseconds when the next message arrives, 0 disables the age check
+     * @param batchHandler the handler for the batches
+     */
+    public BatchingForwarder(int maxBatchSize, long maxDelayMicros, BatchHandler<T> batchHandler) {
+        this(maxBatchSize, maxDelayMicros);
+        setBatchHandler(batchHandler);
+    }
+
+    /**
+     * sets the handler for the batches (instead of a next forwarder)
+     *
+     * @param batchHandler the handler for the batches
+     */
+    public void setBatchHandler(final BatchHandler<T> batchHandler) {
+        setNextForwarder(new AbstractForwarder<List<T>, Void>() {
+            @Override
+            public void forward(List<T> input) throws IOException {
+                batchHandler.handleBatch(input);
+            }
+        });
+    }
+
+    /**
+     * registers this forwarder as ReadCompletedListener of the HandlerAdapter
+     *
+     * @param handlerAdapter the HandlerAdapter of the connection
+     */
+    @Override
+    public void setHandlerAdapter(HandlerAdapter handlerAdapter) {
+        if (this.handlerAdapter != null) {
+            this.handlerAdapter.removeReadCompletedListener(this);
+        }
+        this.handlerAdapter = handlerAdapter;
+        if (handlerAdapter != null) {
+            handlerAdapter.addReadCompletedListener(this);
+        }
+    }
+
+    @Override
+    public void forward(T input) throws IOException {
+        if (batch.isEmpty() && (maxDelayNanos > 0)) {
+            batchStart = System.nanoTime();
+        }
+        batch.add(input);
+        if ((batch.size() >= maxBatchSize)
+            || ((maxDelayNanos > 0) && (System.nanoTime() - batchStart >= maxDelayNanos))) {
+            flush();
+        }
+    }
+
+    @Override
+    public void readCompleted() throws IOException {
+        flush();
+    }
+
+    /**
+     * forwards the current batch (if it is not empty)
+     *
+     * @throws IOException if an I/O exception occurs
+     */
+    public void flush() throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        batchCounter.incrementAndGet();
+        messageCounter.addAndGet(batch.size());
+        try {
+            if (nextForwarder == null) {
+                logger.error("no nextForwarder => data lost!");
+            } else {
+                nextForwarder.forward(batch);
+            }
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * returns the number of messages in the current batch
+     *
+     * @return the number of messages in the current batch
+     */
+    public int getPendingMessages() {
+        return batch.size();
+    }
+
+    /**
+     * returns the number of forwarded batches
+     *
+     * @return the number of forwarded batches
+     */
+    public long getBatchCounter() {
+        return batchCounter.get();
+    }
+
+    /**
+     * returns the number of messages in all forwarded batches
+     *
+     * @return the number of messages in all forwarded batches
+     */
+    public long getMessageCounter() {
+        return messageCounter.get();
+    }
+}
@@ -1,5 +1,6 @@
 package cn.net.scp.nio.transform;
 
+import cn.net.scp.nio.buffer.AbstractBufferPool;
 import cn.net.scp.nio.utils.Tools;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -25,7 +26,14 @@ public enum ByteBufferForwardingMode {
     /**
      * Copies of ByteBuffers are forwarded.
      */
-    COPY;
+    COPY,
+    /**
+     * Copies of ByteBuffers are forwarded. The copies are taken from a buffer
+     * pool and belong to the receiver, which should give them back to the pool
+     * when it is done with them. Without a pool this mode behaves like
+     * {@link #COPY}.
+     */
+    POOLED_COPY;
     private static final Logger logger = LogManager.getLogger();
 
     /**
@@ -35,9 +43,22 @@ public enum ByteBufferForwardingMode {
      * @return a reference to the byteBuffer according to the strategy
      */
     public ByteBuffer getByteBuffer(ByteBuffer byteBuffer) {
+        return getByteBuffer(byteBuffer, null);
+    }
+
+    /**
+     * returns a reference to the byteBuffer according to the strategy
+     * @param byteBuffer the ByteBuffer which reference has to be returned
+     * according to the defined strategy
+     * @param bufferPool the pool for {@link #POOLED_COPY} (may be null)
+     * @return a reference to the byteBuffer according to the strategy
+     */
+    public ByteBuffer getByteBuffer(ByteBuffer byteBuffer, AbstractBufferPool<ByteBuffer> bufferPool) {
         switch (this) {
             case COPY:
                 return Tools.copyBuffer(byteBuffer);
+            case POOLED_COPY:
+                return Tools.copyBuffer(byteBuffer, byteBuffer.remaining(), bufferPool);
             case DIRECT:
                 return byteBuffer;
             case DUPLICATE:
@@ -57,10 +78,29 @@ public enum ByteBufferForwardingMode {
      * of <tt>byteBuffer</tt>
      */
     public void forwardBufferHead(ByteBuffer byteBuffer, int size, AbstractForwarder<ByteBuffer, ?> forwarder) throws IOException {
+        forwardBufferHead(byteBuffer, size, forwarder, null);
+    }
+
+    /**
+     * forwards the head of a ByteBuffer
+     * @param byteBuffer the ByteBuffer to forward
+     * @param size the size of the head
+     * @param forwarder the forwarder to use
+     * @param bufferPool the pool for {@link #POOLED_COPY} (may be null)
+     * @throws IOException if an I/O exception occurs while forwarding the head
+     * of <tt>byteBuffer</tt>
+     */
+    public void forwardBufferHead(ByteBuffer byteBuffer, int size, AbstractForwarder<ByteBuffer, ?> forwarder, AbstractBufferPool<ByteBuffer> bufferPool) throws IOException {
 
         switch (this) {
             case COPY:
                 forwarder.forward(Tools.copyBuffer(byteBuffer, size));
+                byteBuffer.position(byteBuffer.position() + size);
+                break;
+
+            case POOLED_COPY:
+                forwarder.forward(Tools.copyBuffer(byteBuffer, size, bufferPool));
+                byteBuffer.position(byteBuffer.position() + size);
                 break;
 
             case DIRECT:
@@ -7,14 +7,14 @@ import org.apache.logging.log4j.Logger;
 
 /**
  * A forwarder that forwards a ByteBuffer as a ByteBuffer array holding this one
- * ByteBuffer.
+ * ByteBuffer. The array is reused for every input.
  * @author Ronny Standtke <Ronny.Standtke@gmx.net>
  */
 public class ByteBufferToArrayForwarder
     extends AbstractForwarder<ByteBuffer, ByteBuffer[]> {
 
     private static final Logger logger = LogManager.getLogger();
-    private static final ByteBuffer[] array = new ByteBuffer[1];
+    private final ByteBuffer[] array = new ByteBuffer[1];
 
     @Override
     public synchronized void forward(ByteBuffer input) throws IOException {
@@ -9,16 +9,34 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+/**
+ * Reads from a channel and forwards the read data to the next forwarder.
+ * <br><br>
+ * {@link #read()} and {@link #forward()} must be called by the thread that owns the connection (see
+ * {@link cn.net.scp.nio.HandlerAdapter}), they are not synchronized. The same holds for all forwarders that are only
+ * reached from a ChannelReader.
+ * <br><br>
+ * A body of known length (e.g. an upload) can be written to a file instead of being forwarded, see
+ * {@link #ingestToFile(FileIngest)}.
+ */
 public class ChannelReader extends AbstractForwarder<Void, ByteBuffer> {
 
     final static Logger logger = LogManager.getLogger();
 
     private final AtomicLong counter = new AtomicLong(0);
 
-    private ReadableByteChannel channel;
+    private volatile ReadableByteChannel channel;
     private ByteBuffer buffer;
     private volatile boolean closed;
     private final int maxCapacity;
+    /**
+     * the body that is currently written to a file or null
+     */
+    private FileIngest fileIngest;
+    /**
+     * the direct buffer for writing bodies to files if the read buffer is a heap buffer
+     */
+    private ByteBuffer ingestBuffer;
 
     public ChannelReader(boolean direct, int initialCapacity, int maxCapacity) {
         this.maxCapacity = maxCapacity;
@@ -30,11 +48,19 @@ public class ChannelReader extends AbstractForwarder<Void, ByteBuffer> {
         buffer.flip();
     }
 
-    public synchronized void setChannel(SelectableChannel channel) {
+    public void setChannel(SelectableChannel channel) {
         this.channel = (ReadableByteChannel) channel;
     }
 
-    public synchronized boolean read() throws IOException {
+    public boolean read() throws IOException {
+        long ingested = 0;
+        if (fileIngest != null) {
+            ingested = ingest();
+            if ((fileIngest != null) || closed) {
+                return ingested > 0;
+            }
+            // the body is complete, the data after it is read and forwarded as usual
+        }
         buffer.compact();
         int tmpCounter = 0;
         for (int bytesRead = 1; bytesRead > 0; ) {
@@ -74,7 +100,104 @@ public class ChannelReader extends AbstractForwarder<Void, ByteBuffer> {
             logger.debug(stringBuilder.toString());
         }
         forward();
-        return tmpCounter > 0;
+        return (tmpCounter > 0) || (ingested > 0);
+    }
+
+    /**
+     * Writes the next bytes of the connection to a file instead of forwarding them. Must be called on the thread that
+     * owns the connection, typically by a forwarder that has just parsed the header of the body. The forwarder must not
+     * consume the body, the rest of the input it got (from its position) is the start of the body.
+     * <br><br>
+     * Bytes that are already in the read buffer are written straight from there, the rest is read with the limit of
+     * the read buffer set to the remaining length of the body, so that no byte after the body is read, and written from
+     * the read buffer to the file. If the read buffer is a heap buffer, a direct buffer of the same maximum capacity is
+     * used instead, so that the rest of the body never passes through the Java heap. When the body is complete the
+     * {@link FileIngestListener} is notified and the following data is forwarded to the next forwarder again.
+     * <br><br>
+     * The bytes are written as they are read, so this must not be used if a forwarder has to transform them, e.g. when
+     * the connection is encrypted.
+     *
+     * @param fileIngest the body
+     */
+    public void ingestToFile(FileIngest fileIngest) {
+        if (this.fileIngest != null) {
+            throw new IllegalStateException("already writing a body to a file: " + this.fileIngest);
+        }
+        logger.debug("writing the next " + fileIngest.getLength() + " bytes to a file");
+        this.fileIngest = fileIngest;
+    }
+
+    /**
+     * returns the body that is currently written to a file
+     *
+     * @return the body that is currently written to a file or null, if the data is forwarded
+     */
+    public FileIngest getFileIngest() {
+        return fileIngest;
+    }
+
+    /**
+     * writes the start of the body from the read buffer to the file
+     */
+    private void ingestFromBuffer() throws IOException {
+        int length = (int) Math.min(buffer.remaining(), fileIngest.remaining());
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + length);
+        fileIngest.write(buffer);
+        buffer.limit(limit);
+        if (!fileIngest.hasRemaining()) {
+            completeIngest();
+        }
+    }
+
+    /**
+     * reads the rest of the body from the channel and writes it to the file
+     *
+     * @return the number of bytes written to the file
+     */
+    private long ingest() throws IOException {
+        ByteBuffer ingestBuffer = buffer;
+        if (!buffer.isDirect()) {
+            if (this.ingestBuffer == null) {
+                this.ingestBuffer = ByteBuffer.allocateDirect(maxCapacity);
+            }
+            ingestBuffer = this.ingestBuffer;
+        }
+        long ingested = 0;
+        while (fileIngest != null) {
+            if (!fileIngest.hasRemaining()) {
+                completeIngest();
+                break;
+            }
+            // the read buffer is empty while a body is written to a file
+            ingestBuffer.clear();
+            ingestBuffer.limit((int) Math.min(ingestBuffer.capacity(), fileIngest.remaining()));
+            int bytesRead = channel.read(ingestBuffer);
+            ingestBuffer.flip();
+            if (bytesRead == -1) {
+                closed = true;
+                break;
+            }
+            if (bytesRead == 0) {
+                break;
+            }
+            fileIngest.write(ingestBuffer);
+            ingested += bytesRead;
+            counter.addAndGet(bytesRead);
+            if (!fileIngest.hasRemaining()) {
+                completeIngest();
+            }
+        }
+        // leave the read buffer empty for the following data
+        buffer.limit(buffer.position());
+        return ingested;
+    }
+
+    private void completeIngest() throws IOException {
+        FileIngest completed = fileIngest;
+        fileIngest = null;
+        logger.debug("body completely written: " + completed);
+        completed.complete();
     }
 
     public void transform() throws IOException {
@@ -91,13 +214,20 @@ public class ChannelReader extends AbstractForwarder<Void, ByteBuffer> {
     }
 
 
-    public synchronized void forward() throws IOException {
+    public void forward() throws IOException {
+        if (fileIngest != null) {
+            ingestFromBuffer();
+        }
         if (buffer.hasRemaining()) {
             if (nextForwarder == null) {
                 logger.warn("can not forward, nextForwarder is null");
             } else {
                 logger.debug("calling nextForwarder.forward(" + buffer + ")");
                 nextForwarder.forward(buffer);
+                if ((fileIngest != null) && (buffer.hasRemaining() || !fileIngest.hasRemaining())) {
+                    // a body starts in the read buffer, write it to the file and forward what follows it
+                    forward();
+                }
             }
         } else {
             logger.info("nothing to forward, buffer is empty");
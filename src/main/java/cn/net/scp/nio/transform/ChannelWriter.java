@@ -8,10 +8,26 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicLong;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+/**
+ * Writes ByteBuffers to a channel. Data that the channel does not take is copied into a buffer and written when the
+ * channel becomes writable again.
+ * <br><br>
+ * Buffers that are shared by many connections (e.g. a broadcast message) can be forwarded with
+ * {@link #forwardShared(ByteBuffer, boolean)}. Their remainders are not copied, the (duplicated) buffer itself is
+ * queued, so that the payload exists only once for all connections.
+ * <br><br>
+ * Regions of files can be forwarded with {@link #forwardFileRegion(FileRegion)}. They are written with
+ * {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)}, i.e. the kernel copies the file
+ * to the socket, and keep their order with all other output. Because the region is written to the channel as it is,
+ * it must not be used when the ChannelWriter is behind an encrypting stage, use a {@link FileRegionForwarder} in
+ * front of that stage instead.
+ */
 public class ChannelWriter extends AbstractForwarder<ByteBuffer, Void> {
 
     static final Logger logger = LogManager.getLogger();
@@ -23,7 +39,15 @@ public class ChannelWriter extends AbstractForwarder<ByteBuffer, Void> {
     protected WritableByteChannel channel;
     protected ByteBuffer buffer;
 
-    private HandlerAdapter handlerAdapter;
+    protected HandlerAdapter handlerAdapter;
+
+    /**
+     * output that must be written after {@link #buffer}: shared buffers and file regions that are not copied and the
+     * copies of the input that arrived after them
+     */
+    private final ArrayDeque<PendingBuffer> pendingBuffers = new ArrayDeque<>();
+    private long pendingBytes;
+    private final AtomicLong conflatedCounter = new AtomicLong();
 
     public ChannelWriter(boolean direct) {
         this.direct = direct;
@@ -39,10 +63,22 @@ public class ChannelWriter extends AbstractForwarder<ByteBuffer, Void> {
         this.handlerAdapter = handlerAdapter;
     }
 
+    /**
+     * returns the HandlerAdapter of the connection
+     *
+     * @return the HandlerAdapter of the connection
+     */
+    public synchronized HandlerAdapter getHandlerAdapter() {
+        return handlerAdapter;
+    }
+
     @Override
     public synchronized void forward(ByteBuffer input) throws IOException {
         logger.debug("input: " + input);
-        if ((buffer == null) || !buffer.hasRemaining()) {
+        if (!pendingBuffers.isEmpty()) {
+            // keep the order, queue a copy behind the shared buffers
+            queue(input);
+        } else if ((buffer == null) || !buffer.hasRemaining()) {
             // the buffer is empty
             // try writing the new data directly out the channel
             int bytesWritten = channel.write(input);
@@ -60,6 +96,97 @@ public class ChannelWriter extends AbstractForwarder<ByteBuffer, Void> {
         detectFillLevelChanges();
     }
 
+    /**
+     * writes a buffer that is shared with other ChannelWriters (e.g. a read-only duplicate of a broadcast message). If
+     * the channel does not take all of it, the buffer is queued instead of copied, so it must not be changed until it
+     * has been written.
+     *
+     * @param shared   the shared buffer, its position is changed by writing
+     * @param conflate if true, shared buffers of earlier calls with <tt>conflate</tt> set that have not been started to
+     *                 be written yet are discarded, i.e. only the latest one is written
+     * @throws java.io.IOException if an I/O exception occurs
+     */
+    public synchronized void forwardShared(ByteBuffer shared, boolean conflate) throws IOException {
+        if (conflate) {
+            for (Iterator<PendingBuffer> iterator = pendingBuffers.descendingIterator(); iterator.hasNext(); ) {
+                PendingBuffer pendingBuffer = iterator.next();
+                if (!pendingBuffer.conflatable || pendingBuffer.started) {
+                    break;
+                }
+                iterator.remove();
+                pendingBytes -= pendingBuffer.remaining();
+                conflatedCounter.incrementAndGet();
+            }
+        }
+        boolean started = false;
+        if (pendingBuffers.isEmpty() && ((buffer == null) || !buffer.hasRemaining())) {
+            int bytesWritten = channel.write(shared);
+            counter.addAndGet(bytesWritten);
+            if (!shared.hasRemaining()) {
+                detectFillLevelChanges();
+                return;
+            }
+            // the position of a shared buffer does not have to start at 0
+            started = (bytesWritten > 0);
+            handlerAdapter.addInterestOps(SelectionKey.OP_WRITE);
+        }
+        PendingBuffer pendingBuffer = new PendingBuffer(shared, conflate);
+        pendingBuffer.started = started;
+        pendingBuffers.addLast(pendingBuffer);
+        pendingBytes += shared.remaining();
+        detectFillLevelChanges();
+    }
+
+    /**
+     * writes a region of a file with {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)}
+     * after all output that was forwarded before. If the channel does not take all of it, the rest of the region is
+     * queued (not read) and transferred when the channel becomes writable again.
+     *
+     * @param fileRegion the region of the file, it is advanced by writing
+     * @throws java.io.IOException if an I/O exception occurs or the file is shorter than the region
+     */
+    public synchronized void forwardFileRegion(FileRegion fileRegion) throws IOException {
+        logger.debug("fileRegion: " + fileRegion);
+        if (pendingBuffers.isEmpty() && ((buffer == null) || !buffer.hasRemaining())) {
+            long bytesWritten = fileRegion.transferTo(channel);
+            counter.addAndGet(bytesWritten);
+            logger.debug("bytesWritten = " + bytesWritten);
+            if (!fileRegion.hasRemaining()) {
+                detectFillLevelChanges();
+                return;
+            }
+            handlerAdapter.addInterestOps(SelectionKey.OP_WRITE);
+        }
+        PendingBuffer pendingBuffer = new PendingBuffer(fileRegion);
+        pendingBuffers.addLast(pendingBuffer);
+        pendingBytes += fileRegion.remaining();
+        detectFillLevelChanges();
+    }
+
+    /**
+     * returns how many shared buffers were discarded because a newer one was forwarded with <tt>conflate</tt> set
+     *
+     * @return how many shared buffers were discarded
+     */
+    public long getConflatedCounter() {
+        return conflatedCounter.get();
+    }
+
+    /**
+     * copies the input behind all unwritten output, the write interest must already be set
+     *
+     * @param input the input to copy
+     */
+    protected void queue(ByteBuffer input) {
+        if (pendingBuffers.isEmpty()) {
+            buffer = Tools.append(direct, buffer, input);
+        } else {
+            int length = input.remaining();
+            pendingBuffers.addLast(new PendingBuffer(Tools.append(direct, null, input), false));
+            pendingBytes += length;
+        }
+    }
+
     @Override
     public synchronized void setNextForwarder(AbstractForwarder<Void, ?> nextForwarder) {
         throw new UnsupportedOperationException("ChannelWriter is always the last component of a forwarding hierarchy");
@@ -72,26 +199,32 @@ public class ChannelWriter extends AbstractForwarder<ByteBuffer, Void> {
      * @throws java.io.IOException
      */
     public synchronized boolean drain() throws IOException {
-        if (buffer == null) {
-            return true;
-        } else {
+        if ((buffer != null) && buffer.hasRemaining()) {
+            int bytesWritten = channel.write(buffer);
+            counter.addAndGet(bytesWritten);
+            logger.debug("bytesWritten = " + bytesWritten);
             if (buffer.hasRemaining()) {
-                int bytesWritten = channel.write(buffer);
-                counter.addAndGet(bytesWritten);
-                logger.debug("bytesWritten = " + bytesWritten);
                 detectFillLevelChanges();
+                return false;
+            }
+        }
+        for (PendingBuffer pendingBuffer = pendingBuffers.peekFirst(); pendingBuffer != null;
+            pendingBuffer = pendingBuffers.peekFirst()) {
+            long bytesWritten = pendingBuffer.write(channel);
+            counter.addAndGet(bytesWritten);
+            pendingBytes -= bytesWritten;
+            if (pendingBuffer.remaining() > 0) {
+                pendingBuffer.started = true;
+                break;
             }
-            return !buffer.hasRemaining();
+            pendingBuffers.removeFirst();
         }
+        detectFillLevelChanges();
+        return !hasRemaining();
     }
 
     private void detectFillLevelChanges() {
-        if (buffer == null) {
-            logger.debug("buffer == null");
-        } else {
-            int newLevel = buffer.remaining();
-            bufferListenerHandler.updateLevel(newLevel);
-        }
+        bufferListenerHandler.updateLevel(remaining());
     }
 
     /**
@@ -100,16 +233,17 @@ public class ChannelWriter extends AbstractForwarder<ByteBuffer, Void> {
      * @return true, if there is unwritten data, false otherwise
      */
     public synchronized boolean hasRemaining() {
-        return (buffer == null) ? false : buffer.hasRemaining();
+        return ((buffer != null) && buffer.hasRemaining()) || !pendingBuffers.isEmpty();
     }
 
     /**
-     * returns the number of unwritten bytes remaining in the buffer
+     * returns the number of unwritten bytes remaining in the buffer (including queued file regions, limited to
+     * {@link Integer#MAX_VALUE})
      *
      * @return the number of unwritten bytes remaining in the buffer
      */
     public synchronized int remaining() {
-        return (buffer == null) ? 0 : buffer.remaining();
+        return (int) Math.min(Integer.MAX_VALUE, ((buffer == null) ? 0 : buffer.remaining()) + pendingBytes);
     }
 
     /**
@@ -145,6 +279,34 @@ public class ChannelWriter extends AbstractForwarder<ByteBuffer, Void> {
      * @param listener the listener to be removed
      */
     public synchronized void removeBufferSizeListener(BufferListener listener) {
-        bufferListenerHandler.addBufferListener(listener);
+        bufferListenerHandler.removeBufferListener(listener);
+    }
+
+    private static final class PendingBuffer {
+
+        private final ByteBuffer buffer;
+        private final FileRegion fileRegion;
+        private final boolean conflatable;
+        private boolean started;
+
+        PendingBuffer(ByteBuffer buffer, boolean conflatable) {
+            this.buffer = buffer;
+            this.fileRegion = null;
+            this.conflatable = conflatable;
+        }
+
+        PendingBuffer(FileRegion fileRegion) {
+            this.buffer = null;
+            this.fileRegion = fileRegion;
+            this.conflatable = false;
+        }
+
+        long remaining() {
+            return (buffer == null) ? fileRegion.remaining() : buffer.remaining();
+        }
+
+        long write(WritableByteChannel channel) throws IOException {
+            return (buffer == null) ? fileRegion.transferTo(channel) : channel.write(buffer);
+        }
     }
 }
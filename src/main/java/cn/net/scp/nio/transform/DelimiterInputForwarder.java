@@ -0,0 +1,277 @@
+package cn.net.scp.nio.transform;
+
+import cn.net.scp.nio.buffer.CompositeByteBuffer;
+import cn.net.scp.nio.utils.ByteSearch;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A Forwarder that splits a byte stream at a delimiter (e.g. lines terminated
+ * by LF or CRLF) without decoding it first.
+ * <br><br>
+ * Delimiters are searched eight bytes at a time with {@link ByteSearch}.
+ * Frames that are completely contained in the input are forwarded according to
+ * the configured {@link ByteBufferForwardingMode}, i.e. as zero-copy slices of
+ * the input with {@link ByteBufferForwardingMode#DIRECT} or
+ * {@link ByteBufferForwardingMode#DUPLICATE}. The tail of an input without a
+ * delimiter is copied once into a {@link CompositeByteBuffer} and only the
+ * newly added bytes are searched when the next input arrives. Frames that were
+ * collected this way are private copies and are forwarded as they are.
+ */
+public class DelimiterInputForwarder extends AbstractForwarder<ByteBuffer, ByteBuffer> {
+
+    static final Logger logger = LogManager.getLogger();
+
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private final byte[] delimiter;
+    private final int delimiterLength;
+    /**
+     * true, if the delimiter is LF and an optional CR in front of it also
+     * belongs to the delimiter
+     */
+    private final boolean lineMode;
+    private final boolean stripDelimiter;
+    /**
+     * holds the incomplete frame
+     */
+    private final CompositeByteBuffer pending = new CompositeByteBuffer();
+    /**
+     * the index in pending where the next delimiter search starts
+     */
+    private int scanIndex;
+    private volatile ByteBufferForwardingMode byteBufferForwardingMode;
+    private volatile int maxFrameLength;
+
+    /**
+     * creates a new DelimiterInputForwarder for lines that are terminated by
+     * LF or CRLF, the line terminators are stripped and lines are forwarded
+     * with {@link ByteBufferForwardingMode#DIRECT}
+     * @param maxLineLength the maximum accepted line length in byte (without
+     * the line terminator)
+     * @return a new DelimiterInputForwarder for lines
+     */
+    public static DelimiterInputForwarder lines(int maxLineLength) {
+        return new DelimiterInputForwarder(new byte[]{LF}, true, true, maxLineLength, ByteBufferForwardingMode.DIRECT);
+    }
+
+    /**
+     * creates a new DelimiterInputForwarder that forwards frames with
+     * {@link ByteBufferForwardingMode#DIRECT}
+     * @param delimiter the delimiter
+     * @param stripDelimiter if <code>true</code>, the delimiter is removed from
+     * the forwarded frames
+     * @param maxFrameLength the maximum accepted frame length in byte (without
+     * the delimiter)
+     */
+    public DelimiterInputForwarder(byte[] delimiter, boolean stripDelimiter, int maxFrameLength) {
+        this(delimiter, false, stripDelimiter, maxFrameLength, ByteBufferForwardingMode.DIRECT);
+    }
+
+    /**
+     * creates a new DelimiterInputForwarder
+     * @param delimiter the delimiter
+     * @param stripDelimiter if <code>true</code>, the delimiter is removed from
+     * the forwarded frames
+     * @param maxFrameLength the maximum accepted frame length in byte (without
+     * the delimiter)
+     * @param byteBufferForwardingMode the forwarding mode for frames that are
+     * completely contained in the input
+     */
+    public DelimiterInputForwarder(byte[] delimiter, boolean stripDelimiter, int maxFrameLength,
+        ByteBufferForwardingMode byteBufferForwardingMode) {
+        this(delimiter, false, stripDelimiter, maxFrameLength, byteBufferForwardingMode);
+    }
+
+    private DelimiterInputForwarder(byte[] delimiter, boolean lineMode, boolean stripDelimiter, int maxFrameLength,
+        ByteBufferForwardingMode byteBufferForwardingMode) {
+        if (delimiter.length == 0) {
+            throw new IllegalArgumentException("the delimiter must not be empty");
+        }
+        this.delimiter = delimiter.clone();
+        delimiterLength = delimiter.length;
+        this.lineMode = lineMode;
+        this.stripDelimiter = stripDelimiter;
+        this.maxFrameLength = maxFrameLength;
+        this.byteBufferForwardingMode = byteBufferForwardingMode;
+    }
+
+    @Override
+    public void forward(ByteBuffer input) throws IOException {
+        if (nextForwarder == null) {
+            logger.error("no nextForwarder => data lost!");
+            return;
+        }
+
+        while (true) {
+            if (pending.hasRemaining()) {
+                int index = pending.indexOf(delimiter, scanIndex);
+                if (index != -1) {
+                    forwardPending(index);
+                    continue;
+                }
+                // only the last delimiterLength - 1 bytes and new input can
+                // contain the next delimiter
+                scanIndex = Math.max(0, pending.remaining() - delimiterLength + 1);
+                checkIncompleteFrame(pending.remaining());
+                if (!input.hasRemaining()) {
+                    return;
+                }
+                // append the input up to (and including) its first delimiter,
+                // everything behind it can be forwarded without copying
+                int oldLimit = input.limit();
+                int inputIndex = ByteSearch.indexOf(input, input.position(), oldLimit, delimiter);
+                if (inputIndex != -1) {
+                    if (delimiterLength == 1) {
+                        // the delimiter can not cross the border, gather the
+                        // frame directly into a buffer with the exact size
+                        forwardGathered(input, inputIndex);
+                        continue;
+                    }
+                    input.limit(inputIndex + delimiterLength);
+                }
+                pending.appendCopy(input);
+                input.limit(oldLimit);
+
+            } else if (input.hasRemaining()) {
+                int position = input.position();
+                int index = ByteSearch.indexOf(input, position, input.limit(), delimiter);
+                if (index == -1) {
+                    if (logger.isTraceEnabled()) {
+                        logger.trace("incomplete frame (" + input.remaining() + " byte)");
+                    }
+                    checkIncompleteFrame(input.remaining());
+                    scanIndex = Math.max(0, input.remaining() - delimiterLength + 1);
+                    pending.appendCopy(input);
+                    return;
+                }
+                int frameLength = getFrameLength(index - position, input.get(Math.max(position, index - 1)));
+                if (stripDelimiter) {
+                    byteBufferForwardingMode.forwardBufferHead(input, frameLength, nextForwarder);
+                    input.position(index + delimiterLength);
+                } else {
+                    byteBufferForwardingMode.forwardBufferHead(input, index + delimiterLength - position, nextForwarder);
+                }
+
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * returns the number of bytes of an incomplete frame that are currently
+     * buffered
+     * @return the number of bytes of an incomplete frame that are currently
+     * buffered
+     */
+    public int getPendingLength() {
+        return pending.remaining();
+    }
+
+    /**
+     * returns the ByteBufferForwardingMode that is used for frames that are
+     * completely contained in the input
+     * @return the ByteBufferForwardingMode that is used for frames that are
+     * completely contained in the input
+     */
+    public ByteBufferForwardingMode getForwardingMode() {
+        return byteBufferForwardingMode;
+    }
+
+    /**
+     * sets the ByteBufferForwardingMode that is used for frames that are
+     * completely contained in the input
+     * @param byteBufferForwardingMode the ByteBufferForwardingMode that is used
+     * for frames that are completely contained in the input
+     */
+    public void setForwardingMode(ByteBufferForwardingMode byteBufferForwardingMode) {
+        this.byteBufferForwardingMode = byteBufferForwardingMode;
+    }
+
+    /**
+     * returns the maximum accepted frame length in byte (without the
+     * delimiter)
+     * @return the maximum accepted frame length in byte
+     */
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    /**
+     * sets the maximum accepted frame length in byte (without the delimiter),
+     * longer frames cause an IOException
+     * @param maxFrameLength the maximum accepted frame length in byte
+     */
+    public void setMaxFrameLength(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * returns the length of a frame without its delimiter (and without the CR
+     * in front of LF in line mode)
+     * @param length the number of bytes in front of the delimiter
+     * @param lastByte the last byte in front of the delimiter
+     * @return the length of the frame without its delimiter
+     * @throws IOException if the frame is too long
+     */
+    private int getFrameLength(int length, byte lastByte) throws IOException {
+        if (lineMode && (length > 0) && (lastByte == CR)) {
+            length--;
+        }
+        if (length > maxFrameLength) {
+            pending.clear();
+            scanIndex = 0;
+            throw new IOException("frame too long (" + length + " byte, maximum is " + maxFrameLength + " byte)");
+        }
+        return length;
+    }
+
+    private void forwardPending(int index) throws IOException {
+        int frameLength = getFrameLength(index, pending.get(Math.max(0, index - 1)));
+        scanIndex = 0;
+        if (stripDelimiter) {
+            ByteBuffer frame = pending.readBuffer(frameLength);
+            pending.skip(index + delimiterLength - frameLength);
+            nextForwarder.forward(frame);
+        } else {
+            nextForwarder.forward(pending.readBuffer(index + delimiterLength));
+        }
+    }
+
+    private void forwardGathered(ByteBuffer input, int index) throws IOException {
+        int pendingLength = pending.remaining();
+        int position = input.position();
+        byte lastByte = (index > position) ? input.get(index - 1) : pending.get(pendingLength - 1);
+        int length = pendingLength + index - position;
+        int frameLength = getFrameLength(length, lastByte);
+        if (!stripDelimiter) {
+            frameLength = length + 1;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(frameLength);
+        pending.read(frame);
+        pending.clear();
+        scanIndex = 0;
+        int oldLimit = input.limit();
+        input.limit(position + frame.remaining());
+        frame.put(input);
+        input.limit(oldLimit);
+        input.position(index + 1);
+        frame.flip();
+        nextForwarder.forward(frame);
+    }
+
+    private void checkIncompleteFrame(int length) throws IOException {
+        // an incomplete frame may already contain all but one byte of the
+        // delimiter (or the CR of a CRLF in line mode)
+        long maxLength = (long) maxFrameLength + (lineMode ? 1 : delimiterLength - 1);
+        if (length > maxLength) {
+            pending.clear();
+            scanIndex = 0;
+            throw new IOException("frame too long (more than " + maxFrameLength + " byte without delimiter)");
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package cn.net.scp.nio.transform;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A body of known length that a {@link ChannelReader} writes to a file instead of forwarding it (see
+ * {@link ChannelReader#ingestToFile(FileIngest)}), e.g. an upload.
+ * <br><br>
+ * The file is written with absolute positions, so one FileChannel can be shared by the ingests of many connections.
+ * The written data is forced to the storage device with {@link FileChannel#force(boolean)} whenever at least the sync
+ * interval of bytes has been written since the last time and once more when the body is complete. The FileChannel is
+ * not closed when the body is complete. A FileIngest must not be reused.
+ */
+public class FileIngest {
+
+    /**
+     * the default number of bytes after which the written data is forced to the storage device
+     */
+    public static final long DEFAULT_SYNC_INTERVAL = 16 * 1024 * 1024;
+
+    private final FileChannel fileChannel;
+    private final long position;
+    private final long length;
+    private final long syncInterval;
+    private final FileIngestListener listener;
+    private volatile long transferred;
+    private long unsynced;
+    private final AtomicLong syncCounter = new AtomicLong();
+
+    /**
+     * creates a new FileIngest that forces the written data every {@link #DEFAULT_SYNC_INTERVAL} bytes
+     *
+     * @param fileChannel the FileChannel of the file
+     * @param position    the position in the file where the body is written
+     * @param length      the length of the body
+     * @param listener    the listener that is notified when the body is complete (may be null)
+     */
+    public FileIngest(FileChannel fileChannel, long position, long length, FileIngestListener listener) {
+        this(fileChannel, position, length, DEFAULT_SYNC_INTERVAL, listener);
+    }
+
+    /**
+     * creates a new FileIngest
+     *
+     * @param fileChannel  the FileChannel of the file
+     * @param position     the position in the file where the body is written
+     * @param length       the length of the body
+     * @param syncInterval the number of bytes after which the written data is forced to the storage device, if it is
+     *                     0 the data is only forced when the body is complete
+     * @param listener     the listener that is notified when the body is complete (may be null)
+     */
+    public FileIngest(FileChannel fileChannel, long position, long length, long syncInterval,
+        FileIngestListener listener) {
+        if ((position < 0) || (length < 0) || (syncInterval < 0)) {
+            throw new IllegalArgumentException("position, length and syncInterval must not be negative");
+        }
+        this.fileChannel = fileChannel;
+        this.position = position;
+        this.length = length;
+        this.syncInterval = syncInterval;
+        this.listener = listener;
+    }
+
+    /**
+     * returns the FileChannel of the file
+     *
+     * @return the FileChannel of the file
+     */
+    public FileChannel getFileChannel() {
+        return fileChannel;
+    }
+
+    /**
+     * returns the position in the file where the body is written
+     *
+     * @return the position in the file where the body is written
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * returns the length of the body
+     *
+     * @return the length of the body
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * returns how many bytes of the body have been written to the file
+     *
+     * @return how many bytes of the body have been written to the file
+     */
+    public long getTransferred() {
+        return transferred;
+    }
+
+    /**
+     * returns how many bytes of the body have not been written yet
+     *
+     * @return how many bytes of the body have not been written yet
+     */
+    public long remaining() {
+        return length - transferred;
+    }
+
+    /**
+     * returns true, if the body has not been written completely
+     *
+     * @return true, if the body has not been written completely
+     */
+    public boolean hasRemaining() {
+        return transferred < length;
+    }
+
+    /**
+     * returns how often the written data was forced to the storage device
+     *
+     * @return how often the written data was forced to the storage device
+     */
+    public long getSyncCounter() {
+        return syncCounter.get();
+    }
+
+    /**
+     * writes the input (from its position to its limit) to the file
+     *
+     * @param input the input, it must not contain more than the remaining bytes of the body
+     * @throws IOException if an I/O exception occurs
+     */
+    void write(ByteBuffer input) throws IOException {
+        long written = 0;
+        while (input.hasRemaining()) {
+            written += fileChannel.write(input, position + transferred + written);
+        }
+        transferred += written;
+        unsynced += written;
+        if ((syncInterval > 0) && (unsynced >= syncInterval)) {
+            sync();
+        }
+    }
+
+    /**
+     * forces the rest of the written data and notifies the listener
+     *
+     * @throws IOException if an I/O exception occurs
+     */
+    void complete() throws IOException {
+        if (unsynced > 0) {
+            sync();
+        }
+        if (listener != null) {
+            listener.ingestCompleted(this);
+        }
+    }
+
+    private void sync() throws IOException {
+        fileChannel.force(false);
+        unsynced = 0;
+        syncCounter.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "FileIngest[position=" + position + ", length=" + length + ", transferred=" + transferred + "]";
+    }
+}
@@ -0,0 +1,19 @@
+package cn.net.scp.nio.transform;
+
+import java.io.IOException;
+
+/**
+ * A listener that is notified by the {@link ChannelReader} on the thread that owns the connection when a
+ * {@link FileIngest} is complete, i.e. all bytes of the body have been written to the file.
+ */
+public interface FileIngestListener {
+
+    /**
+     * called when all bytes of the body have been written and forced to the file, the data that follows the body is
+     * forwarded to the next forwarder of the ChannelReader afterwards
+     *
+     * @param fileIngest the completed FileIngest
+     * @throws IOException if an I/O exception occurs, the channel is closed then
+     */
+    void ingestCompleted(FileIngest fileIngest) throws IOException;
+}
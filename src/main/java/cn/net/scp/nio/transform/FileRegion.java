@@ -0,0 +1,135 @@
+package cn.net.scp.nio.transform;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A region of a file that is sent to a connection without reading it into the heap, either with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} (see {@link ChannelWriter#forwardFileRegion(FileRegion)})
+ * or in mapped chunks (see {@link FileRegionForwarder}).
+ * <br><br>
+ * The FileChannel is only read with absolute positions, so one FileChannel can be shared by the regions of many
+ * connections. It is not closed when the region has been sent. A FileRegion keeps track of how much of it has been
+ * sent, so it must not be reused or forwarded more than once.
+ */
+public class FileRegion {
+
+    private final FileChannel fileChannel;
+    private final long position;
+    private final long count;
+    private long transferred;
+
+    /**
+     * creates a new FileRegion
+     *
+     * @param fileChannel the FileChannel of the file
+     * @param position    the position of the region within the file
+     * @param count       the length of the region
+     */
+    public FileRegion(FileChannel fileChannel, long position, long count) {
+        if ((position < 0) || (count < 0)) {
+            throw new IllegalArgumentException("position and count must not be negative");
+        }
+        this.fileChannel = fileChannel;
+        this.position = position;
+        this.count = count;
+    }
+
+    /**
+     * returns the FileChannel of the file
+     *
+     * @return the FileChannel of the file
+     */
+    public FileChannel getFileChannel() {
+        return fileChannel;
+    }
+
+    /**
+     * returns the position of the region within the file
+     *
+     * @return the position of the region within the file
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * returns the length of the region
+     *
+     * @return the length of the region
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * returns how many bytes of the region have been sent
+     *
+     * @return how many bytes of the region have been sent
+     */
+    public synchronized long getTransferred() {
+        return transferred;
+    }
+
+    /**
+     * returns how many bytes of the region have not been sent yet
+     *
+     * @return how many bytes of the region have not been sent yet
+     */
+    public synchronized long remaining() {
+        return count - transferred;
+    }
+
+    /**
+     * returns true, if the region has not been sent completely
+     *
+     * @return true, if the region has not been sent completely
+     */
+    public synchronized boolean hasRemaining() {
+        return transferred < count;
+    }
+
+    /**
+     * transfers as much of the rest of the region to the target channel as it takes
+     *
+     * @param target the target channel
+     * @return the number of bytes transferred
+     * @throws IOException if an I/O exception occurs or the file is shorter than the region
+     */
+    synchronized long transferTo(WritableByteChannel target) throws IOException {
+        long bytesTransferred = fileChannel.transferTo(position + transferred, count - transferred, target);
+        if ((bytesTransferred == 0) && (position + transferred >= fileChannel.size())) {
+            // transferTo() returns 0 at the end of the file, which would never change
+            throw new EOFException("file ends before the region at " + (position + transferred));
+        }
+        transferred += bytesTransferred;
+        return bytesTransferred;
+    }
+
+    /**
+     * maps the next chunk of the region into memory, the chunk counts as sent
+     *
+     * @param maxLength the maximum length of the chunk
+     * @return the mapped chunk
+     * @throws IOException if an I/O exception occurs or the file is shorter than the region
+     */
+    synchronized MappedByteBuffer mapNext(int maxLength) throws IOException {
+        long start = position + transferred;
+        long length = Math.min(maxLength, count - transferred);
+        if (start + length > fileChannel.size()) {
+            throw new EOFException("file ends before the region at " + fileChannel.size());
+        }
+        MappedByteBuffer chunk = fileChannel.map(MapMode.READ_ONLY, start, length);
+        transferred += length;
+        return chunk;
+    }
+
+    @Override
+    public String toString() {
+        return "FileRegion[position=" + position + ", count=" + count + ", transferred=" + getTransferred() + "]";
+    }
+}
@@ -0,0 +1,238 @@
+package cn.net.scp.nio.transform;
+
+import cn.net.scp.nio.BufferListener;
+import cn.net.scp.nio.HandlerAdapter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Sends ByteBuffers and {@link FileRegion}s in order through the rest of an output chain that ends with a
+ * ChannelWriter.
+ * <br><br>
+ * If the ChannelWriter is the next forwarder, file regions are handed to
+ * {@link ChannelWriter#forwardFileRegion(FileRegion)} and written with
+ * {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}. Otherwise there
+ * is a stage in between that has to see the data (e.g. SSL encryption), so the regions are mapped into memory in
+ * chunks that are forwarded one by one: the next chunk is only mapped when at most the low watermark of bytes is
+ * buffered in the ChannelWriter. Chunks that are due when the ChannelWriter was drained are forwarded on the thread
+ * that owns the connection (see {@link HandlerAdapter#execute(Runnable)}). ByteBuffers that arrive while file regions
+ * are waiting are copied and queued behind them.
+ * <br><br>
+ * An SSLOutputForwarder in the chain keeps the plaintext while the handshake or delegated tasks are running, so it has
+ * to be set with {@link #setSSLOutputForwarder(SSLOutputForwarder)}: its buffered plaintext is added to the bytes
+ * buffered in the ChannelWriter, otherwise the whole file would be copied into its plaintext buffer.
+ * <pre>
+ * // FileRegionForwarder -> ByteBufferToArrayForwarder -> SSLOutputForwarder -> ChannelWriter
+ * FileRegionForwarder fileRegionForwarder = new FileRegionForwarder(channelWriter);
+ * fileRegionForwarder.setNextForwarder(byteBufferToArrayForwarder);
+ * fileRegionForwarder.setSSLOutputForwarder(sslOutputForwarder);
+ * ...
+ * fileRegionForwarder.forward(header);
+ * fileRegionForwarder.forwardFileRegion(new FileRegion(fileChannel, 0, fileChannel.size()));
+ * </pre>
+ */
+public class FileRegionForwarder extends AbstractForwarder<ByteBuffer, ByteBuffer> implements BufferListener {
+
+    static final Logger logger = LogManager.getLogger();
+
+    /**
+     * the default size of mapped chunks
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    private final ChannelWriter channelWriter;
+    private final int chunkSize;
+    private final int lowWatermark;
+    private volatile SSLOutputForwarder sslOutputForwarder;
+    /**
+     * the last reported levels, the sources must not be asked for them with the lock of a source held
+     */
+    private volatile int writerLevel;
+    private volatile int plainTextLevel;
+    /**
+     * file regions that have not been mapped completely and the copies of the buffers that arrived after them
+     */
+    // @GuardedBy("this")
+    private final ArrayDeque<Object> queue = new ArrayDeque<>();
+    private volatile boolean queued;
+    private final AtomicBoolean pumpScheduled = new AtomicBoolean();
+    private final Runnable pumpTask = this::pumpOnOwner;
+    private final AtomicLong transferredRegionCounter = new AtomicLong();
+    private final AtomicLong mappedChunkCounter = new AtomicLong();
+
+    /**
+     * creates a new FileRegionForwarder with chunks of {@link #DEFAULT_CHUNK_SIZE} bytes that are mapped when at most
+     * one chunk is buffered
+     *
+     * @param channelWriter the ChannelWriter at the end of the chain
+     */
+    public FileRegionForwarder(ChannelWriter channelWriter) {
+        this(channelWriter, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * creates a new FileRegionForwarder
+     *
+     * @param channelWriter the ChannelWriter at the end of the chain
+     * @param chunkSize     the maximum size of mapped chunks
+     * @param lowWatermark  the next chunk is mapped when at most this many bytes are buffered in the ChannelWriter
+     */
+    public FileRegionForwarder(ChannelWriter channelWriter, int chunkSize, int lowWatermark) {
+        if ((chunkSize <= 0) || (lowWatermark < 0)) {
+            throw new IllegalArgumentException("chunkSize > 0 and lowWatermark >= 0 required");
+        }
+        this.channelWriter = channelWriter;
+        this.chunkSize = chunkSize;
+        this.lowWatermark = lowWatermark;
+        channelWriter.addBufferSizeListener(this);
+    }
+
+    @Override
+    public synchronized void forward(ByteBuffer input) throws IOException {
+        if (queue.isEmpty()) {
+            nextForwarder.forward(input);
+        } else {
+            ByteBuffer copy = ByteBuffer.allocate(input.remaining());
+            copy.put(input);
+            copy.flip();
+            queue.addLast(copy);
+        }
+    }
+
+    /**
+     * sends a region of a file after all data that was forwarded before
+     *
+     * @param fileRegion the region of the file
+     * @throws IOException if an I/O exception occurs or the file is shorter than the region
+     */
+    public synchronized void forwardFileRegion(FileRegion fileRegion) throws IOException {
+        if (queue.isEmpty() && (nextForwarder == channelWriter)) {
+            transferredRegionCounter.incrementAndGet();
+            channelWriter.forwardFileRegion(fileRegion);
+            return;
+        }
+        queue.addLast(fileRegion);
+        queued = true;
+        pump();
+    }
+
+    /**
+     * sets the SSLOutputForwarder between this forwarder and the ChannelWriter, its buffered plaintext counts against
+     * the low watermark
+     *
+     * @param sslOutputForwarder the SSLOutputForwarder in the chain (may be null)
+     */
+    public void setSSLOutputForwarder(SSLOutputForwarder sslOutputForwarder) {
+        SSLOutputForwarder oldForwarder = this.sslOutputForwarder;
+        if (oldForwarder != null) {
+            oldForwarder.removeBufferSizeListener(this);
+        }
+        this.sslOutputForwarder = sslOutputForwarder;
+        plainTextLevel = 0;
+        if (sslOutputForwarder != null) {
+            sslOutputForwarder.addBufferSizeListener(this);
+        }
+    }
+
+    /**
+     * removes this forwarder as listener of the ChannelWriter (and the SSLOutputForwarder), queued data is not sent
+     * anymore
+     */
+    public void close() {
+        channelWriter.removeBufferSizeListener(this);
+        SSLOutputForwarder currentSSLOutputForwarder = sslOutputForwarder;
+        if (currentSSLOutputForwarder != null) {
+            currentSSLOutputForwarder.removeBufferSizeListener(this);
+        }
+        synchronized (this) {
+            queue.clear();
+            queued = false;
+        }
+    }
+
+    @Override
+    public void bufferChanged(Object source, int newLevel) {
+        // called with the lock of the ChannelWriter or the SSLOutputForwarder held, so the chunks must be forwarded
+        // elsewhere
+        if (source == channelWriter) {
+            writerLevel = newLevel;
+        } else {
+            plainTextLevel = newLevel;
+        }
+        if (!queued || (((long) writerLevel + plainTextLevel) > lowWatermark)) {
+            return;
+        }
+        HandlerAdapter handlerAdapter = channelWriter.getHandlerAdapter();
+        if ((handlerAdapter != null) && pumpScheduled.compareAndSet(false, true)) {
+            handlerAdapter.execute(pumpTask);
+        }
+    }
+
+    /**
+     * returns how many file regions were handed to the ChannelWriter to be written with transferTo()
+     *
+     * @return how many file regions were handed to the ChannelWriter
+     */
+    public long getTransferredRegionCounter() {
+        return transferredRegionCounter.get();
+    }
+
+    /**
+     * returns how many chunks of file regions were mapped and forwarded
+     *
+     * @return how many chunks of file regions were mapped and forwarded
+     */
+    public long getMappedChunkCounter() {
+        return mappedChunkCounter.get();
+    }
+
+    private void pumpOnOwner() {
+        pumpScheduled.set(false);
+        try {
+            pump();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * returns the number of bytes buffered in the ChannelWriter and as plaintext in the SSLOutputForwarder
+     */
+    private long buffered() {
+        SSLOutputForwarder currentSSLOutputForwarder = sslOutputForwarder;
+        long buffered = channelWriter.remaining();
+        if (currentSSLOutputForwarder != null) {
+            buffered += currentSSLOutputForwarder.getRemainingPlaintext();
+        }
+        return buffered;
+    }
+
+    /**
+     * forwards queued data until more than the low watermark is buffered in the ChannelWriter and the
+     * SSLOutputForwarder
+     */
+    private synchronized void pump() throws IOException {
+        while (!queue.isEmpty() && (buffered() <= lowWatermark)) {
+            Object head = queue.peekFirst();
+            if (head instanceof FileRegion) {
+                FileRegion fileRegion = (FileRegion) head;
+                ByteBuffer chunk = fileRegion.mapNext(chunkSize);
+                if (!fileRegion.hasRemaining()) {
+                    queue.removeFirst();
+                }
+                mappedChunkCounter.incrementAndGet();
+                nextForwarder.forward(chunk);
+            } else {
+                queue.removeFirst();
+                nextForwarder.forward((ByteBuffer) head);
+            }
+        }
+        queued = !queue.isEmpty();
+    }
+}
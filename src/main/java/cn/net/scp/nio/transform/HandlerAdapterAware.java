@@ -0,0 +1,19 @@
+package cn.net.scp.nio.transform;
+
+import cn.net.scp.nio.HandlerAdapter;
+
+/**
+ * A stage that needs the HandlerAdapter of its connection, e.g. for handing
+ * work over to the owning thread or for pausing reads.
+ * {@link cn.net.scp.nio.pipeline.Pipeline#setHandlerAdapter(HandlerAdapter)}
+ * passes the HandlerAdapter to all such stages.
+ */
+public interface HandlerAdapterAware {
+
+    /**
+     * sets the HandlerAdapter of the connection
+     *
+     * @param handlerAdapter the HandlerAdapter of the connection
+     */
+    void setHandlerAdapter(HandlerAdapter handlerAdapter);
+}
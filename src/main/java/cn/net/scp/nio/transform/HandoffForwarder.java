@@ -0,0 +1,90 @@
+package cn.net.scp.nio.transform;
+
+import cn.net.scp.nio.HandlerAdapter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A forwarder that hands its input over to the thread that owns the connection.
+ * <br><br>
+ * All forwarders behind a HandoffForwarder run on the owning thread of the
+ * connection (see {@link HandlerAdapter}) and therefore need no
+ * synchronization. If {@link #forward(Object)} is called by the owning thread
+ * the input is forwarded immediately, otherwise it is queued with
+ * {@link HandlerAdapter#execute(Runnable)} and forwarded later. Queued inputs
+ * keep their order. Because of this the caller must not modify an input after
+ * forwarding it (e.g. use {@link ByteBufferForwardingMode#COPY} before this
+ * forwarder).
+ * <br><br>
+ * As long as no HandlerAdapter is set (the channel is not registered yet)
+ * inputs are forwarded immediately.
+ *
+ * @param <T> the type of input this forwarder accepts and forwards
+ */
+public class HandoffForwarder<T> extends AbstractForwarder<T, T> implements HandlerAdapterAware {
+
+    static final Logger logger = LogManager.getLogger();
+
+    private volatile HandlerAdapter handlerAdapter;
+
+    /**
+     * creates a new HandoffForwarder, the HandlerAdapter must be set with
+     * {@link #setHandlerAdapter(HandlerAdapter)} when the channel is registered
+     */
+    public HandoffForwarder() {
+    }
+
+    /**
+     * creates a new HandoffForwarder
+     *
+     * @param handlerAdapter the HandlerAdapter of the connection
+     */
+    public HandoffForwarder(HandlerAdapter handlerAdapter) {
+        this.handlerAdapter = handlerAdapter;
+    }
+
+    /**
+     * sets the HandlerAdapter of the connection
+     *
+     * @param handlerAdapter the HandlerAdapter of the connection
+     */
+    @Override
+    public void setHandlerAdapter(HandlerAdapter handlerAdapter) {
+        this.handlerAdapter = handlerAdapter;
+    }
+
+    /**
+     * returns the HandlerAdapter of the connection
+     *
+     * @return the HandlerAdapter of the connection
+     */
+    public HandlerAdapter getHandlerAdapter() {
+        return handlerAdapter;
+    }
+
+    @Override
+    public void forward(T input) throws IOException {
+        HandlerAdapter currentHandlerAdapter = handlerAdapter;
+        if ((currentHandlerAdapter == null) || currentHandlerAdapter.isOwner()) {
+            forwardNow(input);
+        } else {
+            currentHandlerAdapter.execute(() -> {
+                try {
+                    forwardNow(input);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        }
+    }
+
+    private void forwardNow(T input) throws IOException {
+        if (nextForwarder == null) {
+            logger.error("no nextForwarder => data lost!");
+        } else {
+            nextForwarder.forward(input);
+        }
+    }
+}
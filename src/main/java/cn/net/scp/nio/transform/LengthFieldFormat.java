@@ -0,0 +1,282 @@
+package cn.net.scp.nio.transform;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Describes the header of length prefixed frames. A header consists of
+ * <tt>lengthFieldOffset</tt> arbitrary bytes followed by the length field.
+ * The length field is either a fixed size unsigned integer (1 to 8 byte, big-
+ * or little-endian) or a protobuf style varint (unsigned LEB128, at most 5
+ * byte).
+ * <br><br>
+ * The number of bytes following the length field is computed as
+ * <tt>length + lengthAdjustment</tt>, minus the header length if
+ * <tt>lengthIncludesHeader</tt> is set.
+ * <br><br>
+ * All parsing methods use absolute indices and do not change the position of
+ * the given buffers, they do not allocate any objects.
+ */
+public final class LengthFieldFormat {
+
+    /**
+     * the length field length of varint length fields
+     */
+    public static final int VARINT = 0;
+    private static final int MAX_VARINT_LENGTH = 5;
+
+    private final int lengthFieldOffset;
+    private final int lengthFieldLength;
+    private final ByteOrder byteOrder;
+    private final int lengthAdjustment;
+    private final boolean lengthIncludesHeader;
+    private final boolean stripHeader;
+
+    /**
+     * creates a new LengthFieldFormat
+     * @param lengthFieldOffset the number of header bytes in front of the
+     * length field
+     * @param lengthFieldLength the size of the length field in byte (1 to 8) or
+     * {@link #VARINT}
+     * @param byteOrder the byte order of fixed size length fields
+     * @param lengthAdjustment the value to add to the length to get the number
+     * of bytes following the length field
+     * @param lengthIncludesHeader if <code>true</code>, the length includes the
+     * header (offset bytes and length field)
+     * @param stripHeader if <code>true</code>, decoders forward only the bytes
+     * following the length field, otherwise the complete frame
+     */
+    public LengthFieldFormat(int lengthFieldOffset, int lengthFieldLength, ByteOrder byteOrder,
+        int lengthAdjustment, boolean lengthIncludesHeader, boolean stripHeader) {
+        if (lengthFieldOffset < 0) {
+            throw new IllegalArgumentException("lengthFieldOffset must not be negative: " + lengthFieldOffset);
+        }
+        if ((lengthFieldLength < VARINT) || (lengthFieldLength > 8)) {
+            throw new IllegalArgumentException("unsupported lengthFieldLength: " + lengthFieldLength);
+        }
+        this.lengthFieldOffset = lengthFieldOffset;
+        this.lengthFieldLength = lengthFieldLength;
+        this.byteOrder = byteOrder;
+        this.lengthAdjustment = lengthAdjustment;
+        this.lengthIncludesHeader = lengthIncludesHeader;
+        this.stripHeader = stripHeader;
+    }
+
+    /**
+     * returns a format with a big-endian length field at the start of the
+     * frame that counts the payload and is stripped by decoders
+     * @param lengthFieldLength the size of the length field in byte
+     * @return a format with a big-endian length field
+     */
+    public static LengthFieldFormat bigEndian(int lengthFieldLength) {
+        return new LengthFieldFormat(0, lengthFieldLength, ByteOrder.BIG_ENDIAN, 0, false, true);
+    }
+
+    /**
+     * returns a format with a little-endian length field at the start of the
+     * frame that counts the payload and is stripped by decoders
+     * @param lengthFieldLength the size of the length field in byte
+     * @return a format with a little-endian length field
+     */
+    public static LengthFieldFormat littleEndian(int lengthFieldLength) {
+        return new LengthFieldFormat(0, lengthFieldLength, ByteOrder.LITTLE_ENDIAN, 0, false, true);
+    }
+
+    /**
+     * returns a format with a varint length field at the start of the frame
+     * that counts the payload and is stripped by decoders
+     * @return a format with a varint length field
+     */
+    public static LengthFieldFormat varint() {
+        return new LengthFieldFormat(0, VARINT, ByteOrder.BIG_ENDIAN, 0, false, true);
+    }
+
+    /**
+     * returns the number of header bytes in front of the length field
+     * @return the number of header bytes in front of the length field
+     */
+    public int getLengthFieldOffset() {
+        return lengthFieldOffset;
+    }
+
+    /**
+     * returns the size of the length field in byte or {@link #VARINT}
+     * @return the size of the length field in byte or {@link #VARINT}
+     */
+    public int getLengthFieldLength() {
+        return lengthFieldLength;
+    }
+
+    /**
+     * returns <code>true</code>, if decoders forward only the bytes following
+     * the length field
+     * @return <code>true</code>, if decoders forward only the bytes following
+     * the length field
+     */
+    public boolean isStripHeader() {
+        return stripHeader;
+    }
+
+    /**
+     * returns the maximum size of a header in byte
+     * @return the maximum size of a header in byte
+     */
+    public int getMaxHeaderLength() {
+        return lengthFieldOffset + (lengthFieldLength == VARINT ? MAX_VARINT_LENGTH : lengthFieldLength);
+    }
+
+    /**
+     * returns the maximum value a length field can hold
+     * @return the maximum value a length field can hold
+     */
+    public long getMaxLengthFieldValue() {
+        if (lengthFieldLength == VARINT) {
+            return 0xFFFFFFFFL;
+        }
+        return lengthFieldLength == 8 ? Long.MAX_VALUE : (1L << (8 * lengthFieldLength)) - 1;
+    }
+
+    /**
+     * returns the length of the header that starts at <tt>index</tt>
+     * @param buffer the buffer that contains the header
+     * @param index the absolute index of the first header byte
+     * @param available the number of available bytes starting at
+     * <tt>index</tt>
+     * @return the length of the header or <tt>-1</tt>, if the header is
+     * incomplete
+     * @throws IOException if the length field is malformed
+     */
+    public int getHeaderLength(ByteBuffer buffer, int index, int available) throws IOException {
+        if (lengthFieldLength != VARINT) {
+            int headerLength = lengthFieldOffset + lengthFieldLength;
+            return available >= headerLength ? headerLength : -1;
+        }
+        for (int i = lengthFieldOffset, end = lengthFieldOffset + MAX_VARINT_LENGTH; i < end; i++) {
+            if (i >= available) {
+                return -1;
+            }
+            if ((buffer.get(index + i) & 0x80) == 0) {
+                return i + 1;
+            }
+        }
+        throw new IOException("malformed varint length field (more than " + MAX_VARINT_LENGTH + " byte)");
+    }
+
+    /**
+     * returns the value of the length field of a complete header
+     * @param buffer the buffer that contains the header
+     * @param index the absolute index of the first header byte
+     * @return the value of the length field
+     */
+    public long getLengthFieldValue(ByteBuffer buffer, int index) {
+        int fieldIndex = index + lengthFieldOffset;
+        long value = 0;
+        if (lengthFieldLength == VARINT) {
+            for (int shift = 0; ; shift += 7) {
+                int b = buffer.get(fieldIndex++);
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+        if (byteOrder == ByteOrder.BIG_ENDIAN) {
+            for (int i = 0; i < lengthFieldLength; i++) {
+                value = (value << 8) | (buffer.get(fieldIndex + i) & 0xFF);
+            }
+        } else {
+            for (int i = lengthFieldLength - 1; i >= 0; i--) {
+                value = (value << 8) | (buffer.get(fieldIndex + i) & 0xFF);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * returns the number of bytes following the length field
+     * @param lengthFieldValue the value of the length field
+     * @param headerLength the length of the header
+     * @return the number of bytes following the length field
+     * @throws IOException if the resulting length is negative
+     */
+    public long getBodyLength(long lengthFieldValue, int headerLength) throws IOException {
+        long bodyLength = lengthFieldValue + lengthAdjustment;
+        if (lengthIncludesHeader) {
+            bodyLength -= headerLength;
+        }
+        if (bodyLength < 0) {
+            throw new IOException("invalid length field value " + lengthFieldValue + " (results in a body length of " + bodyLength + " byte)");
+        }
+        return bodyLength;
+    }
+
+    /**
+     * returns the length of the header needed for a body of the given length
+     * @param bodyLength the number of bytes following the length field
+     * @return the length of the header
+     */
+    public int getEncodedHeaderLength(long bodyLength) {
+        if (lengthFieldLength != VARINT) {
+            return lengthFieldOffset + lengthFieldLength;
+        }
+        // the varint size may depend on itself if the length includes the
+        // header, the first size that fits is the shortest encoding
+        for (int size = 1; size < MAX_VARINT_LENGTH; size++) {
+            long value = getEncodedValue(bodyLength, lengthFieldOffset + size);
+            if ((value >>> (7 * size)) == 0) {
+                return lengthFieldOffset + size;
+            }
+        }
+        return lengthFieldOffset + MAX_VARINT_LENGTH;
+    }
+
+    /**
+     * returns the value of the length field for a body of the given length
+     * @param bodyLength the number of bytes following the length field
+     * @param headerLength the length of the header
+     * @return the value of the length field
+     */
+    public long getEncodedValue(long bodyLength, int headerLength) {
+        long value = bodyLength - lengthAdjustment;
+        if (lengthIncludesHeader) {
+            value += headerLength;
+        }
+        return value;
+    }
+
+    /**
+     * writes a length field at the current position of <tt>buffer</tt>
+     * @param buffer the buffer where the length field is written to
+     * @param value the value of the length field
+     * @throws IOException if the value does not fit into the length field
+     */
+    public void putLengthField(ByteBuffer buffer, long value) throws IOException {
+        if ((value < 0) || (value > getMaxLengthFieldValue())) {
+            throw new IOException("length field value " + value + " out of range (maximum is " + getMaxLengthFieldValue() + ")");
+        }
+        if (lengthFieldLength == VARINT) {
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        } else if (byteOrder == ByteOrder.BIG_ENDIAN) {
+            for (int shift = (lengthFieldLength - 1) * 8; shift >= 0; shift -= 8) {
+                buffer.put((byte) (value >>> shift));
+            }
+        } else {
+            for (int i = 0, shift = 0; i < lengthFieldLength; i++, shift += 8) {
+                buffer.put((byte) (value >>> shift));
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LengthFieldFormat[offset=" + lengthFieldOffset
+            + ", length=" + (lengthFieldLength == VARINT ? "varint" : String.valueOf(lengthFieldLength))
+            + ", order=" + byteOrder + ", adjustment=" + lengthAdjustment
+            + ", includesHeader=" + lengthIncludesHeader + ", strip=" + stripHeader + "]";
+    }
+}
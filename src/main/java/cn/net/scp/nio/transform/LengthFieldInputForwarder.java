@@ -0,0 +1,293 @@
+package cn.net.scp.nio.transform;
+
+import cn.net.scp.nio.buffer.AbstractBufferPool;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A Forwarder that unframes messages with a length header described by a
+ * {@link LengthFieldFormat}.
+ * <br><br>
+ * Frames that are completely contained in the input are forwarded according
+ * to the configured {@link ByteBufferForwardingMode}. Incomplete frames are
+ * reassembled in a buffer that is allocated with the exact frame size as soon
+ * as the length header is known, so that every byte is copied at most once.
+ * Headers are parsed in place without allocating any objects.
+ */
+public class LengthFieldInputForwarder extends AbstractForwarder<ByteBuffer, ByteBuffer> {
+
+    static final Logger logger = LogManager.getLogger();
+
+    private final LengthFieldFormat lengthFieldFormat;
+    /**
+     * collects headers that are split over several inputs (in "fill" mode)
+     */
+    private final ByteBuffer header;
+    private final AbstractBufferPool<ByteBuffer> bufferPool;
+    private volatile ByteBufferForwardingMode byteBufferForwardingMode;
+    private volatile int maxFrameSize;
+    /**
+     * the buffer for reassembling an incomplete frame (in "fill" mode)
+     */
+    private ByteBuffer frame;
+    private boolean determineLength;
+    /**
+     * true, if the header of the current frame is kept in the header buffer
+     * and must be forwarded as part of the frame
+     */
+    private boolean headerBuffered;
+    private int currentLength;
+    private final AtomicLong headerCounter = new AtomicLong();
+    private final AtomicLong dataCounter = new AtomicLong();
+
+    /**
+     * creates a new LengthFieldInputForwarder that forwards frames with
+     * {@link ByteBufferForwardingMode#DIRECT}
+     * @param lengthFieldFormat the format of the length header
+     */
+    public LengthFieldInputForwarder(LengthFieldFormat lengthFieldFormat) {
+        this(lengthFieldFormat, ByteBufferForwardingMode.DIRECT, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * creates a new LengthFieldInputForwarder
+     * @param lengthFieldFormat the format of the length header
+     * @param byteBufferForwardingMode the forwarding mode for the frames
+     * @param bufferPool the pool for reassembly buffers and
+     * {@link ByteBufferForwardingMode#POOLED_COPY} (may be null)
+     * @param maxFrameSize the maximum accepted frame size in byte
+     */
+    public LengthFieldInputForwarder(LengthFieldFormat lengthFieldFormat, ByteBufferForwardingMode byteBufferForwardingMode,
+        AbstractBufferPool<ByteBuffer> bufferPool, int maxFrameSize) {
+        this.lengthFieldFormat = lengthFieldFormat;
+        header = ByteBuffer.allocate(lengthFieldFormat.getMaxHeaderLength());
+        this.byteBufferForwardingMode = byteBufferForwardingMode;
+        this.bufferPool = bufferPool;
+        this.maxFrameSize = maxFrameSize;
+        determineLength = true;
+    }
+
+    @Override
+    public void forward(ByteBuffer input) throws IOException {
+        if (nextForwarder == null) {
+            logger.error("no nextForwarder => data lost!");
+            return;
+        }
+
+        while (true) {
+            if (frame != null) {
+                if (!reassemble(input)) {
+                    return;
+                }
+            } else if (determineLength && !readHeader(input)) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("incomplete header (" + header.position() + " bytes are currently available)");
+                }
+                return;
+            } else if (!headerBuffered && (input.remaining() >= currentLength)) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("unframing the input buffer directly: " + input);
+                }
+                determineLength = true;
+                dataCounter.addAndGet(currentLength);
+                byteBufferForwardingMode.forwardBufferHead(input, currentLength, nextForwarder, bufferPool);
+            } else {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("incomplete message (message is " + currentLength + " byte but only " + input.remaining() + " bytes are currently available)");
+                }
+                frame = allocateFrame(currentLength);
+                if (headerBuffered) {
+                    header.flip();
+                    frame.put(header);
+                    header.clear();
+                    headerBuffered = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * returns the format of the length header
+     * @return the format of the length header
+     */
+    public LengthFieldFormat getLengthFieldFormat() {
+        return lengthFieldFormat;
+    }
+
+    /**
+     * returns how much header bytes have been filtered out
+     * @return how much header bytes have been filtered out
+     */
+    public long getHeaderCounter() {
+        return headerCounter.get();
+    }
+
+    /**
+     * resets the header counter back to zero and returns how much header bytes
+     * have been filtered out
+     * @return how much header bytes have been filtered out
+     */
+    public long getAndResetHeaderCounter() {
+        return headerCounter.getAndSet(0);
+    }
+
+    /**
+     * returns how much data has been forwarded
+     * @return how much data has been forwarded
+     */
+    public long getDataCounter() {
+        return dataCounter.get();
+    }
+
+    /**
+     * resets the data counter back to zero and returns how much data has been
+     * forwarded
+     * @return how much data has been forwarded
+     */
+    public long getAndResetDataCounter() {
+        return dataCounter.getAndSet(0);
+    }
+
+    /**
+     * returns the ByteBufferForwardingMode that is used for the frames
+     * @return the ByteBufferForwardingMode that is used for the frames
+     */
+    public ByteBufferForwardingMode getForwardingMode() {
+        return byteBufferForwardingMode;
+    }
+
+    /**
+     * sets the ByteBufferForwardingMode that is used for the frames
+     * @param byteBufferForwardingMode the ByteBufferForwardingMode that is used
+     * for the frames
+     */
+    public void setForwardingMode(ByteBufferForwardingMode byteBufferForwardingMode) {
+        this.byteBufferForwardingMode = byteBufferForwardingMode;
+    }
+
+    /**
+     * returns the maximum accepted frame size in byte
+     * @return the maximum accepted frame size in byte
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * sets the maximum accepted frame size in byte, larger frames cause an
+     * IOException
+     * @param maxFrameSize the maximum accepted frame size in byte
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    private boolean readHeader(ByteBuffer input) throws IOException {
+        if (header.position() == 0) {
+            // fast path, try parsing the header directly in the input
+            int position = input.position();
+            int headerLength = lengthFieldFormat.getHeaderLength(input, position, input.remaining());
+            if (headerLength >= 0) {
+                setFrameLength(headerLength, lengthFieldFormat.getLengthFieldValue(input, position));
+                if (lengthFieldFormat.isStripHeader()) {
+                    input.position(position + headerLength);
+                }
+                return true;
+            }
+        }
+
+        // collect the header byte by byte (headers are tiny)
+        while (input.hasRemaining()) {
+            header.put(input.get());
+            int headerLength = lengthFieldFormat.getHeaderLength(header, 0, header.position());
+            if (headerLength >= 0) {
+                setFrameLength(headerLength, lengthFieldFormat.getLengthFieldValue(header, 0));
+                if (lengthFieldFormat.isStripHeader()) {
+                    header.clear();
+                } else {
+                    headerBuffered = true;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void setFrameLength(int headerLength, long lengthFieldValue) throws IOException {
+        long length = lengthFieldFormat.getBodyLength(lengthFieldValue, headerLength);
+        if (!lengthFieldFormat.isStripHeader()) {
+            length += headerLength;
+        }
+        if (length > maxFrameSize) {
+            throw new IOException("frame too large (" + length + " byte, maximum is " + maxFrameSize + " byte)");
+        }
+        currentLength = (int) length;
+        if (logger.isTraceEnabled()) {
+            logger.trace("currentLength = " + currentLength + " byte");
+        }
+        determineLength = false;
+
+        // accounting
+        headerCounter.addAndGet(headerLength);
+    }
+
+    private ByteBuffer allocateFrame(int size) {
+        // COPY and DUPLICATE frames are handed over and never come back to the pool
+        if ((bufferPool != null) && (byteBufferForwardingMode != ByteBufferForwardingMode.COPY)
+            && (byteBufferForwardingMode != ByteBufferForwardingMode.DUPLICATE)) {
+            return bufferPool.take(size);
+        }
+        return ByteBuffer.allocate(size);
+    }
+
+    /**
+     * copies input into the reassembly buffer and forwards the frame, if it
+     * is complete
+     * @param input the input
+     * @return <code>true</code>, if the frame was complete,
+     * <code>false</code> otherwise
+     * @throws IOException if an I/O exception occurs while forwarding
+     */
+    private boolean reassemble(ByteBuffer input) throws IOException {
+        int length = Math.min(frame.remaining(), input.remaining());
+        int oldLimit = input.limit();
+        input.limit(input.position() + length);
+        frame.put(input);
+        input.limit(oldLimit);
+        if (frame.hasRemaining()) {
+            return false;
+        }
+
+        // the frame is complete
+        ByteBuffer completeFrame = frame;
+        frame = null;
+        completeFrame.flip();
+        determineLength = true;
+        dataCounter.addAndGet(currentLength);
+        switch (byteBufferForwardingMode) {
+            case COPY:
+            case POOLED_COPY:
+                // the reassembly buffer already is a copy, hand it over
+                nextForwarder.forward(completeFrame);
+                break;
+            case DUPLICATE:
+                // the receiver may keep the duplicate, so the buffer must
+                // not be reused for the next frame
+                nextForwarder.forward(completeFrame.duplicate());
+                break;
+            default:
+                nextForwarder.forward(completeFrame);
+                recycleFrame(completeFrame);
+        }
+        return true;
+    }
+
+    private void recycleFrame(ByteBuffer completeFrame) {
+        if (bufferPool != null) {
+            bufferPool.give(completeFrame);
+        }
+    }
+}
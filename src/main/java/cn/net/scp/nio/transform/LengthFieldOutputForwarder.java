@@ -0,0 +1,455 @@
+package cn.net.scp.nio.transform;
+
+import cn.net.scp.nio.buffer.AbstractBufferPool;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A Forwarder that frames messages by creating a length header described by
+ * a {@link LengthFieldFormat}.
+ * <br><br>
+ * If the format has a length field offset, the first
+ * <tt>lengthFieldOffset</tt> bytes of every message (e.g. a message type) are
+ * moved into the header in front of the length field. The header is written
+ * in place without allocating any objects.
+ * <br><br>
+ * The header forwarding mode determines the lifetime of the forwarded
+ * headers and arrays:
+ * <ul>
+ * <li>{@link ByteBufferForwardingMode#DIRECT}: headers, coalesced frames and
+ * arrays are reused for the next message, the next forwarder must consume
+ * (or copy) them before returning. No objects are allocated per
+ * message.</li>
+ * <li>{@link ByteBufferForwardingMode#COPY} and
+ * {@link ByteBufferForwardingMode#DUPLICATE}: headers and coalesced frames are
+ * views of a header arena whose content is never overwritten, so the next
+ * forwarder may keep them. The arena is not pooled (the forwarder can not know
+ * when a receiver releases a view): it is allocated in chunks of 8 KB, and a
+ * view and an array are allocated per message (per batch with
+ * {@link #forwardBatch(ByteBuffer[][], int, int)}).</li>
+ * <li>{@link ByteBufferForwardingMode#POOLED_COPY}: every header and coalesced
+ * frame is a separate buffer that is taken from the buffer pool (if there is
+ * one) and belongs to the receiver, which should give it back to the
+ * pool.</li>
+ * </ul>
+ * Messages with up to {@link #getCoalesceThreshold()} bytes are copied
+ * together with their header into one contiguous buffer instead of being
+ * forwarded as separate header and body buffers. With
+ * {@link #forwardBatch(ByteBuffer[][], int, int)} many messages are framed
+ * into a single gathering array, consecutive small messages end up in one
+ * contiguous region.
+ */
+public class LengthFieldOutputForwarder extends AbstractForwarder<ByteBuffer[], ByteBuffer[]> {
+
+    static final Logger logger = LogManager.getLogger();
+
+    /**
+     * the size of the chunks of the header arena
+     */
+    private static final int ARENA_SIZE = 8192;
+    /**
+     * arrays up to this length are reused in DIRECT mode
+     */
+    private static final int MAX_REUSED_ARRAY_LENGTH = 256;
+
+    private final LengthFieldFormat lengthFieldFormat;
+    private final int maxSize;
+    private final int maxHeaderLength;
+    /**
+     * the reused header in DIRECT mode
+     */
+    private final ByteBuffer header;
+    /**
+     * the reused buffer for a coalesced frame in DIRECT mode
+     */
+    private ByteBuffer frame;
+    /**
+     * headers and coalesced frames are written into the arena, it is reused
+     * for every call in DIRECT mode and replaced by a new chunk when it is full
+     * in all other modes
+     */
+    private ByteBuffer arena;
+    private final ByteBuffer[][] arrays = new ByteBuffer[MAX_REUSED_ARRAY_LENGTH + 1][];
+    private final AbstractBufferPool<ByteBuffer> bufferPool;
+    private int coalesceThreshold;
+
+    private final AtomicLong headerCounter = new AtomicLong();
+    private ByteBufferForwardingMode headerByteBufferForwardingMode;
+
+    /**
+     * creates a new LengthFieldOutputForwarder
+     * @param lengthFieldFormat the format of the length header
+     * @param headerByteBufferForwardingMode the buffer forwarding mode for the
+     * header ByteBuffer
+     */
+    public LengthFieldOutputForwarder(LengthFieldFormat lengthFieldFormat,
+        ByteBufferForwardingMode headerByteBufferForwardingMode) {
+        this(lengthFieldFormat, headerByteBufferForwardingMode, null);
+    }
+
+    /**
+     * creates a new LengthFieldOutputForwarder
+     * @param lengthFieldFormat the format of the length header
+     * @param headerByteBufferForwardingMode the buffer forwarding mode for the
+     * header ByteBuffer
+     * @param bufferPool the pool for headers and coalesced frames in
+     * {@link ByteBufferForwardingMode#POOLED_COPY} mode (may be null)
+     */
+    public LengthFieldOutputForwarder(LengthFieldFormat lengthFieldFormat,
+        ByteBufferForwardingMode headerByteBufferForwardingMode,
+        AbstractBufferPool<ByteBuffer> bufferPool) {
+        this.lengthFieldFormat = lengthFieldFormat;
+        this.bufferPool = bufferPool;
+        this.headerByteBufferForwardingMode = headerByteBufferForwardingMode;
+        maxHeaderLength = lengthFieldFormat.getMaxHeaderLength();
+        header = ByteBuffer.allocate(maxHeaderLength);
+        long maxBodyLength = lengthFieldFormat.getMaxLengthFieldValue();
+        maxSize = (int) Math.min(maxBodyLength, Integer.MAX_VALUE);
+        if (logger.isInfoEnabled()) {
+            logger.info("\n" + "\tlengthFieldFormat = " + lengthFieldFormat + '\n' + "\theader: " + header);
+        }
+    }
+
+    @Override
+    public synchronized void forward(ByteBuffer[] inputs) throws IOException {
+        if (nextForwarder == null) {
+            logger.info("no nextForwarder, data lost!");
+
+        } else {
+            boolean direct = headerByteBufferForwardingMode == ByteBufferForwardingMode.DIRECT;
+            int remaining = getRemaining(inputs);
+            ByteBuffer[] array;
+            int headerLength;
+            if (remaining <= coalesceThreshold) {
+                // copy header and body into one contiguous buffer
+                int size = maxHeaderLength + remaining;
+                ByteBuffer target;
+                if (direct) {
+                    if ((frame == null) || (frame.capacity() < size)) {
+                        frame = ByteBuffer.allocate(size);
+                    }
+                    target = frame;
+                    target.clear();
+                } else {
+                    target = getRegionBuffer(size);
+                }
+                int start = target.position();
+                headerLength = putHeader(target, inputs, remaining);
+                putBodies(target, inputs);
+                array = getArray(1, direct);
+                array[0] = getRegion(target, start);
+
+            } else {
+                ByteBuffer headerBuffer;
+                if (direct) {
+                    header.clear();
+                    headerLength = putHeader(header, inputs, remaining);
+                    header.flip();
+                    headerBuffer = header;
+                } else {
+                    headerBuffer = getRegionBuffer(maxHeaderLength);
+                    int start = headerBuffer.position();
+                    headerLength = putHeader(headerBuffer, inputs, remaining);
+                    headerBuffer = getRegion(headerBuffer, start);
+                }
+                int length = inputs.length;
+                array = getArray(1 + length, direct);
+                array[0] = headerBuffer;
+                System.arraycopy(inputs, 0, array, 1, length);
+            }
+            forwardArray(array, headerLength, direct);
+        }
+    }
+
+    /**
+     * frames several messages and forwards all of them with a single
+     * (gathering) array
+     * <br><br>
+     * With {@link ByteBufferForwardingMode#POOLED_COPY} every header must be a
+     * separate buffer, therefore the messages are forwarded one by one.
+     * @param messages the messages
+     * @param offset the index of the first message in <tt>messages</tt>
+     * @param length the number of messages
+     * @throws IOException if a message does not fit into the length field or
+     * an I/O exception occurs while forwarding
+     */
+    public synchronized void forwardBatch(ByteBuffer[][] messages, int offset, int length) throws IOException {
+        if (nextForwarder == null) {
+            logger.info("no nextForwarder, data lost!");
+            return;
+        }
+        if (length == 0) {
+            return;
+        }
+        if (headerByteBufferForwardingMode == ByteBufferForwardingMode.POOLED_COPY) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                forward(messages[i]);
+            }
+            return;
+        }
+        boolean direct = headerByteBufferForwardingMode == ByteBufferForwardingMode.DIRECT;
+
+        // determine the arena size and the number of array elements
+        int arenaSize = 0;
+        int elements = 0;
+        boolean regionOpen = false;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            ByteBuffer[] message = messages[i];
+            int remaining = getRemaining(message);
+            arenaSize += maxHeaderLength;
+            if (!regionOpen) {
+                elements++;
+                regionOpen = true;
+            }
+            if (remaining <= coalesceThreshold) {
+                arenaSize += remaining;
+            } else {
+                elements += message.length;
+                regionOpen = false;
+            }
+        }
+
+        ByteBuffer target;
+        if (direct) {
+            if ((arena == null) || (arena.capacity() < arenaSize)) {
+                arena = ByteBuffer.allocate(Math.max(ARENA_SIZE, arenaSize));
+            }
+            target = arena;
+            target.clear();
+        } else {
+            target = getRegionBuffer(arenaSize);
+        }
+
+        // frame all messages
+        ByteBuffer[] array = getArray(elements, direct);
+        int index = 0;
+        int headerLength = 0;
+        int regionStart = -1;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            ByteBuffer[] message = messages[i];
+            int remaining = getRemaining(message);
+            if (regionStart == -1) {
+                regionStart = target.position();
+            }
+            headerLength += putHeader(target, message, remaining);
+            if (remaining <= coalesceThreshold) {
+                putBodies(target, message);
+            } else {
+                array[index++] = getRegion(target, regionStart);
+                regionStart = -1;
+                System.arraycopy(message, 0, array, index, message.length);
+                index += message.length;
+            }
+        }
+        if (regionStart != -1) {
+            array[index] = getRegion(target, regionStart);
+        }
+        forwardArray(array, headerLength, direct);
+    }
+
+    /**
+     * frames several messages and forwards all of them with a single
+     * (gathering) array
+     * @param messages the messages
+     * @throws IOException if a message does not fit into the length field or
+     * an I/O exception occurs while forwarding
+     * @see #forwardBatch(ByteBuffer[][], int, int)
+     */
+    public void forwardBatch(ByteBuffer[][] messages) throws IOException {
+        forwardBatch(messages, 0, messages.length);
+    }
+
+    /**
+     * returns the size (in byte) up to which messages are copied together with
+     * their header into one contiguous buffer
+     * @return the size (in byte) up to which messages are copied together with
+     * their header into one contiguous buffer
+     */
+    public synchronized int getCoalesceThreshold() {
+        return coalesceThreshold;
+    }
+
+    /**
+     * sets the size (in byte) up to which messages are copied together with
+     * their header into one contiguous buffer (<code>0</code> disables copying
+     * of non-empty messages)
+     * @param coalesceThreshold the size (in byte) up to which messages are
+     * copied together with their header into one contiguous buffer
+     */
+    public synchronized void setCoalesceThreshold(int coalesceThreshold) {
+        this.coalesceThreshold = coalesceThreshold;
+    }
+
+    /**
+     * returns the format of the length header
+     * @return the format of the length header
+     */
+    public LengthFieldFormat getLengthFieldFormat() {
+        return lengthFieldFormat;
+    }
+
+    /**
+     * returns how much header bytes have been generated
+     * @return how much header bytes have been generated
+     */
+    public long getHeaderCounter() {
+        return headerCounter.get();
+    }
+
+    /**
+     * resets the header counter back to zero and returns how much header bytes
+     * have been generated
+     * @return how much header bytes have been generated
+     */
+    public long getAndResetHeaderCounter() {
+        return headerCounter.getAndSet(0);
+    }
+
+    /**
+     * returns the maximum size (in byte) a package can have using this
+     * forwarder
+     * @return the maximum size (in byte) a package can have using this
+     * forwarder
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * returns the ByteBufferForwardingMode that is used for the header
+     * @return the ByteBufferForwardingMode that is used for the header
+     */
+    public synchronized ByteBufferForwardingMode getHeaderForwardingMode() {
+        return headerByteBufferForwardingMode;
+    }
+
+    /**
+     * sets the ByteBufferForwardingMode that is used for the header
+     * @param headerByteBufferForwardingMode the ByteBufferForwardingMode that
+     * is used for the header
+     */
+    public synchronized void setHeaderForwardingMode(
+        ByteBufferForwardingMode headerByteBufferForwardingMode) {
+        this.headerByteBufferForwardingMode = headerByteBufferForwardingMode;
+    }
+
+    /**
+     * writes the header of a message at the current position of
+     * <tt>destination</tt> (the leading offset bytes of the message are moved
+     * into the header)
+     * @param destination the buffer where the header is written to
+     * @param inputs the message
+     * @param remaining the number of remaining bytes in <tt>inputs</tt>
+     * @return the number of generated header bytes
+     * @throws IOException if the message does not fit into the length field
+     */
+    protected int putHeader(ByteBuffer destination, ByteBuffer[] inputs, int remaining) throws IOException {
+        int offset = lengthFieldFormat.getLengthFieldOffset();
+        if (remaining < offset) {
+            throw new IOException("The message is too short (" + remaining
+                + " byte). The length field offset is " + offset + " byte.");
+        }
+        long bodyLength = remaining - offset;
+        int headerLength = lengthFieldFormat.getEncodedHeaderLength(bodyLength);
+        long value = lengthFieldFormat.getEncodedValue(bodyLength, headerLength);
+
+        // check input length
+        if ((value < 0) || (value > lengthFieldFormat.getMaxLengthFieldValue())) {
+            throw new IOException("The input ByteBuffer is too large (" +
+                remaining + " byte). When using " + lengthFieldFormat +
+                ", the maximum message size is " + maxSize + " byte.");
+        }
+
+        // move the leading offset bytes of the message into the header
+        for (int i = 0; offset > 0; i++) {
+            ByteBuffer input = inputs[i];
+            while ((offset > 0) && input.hasRemaining()) {
+                destination.put(input.get());
+                offset--;
+            }
+        }
+        lengthFieldFormat.putLengthField(destination, value);
+        return headerLength - lengthFieldFormat.getLengthFieldOffset();
+    }
+
+    private static int getRemaining(ByteBuffer[] inputs) {
+        int remaining = 0;
+        for (ByteBuffer input : inputs) {
+            remaining += input.remaining();
+        }
+        return remaining;
+    }
+
+    private static void putBodies(ByteBuffer destination, ByteBuffer[] inputs) {
+        for (ByteBuffer input : inputs) {
+            destination.put(input);
+        }
+    }
+
+    /**
+     * returns a buffer where at least <tt>size</tt> bytes can be written at
+     * its current position (not for DIRECT mode)
+     */
+    private ByteBuffer getRegionBuffer(int size) {
+        if (headerByteBufferForwardingMode == ByteBufferForwardingMode.POOLED_COPY) {
+            return (bufferPool == null) ? ByteBuffer.allocate(size) : bufferPool.take(size);
+        }
+        if ((arena == null) || (arena.remaining() < size)) {
+            // the old chunk still belongs to the forwarded regions
+            arena = ByteBuffer.allocate(Math.max(ARENA_SIZE, size));
+        }
+        return arena;
+    }
+
+    /**
+     * returns the region between <tt>start</tt> and the current position of
+     * <tt>buffer</tt> for forwarding
+     */
+    private ByteBuffer getRegion(ByteBuffer buffer, int start) {
+        if (buffer == arena) {
+            ByteBuffer region = buffer.duplicate();
+            region.limit(buffer.position());
+            region.position(start);
+            return region;
+        }
+        // a reused frame (DIRECT) or separate buffer (POOLED_COPY)
+        buffer.flip();
+        return buffer;
+    }
+
+    private ByteBuffer[] getArray(int length, boolean direct) {
+        if (!direct || (length > MAX_REUSED_ARRAY_LENGTH)) {
+            return new ByteBuffer[length];
+        }
+        ByteBuffer[] array = arrays[length];
+        if (array == null) {
+            array = new ByteBuffer[length];
+            arrays[length] = array;
+        }
+        return array;
+    }
+
+    private void forwardArray(ByteBuffer[] array, int headerLength, boolean direct) throws IOException {
+        if (logger.isTraceEnabled()) {
+            StringBuilder stringBuilder = new StringBuilder("\tframed array:\n");
+            for (ByteBuffer byteBuffer : array) {
+                stringBuilder.append("\t\t").append(byteBuffer).append('\n');
+            }
+            logger.trace(stringBuilder.toString());
+        }
+        // account header & forward new array
+        headerCounter.addAndGet(headerLength);
+        try {
+            nextForwarder.forward(array);
+        } finally {
+            if (direct && (array.length <= MAX_REUSED_ARRAY_LENGTH)) {
+                // do not keep references to the messages
+                Arrays.fill(array, null);
+            }
+        }
+    }
+}
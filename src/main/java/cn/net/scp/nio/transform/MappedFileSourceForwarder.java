@@ -0,0 +1,313 @@
+package cn.net.scp.nio.transform;
+
+import cn.net.scp.nio.BufferListener;
+import cn.net.scp.nio.HandlerAdapter;
+import cn.net.scp.nio.utils.Tools;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The source of an output chain that streams {@link FileRegion}s from memory mapped windows of the file, for chains
+ * that have to see the data and therefore can not use
+ * {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, e.g. with SSL
+ * encryption.
+ * <br><br>
+ * A region is mapped in windows, each window is forwarded in read-only slices (like
+ * {@link ByteBufferForwardingMode#DUPLICATE}, the file content is not copied by this stage). If the ChannelWriter is
+ * the next forwarder, the slices are written with {@link ChannelWriter#forwardShared(ByteBuffer, boolean)}, so that
+ * their remainders are queued and not copied. The next slice is only forwarded when at most the low watermark of bytes
+ * is buffered in the ChannelWriter, slices that are due when the ChannelWriter was drained are forwarded on the thread
+ * that owns the connection (see {@link HandlerAdapter#execute(Runnable)}).
+ * <br><br>
+ * A window is unmapped with {@link Tools#unmap(ByteBuffer)} as soon as the ChannelWriter has written all data that was
+ * forwarded up to its last slice, so the address space that is used stays bounded for files of any size. Therefore
+ * the write counter of the ChannelWriter must not be reset while a file is streamed and the stages between this
+ * forwarder and the ChannelWriter must not keep references to slices after forwarding them.
+ * <br><br>
+ * An SSLOutputForwarder in the chain keeps (copies of) the plaintext while the handshake or delegated tasks are
+ * running, so it has to be set with {@link #setSSLOutputForwarder(SSLOutputForwarder)}: its buffered plaintext is added
+ * to the bytes buffered in the ChannelWriter, otherwise the whole file would be copied into its plaintext buffer.
+ * <pre>
+ * // MappedFileSourceForwarder -> ByteBufferToArrayForwarder -> SSLOutputForwarder -> ChannelWriter
+ * MappedFileSourceForwarder source = new MappedFileSourceForwarder(channelWriter);
+ * source.setNextForwarder(byteBufferToArrayForwarder);
+ * source.setSSLOutputForwarder(sslOutputForwarder);
+ * source.send(new FileRegion(fileChannel, 0, fileChannel.size()));
+ * </pre>
+ */
+public class MappedFileSourceForwarder extends AbstractForwarder<Void, ByteBuffer> implements BufferListener {
+
+    static final Logger logger = LogManager.getLogger();
+
+    /**
+     * the default size of mapped windows
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 4 * 1024 * 1024;
+    /**
+     * the default size of forwarded slices
+     */
+    public static final int DEFAULT_SLICE_SIZE = 64 * 1024;
+
+    private final ChannelWriter channelWriter;
+    private final int windowSize;
+    private final int sliceSize;
+    private final int lowWatermark;
+    private volatile SSLOutputForwarder sslOutputForwarder;
+    /**
+     * the last reported levels, the sources must not be asked for them with the lock of a source held
+     */
+    private volatile int writerLevel;
+    private volatile int plainTextLevel;
+    // @GuardedBy("this")
+    private final ArrayDeque<FileRegion> fileRegions = new ArrayDeque<>();
+    /**
+     * the window that is currently sliced, its position is the start of the next slice
+     */
+    // @GuardedBy("this")
+    private MappedByteBuffer window;
+    /**
+     * the windows that are completely forwarded but not yet written
+     */
+    // @GuardedBy("this")
+    private final ArrayDeque<ForwardedWindow> forwardedWindows = new ArrayDeque<>();
+    private volatile boolean active;
+    private final AtomicBoolean pumpScheduled = new AtomicBoolean();
+    private final Runnable pumpTask = this::pumpOnOwner;
+    private final AtomicLong mappedWindowCounter = new AtomicLong();
+    private final AtomicLong unmappedWindowCounter = new AtomicLong();
+    private final AtomicLong sliceCounter = new AtomicLong();
+
+    /**
+     * creates a new MappedFileSourceForwarder with windows of {@link #DEFAULT_WINDOW_SIZE} bytes and slices of
+     * {@link #DEFAULT_SLICE_SIZE} bytes that are forwarded when at most one slice is buffered
+     *
+     * @param channelWriter the ChannelWriter at the end of the chain
+     */
+    public MappedFileSourceForwarder(ChannelWriter channelWriter) {
+        this(channelWriter, DEFAULT_WINDOW_SIZE, DEFAULT_SLICE_SIZE, DEFAULT_SLICE_SIZE);
+    }
+
+    /**
+     * creates a new MappedFileSourceForwarder
+     *
+     * @param channelWriter the ChannelWriter at the end of the chain
+     * @param windowSize    the maximum size of mapped windows
+     * @param sliceSize     the maximum size of forwarded slices
+     * @param lowWatermark  the next slice is forwarded when at most this many bytes are buffered in the ChannelWriter
+     */
+    public MappedFileSourceForwarder(ChannelWriter channelWriter, int windowSize, int sliceSize, int lowWatermark) {
+        if ((windowSize <= 0) || (sliceSize <= 0) || (lowWatermark < 0)) {
+            throw new IllegalArgumentException("windowSize > 0, sliceSize > 0 and lowWatermark >= 0 required");
+        }
+        this.channelWriter = channelWriter;
+        this.windowSize = windowSize;
+        this.sliceSize = sliceSize;
+        this.lowWatermark = lowWatermark;
+        channelWriter.addBufferSizeListener(this);
+    }
+
+    @Override
+    public void forward(Void input) {
+        throw new UnsupportedOperationException("MappedFileSourceForwarder is always the first component of a "
+            + "forwarding hierarchy, use send(FileRegion)");
+    }
+
+    /**
+     * streams a region of a file after all regions that were sent before
+     *
+     * @param fileRegion the region of the file
+     * @throws IOException if an I/O exception occurs or the file is shorter than the region
+     */
+    public synchronized void send(FileRegion fileRegion) throws IOException {
+        fileRegions.addLast(fileRegion);
+        active = true;
+        pump();
+    }
+
+    /**
+     * returns true, if there are regions that have not been forwarded completely
+     *
+     * @return true, if there are regions that have not been forwarded completely
+     */
+    public synchronized boolean hasRemaining() {
+        return !fileRegions.isEmpty() || ((window != null) && window.hasRemaining());
+    }
+
+    /**
+     * sets the SSLOutputForwarder between this forwarder and the ChannelWriter, its buffered plaintext counts against
+     * the low watermark
+     *
+     * @param sslOutputForwarder the SSLOutputForwarder in the chain (may be null)
+     */
+    public void setSSLOutputForwarder(SSLOutputForwarder sslOutputForwarder) {
+        SSLOutputForwarder oldForwarder = this.sslOutputForwarder;
+        if (oldForwarder != null) {
+            oldForwarder.removeBufferSizeListener(this);
+        }
+        this.sslOutputForwarder = sslOutputForwarder;
+        plainTextLevel = 0;
+        if (sslOutputForwarder != null) {
+            sslOutputForwarder.addBufferSizeListener(this);
+        }
+    }
+
+    /**
+     * removes this forwarder as listener of the ChannelWriter (and the SSLOutputForwarder), regions that have not been
+     * forwarded are dropped. Windows that may still be referenced by the ChannelWriter are left to the garbage
+     * collector.
+     */
+    public void close() {
+        channelWriter.removeBufferSizeListener(this);
+        SSLOutputForwarder currentSSLOutputForwarder = sslOutputForwarder;
+        if (currentSSLOutputForwarder != null) {
+            currentSSLOutputForwarder.removeBufferSizeListener(this);
+        }
+        synchronized (this) {
+            fileRegions.clear();
+            window = null;
+            forwardedWindows.clear();
+            active = false;
+        }
+    }
+
+    @Override
+    public void bufferChanged(Object source, int newLevel) {
+        // called with the lock of the ChannelWriter or the SSLOutputForwarder held, so the slices must be forwarded
+        // elsewhere
+        if (source == channelWriter) {
+            writerLevel = newLevel;
+        } else {
+            plainTextLevel = newLevel;
+        }
+        if (!active || (((long) writerLevel + plainTextLevel) > lowWatermark)) {
+            return;
+        }
+        HandlerAdapter handlerAdapter = channelWriter.getHandlerAdapter();
+        if ((handlerAdapter != null) && pumpScheduled.compareAndSet(false, true)) {
+            handlerAdapter.execute(pumpTask);
+        }
+    }
+
+    /**
+     * returns how many windows were mapped
+     *
+     * @return how many windows were mapped
+     */
+    public long getMappedWindowCounter() {
+        return mappedWindowCounter.get();
+    }
+
+    /**
+     * returns how many windows were unmapped after they were written
+     *
+     * @return how many windows were unmapped
+     */
+    public long getUnmappedWindowCounter() {
+        return unmappedWindowCounter.get();
+    }
+
+    /**
+     * returns how many slices were forwarded
+     *
+     * @return how many slices were forwarded
+     */
+    public long getSliceCounter() {
+        return sliceCounter.get();
+    }
+
+    private void pumpOnOwner() {
+        pumpScheduled.set(false);
+        try {
+            pump();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * returns the number of bytes buffered in the ChannelWriter and as plaintext in the SSLOutputForwarder
+     */
+    private long buffered() {
+        SSLOutputForwarder currentSSLOutputForwarder = sslOutputForwarder;
+        long buffered = channelWriter.remaining();
+        if (currentSSLOutputForwarder != null) {
+            buffered += currentSSLOutputForwarder.getRemainingPlaintext();
+        }
+        return buffered;
+    }
+
+    /**
+     * unmaps written windows and forwards slices until more than the low watermark is buffered in the ChannelWriter and
+     * the SSLOutputForwarder
+     */
+    private synchronized void pump() throws IOException {
+        unmapWrittenWindows();
+        while (buffered() <= lowWatermark) {
+            if ((window == null) || !window.hasRemaining()) {
+                FileRegion fileRegion = fileRegions.peekFirst();
+                if (fileRegion == null) {
+                    break;
+                }
+                window = fileRegion.mapNext(windowSize);
+                if (!fileRegion.hasRemaining()) {
+                    fileRegions.removeFirst();
+                }
+                mappedWindowCounter.incrementAndGet();
+            }
+            ByteBuffer slice = window.duplicate();
+            slice.limit(Math.min(window.limit(), window.position() + sliceSize));
+            window.position(slice.limit());
+            sliceCounter.incrementAndGet();
+            if (nextForwarder == channelWriter) {
+                channelWriter.forwardShared(slice, false);
+            } else {
+                nextForwarder.forward(slice);
+            }
+            if (!window.hasRemaining()) {
+                windowForwarded();
+            }
+        }
+        active = !fileRegions.isEmpty() || (window != null) || !forwardedWindows.isEmpty();
+    }
+
+    private void windowForwarded() {
+        long writtenMark;
+        synchronized (channelWriter) {
+            // everything up to the last slice of the window is written when the counter reaches this mark
+            writtenMark = channelWriter.getWriteCounter() + channelWriter.remaining();
+        }
+        forwardedWindows.addLast(new ForwardedWindow(window, writtenMark));
+        window = null;
+        unmapWrittenWindows();
+    }
+
+    private void unmapWrittenWindows() {
+        long writeCounter = channelWriter.getWriteCounter();
+        for (ForwardedWindow forwardedWindow = forwardedWindows.peekFirst();
+            (forwardedWindow != null) && (forwardedWindow.writtenMark <= writeCounter);
+            forwardedWindow = forwardedWindows.peekFirst()) {
+            forwardedWindows.removeFirst();
+            if (Tools.unmap(forwardedWindow.window)) {
+                unmappedWindowCounter.incrementAndGet();
+            }
+        }
+    }
+
+    private static final class ForwardedWindow {
+
+        private final MappedByteBuffer window;
+        private final long writtenMark;
+
+        ForwardedWindow(MappedByteBuffer window, long writtenMark) {
+            this.window = window;
+            this.writtenMark = writtenMark;
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package cn.net.scp.nio.transform;
 
+import cn.net.scp.nio.HandlerAdapter;
+import cn.net.scp.nio.buffer.CompositeByteBuffer;
 import cn.net.scp.nio.ssl.HandshakeNotifier;
 import cn.net.scp.nio.utils.Tools;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
@@ -12,14 +18,38 @@ import javax.net.ssl.SSLSession;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-public class SSLInputForwarder extends AbstractForwarder<ByteBuffer, ByteBuffer> {
+/**
+ * Decrypts SSL/TLS input. Together with its {@link SSLOutputForwarder} it
+ * drives the handshake.
+ * <br><br>
+ * The delegated tasks of the SSLEngine (e.g. the RSA or ECDHE computations of
+ * a handshake) run on the thread that owns the connection by default. With
+ * {@link #setDelegatedTaskExecutor(Executor)} they are handed to a separate
+ * executor instead (see
+ * {@link cn.net.scp.nio.ssl.SSLTools#newHandshakeExecutor(int, int)}), so
+ * that a storm of handshakes does not stall the established connections of
+ * the dispatcher. Until the tasks are done, reading from the channel is
+ * suspended and input and output are only buffered. Then the handshake is
+ * continued on the thread that owns the connection. If the executor rejects
+ * the tasks, they run inline.
+ */
+public class SSLInputForwarder extends AbstractForwarder<ByteBuffer, ByteBuffer> implements HandlerAdapterAware {
 
     static final Logger logger = LogManager.getLogger();
 
+    private static final int TLS_HEADER_SIZE = 5;
+
     private SSLOutputForwarder sslOutputForwarder;
     private final SSLEngine sslEngine;
     private final AtomicLong plainTextCounter;
     private ByteBuffer cipherText, plainText;
+    /**
+     * Incomplete TLS records are collected here. Input is appended as an
+     * additional segment and only gathered into cipherText when at least one
+     * record is complete, so that large records arriving in many pieces are
+     * not copied over and over again.
+     */
+    private final CompositeByteBuffer pendingCipherText = new CompositeByteBuffer();
     private boolean switchToOutput;
     /**
      * The HandshakeNotifier is an utility class shared by an
@@ -27,6 +57,10 @@ public class SSLInputForwarder extends AbstractForwarder<ByteBuffer, ByteBuffer>
      * completed" events to a list of registered listeners.
      */
     private HandshakeNotifier handshakeNotifier;
+    private volatile Executor delegatedTaskExecutor;
+    private volatile HandlerAdapter handlerAdapter;
+    private final AtomicBoolean runningDelegatedTasks = new AtomicBoolean();
+    private final AtomicLong offloadedTaskCounter = new AtomicLong();
 
     /**
      * Creates a new instance of SSLInputForwarder
@@ -78,28 +112,54 @@ public class SSLInputForwarder extends AbstractForwarder<ByteBuffer, ByteBuffer>
         this.handshakeNotifier = handshakeNotifier;
     }
 
+    /**
+     * sets the executor for the delegated tasks of the SSLEngine, the
+     * HandlerAdapter of the connection must be set, too
+     * @param delegatedTaskExecutor the executor for the delegated tasks or
+     * null, if they run on the thread that owns the connection
+     */
+    public void setDelegatedTaskExecutor(Executor delegatedTaskExecutor) {
+        this.delegatedTaskExecutor = delegatedTaskExecutor;
+    }
+
+    @Override
+    public void setHandlerAdapter(HandlerAdapter handlerAdapter) {
+        this.handlerAdapter = handlerAdapter;
+    }
+
+    /**
+     * returns how many delegated tasks ran on the delegated task executor
+     * @return how many delegated tasks ran on the delegated task executor
+     */
+    public long getOffloadedTaskCounter() {
+        return offloadedTaskCounter.get();
+    }
+
     @Override
     public synchronized void forward(ByteBuffer input) throws IOException {
 
-        if (cipherText.hasRemaining()) {
-            logger.info("there is already buffered cipherText: " + cipherText);
+        if (runningDelegatedTasks.get()) {
+            // the SSLEngine can not continue before the tasks are done
+            pendingCipherText.appendCopy(input);
+            return;
+        }
+
+        if (cipherText.hasRemaining() || pendingCipherText.hasRemaining()) {
+            logger.info("there is already buffered cipherText: " + pendingCipherText);
             // there is already cipherText we could not decrypt
-            // append the new input to cipherText
-            cipherText = Tools.append(false, cipherText, input);
-            if (logger.isInfoEnabled()) {
-                logger.info("cipherText after appending input: " + cipherText);
-            }
-            // try decrypting the enlarged cipherText
-            decrypt(cipherText);
+            // append the new input to the pending cipherText
+            pendingCipherText.appendCopy(input);
+            // try decrypting all complete records
+            decryptPending();
 
         } else {
             // try direct decryption of input buffer without copying the data
             // over to the cipherText buffer
             decrypt(input);
 
-            // add remaining input to ciphertext
+            // add remaining input to the pending cipherText
             if (input.hasRemaining()) {
-                cipherText = Tools.append(false, cipherText, input);
+                pendingCipherText.appendCopy(input);
             }
         }
 
@@ -125,7 +185,129 @@ public class SSLInputForwarder extends AbstractForwarder<ByteBuffer, ByteBuffer>
     }
 
     synchronized void continueHandshake() throws IOException {
-        decrypt(cipherText);
+        decryptPending();
+    }
+
+    /**
+     * hands the delegated tasks of the SSLEngine to the delegated task
+     * executor, the handshake is continued on the thread that owns the
+     * connection when they are done
+     * @return <CODE>true</CODE>, if the tasks were handed over or are already
+     * running, <CODE>false</CODE> if they must run inline
+     */
+    boolean offloadDelegatedTasks() {
+        Executor executor = delegatedTaskExecutor;
+        final HandlerAdapter adapter = handlerAdapter;
+        if ((executor == null) || (adapter == null)) {
+            return false;
+        }
+        if (!runningDelegatedTasks.compareAndSet(false, true)) {
+            return true;
+        }
+        adapter.suspendReading();
+        try {
+            executor.execute(() -> {
+                RuntimeException failure = null;
+                try {
+                    for (Runnable task = sslEngine.getDelegatedTask(); task != null; task = sslEngine.getDelegatedTask()) {
+                        task.run();
+                        offloadedTaskCounter.incrementAndGet();
+                    }
+                } catch (RuntimeException ex) {
+                    failure = ex;
+                }
+                final RuntimeException taskFailure = failure;
+                adapter.execute(() -> resumeAfterDelegatedTasks(adapter, taskFailure));
+            });
+        } catch (RejectedExecutionException ex) {
+            logger.debug("delegated task executor is saturated, running tasks inline");
+            runningDelegatedTasks.set(false);
+            adapter.resumeReading();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * returns true, if the delegated tasks of the SSLEngine currently run on
+     * the delegated task executor
+     * @return true, if the delegated tasks of the SSLEngine currently run on
+     * the delegated task executor
+     */
+    boolean isRunningDelegatedTasks() {
+        return runningDelegatedTasks.get();
+    }
+
+    private void resumeAfterDelegatedTasks(HandlerAdapter adapter, RuntimeException taskFailure) {
+        runningDelegatedTasks.set(false);
+        adapter.resumeReading();
+        try {
+            if (taskFailure != null) {
+                throw new SSLException("delegated task failed", taskFailure);
+            }
+            // the SSLEngine may want to wrap (or there is buffered plain
+            // text) and there may be buffered cipher text
+            if (sslOutputForwarder != null) {
+                sslOutputForwarder.drain();
+            }
+            continueHandshake();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void decryptPending() throws IOException {
+        while (true) {
+            if (runningDelegatedTasks.get()) {
+                return;
+            }
+            if (!cipherText.hasRemaining()) {
+                int length = getCompleteRecordsLength();
+                if (length == 0) {
+                    // we need more data from our peer
+                    return;
+                }
+                cipherText = pendingCipherText.readBuffer(length);
+                if (logger.isTraceEnabled()) {
+                    logger.trace("cipherText of complete records: " + cipherText);
+                }
+            }
+            decrypt(cipherText);
+            if (cipherText.hasRemaining()) {
+                // the SSLEngine stopped unwrapping (handshake or closed)
+                return;
+            }
+        }
+    }
+
+    /**
+     * returns the length of all complete TLS records at the start of
+     * pendingCipherText
+     * @return the length of all complete TLS records at the start of
+     * pendingCipherText
+     */
+    private int getCompleteRecordsLength() {
+        int available = pendingCipherText.remaining();
+        int length = 0;
+        while (available - length >= TLS_HEADER_SIZE) {
+            int recordLength;
+            int firstByte = pendingCipherText.getUnsignedByte(length);
+            if ((firstByte & 0x80) != 0) {
+                // SSLv2 compatible ClientHello, 2 byte header
+                recordLength = (((firstByte & 0x7F) << 8) | pendingCipherText.getUnsignedByte(length + 1)) + 2;
+            } else {
+                recordLength = ((pendingCipherText.getUnsignedByte(length + 3) << 8) | pendingCipherText.getUnsignedByte(length + 4)) + TLS_HEADER_SIZE;
+            }
+            if (length + recordLength > available) {
+                break;
+            }
+            length += recordLength;
+        }
+        if ((length == 0) && (available >= sslEngine.getSession().getPacketBufferSize())) {
+            // not a record we understand, let the SSLEngine deal with it
+            return available;
+        }
+        return length;
     }
 
     private void decrypt(ByteBuffer input) throws IOException {
@@ -205,6 +387,9 @@ public class SSLInputForwarder extends AbstractForwarder<ByteBuffer, ByteBuffer>
                             return false;
 
                         case NEED_TASK:
+                            if (offloadDelegatedTasks()) {
+                                return false;
+                            }
                             for (Runnable runnable = sslEngine.getDelegatedTask(); runnable != null; ) {
                                 runnable.run();
                                 runnable = sslEngine.getDelegatedTask();
@@ -99,6 +99,15 @@ public class SSLOutputForwarder extends AbstractForwarder<ByteBuffer[], ByteBuff
             plainTextCounter.addAndGet(input.remaining());
         }
 
+        if (isRunningDelegatedTasks()) {
+            // the SSLEngine can not continue before the tasks are done
+            for (ByteBuffer input : inputs) {
+                plainText = Tools.append(false, plainText, input);
+            }
+            bufferListenerHandler.updateLevel(plainText.remaining());
+            return;
+        }
+
         if (plainText.hasRemaining()) {
             // There is already some pending data.
             // We must append the input buffers to plainText.
@@ -189,6 +198,10 @@ public class SSLOutputForwarder extends AbstractForwarder<ByteBuffer[], ByteBuff
     }
 
     synchronized void drain() throws IOException {
+        if (isRunningDelegatedTasks()) {
+            // continued when the tasks are done
+            return;
+        }
         /**
          * !!! We must not test here if the plaintext buffer contains data
          * before encryption. It may be empty when handshaking!!!
@@ -258,6 +271,9 @@ public class SSLOutputForwarder extends AbstractForwarder<ByteBuffer[], ByteBuff
                             switchToInput = true;
                             return false;
                         case NEED_TASK:
+                            if ((sslInputForwarder != null) && sslInputForwarder.offloadDelegatedTasks()) {
+                                return false;
+                            }
                             for (Runnable runnable = sslEngine.getDelegatedTask(); runnable != null; ) {
                                 runnable.run();
                                 runnable = sslEngine.getDelegatedTask();
@@ -292,6 +308,10 @@ public class SSLOutputForwarder extends AbstractForwarder<ByteBuffer[], ByteBuff
         }
     }
 
+    private boolean isRunningDelegatedTasks() {
+        return (sslInputForwarder != null) && sslInputForwarder.isRunningDelegatedTasks();
+    }
+
     private void cleanUp() throws IOException {
 
         // detect plain text fill level changes
@@ -4,32 +4,47 @@ import java.io.IOException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+/**
+ * A forwarder that splits a stream of Strings into tokens.
+ * <br><br>
+ * This forwarder is not synchronized, it must only be used by the thread that
+ * owns the connection (see {@link cn.net.scp.nio.HandlerAdapter}).
+ */
 public class SplitStringForwarder extends AbstractForwarder<String, String> {
 
     static final Logger logger = LogManager.getLogger();
 
-    private String buffer;
-    private String delimiter;
-    private int delimiterLength;
+    /**
+     * holds the incomplete token, new input is appended instead of creating a
+     * new concatenated String for every call
+     */
+    private final StringBuilder buffer = new StringBuilder();
+    private volatile String delimiter;
 
     /**
      * creates a new SplitStringForwarder
      * @param delimiter the delimiter for splitting strings
      */
     public SplitStringForwarder(String delimiter) {
-        setDelimiterPrivate(delimiter);
+        this.delimiter = delimiter;
     }
 
     @Override
-    public synchronized void forward(String input) throws IOException {
+    public void forward(String input) throws IOException {
         if (nextForwarder == null) {
             logger.error("nextForwarder == null -> data lost");
 
         } else {
-            if ((buffer != null) && (buffer.length() > 0)) {
-                splitString(buffer + input);
+            // read the delimiter only once, it may be changed concurrently
+            String currentDelimiter = delimiter;
+            if (buffer.length() > 0) {
+                // only the new input (and the last delimiterLength - 1 chars of
+                // the buffer) can contain a delimiter
+                int fromIndex = Math.max(0, buffer.length() - currentDelimiter.length() + 1);
+                buffer.append(input);
+                splitBuffer(currentDelimiter, fromIndex);
             } else {
-                splitString(input);
+                splitString(currentDelimiter, input);
             }
         }
     }
@@ -38,23 +53,30 @@ public class SplitStringForwarder extends AbstractForwarder<String, String> {
      * sets the delimiter
      * @param delimiter the delimiter for splitting strings
      */
-    public synchronized void setDelimiter(String delimiter) {
-        setDelimiterPrivate(delimiter);
-    }
-
-    private void setDelimiterPrivate(String delimiter) {
+    public void setDelimiter(String delimiter) {
         this.delimiter = delimiter;
-        delimiterLength = delimiter.length();
     }
 
-    private void splitString(String string) throws IOException {
+    private void splitString(String delimiter, String string) throws IOException {
+        int delimiterLength = delimiter.length();
         int offset = 0;
         for (int delimiterIndex = string.indexOf(delimiter, offset); delimiterIndex != -1; delimiterIndex = string.indexOf(delimiter, offset)) {
             String token = string.substring(offset, delimiterIndex);
             offset = delimiterIndex + delimiterLength;
             nextForwarder.forward(token);
         }
-        buffer = string.substring(offset);
+        buffer.append(string, offset, string.length());
+    }
+
+    private void splitBuffer(String delimiter, int fromIndex) throws IOException {
+        int delimiterLength = delimiter.length();
+        int offset = 0;
+        for (int delimiterIndex = buffer.indexOf(delimiter, fromIndex); delimiterIndex != -1; delimiterIndex = buffer.indexOf(delimiter, offset)) {
+            String token = buffer.substring(offset, delimiterIndex);
+            offset = delimiterIndex + delimiterLength;
+            nextForwarder.forward(token);
+        }
+        buffer.delete(0, offset);
     }
 
 }
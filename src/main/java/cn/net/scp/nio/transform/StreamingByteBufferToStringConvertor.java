@@ -0,0 +1,192 @@
+package cn.net.scp.nio.transform;
+
+import cn.net.scp.nio.utils.ByteSearch;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A convertor that decodes a stream of ByteBuffers into Strings.
+ * <br><br>
+ * In contrast to {@link ByteBufferToStringConvertor} a character whose byte
+ * sequence is split over several inputs (e.g. a multi-byte UTF-8 sequence at
+ * the end of a read operation) is not lost or corrupted. The incomplete byte
+ * sequence is kept and completed with the next input. The CharBuffer for
+ * decoding is reused for all inputs.
+ * <br><br>
+ * If the charset is ISO-8859-1, or if the charset is US-ASCII or UTF-8 and
+ * the input only contains 7 bit ASCII characters, the String is created
+ * directly from the bytes without using the CharsetDecoder.
+ * <br><br>
+ * Inputs are always consumed completely. Inputs that only contain an
+ * incomplete byte sequence do not produce a String.
+ * <br><br>
+ * This convertor is not synchronized, it must only be used by the thread
+ * that owns the connection (see {@link cn.net.scp.nio.HandlerAdapter}).
+ */
+public class StreamingByteBufferToStringConvertor extends AbstractConvertor<ByteBuffer, String> {
+
+    static final Logger logger = LogManager.getLogger();
+
+    /**
+     * large enough for the incomplete byte sequence of a single character in
+     * any charset
+     */
+    private static final int CARRY_CAPACITY = 16;
+
+    private final ByteBuffer carry = ByteBuffer.allocate(CARRY_CAPACITY);
+    private CharBuffer charBuffer = CharBuffer.allocate(1024);
+    /**
+     * for creating Strings from direct ByteBuffers on the fast path
+     */
+    private byte[] bytes = new byte[0];
+    private CharsetDecoder charsetDecoder;
+    private boolean latin1;
+    private boolean asciiCompatible;
+
+    /**
+     * creates a new StreamingByteBufferToStringConvertor that uses the
+     * default charset
+     */
+    public StreamingByteBufferToStringConvertor() {
+        this(Charset.defaultCharset());
+    }
+
+    /**
+     * creates a new StreamingByteBufferToStringConvertor
+     * @param charset the charset to use for decoding
+     */
+    public StreamingByteBufferToStringConvertor(Charset charset) {
+        setCharsetPrivate(charset);
+    }
+
+    /**
+     * sets the charset to use for decoding, an incomplete byte sequence of
+     * the previous charset is discarded
+     * @param charset the charset to use for decoding
+     */
+    public void setCharset(Charset charset) {
+        setCharsetPrivate(charset);
+    }
+
+    /**
+     * returns the number of bytes of an incomplete character that are kept
+     * until the next input arrives
+     * @return the number of bytes of an incomplete character
+     */
+    public int getPendingLength() {
+        return carry.position();
+    }
+
+    /**
+     * discards an incomplete byte sequence and resets the decoder, e.g. when
+     * the stream ends
+     */
+    public void reset() {
+        carry.clear();
+        charsetDecoder.reset();
+    }
+
+    @Override
+    public String convert(ByteBuffer input) throws ConvertException {
+        if (logger.isTraceEnabled()) {
+            logger.trace("convert " + input);
+        }
+        if ((carry.position() == 0) && (latin1 || (asciiCompatible
+            && ByteSearch.isAscii(input, input.position(), input.limit())))) {
+            return newLatin1String(input);
+        }
+        try {
+            return decode(input);
+        } catch (CharacterCodingException e) {
+            input.position(input.limit());
+            reset();
+            throw new ConvertException(e);
+        }
+    }
+
+    @Override
+    public void forward(ByteBuffer input) throws IOException {
+        if (nextForwarder == null) {
+            logger.info("no next forwarder => data lost!");
+        } else {
+            String msg;
+            try {
+                msg = convert(input);
+            } catch (ConvertException e) {
+                throw new IOException(e);
+            }
+            if (!msg.isEmpty()) {
+                nextForwarder.forward(msg);
+            }
+        }
+    }
+
+    private void setCharsetPrivate(Charset charset) {
+        charsetDecoder = charset.newDecoder();
+        latin1 = charset.equals(StandardCharsets.ISO_8859_1);
+        asciiCompatible = charset.equals(StandardCharsets.US_ASCII) || charset.equals(StandardCharsets.UTF_8);
+        carry.clear();
+    }
+
+    private String newLatin1String(ByteBuffer input) {
+        int length = input.remaining();
+        String string;
+        if (input.hasArray()) {
+            string = new String(input.array(), input.arrayOffset() + input.position(), length, StandardCharsets.ISO_8859_1);
+            input.position(input.limit());
+        } else {
+            if (bytes.length < length) {
+                bytes = new byte[length];
+            }
+            input.get(bytes, 0, length);
+            string = new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+        }
+        return string;
+    }
+
+    private String decode(ByteBuffer input) throws CharacterCodingException {
+        // completing a carried character needs at most two chars (a surrogate pair)
+        int capacity = (int) Math.ceil(input.remaining() * (double) charsetDecoder.maxCharsPerByte()) + 2;
+        if (charBuffer.capacity() < capacity) {
+            charBuffer = CharBuffer.allocate(capacity);
+        } else {
+            charBuffer.clear();
+        }
+
+        // complete a character that was split over the last and this input
+        while ((carry.position() > 0) && input.hasRemaining()) {
+            if (!carry.hasRemaining()) {
+                throw new CharacterCodingException();
+            }
+            carry.put(input.get());
+            carry.flip();
+            CoderResult result = charsetDecoder.decode(carry, charBuffer, false);
+            carry.compact();
+            if (result.isError()) {
+                result.throwException();
+            }
+        }
+
+        CoderResult result = charsetDecoder.decode(input, charBuffer, false);
+        if (result.isError()) {
+            result.throwException();
+        }
+        if (input.hasRemaining()) {
+            // the input ends with an incomplete character
+            if (input.remaining() > carry.remaining()) {
+                throw new CharacterCodingException();
+            }
+            carry.put(input);
+        }
+        charBuffer.flip();
+        return charBuffer.toString();
+    }
+}
@@ -1,24 +1,80 @@
 package cn.net.scp.nio.transform;
 
+import cn.net.scp.nio.buffer.AbstractBufferPool;
+import cn.net.scp.nio.buffer.EncodedBufferCache;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+/**
+ * A convertor that encodes Strings into ByteBuffers.
+ * <br><br>
+ * Where the encoded bytes are written to depends on the
+ * {@link ByteBufferForwardingMode}:
+ * <ul>
+ * <li>{@link ByteBufferForwardingMode#COPY}: a new ByteBuffer with the exact
+ * size is allocated for every String (the default).</li>
+ * <li>{@link ByteBufferForwardingMode#POOLED_COPY}: the ByteBuffer is taken
+ * from a buffer pool and belongs to the receiver.</li>
+ * <li>{@link ByteBufferForwardingMode#DIRECT}: the String is encoded into a
+ * ByteBuffer that is owned by this convertor and reused for the next String.
+ * The next forwarder must consume or copy the content before returning, like
+ * {@link ChannelWriter} does.</li>
+ * <li>{@link ByteBufferForwardingMode#DUPLICATE}: like
+ * {@link ByteBufferForwardingMode#DIRECT}, but a duplicate of the reused
+ * ByteBuffer is forwarded.</li>
+ * </ul>
+ * The chars of a String are copied into a reused CharBuffer and encoded
+ * straight into the destination buffer, i.e. with
+ * {@link ByteBufferForwardingMode#DIRECT} no objects are allocated per
+ * String. The CharsetEncoder has intrinsic fast paths for ASCII text in
+ * array backed buffers (e.g. for UTF-8), wrapping the String would bypass
+ * them.
+ */
 public class StringToByteBufferConvertor extends AbstractConvertor<String, ByteBuffer> {
 
     static final Logger logger = LogManager.getLogger();
+
+    private static final int MIN_BUFFER_SIZE = 1024;
+
+    private final ByteBufferForwardingMode byteBufferForwardingMode;
+    private final AbstractBufferPool<ByteBuffer> bufferPool;
     private CharsetEncoder charsetEncoder;
+    private Charset charset;
+    private EncodedBufferCache encodedBufferCache;
+    /**
+     * the reused buffer for {@link ByteBufferForwardingMode#DIRECT} and
+     * {@link ByteBufferForwardingMode#DUPLICATE} (and for encoding before
+     * copying with {@link ByteBufferForwardingMode#COPY})
+     */
+    private ByteBuffer buffer;
+    private CharBuffer charBuffer = CharBuffer.allocate(MIN_BUFFER_SIZE);
 
     public StringToByteBufferConvertor() {
         this(Charset.defaultCharset());
     }
 
     public StringToByteBufferConvertor(Charset charset) {
+        this(charset, ByteBufferForwardingMode.COPY, null);
+    }
+
+    /**
+     * creates a new StringToByteBufferConvertor
+     *
+     * @param charset the charset to use for transforming
+     * @param byteBufferForwardingMode determines where Strings are encoded to
+     * @param bufferPool the pool for {@link ByteBufferForwardingMode#POOLED_COPY} (may be null)
+     */
+    public StringToByteBufferConvertor(Charset charset, ByteBufferForwardingMode byteBufferForwardingMode,
+        AbstractBufferPool<ByteBuffer> bufferPool) {
+        this.byteBufferForwardingMode = byteBufferForwardingMode;
+        this.bufferPool = bufferPool;
         setCharsetPrivate(charset);
     }
 
@@ -31,25 +87,83 @@ public class StringToByteBufferConvertor extends AbstractConvertor<String, ByteB
         setCharsetPrivate(charset);
     }
 
+    /**
+     * returns the ByteBufferForwardingMode that determines where Strings are encoded to
+     *
+     * @return the ByteBufferForwardingMode that determines where Strings are encoded to
+     */
+    public ByteBufferForwardingMode getForwardingMode() {
+        return byteBufferForwardingMode;
+    }
+
+    /**
+     * sets the cache for encoded Strings, cacheable Strings are then forwarded as read-only duplicates of a shared
+     * buffer instead of being encoded (not used with {@link ByteBufferForwardingMode#POOLED_COPY}, because the
+     * receivers give the buffers back to the pool)
+     *
+     * @param encodedBufferCache the cache for encoded Strings or <code>null</code>, if every String must be encoded
+     */
+    public synchronized void setEncodedBufferCache(EncodedBufferCache encodedBufferCache) {
+        this.encodedBufferCache = encodedBufferCache;
+    }
+
+    /**
+     * returns the cache for encoded Strings
+     *
+     * @return the cache for encoded Strings or <code>null</code>, if no cache is used
+     */
+    public synchronized EncodedBufferCache getEncodedBufferCache() {
+        return encodedBufferCache;
+    }
+
     private void setCharsetPrivate(Charset charset) {
+        this.charset = charset;
         charsetEncoder = charset.newEncoder();
     }
 
     @Override
-    public ByteBuffer convert(String input) throws ConvertException {
-        logger.debug("convert : {}", input);
-        CharBuffer charBuffer = CharBuffer.allocate(input.length());
-        charBuffer.put(input);
-        charBuffer.flip();
+    public synchronized ByteBuffer convert(String input) throws ConvertException {
+        if (logger.isTraceEnabled()) {
+            logger.trace("convert : " + input);
+        }
+        if ((encodedBufferCache != null) && (byteBufferForwardingMode != ByteBufferForwardingMode.POOLED_COPY)
+            && encodedBufferCache.isCacheable(input)) {
+            try {
+                return encodedBufferCache.get(input, charset);
+            } catch (CharacterCodingException ex) {
+                throw new ConvertException(ex);
+            }
+        }
+        // copy the chars into the reused CharBuffer, the CharsetEncoder has
+        // much faster (intrinsic) loops for array backed buffers than for a
+        // wrapped String
+        int length = input.length();
+        if (charBuffer.capacity() < length) {
+            charBuffer = CharBuffer.allocate(Math.max(length, MIN_BUFFER_SIZE));
+        } else {
+            charBuffer.clear();
+        }
+        input.getChars(0, length, charBuffer.array(), 0);
+        charBuffer.limit(length);
+
+        int maxSize = (int) Math.ceil(length * (double) charsetEncoder.maxBytesPerChar());
         try {
-            return charsetEncoder.encode(charBuffer);
+            if (byteBufferForwardingMode == ByteBufferForwardingMode.COPY) {
+                // encode into the reused buffer and copy into a buffer with the exact size
+                ByteBuffer encoded = encode(getReusedBuffer(maxSize));
+                ByteBuffer byteBuffer = ByteBuffer.allocate(encoded.remaining());
+                byteBuffer.put(encoded);
+                byteBuffer.flip();
+                return byteBuffer;
+            }
+            return encode(getBuffer(maxSize));
         } catch (CharacterCodingException ex) {
             throw new ConvertException(ex);
         }
     }
 
     @Override
-    public void forward(String input) throws IOException {
+    public synchronized void forward(String input) throws IOException {
         if (nextForwarder == null) {
             logger.info("next forwarder == null -> data lost!");
         } else {
@@ -62,4 +176,51 @@ public class StringToByteBufferConvertor extends AbstractConvertor<String, ByteB
             }
         }
     }
+
+    /**
+     * returns a buffer with at least <tt>size</tt> bytes remaining
+     */
+    private ByteBuffer getBuffer(int size) {
+        switch (byteBufferForwardingMode) {
+            case DIRECT:
+                return getReusedBuffer(size);
+            case DUPLICATE:
+                return getReusedBuffer(size).duplicate();
+            case POOLED_COPY:
+                if (bufferPool != null) {
+                    return bufferPool.take(size);
+                }
+                return ByteBuffer.allocate(size);
+            default:
+                return ByteBuffer.allocate(size);
+        }
+    }
+
+    private ByteBuffer getReusedBuffer(int size) {
+        if ((buffer == null) || (buffer.capacity() < size)) {
+            buffer = ByteBuffer.allocate(Math.max(size, MIN_BUFFER_SIZE));
+        } else {
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    /**
+     * encodes the content of {@link #charBuffer} into a buffer that is large enough for every possible result
+     */
+    private ByteBuffer encode(ByteBuffer byteBuffer) throws CharacterCodingException {
+        charsetEncoder.reset();
+        CoderResult result = charsetEncoder.encode(charBuffer, byteBuffer, true);
+        if (result.isUnderflow()) {
+            result = charsetEncoder.flush(byteBuffer);
+        }
+        if (!result.isUnderflow()) {
+            if ((byteBufferForwardingMode == ByteBufferForwardingMode.POOLED_COPY) && (bufferPool != null)) {
+                bufferPool.give(byteBuffer);
+            }
+            result.throwException();
+        }
+        byteBuffer.flip();
+        return byteBuffer;
+    }
 }
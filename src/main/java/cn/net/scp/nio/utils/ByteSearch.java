@@ -0,0 +1,114 @@
+package cn.net.scp.nio.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Searches bytes in ByteBuffers eight bytes at a time ("SIMD within a register", SWAR).
+ * <br><br>
+ * All methods use absolute indices and do not change the position or limit of the given buffers.
+ */
+public final class ByteSearch {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    // enforce noninstantiability
+    private ByteSearch() {
+    }
+
+    /**
+     * returns the absolute index of the first occurrence of a byte value
+     *
+     * @param buffer the buffer to search in
+     * @param fromIndex the absolute index where the search starts (inclusive)
+     * @param toIndex the absolute index where the search ends (exclusive)
+     * @param value the byte value to search for
+     * @return the absolute index of the first occurrence or <code>-1</code>, if the value was not found
+     */
+    public static int indexOf(ByteBuffer buffer, int fromIndex, int toIndex, byte value) {
+        int index = fromIndex;
+        if (toIndex - index >= 8) {
+            long pattern = (value & 0xFFL) * ONES;
+            boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+            for (int end = toIndex - 8; index <= end; index += 8) {
+                long matches = zeroBytes(buffer.getLong(index) ^ pattern);
+                if (matches != 0) {
+                    // every matching byte has its high bit set, the first byte
+                    // in memory is the most significant one in big-endian order
+                    int offset = bigEndian ? Long.numberOfLeadingZeros(matches) : Long.numberOfTrailingZeros(matches);
+                    return index + (offset >>> 3);
+                }
+            }
+        }
+        for (; index < toIndex; index++) {
+            if (buffer.get(index) == value) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * returns the absolute index of the first occurrence of a byte sequence
+     *
+     * @param buffer the buffer to search in
+     * @param fromIndex the absolute index where the search starts (inclusive)
+     * @param toIndex the absolute index where the search ends (exclusive)
+     * @param sequence the byte sequence to search for
+     * @return the absolute index of the first occurrence or <code>-1</code>, if the sequence was not found
+     */
+    public static int indexOf(ByteBuffer buffer, int fromIndex, int toIndex, byte[] sequence) {
+        int sequenceLength = sequence.length;
+        if (sequenceLength == 1) {
+            return indexOf(buffer, fromIndex, toIndex, sequence[0]);
+        }
+        int lastStart = toIndex - sequenceLength;
+        byte first = sequence[0];
+        for (int index = fromIndex; index <= lastStart; index++) {
+            index = indexOf(buffer, index, lastStart + 1, first);
+            if (index == -1) {
+                return -1;
+            }
+            int i = 1;
+            while ((i < sequenceLength) && (buffer.get(index + i) == sequence[i])) {
+                i++;
+            }
+            if (i == sequenceLength) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * returns <code>true</code>, if all bytes in the given range are 7 bit ASCII characters
+     *
+     * @param buffer the buffer to check
+     * @param fromIndex the absolute index where the check starts (inclusive)
+     * @param toIndex the absolute index where the check ends (exclusive)
+     * @return <code>true</code>, if all bytes in the given range are 7 bit ASCII characters
+     */
+    public static boolean isAscii(ByteBuffer buffer, int fromIndex, int toIndex) {
+        int index = fromIndex;
+        for (int end = toIndex - 8; index <= end; index += 8) {
+            if ((buffer.getLong(index) & ~LOW_SEVEN_BITS) != 0) {
+                return false;
+            }
+        }
+        for (; index < toIndex; index++) {
+            if (buffer.get(index) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * returns a mask with the high bit set in every byte of <tt>word</tt> that is zero (without false positives)
+     */
+    private static long zeroBytes(long word) {
+        long t = (word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS;
+        return ~(t | word | LOW_SEVEN_BITS);
+    }
+}
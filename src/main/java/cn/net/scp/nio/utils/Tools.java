@@ -1,5 +1,8 @@
 package cn.net.scp.nio.utils;
 
+import cn.net.scp.nio.buffer.AbstractBufferPool;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.text.NumberFormat;
 import java.util.ResourceBundle;
@@ -28,12 +31,22 @@ public class Tools {
 
 
     public static ByteBuffer copyBuffer(ByteBuffer input, int size) {
+        return copyBuffer(input, size, null);
+    }
+
+
+    public static ByteBuffer copyBuffer(ByteBuffer input, int size, AbstractBufferPool<ByteBuffer> bufferPool) {
         int remaining = input.remaining();
         if (remaining < size) {
             throw new IllegalArgumentException("size (" + size + ") was larger than remaining input (" + remaining + ")");
         }
-        // allocate new buffer
-        ByteBuffer copy = input.isDirect() ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        // allocate new buffer (or take it from the pool)
+        ByteBuffer copy;
+        if (bufferPool == null) {
+            copy = input.isDirect() ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        } else {
+            copy = bufferPool.take(size);
+        }
 
         // copy data from input to copy without modifying input
         // (restore position and limit after copying)
@@ -49,6 +62,36 @@ public class Tools {
     }
 
 
+    /**
+     * releases the memory of a direct or mapped buffer at once instead of waiting for the garbage collector. The buffer
+     * and all its duplicates and slices must not be used afterwards, accessing them would crash the JVM.
+     *
+     * @param buffer the buffer, it must not be a duplicate or slice
+     * @return true, if the buffer was released, false if the JVM does not support it
+     */
+    public static boolean unmap(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return false;
+        }
+        try {
+            if (Unmapper.INVOKE_CLEANER != null) {
+                // Java 9 and later
+                Unmapper.INVOKE_CLEANER.invoke(Unmapper.UNSAFE, buffer);
+            } else {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner == null) {
+                    return false;
+                }
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return false;
+        }
+    }
+
     public static void handleStackTrace(Logger logger, Throwable throwable) {
         if (logger == null) {
             throwable.printStackTrace();
@@ -223,4 +266,27 @@ public class Tools {
         'ð', 'ñ', 'ò', 'ó', 'ô', 'õ', 'ö', '÷',
         'ø', 'ù', 'ú', 'û', 'ü', 'ý', 'þ', 'ÿ'
     };
+
+    private static final class Unmapper {
+
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                unsafe = theUnsafe.get(null);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                // Java 8, buffers are released with their cleaner
+                invokeCleaner = null;
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+    }
 }
@@ -0,0 +1,131 @@
+package cn.net.scp.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import cn.net.scp.nio.transform.ChannelWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BackpressureLinkTest {
+
+    private static final int LOW_WATERMARK = 64 * 1024;
+    private static final int HIGH_WATERMARK = 256 * 1024;
+
+    private Dispatcher dispatcher;
+    private ServerSocketChannel serverSocketChannel;
+
+    @Before
+    public void setUp() throws IOException {
+        dispatcher = new Dispatcher();
+        dispatcher.start();
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        serverSocketChannel.close();
+    }
+
+    @Test
+    public void slowDestinationSuspendsSource() throws Exception {
+        SocketChannel sourceClient = SocketChannel.open(serverSocketChannel.getLocalAddress());
+        SocketChannel destinationClient = SocketChannel.open(serverSocketChannel.getLocalAddress());
+        try {
+            TestHandler source = register();
+            TestHandler destination = register();
+            ChannelWriter channelWriter = destination.getChannelWriter();
+            // relay everything from the source to the destination
+            source.getChannelReader().setNextForwarder(channelWriter);
+            BackpressureLink link = BackpressureLink.link(channelWriter, source.handlerAdapter, LOW_WATERMARK,
+                HIGH_WATERMARK);
+
+            // send until the source is suspended and the socket buffers are full
+            sourceClient.configureBlocking(false);
+            ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+            long sent = 0;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            int idleRounds = 0;
+            while ((idleRounds < 100) && (System.nanoTime() < deadline)) {
+                chunk.clear();
+                int written = sourceClient.write(chunk);
+                sent += written;
+                if (written == 0) {
+                    idleRounds++;
+                    Thread.sleep(1);
+                } else {
+                    idleRounds = 0;
+                }
+            }
+            assertTrue(link.isSuspended());
+            assertTrue(source.handlerAdapter.isReadingSuspended());
+            assertEquals(1, link.getSuspendCounter());
+            // bounded by the high watermark plus one read
+            assertTrue(channelWriter.remaining() < HIGH_WATERMARK + 1024 * 1024);
+
+            // the destination catches up, the source is resumed
+            destinationClient.configureBlocking(false);
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long received = 0;
+            deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while ((received < sent) && (System.nanoTime() < deadline)) {
+                buffer.clear();
+                int read = destinationClient.read(buffer);
+                if (read == 0) {
+                    Thread.sleep(1);
+                }
+                received += read;
+            }
+            assertEquals(sent, received);
+            assertFalse(link.isSuspended());
+            assertFalse(source.handlerAdapter.isReadingSuspended());
+
+            link.unlink();
+            assertFalse(source.handlerAdapter.isReadingSuspended());
+        } finally {
+            sourceClient.close();
+            destinationClient.close();
+        }
+    }
+
+    private TestHandler register() throws Exception {
+        SocketChannel server = serverSocketChannel.accept();
+        server.configureBlocking(false);
+        TestHandler handler = new TestHandler();
+        dispatcher.registerChannel(server, handler);
+        assertNotNull(handler.registered.poll(10, TimeUnit.SECONDS));
+        return handler;
+    }
+
+    private static class TestHandler extends AbstractChannelHandler {
+
+        private final BlockingQueue<HandlerAdapter> registered = new LinkedBlockingQueue<>();
+
+        @Override
+        public void channelRegistered(HandlerAdapter handlerAdapter) {
+            super.channelRegistered(handlerAdapter);
+            registered.add(handlerAdapter);
+        }
+
+        @Override
+        public void inputClosed() {
+        }
+
+        @Override
+        public void channelException(Exception exception) {
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package cn.net.scp.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import cn.net.scp.nio.transform.AbstractForwarder;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DispatcherGroupTest {
+
+    private ServerSocketChannel serverSocketChannel;
+    private final List<SocketChannel> clients = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        serverSocketChannel.close();
+    }
+
+    @Test
+    public void migratedChannelKeepsReading() throws Exception {
+        DispatcherGroup group = new DispatcherGroup(2);
+        Connection connection = connect(group.getDispatcher(0), 0);
+        connection.roundTrip();
+
+        for (int target : new int[]{1, 0, 1}) {
+            Dispatcher dispatcher = group.getDispatcher(target);
+            connection.handlerAdapter.migrate(dispatcher);
+            waitForDispatcher(connection.handlerAdapter, dispatcher);
+            connection.roundTrip();
+            assertTrue(dispatcher.getHandlerAdapters().contains(connection.handlerAdapter));
+            assertEquals(0, group.getDispatcher(1 - target).getHandlerAdapters().size());
+        }
+    }
+
+    @Test
+    public void hotChannelsAreSpreadOverDispatchers() throws Exception {
+        DispatcherGroup group = new DispatcherGroup(2);
+        Connection first = connect(group.getDispatcher(0), 5);
+        Connection second = connect(group.getDispatcher(0), 5);
+        // start measuring
+        assertEquals(0, group.rebalance());
+
+        for (int i = 0; i < 3; i++) {
+            first.roundTrip();
+            second.roundTrip();
+        }
+        assertEquals(1, group.rebalance());
+        long[] loads = group.getLoads();
+        // the busy time of the last event may not be added yet
+        assertTrue(loads[0] >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(0, loads[1]);
+
+        // migrating is asynchronous
+        Dispatcher target = group.getDispatcher(1);
+        for (int i = 0; (i < 1000) && (target.getHandlerAdapters().size() == 0); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, group.getDispatcher(0).getHandlerAdapters().size());
+        assertEquals(1, target.getHandlerAdapters().size());
+        first.roundTrip();
+        second.roundTrip();
+    }
+
+    private Connection connect(Dispatcher dispatcher, final long busyMillis) throws Exception {
+        SocketChannel client = SocketChannel.open(serverSocketChannel.getLocalAddress());
+        clients.add(client);
+        SocketChannel server = serverSocketChannel.accept();
+        server.configureBlocking(false);
+        final Connection connection = new Connection(client);
+        final BlockingQueue<HandlerAdapter> registered = new LinkedBlockingQueue<>();
+        AbstractChannelHandler handler = new AbstractChannelHandler() {
+            @Override
+            public void channelRegistered(HandlerAdapter handlerAdapter) {
+                super.channelRegistered(handlerAdapter);
+                registered.add(handlerAdapter);
+            }
+
+            @Override
+            public void inputClosed() {
+            }
+
+            @Override
+            public void channelException(Exception exception) {
+            }
+        };
+        handler.getChannelReader().setNextForwarder(new AbstractForwarder<ByteBuffer, Void>() {
+            @Override
+            public void forward(ByteBuffer input) {
+                // simulate expensive processing
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(busyMillis);
+                while (System.nanoTime() < end) {
+                    Thread.yield();
+                }
+                while (input.hasRemaining()) {
+                    connection.received.add(input.get());
+                }
+            }
+        });
+        dispatcher.registerChannel(server, handler);
+        connection.handlerAdapter = registered.poll(10, TimeUnit.SECONDS);
+        assertNotNull(connection.handlerAdapter);
+        return connection;
+    }
+
+    private static void waitForDispatcher(HandlerAdapter handlerAdapter, Dispatcher dispatcher) throws InterruptedException {
+        for (int i = 0; (i < 1000) && (handlerAdapter.getDispatcher() != dispatcher); i++) {
+            Thread.sleep(10);
+        }
+        assertSame(dispatcher, handlerAdapter.getDispatcher());
+    }
+
+    private static class Connection {
+
+        private final SocketChannel client;
+        private final BlockingQueue<Byte> received = new LinkedBlockingQueue<>();
+        private HandlerAdapter handlerAdapter;
+        private byte counter;
+
+        Connection(SocketChannel client) {
+            this.client = client;
+        }
+
+        void roundTrip() throws Exception {
+            counter++;
+            client.write(ByteBuffer.wrap(new byte[]{counter}));
+            assertEquals(Byte.valueOf(counter), received.poll(10, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package cn.net.scp.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import cn.net.scp.nio.transform.AbstractForwarder;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class DispatcherTest {
+
+    @Test
+    public void channelsSurviveSelectorRebuild() throws Exception {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.start();
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+            serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (SocketChannel client = SocketChannel.open(serverSocketChannel.getLocalAddress())) {
+                SocketChannel server = serverSocketChannel.accept();
+                server.configureBlocking(false);
+
+                final BlockingQueue<HandlerAdapter> registered = new LinkedBlockingQueue<>();
+                final BlockingQueue<Byte> received = new LinkedBlockingQueue<>();
+                AbstractChannelHandler handler = new AbstractChannelHandler() {
+                    @Override
+                    public void channelRegistered(HandlerAdapter handlerAdapter) {
+                        super.channelRegistered(handlerAdapter);
+                        registered.add(handlerAdapter);
+                    }
+
+                    @Override
+                    public void inputClosed() {
+                    }
+
+                    @Override
+                    public void channelException(Exception exception) {
+                    }
+                };
+                handler.getChannelReader().setNextForwarder(new AbstractForwarder<ByteBuffer, Void>() {
+                    @Override
+                    public void forward(ByteBuffer input) {
+                        while (input.hasRemaining()) {
+                            received.add(input.get());
+                        }
+                    }
+                });
+                dispatcher.registerChannel(server, handler);
+                HandlerAdapter handlerAdapter = registered.poll(10, TimeUnit.SECONDS);
+                assertNotNull(handlerAdapter);
+                SelectionKey oldKey = handlerAdapter.getSelectionKey();
+
+                client.write(ByteBuffer.wrap(new byte[]{1}));
+                assertEquals(Byte.valueOf((byte) 1), received.poll(10, TimeUnit.SECONDS));
+
+                dispatcher.requestSelectorRebuild();
+                for (int i = 0; (i < 1000) && (dispatcher.getSelectorRebuildCounter() == 0); i++) {
+                    Thread.sleep(10);
+                }
+                assertEquals(1, dispatcher.getSelectorRebuildCounter());
+                SelectionKey newKey = handlerAdapter.getSelectionKey();
+                assertNotSame(oldKey, newKey);
+                assertTrue(newKey.isValid());
+                assertEquals(SelectionKey.OP_READ, dispatcher.getInterestOps(newKey));
+
+                client.write(ByteBuffer.wrap(new byte[]{2}));
+                assertEquals(Byte.valueOf((byte) 2), received.poll(10, TimeUnit.SECONDS));
+                assertTrue(dispatcher.getHandlerAdapters().contains(handlerAdapter));
+            }
+        }
+    }
+}
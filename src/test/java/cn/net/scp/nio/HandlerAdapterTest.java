@@ -0,0 +1,140 @@
+package cn.net.scp.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import cn.net.scp.nio.transform.AbstractForwarder;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class HandlerAdapterTest {
+
+    private static final int OUTPUT_SIZE = 8 * 1024 * 1024;
+
+    @Test
+    public void fullDuplexDrainsWhileReadSideIsBusy() throws Exception {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.start();
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+            serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (SocketChannel client = SocketChannel.open(serverSocketChannel.getLocalAddress())) {
+                SocketChannel server = serverSocketChannel.accept();
+                server.configureBlocking(false);
+
+                final BlockingQueue<HandlerAdapter> registered = new LinkedBlockingQueue<>();
+                final CountDownLatch reading = new CountDownLatch(1);
+                final CountDownLatch release = new CountDownLatch(1);
+                AbstractChannelHandler handler = new AbstractChannelHandler() {
+                    @Override
+                    public void channelRegistered(HandlerAdapter handlerAdapter) {
+                        super.channelRegistered(handlerAdapter);
+                        handlerAdapter.setFullDuplex(true);
+                        registered.add(handlerAdapter);
+                    }
+
+                    @Override
+                    public void inputClosed() {
+                    }
+
+                    @Override
+                    public void channelException(Exception exception) {
+                    }
+                };
+                handler.getChannelReader().setNextForwarder(new AbstractForwarder<ByteBuffer, Void>() {
+                    @Override
+                    public void forward(ByteBuffer input) {
+                        // a slow read pipeline
+                        input.position(input.limit());
+                        reading.countDown();
+                        try {
+                            release.await(30, TimeUnit.SECONDS);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+                dispatcher.registerChannel(server, handler);
+                HandlerAdapter handlerAdapter = registered.poll(10, TimeUnit.SECONDS);
+                assertNotNull(handlerAdapter);
+
+                client.write(ByteBuffer.wrap(new byte[]{1}));
+                assertTrue(reading.await(10, TimeUnit.SECONDS));
+
+                // more than the socket buffers can take, the rest must be drained by the write side
+                handler.getChannelWriter().forward(ByteBuffer.allocate(OUTPUT_SIZE));
+                assertTrue(handler.getChannelWriter().hasRemaining());
+
+                client.configureBlocking(false);
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                long received = 0;
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while ((received < OUTPUT_SIZE) && (System.nanoTime() < deadline)) {
+                    buffer.clear();
+                    int read = client.read(buffer);
+                    if (read == 0) {
+                        Thread.sleep(1);
+                    }
+                    received += read;
+                }
+                assertEquals(OUTPUT_SIZE, received);
+                // the read side is still busy
+                assertEquals(1, release.getCount());
+                assertFalse(handler.getChannelWriter().hasRemaining());
+                release.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void failingTaskClosesTheChannel() throws Exception {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.start();
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+            serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (SocketChannel client = SocketChannel.open(serverSocketChannel.getLocalAddress())) {
+                SocketChannel server = serverSocketChannel.accept();
+                server.configureBlocking(false);
+
+                final BlockingQueue<HandlerAdapter> registered = new LinkedBlockingQueue<>();
+                final BlockingQueue<Exception> exceptions = new LinkedBlockingQueue<>();
+                AbstractChannelHandler handler = new AbstractChannelHandler() {
+                    @Override
+                    public void channelRegistered(HandlerAdapter handlerAdapter) {
+                        super.channelRegistered(handlerAdapter);
+                        registered.add(handlerAdapter);
+                    }
+
+                    @Override
+                    public void inputClosed() {
+                    }
+
+                    @Override
+                    public void channelException(Exception exception) {
+                        exceptions.add(exception);
+                    }
+                };
+                dispatcher.registerChannel(server, handler);
+                HandlerAdapter handlerAdapter = registered.poll(10, TimeUnit.SECONDS);
+                assertNotNull(handlerAdapter);
+
+                final IllegalStateException failure = new IllegalStateException("test");
+                handlerAdapter.execute(() -> {
+                    throw failure;
+                });
+                assertSame(failure, exceptions.poll(10, TimeUnit.SECONDS));
+                assertFalse(server.isOpen());
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package cn.net.scp.nio.benchmark;
+
+import cn.net.scp.nio.transform.AbstractForwarder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Measures the cost per message of forwarder chains with increasing depth,
+ * once with a monitor per stage (like the stages before the single owner
+ * threading model) and once without synchronization (like the stages of a
+ * {@link cn.net.scp.nio.pipeline.Pipeline}).
+ */
+public class ChainDepthBenchmark {
+
+    private static final int MESSAGES = 5000000;
+    private static final int ROUNDS = 5;
+    private static final int[] DEPTHS = {1, 2, 3, 5, 8, 12, 16};
+
+    public static void main(String[] args) throws IOException {
+        ByteBuffer message = ByteBuffer.allocate(64);
+        for (int depth : DEPTHS) {
+            Sink synchronizedSink = new Sink();
+            AbstractForwarder<ByteBuffer, ByteBuffer> synchronizedHead = createChain(depth, true, synchronizedSink);
+            Sink ownedSink = new Sink();
+            AbstractForwarder<ByteBuffer, ByteBuffer> ownedHead = createChain(depth, false, ownedSink);
+            long synchronizedNanos = run(synchronizedHead, synchronizedSink, message);
+            long ownedNanos = run(ownedHead, ownedSink, message);
+            System.out.printf("depth %2d:\tsynchronized %6.1f ns/msg,\towner thread %6.1f ns/msg%n",
+                depth, (double) synchronizedNanos / MESSAGES, (double) ownedNanos / MESSAGES);
+        }
+    }
+
+    private static AbstractForwarder<ByteBuffer, ByteBuffer> createChain(int depth, boolean synchronize, Sink sink) {
+        AbstractForwarder<ByteBuffer, ?> next = sink;
+        AbstractForwarder<ByteBuffer, ByteBuffer> stage = null;
+        for (int i = 0; i < depth; i++) {
+            stage = synchronize ? new SynchronizedStage() : new OwnedStage();
+            stage.setNextForwarder(next);
+            next = stage;
+        }
+        return stage;
+    }
+
+    private static long run(AbstractForwarder<ByteBuffer, ?> head, Sink sink, ByteBuffer message) throws IOException {
+        long bestNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            sink.count = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++) {
+                head.forward(message);
+            }
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            if (sink.count != MESSAGES) {
+                throw new IllegalStateException("received " + sink.count + " messages");
+            }
+        }
+        return bestNanos;
+    }
+
+    /**
+     * a stage with a little bit of state, like most real stages
+     */
+    private static class SynchronizedStage extends AbstractForwarder<ByteBuffer, ByteBuffer> {
+
+        private long bytes;
+
+        @Override
+        public synchronized void forward(ByteBuffer input) throws IOException {
+            bytes += input.remaining();
+            nextForwarder.forward(input);
+        }
+    }
+
+    private static class OwnedStage extends AbstractForwarder<ByteBuffer, ByteBuffer> {
+
+        private long bytes;
+
+        @Override
+        public void forward(ByteBuffer input) throws IOException {
+            bytes += input.remaining();
+            nextForwarder.forward(input);
+        }
+    }
+
+    private static class Sink extends AbstractForwarder<ByteBuffer, Void> {
+
+        private int count;
+
+        @Override
+        public void forward(ByteBuffer input) {
+            count++;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package cn.net.scp.nio.benchmark;
+
+import cn.net.scp.nio.transform.AbstractForwarder;
+import cn.net.scp.nio.transform.ByteBufferToStringConvertor;
+import cn.net.scp.nio.transform.DelimiterInputForwarder;
+import cn.net.scp.nio.transform.SplitStringForwarder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Splits a newline-delimited log stream with {@link SplitStringForwarder}
+ * (behind a {@link ByteBufferToStringConvertor}) and with
+ * {@link DelimiterInputForwarder} (with and without decoding the lines).
+ */
+public class DelimiterBenchmark {
+
+    private static final int LINE_COUNT = 200000;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        ByteBuffer stream = createLogStream();
+        for (int segmentSize : new int[]{64, 1460, 16384}) {
+            LineCounter stringCounter = new LineCounter();
+            ByteBufferToStringConvertor splitConvertor = new ByteBufferToStringConvertor(StandardCharsets.US_ASCII);
+            SplitStringForwarder splitStringForwarder = new SplitStringForwarder("\n");
+            splitConvertor.setNextForwarder(splitStringForwarder);
+            splitStringForwarder.setNextForwarder(stringCounter);
+            long splitNanos = run(splitConvertor, stringCounter, stream, segmentSize);
+
+            BufferCounter bufferCounter = new BufferCounter();
+            DelimiterInputForwarder bytes = DelimiterInputForwarder.lines(4096);
+            bytes.setNextForwarder(bufferCounter);
+            long bytesNanos = run(bytes, bufferCounter, stream, segmentSize);
+
+            LineCounter decodedCounter = new LineCounter();
+            DelimiterInputForwarder decoded = DelimiterInputForwarder.lines(4096);
+            ByteBufferToStringConvertor lineConvertor = new ByteBufferToStringConvertor(StandardCharsets.US_ASCII);
+            decoded.setNextForwarder(lineConvertor);
+            lineConvertor.setNextForwarder(decodedCounter);
+            long decodedNanos = run(decoded, decodedCounter, stream, segmentSize);
+
+            System.out.println("segment size " + segmentSize + ":\tSplitStringForwarder " + (splitNanos / LINE_COUNT)
+                + " ns/line,\tDelimiterInputForwarder " + (bytesNanos / LINE_COUNT)
+                + " ns/line,\tDelimiterInputForwarder + decoding " + (decodedNanos / LINE_COUNT) + " ns/line");
+        }
+    }
+
+    private static ByteBuffer createLogStream() {
+        Random random = new Random(42);
+        StringBuilder stringBuilder = new StringBuilder();
+        String[] levels = {"INFO ", "DEBUG", "WARN ", "ERROR"};
+        for (int i = 0; i < LINE_COUNT; i++) {
+            stringBuilder.append("2024-01-01 12:00:").append(10 + (i % 50)).append('.').append(100 + (i % 900));
+            stringBuilder.append(' ').append(levels[random.nextInt(levels.length)]).append(" [worker-").append(random.nextInt(16));
+            stringBuilder.append("] cn.net.scp.nio.Dispatcher - processed request ").append(random.nextInt(1000000));
+            for (int j = random.nextInt(60); j > 0; j--) {
+                stringBuilder.append((char) ('a' + random.nextInt(26)));
+            }
+            stringBuilder.append('\n');
+        }
+        return ByteBuffer.wrap(stringBuilder.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static long run(AbstractForwarder<ByteBuffer, ?> forwarder, Counter counter, ByteBuffer stream, int segmentSize) throws IOException {
+        long bestNanos = Long.MAX_VALUE;
+        ByteBuffer segment = stream.duplicate();
+        for (int round = 0; round < ROUNDS; round++) {
+            counter.reset();
+            long start = System.nanoTime();
+            for (int position = 0, limit = stream.limit(); position < limit; position += segmentSize) {
+                segment.limit(Math.min(position + segmentSize, limit));
+                segment.position(position);
+                forwarder.forward(segment);
+            }
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            if (counter.getLines() != LINE_COUNT) {
+                throw new IllegalStateException("split " + counter.getLines() + " lines");
+            }
+        }
+        return bestNanos;
+    }
+
+    private interface Counter {
+
+        void reset();
+
+        int getLines();
+    }
+
+    private static class LineCounter extends AbstractForwarder<String, Void> implements Counter {
+
+        private int lines;
+
+        @Override
+        public void forward(String input) {
+            lines++;
+        }
+
+        @Override
+        public void reset() {
+            lines = 0;
+        }
+
+        @Override
+        public int getLines() {
+            return lines;
+        }
+    }
+
+    private static class BufferCounter extends AbstractForwarder<ByteBuffer, Void> implements Counter {
+
+        private int lines;
+
+        @Override
+        public void forward(ByteBuffer input) {
+            lines++;
+            input.position(input.limit());
+        }
+
+        @Override
+        public void reset() {
+            lines = 0;
+        }
+
+        @Override
+        public int getLines() {
+            return lines;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package cn.net.scp.nio.benchmark;
+
+import cn.net.scp.nio.buffer.ByteBufferPool;
+import cn.net.scp.nio.transform.AbstractForwarder;
+import cn.net.scp.nio.transform.ByteBufferForwardingMode;
+import cn.net.scp.nio.transform.FramingInputForwarder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Feeds a stream of length prefixed frames in TCP segment sized pieces
+ * through a FramingInputForwarder and prints the throughput for every
+ * forwarding mode, once with small frames and once with multi-MB frames.
+ */
+public class FramingInputBenchmark {
+
+    private static final int HEADER_SIZE = 4;
+    private static final int SEGMENT_SIZE = 1460;
+
+    public static void main(String[] args) throws IOException {
+        runAll(64, 200000, 10);
+        runAll(4 * 1024 * 1024, 8, 3);
+    }
+
+    private static void runAll(int frameSize, int frameCount, int rounds) throws IOException {
+        ByteBuffer stream = createStream(frameSize, frameCount);
+        System.out.println("frame size " + frameSize + " byte, " + frameCount + " frames");
+        System.out.println("mode\t\tMB/s\tns/frame");
+        for (ByteBufferForwardingMode mode : ByteBufferForwardingMode.values()) {
+            // warm up
+            run(stream, mode);
+            long bestNanos = Long.MAX_VALUE;
+            for (int i = 0; i < rounds; i++) {
+                bestNanos = Math.min(bestNanos, run(stream, mode));
+            }
+            double megaBytes = (double) stream.capacity() / (1024 * 1024);
+            System.out.println(mode + "\t\t" + (long) (megaBytes * 1e9 / bestNanos) + "\t" + (bestNanos / frameCount));
+        }
+        System.out.println();
+    }
+
+    private static long run(ByteBuffer stream, ByteBufferForwardingMode mode) throws IOException {
+        ByteBufferPool pool = new ByteBufferPool();
+        FramingInputForwarder framingInputForwarder = new FramingInputForwarder(HEADER_SIZE, mode, pool, Integer.MAX_VALUE);
+        CountingForwarder countingForwarder = new CountingForwarder(mode == ByteBufferForwardingMode.POOLED_COPY ? pool : null);
+        framingInputForwarder.setNextForwarder(countingForwarder);
+        ByteBuffer segment = stream.duplicate();
+        long start = System.nanoTime();
+        for (int position = 0, capacity = stream.capacity(); position < capacity; position += SEGMENT_SIZE) {
+            segment.limit(Math.min(position + SEGMENT_SIZE, capacity));
+            segment.position(position);
+            framingInputForwarder.forward(segment);
+        }
+        long nanos = System.nanoTime() - start;
+        if (countingForwarder.bytes != stream.capacity() - framingInputForwarder.getHeaderCounter()) {
+            throw new IllegalStateException("lost data in mode " + mode);
+        }
+        return nanos;
+    }
+
+    private static ByteBuffer createStream(int frameSize, int frameCount) {
+        ByteBuffer stream = ByteBuffer.allocate((HEADER_SIZE + frameSize) * frameCount);
+        for (int i = 0; i < frameCount; i++) {
+            stream.putInt(frameSize);
+            for (int j = 0; j < frameSize; j++) {
+                stream.put((byte) j);
+            }
+        }
+        stream.flip();
+        return stream;
+    }
+
+    private static class CountingForwarder extends AbstractForwarder<ByteBuffer, Void> {
+
+        private final ByteBufferPool pool;
+        private long bytes;
+
+        CountingForwarder(ByteBufferPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void forward(ByteBuffer input) {
+            bytes += input.remaining();
+            input.position(input.limit());
+            if (pool != null) {
+                pool.give(input);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package cn.net.scp.nio.benchmark;
+
+import cn.net.scp.nio.transform.AbstractForwarder;
+import cn.net.scp.nio.transform.ByteBufferForwardingMode;
+import cn.net.scp.nio.transform.LengthFieldFormat;
+import cn.net.scp.nio.transform.LengthFieldOutputForwarder;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+/**
+ * Frames small messages one by one and in batches, with and without
+ * coalescing header and body, and reports the time and the allocated bytes
+ * per message (HotSpot only).
+ */
+public class FramingOutputBenchmark {
+
+    private static final int MESSAGE_SIZE = 32;
+    private static final int MESSAGE_COUNT = 1000000;
+    private static final int BATCH_SIZE = 64;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        for (ByteBufferForwardingMode mode : new ByteBufferForwardingMode[]{ByteBufferForwardingMode.DIRECT, ByteBufferForwardingMode.DUPLICATE}) {
+            run(mode + ", single", mode, 0, 1);
+            run(mode + ", single, coalesced", mode, MESSAGE_SIZE, 1);
+            run(mode + ", batch", mode, 0, BATCH_SIZE);
+            run(mode + ", batch, coalesced", mode, MESSAGE_SIZE, BATCH_SIZE);
+        }
+    }
+
+    private static void run(String name, ByteBufferForwardingMode mode, int coalesceThreshold, int batchSize) throws IOException {
+        LengthFieldOutputForwarder encoder = new LengthFieldOutputForwarder(LengthFieldFormat.bigEndian(4), mode);
+        encoder.setCoalesceThreshold(coalesceThreshold);
+        WritingForwarder writingForwarder = new WritingForwarder();
+        encoder.setNextForwarder(writingForwarder);
+        ByteBuffer[][] batch = new ByteBuffer[batchSize][];
+        for (int i = 0; i < batchSize; i++) {
+            batch[i] = new ByteBuffer[]{ByteBuffer.allocate(MESSAGE_SIZE)};
+        }
+
+        long bestNanos = Long.MAX_VALUE;
+        long allocatedBytes = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long allocatedBefore = getAllocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGE_COUNT; i += batchSize) {
+                for (ByteBuffer[] message : batch) {
+                    message[0].clear();
+                }
+                if (batchSize == 1) {
+                    encoder.forward(batch[0]);
+                } else {
+                    encoder.forwardBatch(batch);
+                }
+            }
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            allocatedBytes = getAllocatedBytes() - allocatedBefore;
+        }
+        System.out.println(name + ":\t" + (bestNanos / MESSAGE_COUNT) + " ns/msg,\t"
+            + (allocatedBytes / MESSAGE_COUNT) + " allocated bytes/msg,\t" + (writingForwarder.writes / ROUNDS) + " gathering writes");
+    }
+
+    private static long getAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * simulates a gathering write that consumes the whole array
+     */
+    private static class WritingForwarder extends AbstractForwarder<ByteBuffer[], Void> {
+
+        private long writes;
+
+        @Override
+        public void forward(ByteBuffer[] input) {
+            writes++;
+            for (ByteBuffer byteBuffer : input) {
+                byteBuffer.position(byteBuffer.limit());
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package cn.net.scp.nio.benchmark;
+
+import cn.net.scp.nio.CustomThreadFactory;
+import cn.net.scp.nio.executor.RingBufferExecutor;
+import cn.net.scp.nio.executor.WaitStrategy;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands events from one producer thread (like the selector thread of the
+ * Dispatcher) to worker threads at a fixed rate of 1M events/s and measures
+ * the achieved rate and the latency from handing over to running, once with
+ * the default executor of the Dispatcher, once with a fixed thread pool and
+ * once with a {@link RingBufferExecutor} per wait strategy.
+ * <br><br>
+ * Usage: HandoffBenchmark [workers] [events]
+ */
+public class HandoffBenchmark {
+
+    private static final long EVENTS_PER_SECOND = 1000000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int workers = (args.length > 0) ? Integer.parseInt(args[0])
+            : Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        int events = (args.length > 1) ? Integer.parseInt(args[1]) : 2000000;
+        System.out.println(workers + " workers, " + events + " events at " + EVENTS_PER_SECOND + " events/s");
+
+        ExecutorService cached = Executors.newCachedThreadPool(new CustomThreadFactory());
+        run("cached thread pool (default)", cached, events);
+        cached.shutdown();
+        ExecutorService fixed = Executors.newFixedThreadPool(workers, new CustomThreadFactory());
+        run("fixed thread pool", fixed, events);
+        fixed.shutdown();
+
+        String[] names = {"ring buffer, blocking", "ring buffer, sleeping", "ring buffer, yielding", "ring buffer, busy spin"};
+        WaitStrategy[] waitStrategies = {WaitStrategy.blocking(), WaitStrategy.sleeping(50, TimeUnit.MICROSECONDS),
+            WaitStrategy.yielding(), WaitStrategy.busySpin()};
+        for (int i = 0; i < names.length; i++) {
+            RingBufferExecutor ringBufferExecutor = new RingBufferExecutor(4096, workers, waitStrategies[i]);
+            run(names[i], ringBufferExecutor, events);
+            ringBufferExecutor.shutdown();
+        }
+    }
+
+    private static void run(String name, Executor executor, int events) throws InterruptedException {
+        // warm up
+        measure(executor, events / 4);
+        long[] latencies = new long[events];
+        long nanos = measure(executor, latencies);
+        Arrays.sort(latencies);
+        System.out.printf("%-30s %8.0f events/s,\tlatency p50 %7.1f us,\tp99 %8.1f us,\tp99.9 %8.1f us%n", name,
+            events * 1e9 / nanos, latencies[events / 2] / 1e3, latencies[(int) (events * 0.99)] / 1e3,
+            latencies[(int) (events * 0.999)] / 1e3);
+    }
+
+    private static void measure(Executor executor, int events) throws InterruptedException {
+        measure(executor, new long[events]);
+    }
+
+    private static long measure(Executor executor, long[] latencies) throws InterruptedException {
+        int events = latencies.length;
+        CountDownLatch done = new CountDownLatch(events);
+        long start = System.nanoTime();
+        long interval = TimeUnit.SECONDS.toNanos(1) / EVENTS_PER_SECOND;
+        for (int i = 0; i < events; i++) {
+            long due = start + i * interval;
+            while (System.nanoTime() < due) {
+                // pace the producer
+            }
+            Event event = new Event(latencies, i, done);
+            event.submitted = System.nanoTime();
+            executor.execute(event);
+        }
+        if (!done.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("events were lost");
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static class Event implements Runnable {
+
+        private final long[] latencies;
+        private final int index;
+        private final CountDownLatch done;
+        private long submitted;
+
+        Event(long[] latencies, int index, CountDownLatch done) {
+            this.latencies = latencies;
+            this.index = index;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            latencies[index] = System.nanoTime() - submitted;
+            done.countDown();
+        }
+    }
+}
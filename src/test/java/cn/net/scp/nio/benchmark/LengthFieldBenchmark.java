@@ -0,0 +1,99 @@
+package cn.net.scp.nio.benchmark;
+
+import cn.net.scp.nio.transform.AbstractForwarder;
+import cn.net.scp.nio.transform.ByteBufferForwardingMode;
+import cn.net.scp.nio.transform.LengthFieldFormat;
+import cn.net.scp.nio.transform.LengthFieldInputForwarder;
+import cn.net.scp.nio.transform.LengthFieldOutputForwarder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Measures encoding and decoding of small messages for every length field
+ * variant (byte order, varint, offset, length including the header, header
+ * stripping).
+ */
+public class LengthFieldBenchmark {
+
+    private static final int MESSAGE_SIZE = 32;
+    private static final int MESSAGE_COUNT = 500000;
+    private static final int SEGMENT_SIZE = 1460;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        run("big-endian 4", LengthFieldFormat.bigEndian(4));
+        run("little-endian 2", LengthFieldFormat.littleEndian(2));
+        run("varint", LengthFieldFormat.varint());
+        run("offset 1, incl. header", new LengthFieldFormat(1, 2, ByteOrder.BIG_ENDIAN, 0, true, true));
+        run("not stripped", new LengthFieldFormat(0, 4, ByteOrder.BIG_ENDIAN, 0, false, false));
+    }
+
+    private static void run(String name, LengthFieldFormat format) throws IOException {
+        ByteBuffer message = ByteBuffer.allocate(MESSAGE_SIZE);
+        ByteBuffer[] messageArray = {message};
+        LengthFieldOutputForwarder encoder = new LengthFieldOutputForwarder(format, ByteBufferForwardingMode.DIRECT);
+        StreamForwarder streamForwarder = new StreamForwarder((format.getMaxHeaderLength() + MESSAGE_SIZE) * MESSAGE_COUNT);
+        encoder.setNextForwarder(streamForwarder);
+
+        long bestEncodeNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            streamForwarder.stream.clear();
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                message.clear();
+                encoder.forward(messageArray);
+            }
+            bestEncodeNanos = Math.min(bestEncodeNanos, System.nanoTime() - start);
+        }
+        ByteBuffer stream = streamForwarder.stream;
+        stream.flip();
+
+        LengthFieldInputForwarder decoder = new LengthFieldInputForwarder(format);
+        CountingForwarder countingForwarder = new CountingForwarder();
+        decoder.setNextForwarder(countingForwarder);
+        long bestDecodeNanos = Long.MAX_VALUE;
+        ByteBuffer segment = stream.duplicate();
+        for (int round = 0; round < ROUNDS; round++) {
+            countingForwarder.frames = 0;
+            long start = System.nanoTime();
+            for (int position = 0, limit = stream.limit(); position < limit; position += SEGMENT_SIZE) {
+                segment.limit(Math.min(position + SEGMENT_SIZE, limit));
+                segment.position(position);
+                decoder.forward(segment);
+            }
+            bestDecodeNanos = Math.min(bestDecodeNanos, System.nanoTime() - start);
+            if (countingForwarder.frames != MESSAGE_COUNT) {
+                throw new IllegalStateException(name + ": decoded " + countingForwarder.frames + " frames");
+            }
+        }
+        System.out.println(name + ":\tencode " + (bestEncodeNanos / MESSAGE_COUNT) + " ns/msg,\tdecode " + (bestDecodeNanos / MESSAGE_COUNT) + " ns/msg");
+    }
+
+    private static class StreamForwarder extends AbstractForwarder<ByteBuffer[], Void> {
+
+        private final ByteBuffer stream;
+
+        StreamForwarder(int capacity) {
+            stream = ByteBuffer.allocate(capacity);
+        }
+
+        @Override
+        public void forward(ByteBuffer[] input) {
+            for (ByteBuffer byteBuffer : input) {
+                stream.put(byteBuffer);
+            }
+        }
+    }
+
+    private static class CountingForwarder extends AbstractForwarder<ByteBuffer, Void> {
+
+        private int frames;
+
+        @Override
+        public void forward(ByteBuffer input) {
+            frames++;
+            input.position(input.limit());
+        }
+    }
+}
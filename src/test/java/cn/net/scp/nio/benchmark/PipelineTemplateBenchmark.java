@@ -0,0 +1,107 @@
+package cn.net.scp.nio.benchmark;
+
+import cn.net.scp.nio.pipeline.Pipeline;
+import cn.net.scp.nio.pipeline.PipelineBuilder;
+import cn.net.scp.nio.pipeline.PipelineTemplate;
+import cn.net.scp.nio.transform.AbstractForwarder;
+import cn.net.scp.nio.transform.ByteBufferArraySequenceForwarder;
+import cn.net.scp.nio.transform.ByteBufferToArrayForwarder;
+import cn.net.scp.nio.transform.LengthFieldFormat;
+import cn.net.scp.nio.transform.LengthFieldInputForwarder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compares hand wired chains with pipelines instantiated from a shared
+ * {@link PipelineTemplate}: the setup cost per connection and the cost per
+ * message of a chain with a ByteBufferToArrayForwarder /
+ * ByteBufferArraySequenceForwarder pair, which the template fuses away.
+ */
+public class PipelineTemplateBenchmark {
+
+    private static final int CONNECTIONS = 1000000;
+    private static final int MESSAGES = 10000000;
+    private static final int ROUNDS = 5;
+
+    private static final LengthFieldFormat FORMAT = LengthFieldFormat.bigEndian(4);
+
+    private static final PipelineTemplate<ByteBuffer> TEMPLATE = PipelineBuilder.create(ByteBuffer.class)
+        .then(() -> new LengthFieldInputForwarder(FORMAT))
+        .then(ByteBufferToArrayForwarder::new)
+        .then(ByteBufferArraySequenceForwarder::new)
+        .build();
+
+    private static Object sink;
+
+    public static void main(String[] args) throws IOException {
+        long wiredNanos = Long.MAX_VALUE;
+        long templateNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CONNECTIONS; i++) {
+                sink = wire(null);
+            }
+            wiredNanos = Math.min(wiredNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int i = 0; i < CONNECTIONS; i++) {
+                sink = TEMPLATE.instantiate();
+            }
+            templateNanos = Math.min(templateNanos, System.nanoTime() - start);
+        }
+        System.out.printf("setup:\thand wired %6.1f ns/connection,\ttemplate %6.1f ns/connection%n",
+            (double) wiredNanos / CONNECTIONS, (double) templateNanos / CONNECTIONS);
+
+        Counter wiredCounter = new Counter();
+        LengthFieldInputForwarder wiredHead = wire(wiredCounter);
+        Counter templateCounter = new Counter();
+        Pipeline<ByteBuffer> pipeline = TEMPLATE.instantiate();
+        pipeline.setNextForwarder(templateCounter);
+
+        // many small frames in one read
+        ByteBuffer input = ByteBuffer.allocate(8 * 1000);
+        for (int i = 0; i < 1000; i++) {
+            input.putInt(4).putInt(i);
+        }
+        input.flip();
+        long wiredMessageNanos = run(wiredHead, wiredCounter, input);
+        long templateMessageNanos = run(pipeline.getHead(), templateCounter, input);
+        System.out.printf("messages:\thand wired %6.1f ns/msg,\tfused template %6.1f ns/msg%n",
+            (double) wiredMessageNanos / MESSAGES, (double) templateMessageNanos / MESSAGES);
+    }
+
+    private static LengthFieldInputForwarder wire(AbstractForwarder<ByteBuffer, ?> end) {
+        LengthFieldInputForwarder framing = new LengthFieldInputForwarder(FORMAT);
+        ByteBufferToArrayForwarder toArray = new ByteBufferToArrayForwarder();
+        ByteBufferArraySequenceForwarder sequence = new ByteBufferArraySequenceForwarder();
+        framing.setNextForwarder(toArray);
+        toArray.setNextForwarder(sequence);
+        sequence.setNextForwarder(end);
+        return framing;
+    }
+
+    private static long run(AbstractForwarder<ByteBuffer, ?> head, Counter counter, ByteBuffer input) throws IOException {
+        long bestNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            counter.count = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGES / 1000; i++) {
+                head.forward(input.duplicate());
+            }
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            if (counter.count != MESSAGES) {
+                throw new IllegalStateException("received " + counter.count + " messages");
+            }
+        }
+        return bestNanos;
+    }
+
+    private static class Counter extends AbstractForwarder<ByteBuffer, Void> {
+
+        private int count;
+
+        @Override
+        public void forward(ByteBuffer input) {
+            count++;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package cn.net.scp.nio.benchmark;
+
+import cn.net.scp.nio.AbstractChannelHandler;
+import cn.net.scp.nio.ChannelHandler;
+import cn.net.scp.nio.Dispatcher;
+import cn.net.scp.nio.relay.RelayHandler;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Relays data from a client through the framework to a sink over loopback and measures the throughput, once with a
+ * naive forwarder chain (ChannelReader of one side -> ChannelWriter of the other side, the remainders are copied into
+ * the buffer of the ChannelWriter) and once with a pair of {@link RelayHandler}s (the read buffer is written straight
+ * to the other channel). The largest amount of data buffered in the ChannelWriter of the sink side is reported, too.
+ * <br><br>
+ * Usage: RelayBenchmark [megabytes] [rounds]
+ */
+public class RelayBenchmark {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = (args.length > 0) ? Integer.parseInt(args[0]) : 512;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.start();
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+            serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            for (int round = 0; round < rounds; round++) {
+                NaiveSide first = new NaiveSide();
+                NaiveSide second = new NaiveSide();
+                first.getChannelReader().setNextForwarder(second.getChannelWriter());
+                second.getChannelReader().setNextForwarder(first.getChannelWriter());
+                run("naive forwarder chain", dispatcher, serverSocketChannel, first, second, megabytes);
+
+                RelayHandler downstream = new RelayHandler(READ_BUFFER_SIZE);
+                RelayHandler upstream = new RelayHandler(READ_BUFFER_SIZE);
+                RelayHandler.link(downstream, upstream);
+                run("RelayHandler", dispatcher, serverSocketChannel, downstream, upstream, megabytes);
+            }
+        }
+    }
+
+    private static void run(String name, Dispatcher dispatcher, ServerSocketChannel serverSocketChannel,
+        ChannelHandler downstream, ChannelHandler upstream, int megabytes) throws Exception {
+        final SocketChannel client = SocketChannel.open(serverSocketChannel.getLocalAddress());
+        SocketChannel accepted = serverSocketChannel.accept();
+        SocketChannel relayUpstream = SocketChannel.open(serverSocketChannel.getLocalAddress());
+        SocketChannel sink = serverSocketChannel.accept();
+        accepted.configureBlocking(false);
+        relayUpstream.configureBlocking(false);
+        dispatcher.registerChannel(accepted, downstream);
+        dispatcher.registerChannel(relayUpstream, upstream);
+
+        final long total = megabytes * 1024L * 1024L;
+        Thread sender = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+            try {
+                for (long sent = 0; sent < total; ) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), total - sent));
+                    sent += client.write(buffer);
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+        long start = System.nanoTime();
+        sender.start();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        int maxBuffered = 0;
+        for (long received = 0; received < total; ) {
+            buffer.clear();
+            received += sink.read(buffer);
+            maxBuffered = Math.max(maxBuffered, upstream.getChannelWriter().remaining());
+        }
+        long nanos = System.nanoTime() - start;
+        sender.join();
+        System.out.printf("%-25s %8.1f MB/s, max. buffered in ChannelWriter: %,d bytes%n", name,
+            megabytes * 1e9 / nanos, maxBuffered);
+        client.close();
+        sink.close();
+    }
+
+    private static class NaiveSide extends AbstractChannelHandler {
+
+        NaiveSide() {
+            super(false, READ_BUFFER_SIZE, READ_BUFFER_SIZE, false);
+        }
+
+        @Override
+        public void inputClosed() {
+            try {
+                handlerAdapter.closeChannel();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        @Override
+        public void channelException(Exception exception) {
+        }
+    }
+}
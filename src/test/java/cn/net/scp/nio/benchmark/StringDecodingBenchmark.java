@@ -0,0 +1,79 @@
+package cn.net.scp.nio.benchmark;
+
+import cn.net.scp.nio.transform.AbstractForwarder;
+import cn.net.scp.nio.transform.ByteBufferToStringConvertor;
+import cn.net.scp.nio.transform.StreamingByteBufferToStringConvertor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes text segments with {@link ByteBufferToStringConvertor} and
+ * {@link StreamingByteBufferToStringConvertor}. The segments are split at
+ * character boundaries because ByteBufferToStringConvertor can not handle
+ * split characters.
+ */
+public class StringDecodingBenchmark {
+
+    private static final int SEGMENT_CHARS = 1400;
+    private static final int SEGMENT_COUNT = 20000;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        String ascii = createText("GET /index.html HTTP/1.1 Host: example.org ");
+        String german = createText("Grüße aus Zürich, schöne Äpfel ");
+        run("ASCII, US-ASCII", ascii, StandardCharsets.US_ASCII);
+        run("ASCII, UTF-8", ascii, StandardCharsets.UTF_8);
+        run("Umlauts, ISO-8859-1", german, StandardCharsets.ISO_8859_1);
+        run("Umlauts, UTF-8", german, StandardCharsets.UTF_8);
+    }
+
+    private static String createText(String pattern) {
+        StringBuilder stringBuilder = new StringBuilder(SEGMENT_CHARS);
+        while (stringBuilder.length() < SEGMENT_CHARS) {
+            stringBuilder.append(pattern);
+        }
+        return stringBuilder.substring(0, SEGMENT_CHARS);
+    }
+
+    private static void run(String name, String text, Charset charset) throws IOException {
+        ByteBuffer segment = ByteBuffer.wrap(text.getBytes(charset));
+        CharCounter counter = new CharCounter();
+        ByteBufferToStringConvertor convertor = new ByteBufferToStringConvertor(charset);
+        convertor.setNextForwarder(counter);
+        StreamingByteBufferToStringConvertor streamingConvertor = new StreamingByteBufferToStringConvertor(charset);
+        streamingConvertor.setNextForwarder(counter);
+        long nanos = run(convertor, counter, segment);
+        long streamingNanos = run(streamingConvertor, counter, segment);
+        System.out.println(name + ":\tByteBufferToStringConvertor " + (nanos / SEGMENT_COUNT)
+            + " ns/segment,\tStreamingByteBufferToStringConvertor " + (streamingNanos / SEGMENT_COUNT) + " ns/segment");
+    }
+
+    private static long run(AbstractForwarder<ByteBuffer, String> forwarder, CharCounter counter, ByteBuffer segment) throws IOException {
+        long bestNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            counter.chars = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < SEGMENT_COUNT; i++) {
+                segment.rewind();
+                forwarder.forward(segment);
+            }
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            if (counter.chars != (long) SEGMENT_CHARS * SEGMENT_COUNT) {
+                throw new IllegalStateException("decoded " + counter.chars + " chars");
+            }
+        }
+        return bestNanos;
+    }
+
+    private static class CharCounter extends AbstractForwarder<String, Void> {
+
+        private long chars;
+
+        @Override
+        public void forward(String input) {
+            chars += input.length();
+        }
+    }
+}
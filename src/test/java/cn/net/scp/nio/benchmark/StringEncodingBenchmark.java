@@ -0,0 +1,84 @@
+package cn.net.scp.nio.benchmark;
+
+import cn.net.scp.nio.buffer.EncodedBufferCache;
+import cn.net.scp.nio.transform.AbstractForwarder;
+import cn.net.scp.nio.transform.ByteBufferForwardingMode;
+import cn.net.scp.nio.transform.StringToByteBufferConvertor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes short text messages with a CharsetEncoder (the former
+ * implementation of {@link StringToByteBufferConvertor}) and with the
+ * convertor in {@link ByteBufferForwardingMode#COPY} and
+ * {@link ByteBufferForwardingMode#DIRECT} mode and with an
+ * {@link EncodedBufferCache}.
+ */
+public class StringEncodingBenchmark {
+
+    private static final int MESSAGE_COUNT = 1000000;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        run("ASCII", "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n\r\n");
+        run("UTF-8", "Gr\u00fc\u00dfe aus Z\u00fcrich, 1 \u20ac pro St\u00fcck\r\n");
+    }
+
+    private static void run(String name, String message) throws IOException {
+        ByteCounter counter = new ByteCounter();
+        CharsetEncoder charsetEncoder = StandardCharsets.UTF_8.newEncoder();
+        long bestEncoderNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            counter.bytes = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                CharBuffer charBuffer = CharBuffer.allocate(message.length());
+                charBuffer.put(message);
+                charBuffer.flip();
+                counter.forward(charsetEncoder.encode(charBuffer));
+            }
+            bestEncoderNanos = Math.min(bestEncoderNanos, System.nanoTime() - start);
+        }
+        long copyNanos = run(ByteBufferForwardingMode.COPY, message, counter);
+        long directNanos = run(ByteBufferForwardingMode.DIRECT, message, counter, null);
+        EncodedBufferCache cache = new EncodedBufferCache(100);
+        long cachedNanos = run(ByteBufferForwardingMode.DIRECT, message, counter, cache);
+        System.out.println(name + ":\tCharsetEncoder " + (bestEncoderNanos / MESSAGE_COUNT) + " ns/msg,\tCOPY "
+            + (copyNanos / MESSAGE_COUNT) + " ns/msg,\tDIRECT " + (directNanos / MESSAGE_COUNT) + " ns/msg,\tcached "
+            + (cachedNanos / MESSAGE_COUNT) + " ns/msg (" + cache + ")");
+    }
+
+    private static long run(ByteBufferForwardingMode mode, String message, ByteCounter counter) throws IOException {
+        return run(mode, message, counter, null);
+    }
+
+    private static long run(ByteBufferForwardingMode mode, String message, ByteCounter counter, EncodedBufferCache cache) throws IOException {
+        StringToByteBufferConvertor convertor = new StringToByteBufferConvertor(StandardCharsets.UTF_8, mode, null);
+        convertor.setEncodedBufferCache(cache);
+        convertor.setNextForwarder(counter);
+        long bestNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            counter.bytes = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                convertor.forward(message);
+            }
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+        }
+        return bestNanos;
+    }
+
+    private static class ByteCounter extends AbstractForwarder<ByteBuffer, Void> {
+
+        private long bytes;
+
+        @Override
+        public void forward(ByteBuffer input) {
+            bytes += input.remaining();
+            input.position(input.limit());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package cn.net.scp.nio.broadcast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import cn.net.scp.nio.AbstractChannelHandler;
+import cn.net.scp.nio.Dispatcher;
+import cn.net.scp.nio.HandlerAdapter;
+import cn.net.scp.nio.transform.ChannelWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChannelGroupTest {
+
+    private static final int MESSAGE_SIZE = 64 * 1024;
+    private static final int MESSAGES = 200;
+
+    private Dispatcher dispatcher;
+    private ServerSocketChannel serverSocketChannel;
+    private final List<SocketChannel> clients = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        dispatcher = new Dispatcher();
+        dispatcher.start();
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        serverSocketChannel.close();
+    }
+
+    @Test
+    public void slowConsumerPolicies() throws Exception {
+        ChannelGroup group = new ChannelGroup();
+        ChannelWriter fast = subscribe(group, SlowConsumerPolicy.DROP);
+        ChannelWriter dropping = subscribe(group, SlowConsumerPolicy.DROP);
+        ChannelWriter disconnected = subscribe(group, SlowConsumerPolicy.DISCONNECT);
+        ChannelWriter conflating = subscribe(group, SlowConsumerPolicy.CONFLATE);
+
+        // only the first client reads while broadcasting
+        Reader fastReader = new Reader(clients.get(0));
+        fastReader.start();
+        for (int i = 1; i <= MESSAGES; i++) {
+            // queued duplicates share the content, so every message needs its own buffer
+            ByteBuffer message = ByteBuffer.allocateDirect(MESSAGE_SIZE);
+            while (message.hasRemaining()) {
+                message.put((byte) i);
+            }
+            message.flip();
+            group.broadcast(message);
+            // the position of the message is not changed
+            assertEquals(MESSAGE_SIZE, message.remaining());
+            waitUntilWritten(fast);
+            // wait until the other members had a chance to write
+            Thread.sleep(1);
+        }
+        fastReader.join(10000);
+        assertEquals(MESSAGES * MESSAGE_SIZE, fastReader.received);
+        assertEquals(MESSAGES, fastReader.lastByte);
+
+        assertTrue(group.getDropCounter(dropping) > 0);
+        assertEquals(0, group.getDropCounter(fast));
+        assertEquals(1, group.getDisconnectCounter());
+        assertEquals(3, group.size());
+        assertFalse(disconnected.getHandlerAdapter().getChannel().isOpen());
+        assertTrue(conflating.getConflatedCounter() > 0);
+        assertTrue(conflating.remaining() <= ChannelGroup.DEFAULT_MAX_PENDING_BYTES + 2 * MESSAGE_SIZE);
+
+        // the conflating member gets the latest message
+        Reader conflatingReader = new Reader(clients.get(3));
+        conflatingReader.start();
+        waitUntilWritten(conflating);
+        conflatingReader.expected = conflating.getWriteCounter();
+        conflatingReader.join(10000);
+        assertEquals(0, conflatingReader.received % MESSAGE_SIZE);
+        assertEquals(MESSAGES, conflatingReader.lastByte);
+    }
+
+    @Test
+    public void conflationIgnoresTheInitialPosition() throws Exception {
+        ChannelWriter channelWriter = subscribe(new ChannelGroup(), SlowConsumerPolicy.CONFLATE);
+        // more than the socket buffers can take, the client does not read
+        channelWriter.forwardShared(ByteBuffer.allocate(16 * 1024 * 1024), false);
+        assertTrue(channelWriter.hasRemaining());
+        for (int i = 0; i < 3; i++) {
+            // messages behind a prefix that is not sent
+            ByteBuffer message = ByteBuffer.allocate(MESSAGE_SIZE);
+            message.position(10);
+            channelWriter.forwardShared(message, true);
+        }
+        assertEquals(2, channelWriter.getConflatedCounter());
+    }
+
+    private ChannelWriter subscribe(ChannelGroup group, SlowConsumerPolicy policy) throws Exception {
+        SocketChannel client = SocketChannel.open(serverSocketChannel.getLocalAddress());
+        clients.add(client);
+        SocketChannel server = serverSocketChannel.accept();
+        server.configureBlocking(false);
+        final CountDownLatch registered = new CountDownLatch(1);
+        AbstractChannelHandler handler = new AbstractChannelHandler() {
+            @Override
+            public void channelRegistered(HandlerAdapter handlerAdapter) {
+                super.channelRegistered(handlerAdapter);
+                registered.countDown();
+            }
+
+            @Override
+            public void inputClosed() {
+            }
+
+            @Override
+            public void channelException(Exception exception) {
+            }
+        };
+        dispatcher.registerChannel(server, handler);
+        assertTrue(registered.await(10, TimeUnit.SECONDS));
+        group.add(handler.getChannelWriter(), policy, ChannelGroup.DEFAULT_MAX_PENDING_BYTES);
+        return handler.getChannelWriter();
+    }
+
+    private static void waitUntilWritten(ChannelWriter channelWriter) throws InterruptedException {
+        for (int i = 0; (i < 10000) && channelWriter.hasRemaining(); i++) {
+            Thread.sleep(1);
+        }
+        assertFalse(channelWriter.hasRemaining());
+    }
+
+    private static class Reader extends Thread {
+
+        private final SocketChannel channel;
+        private volatile long expected = MESSAGES * MESSAGE_SIZE;
+        private volatile long received;
+        private volatile int lastByte;
+
+        Reader(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(MESSAGE_SIZE);
+            try {
+                channel.configureBlocking(false);
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while ((received < expected) && (System.nanoTime() < deadline)) {
+                    buffer.clear();
+                    int read = channel.read(buffer);
+                    if (read > 0) {
+                        received += read;
+                        lastByte = buffer.get(read - 1) & 0xFF;
+                    } else {
+                        Thread.sleep(1);
+                    }
+                }
+            } catch (IOException | InterruptedException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+}
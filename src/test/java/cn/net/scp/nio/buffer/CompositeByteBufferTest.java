@@ -0,0 +1,85 @@
+package cn.net.scp.nio.buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class CompositeByteBufferTest {
+
+    private static CompositeByteBuffer split(String text, int... borders) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        CompositeByteBuffer composite = new CompositeByteBuffer();
+        int start = 0;
+        for (int border : borders) {
+            composite.appendCopy(ByteBuffer.wrap(bytes, start, border - start));
+            start = border;
+        }
+        composite.appendCopy(ByteBuffer.wrap(bytes, start, bytes.length - start));
+        return composite;
+    }
+
+    private static String toString(ByteBuffer byteBuffer) {
+        byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void intsCrossSegmentBorders() {
+        CompositeByteBuffer composite = new CompositeByteBuffer();
+        composite.appendCopy(ByteBuffer.wrap(new byte[]{0x01, 0x02}));
+        composite.appendCopy(ByteBuffer.wrap(new byte[]{0x03}));
+        composite.appendCopy(ByteBuffer.wrap(new byte[]{0x04, 0x05}));
+        assertEquals(0x01020304, composite.getInt(0));
+        assertEquals(0x05040302, composite.getInt(1, ByteOrder.LITTLE_ENDIAN));
+        assertEquals(0x01020304, composite.getInt());
+        assertEquals(1, composite.remaining());
+        assertEquals(0x05, composite.get());
+        assertFalse(composite.hasRemaining());
+        assertEquals(0, composite.segmentCount());
+    }
+
+    @Test
+    public void sequenceSearchCrossesSegmentBorders() {
+        CompositeByteBuffer composite = split("abc\r\ndef\r\n", 4, 9);
+        byte[] crlf = {'\r', '\n'};
+        assertEquals(3, composite.indexOf(crlf, 0));
+        assertEquals(8, composite.indexOf(crlf, 4));
+        assertEquals(-1, composite.indexOf(crlf, 9));
+        assertEquals(5, composite.indexOf((byte) 'd', 0));
+    }
+
+    @Test
+    public void readBufferIsZeroCopyWithinSegment() {
+        ByteBuffer segment = ByteBuffer.wrap("abcdef".getBytes(StandardCharsets.US_ASCII));
+        CompositeByteBuffer composite = new CompositeByteBuffer();
+        composite.append(segment);
+        ByteBuffer frame = composite.readBuffer(3);
+        assertSame(segment.array(), frame.array());
+        assertEquals("abc", toString(frame));
+        assertEquals(3, composite.remaining());
+    }
+
+    @Test
+    public void readBufferGathersAcrossSegments() {
+        CompositeByteBuffer composite = split("abcdef", 2, 4);
+        composite.skip(1);
+        assertEquals("bcde", toString(composite.readBuffer(4)));
+        assertEquals("f", toString(composite.readBuffer(1)));
+        assertFalse(composite.hasRemaining());
+    }
+
+    @Test
+    public void readSliceSharesContent() {
+        CompositeByteBuffer composite = split("abcdef", 2, 4);
+        CompositeByteBuffer slice = composite.readSlice(3);
+        assertEquals(2, slice.segmentCount());
+        assertEquals("abc", toString(slice.readBuffer(3)));
+        assertEquals("def", toString(composite.readBuffer(3)));
+    }
+}
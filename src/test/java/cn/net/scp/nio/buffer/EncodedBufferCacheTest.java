@@ -0,0 +1,55 @@
+package cn.net.scp.nio.buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class EncodedBufferCacheTest {
+
+    @Test
+    public void hitsAndMisses() throws CharacterCodingException {
+        EncodedBufferCache cache = new EncodedBufferCache(10);
+        ByteBuffer first = cache.get("HTTP/1.1 200 OK", StandardCharsets.US_ASCII);
+        ByteBuffer second = cache.get("HTTP/1.1 200 OK", StandardCharsets.US_ASCII);
+        assertTrue(first.isReadOnly());
+        assertNotSame(first, second);
+        assertEquals(15, second.remaining());
+        // duplicates have independent positions
+        first.position(first.limit());
+        assertEquals(15, second.remaining());
+        // the charset is part of the key
+        assertEquals(30, cache.get("HTTP/1.1 200 OK", StandardCharsets.UTF_16BE).remaining());
+        assertEquals(1, cache.getHitCounter());
+        assertEquals(2, cache.getMissCounter());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws CharacterCodingException {
+        EncodedBufferCache cache = new EncodedBufferCache(2);
+        cache.get("a", StandardCharsets.UTF_8);
+        cache.get("b", StandardCharsets.UTF_8);
+        cache.get("a", StandardCharsets.UTF_8);
+        cache.get("c", StandardCharsets.UTF_8);
+        assertEquals(1, cache.getEvictionCounter());
+        cache.resetCounters();
+        cache.get("a", StandardCharsets.UTF_8);
+        cache.get("b", StandardCharsets.UTF_8);
+        assertEquals(1, cache.getHitCounter());
+        assertEquals(1, cache.getMissCounter());
+    }
+
+    @Test
+    public void longContentIsNotCached() throws CharacterCodingException {
+        EncodedBufferCache cache = new EncodedBufferCache(10, 4, true);
+        assertEquals(5, cache.get("12345", StandardCharsets.UTF_8).remaining());
+        assertEquals(0, cache.size());
+        assertTrue(cache.get("1234", StandardCharsets.UTF_8).isDirect());
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,62 @@
+package cn.net.scp.nio.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import cn.net.scp.nio.CustomThreadFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AdaptiveExecutorTest {
+
+    @Test
+    public void poolGrowsWhenTasksWaitAndShrinksWhenIdle() throws Exception {
+        // adjusted manually
+        AdaptiveExecutor executor = new AdaptiveExecutor(1, 4, 1, TimeUnit.MILLISECONDS, 0, new CustomThreadFactory());
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(8);
+            for (int i = 0; i < 8; i++) {
+                executor.execute(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                });
+            }
+            Thread.sleep(10);
+            // the oldest waiting task is older than the target
+            assertEquals(2, executor.adjust());
+            Thread.sleep(10);
+            assertEquals(3, executor.adjust());
+            Thread.sleep(10);
+            assertEquals(4, executor.adjust());
+            Thread.sleep(10);
+            // the maximum is reached
+            assertEquals(4, executor.adjust());
+            assertEquals(3, executor.getGrowCounter());
+            assertTrue(executor.getLastQueueDelayNanos() > TimeUnit.MILLISECONDS.toNanos(1));
+
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            // the tasks are counted after they have run
+            for (int i = 0; (i < 1000) && (executor.getCompletedTaskCounter() < 8); i++) {
+                Thread.sleep(1);
+            }
+            assertEquals(8, executor.getCompletedTaskCounter());
+            // the measurements of the blocked tasks are still above the target
+            executor.adjust();
+            for (int size = 3; size > 0; size--) {
+                Thread.sleep(10);
+                assertEquals(size, executor.adjust());
+            }
+            assertEquals(1, executor.adjust());
+            assertEquals(3, executor.getShrinkCounter());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
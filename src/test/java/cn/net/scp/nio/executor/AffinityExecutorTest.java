@@ -0,0 +1,170 @@
+package cn.net.scp.nio.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import cn.net.scp.nio.AbstractChannelHandler;
+import cn.net.scp.nio.Dispatcher;
+import cn.net.scp.nio.HandlerAdapter;
+import cn.net.scp.nio.transform.AbstractForwarder;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AffinityExecutorTest {
+
+    @Test
+    public void eventsOfAConnectionRunOnOneWorker() throws Exception {
+        AffinityExecutor executor = new AffinityExecutor(3, AffinityExecutor.Policy.LEAST_LOADED);
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setExecutor(executor);
+        dispatcher.start();
+        BlockingQueue<Thread> readers = new LinkedBlockingQueue<>();
+        BlockingQueue<HandlerAdapter> registered = new LinkedBlockingQueue<>();
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+            serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (SocketChannel client = SocketChannel.open(serverSocketChannel.getLocalAddress())) {
+                SocketChannel server = serverSocketChannel.accept();
+                server.configureBlocking(false);
+                AbstractChannelHandler handler = new AbstractChannelHandler() {
+                    @Override
+                    public void channelRegistered(HandlerAdapter handlerAdapter) {
+                        super.channelRegistered(handlerAdapter);
+                        registered.add(handlerAdapter);
+                    }
+
+                    @Override
+                    public void inputClosed() {
+                    }
+
+                    @Override
+                    public void channelException(Exception exception) {
+                    }
+                };
+                handler.getChannelReader().setNextForwarder(new AbstractForwarder<ByteBuffer, Void>() {
+                    @Override
+                    public void forward(ByteBuffer input) {
+                        input.position(input.limit());
+                        readers.add(Thread.currentThread());
+                    }
+                });
+                dispatcher.registerChannel(server, handler);
+                HandlerAdapter handlerAdapter = registered.poll(10, TimeUnit.SECONDS);
+                assertNotNull(handlerAdapter);
+
+                Thread worker = send(client, readers);
+                for (int i = 0; i < 5; i++) {
+                    assertSame(worker, send(client, readers));
+                }
+                int oldWorker = handlerAdapter.getAffinity();
+                assertTrue(executor.getBoundAdapters(oldWorker).contains(handlerAdapter));
+
+                int newWorker = (oldWorker + 1) % executor.getWorkerCount();
+                executor.migrate(handlerAdapter, newWorker);
+                assertEquals(newWorker, handlerAdapter.getAffinity());
+                assertTrue(executor.getBoundAdapters(newWorker).contains(handlerAdapter));
+                Thread migratedWorker = send(client, readers);
+                assertNotSame(worker, migratedWorker);
+                for (int i = 0; i < 5; i++) {
+                    assertSame(migratedWorker, send(client, readers));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void closedConnectionsAreUnboundWithHashPolicy() throws Exception {
+        AffinityExecutor executor = new AffinityExecutor(2, AffinityExecutor.Policy.HASH);
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setExecutor(executor);
+        dispatcher.start();
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+            serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (SocketChannel client = SocketChannel.open(serverSocketChannel.getLocalAddress())) {
+                HandlerAdapter closed = connect(dispatcher, serverSocketChannel, client);
+                assertTrue(executor.getBoundAdapters(closed.getAffinity()).contains(closed));
+                // unbound by closing
+                closed.closeChannel();
+                assertEquals(-1, closed.getAffinity());
+                assertNotBound(executor, closed);
+            }
+            HandlerAdapter swept;
+            try (SocketChannel client = SocketChannel.open(serverSocketChannel.getLocalAddress())) {
+                swept = connect(dispatcher, serverSocketChannel, client);
+                // closed without closeChannel(), found by the sweep when the next connection is bound
+                swept.getChannel().close();
+                assertTrue(executor.getBoundAdapters(swept.getAffinity()).contains(swept));
+            }
+            try (SocketChannel client = SocketChannel.open(serverSocketChannel.getLocalAddress())) {
+                HandlerAdapter open = connect(dispatcher, serverSocketChannel, client);
+                assertTrue(executor.getBoundAdapters(open.getAffinity()).contains(open));
+                assertNotBound(executor, swept);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void assertNotBound(AffinityExecutor executor, HandlerAdapter handlerAdapter) {
+        for (int i = 0; i < executor.getWorkerCount(); i++) {
+            assertFalse(executor.getBoundAdapters(i).contains(handlerAdapter));
+        }
+    }
+
+    /**
+     * registers an accepted connection and returns its HandlerAdapter after the first event was executed
+     */
+    private static HandlerAdapter connect(Dispatcher dispatcher, ServerSocketChannel serverSocketChannel,
+        SocketChannel client) throws Exception {
+        SocketChannel server = serverSocketChannel.accept();
+        server.configureBlocking(false);
+        BlockingQueue<Thread> readers = new LinkedBlockingQueue<>();
+        BlockingQueue<HandlerAdapter> registered = new LinkedBlockingQueue<>();
+        AbstractChannelHandler handler = new AbstractChannelHandler() {
+            @Override
+            public void channelRegistered(HandlerAdapter handlerAdapter) {
+                super.channelRegistered(handlerAdapter);
+                registered.add(handlerAdapter);
+            }
+
+            @Override
+            public void inputClosed() {
+            }
+
+            @Override
+            public void channelException(Exception exception) {
+            }
+        };
+        handler.getChannelReader().setNextForwarder(new AbstractForwarder<ByteBuffer, Void>() {
+            @Override
+            public void forward(ByteBuffer input) {
+                input.position(input.limit());
+                readers.add(Thread.currentThread());
+            }
+        });
+        dispatcher.registerChannel(server, handler);
+        HandlerAdapter handlerAdapter = registered.poll(10, TimeUnit.SECONDS);
+        assertNotNull(handlerAdapter);
+        send(client, readers);
+        return handlerAdapter;
+    }
+
+    private static Thread send(SocketChannel client, BlockingQueue<Thread> readers) throws Exception {
+        client.write(ByteBuffer.wrap(new byte[]{1}));
+        Thread reader = readers.poll(10, TimeUnit.SECONDS);
+        assertNotNull(reader);
+        return reader;
+    }
+}
@@ -0,0 +1,92 @@
+package cn.net.scp.nio.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class RingBufferExecutorTest {
+
+    @Test
+    public void allTasksRunWithEveryWaitStrategy() throws InterruptedException {
+        WaitStrategy[] waitStrategies = {WaitStrategy.busySpin(), WaitStrategy.yielding(),
+            WaitStrategy.sleeping(10, TimeUnit.MICROSECONDS), WaitStrategy.blocking()};
+        for (WaitStrategy waitStrategy : waitStrategies) {
+            // a small ring, so that producers have to wait for free slots
+            RingBufferExecutor executor = new RingBufferExecutor(8, 2, waitStrategy);
+            try {
+                int producers = 3;
+                int tasksPerProducer = 2000;
+                CountDownLatch done = new CountDownLatch(producers * tasksPerProducer);
+                AtomicLong sum = new AtomicLong();
+                Thread[] threads = new Thread[producers];
+                for (int p = 0; p < producers; p++) {
+                    threads[p] = new Thread(() -> {
+                        for (int i = 1; i <= tasksPerProducer; i++) {
+                            long value = i;
+                            executor.execute(() -> {
+                                sum.addAndGet(value);
+                                done.countDown();
+                            });
+                        }
+                    });
+                    threads[p].start();
+                }
+                assertTrue(done.await(30, TimeUnit.SECONDS));
+                long perProducer = (long) tasksPerProducer * (tasksPerProducer + 1) / 2;
+                assertEquals(producers * perProducer, sum.get());
+                assertEquals(0, executor.size());
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void capacityIsRoundedUp() {
+        RingBufferExecutor executor = new RingBufferExecutor(1000, 1, WaitStrategy.blocking());
+        try {
+            assertEquals(1024, executor.getCapacity());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void failingTaskDoesNotStopWorker() throws InterruptedException {
+        RingBufferExecutor executor = new RingBufferExecutor(16, 1, WaitStrategy.blocking());
+        try {
+            CountDownLatch done = new CountDownLatch(1);
+            executor.execute(() -> {
+                throw new IllegalStateException("test");
+            });
+            executor.execute(done::countDown);
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void workerDoesNotWaitForItsOwnFullRing() throws InterruptedException {
+        RingBufferExecutor executor = new RingBufferExecutor(4, 1, WaitStrategy.blocking());
+        try {
+            int tasks = 100;
+            CountDownLatch done = new CountDownLatch(tasks);
+            // the only worker fills its own ring, it would wait forever for a free slot
+            executor.execute(() -> {
+                for (int i = 0; i < tasks; i++) {
+                    executor.execute(done::countDown);
+                }
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertTrue(executor.getOverflowCounter() > 0);
+            assertEquals(0, executor.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
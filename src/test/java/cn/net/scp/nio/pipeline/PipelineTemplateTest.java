@@ -0,0 +1,99 @@
+package cn.net.scp.nio.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+import cn.net.scp.nio.transform.AbstractForwarder;
+import cn.net.scp.nio.transform.ByteBufferArraySequenceForwarder;
+import cn.net.scp.nio.transform.ByteBufferToArrayForwarder;
+import cn.net.scp.nio.transform.ByteBufferToStringConvertor;
+import cn.net.scp.nio.transform.HandoffForwarder;
+import cn.net.scp.nio.transform.SplitStringForwarder;
+import cn.net.scp.nio.transform.StreamingByteBufferToStringConvertor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+public class PipelineTemplateTest {
+
+    @Test
+    public void instantiateCreatesNewLinkedStages() throws IOException {
+        PipelineTemplate<ByteBuffer> template = PipelineBuilder.create(ByteBuffer.class)
+            .then(StreamingByteBufferToStringConvertor::new)
+            .then(HandoffForwarder<String>::new)
+            .then(() -> new SplitStringForwarder("\n"))
+            .build();
+        Pipeline<ByteBuffer> first = template.instantiate();
+        Pipeline<ByteBuffer> second = template.instantiate();
+        assertEquals(3, first.getStages().size());
+        for (int i = 0; i < 3; i++) {
+            assertNotSame(first.getStages().get(i), second.getStages().get(i));
+        }
+
+        List<String> lines = new ArrayList<>();
+        first.setNextForwarder(new AbstractForwarder<String, Void>() {
+            @Override
+            public void forward(String input) {
+                lines.add(input);
+            }
+        });
+        first.forward(ByteBuffer.wrap("a\nb".getBytes(StandardCharsets.US_ASCII)));
+        first.submit(ByteBuffer.wrap("c\n".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(Arrays.asList("a", "bc"), lines);
+    }
+
+    @Test
+    public void adapterPairsAreFused() throws IOException {
+        PipelineTemplate<ByteBuffer> template = PipelineBuilder.create(ByteBuffer.class)
+            .then(ByteBufferToArrayForwarder::new)
+            .then(ByteBufferArraySequenceForwarder::new)
+            .then(ByteBufferToStringConvertor::new)
+            .build();
+        assertEquals(Arrays.<Class<?>>asList(ByteBufferToStringConvertor.class), template.getStageClasses());
+
+        PipelineTemplate<ByteBuffer> identity = PipelineBuilder.create(ByteBuffer.class)
+            .then(ByteBufferToArrayForwarder::new)
+            .then(ByteBufferArraySequenceForwarder::new)
+            .build();
+        Pipeline<ByteBuffer> pipeline = identity.instantiate();
+        List<ByteBuffer> buffers = new ArrayList<>();
+        pipeline.setNextForwarder(new AbstractForwarder<ByteBuffer, Void>() {
+            @Override
+            public void forward(ByteBuffer input) {
+                buffers.add(input);
+            }
+        });
+        ByteBuffer input = ByteBuffer.allocate(4);
+        pipeline.forward(input);
+        assertEquals(Arrays.asList(input), buffers);
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void mismatchingTypesAreRejected() {
+        // only possible with raw types, the builder prevents it at compile time
+        PipelineBuilder builder = PipelineBuilder.create(ByteBuffer.class);
+        builder.then((Supplier) () -> new SplitStringForwarder("\n"));
+        try {
+            builder.build();
+            fail("String stage accepted ByteBuffer input");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void sharedStagesAreRejected() {
+        SplitStringForwarder shared = new SplitStringForwarder("\n");
+        try {
+            PipelineBuilder.create(String.class).then(() -> shared).build();
+            fail("shared stage accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
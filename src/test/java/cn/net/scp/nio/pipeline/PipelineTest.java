@@ -0,0 +1,86 @@
+package cn.net.scp.nio.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import cn.net.scp.nio.AbstractChannelHandler;
+import cn.net.scp.nio.Dispatcher;
+import cn.net.scp.nio.HandlerAdapter;
+import cn.net.scp.nio.transform.AbstractForwarder;
+import cn.net.scp.nio.transform.SplitStringForwarder;
+import cn.net.scp.nio.transform.StreamingByteBufferToStringConvertor;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class PipelineTest {
+
+    @Test
+    public void submittedAndReadInputsRunOnOwningThread() throws Exception {
+        final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        final BlockingQueue<Thread> threads = new LinkedBlockingQueue<>();
+        final Pipeline<ByteBuffer> pipeline = new Pipeline<>(
+            new StreamingByteBufferToStringConvertor(StandardCharsets.US_ASCII), new SplitStringForwarder("\n"));
+        pipeline.setNextForwarder(new AbstractForwarder<String, Void>() {
+            @Override
+            public void forward(String input) {
+                lines.add(input);
+                threads.add(Thread.currentThread());
+                assertTrue(pipeline.getHandlerAdapter().isOwner());
+            }
+        });
+        final BlockingQueue<HandlerAdapter> registered = new LinkedBlockingQueue<>();
+        AbstractChannelHandler handler = new AbstractChannelHandler() {
+            @Override
+            public void channelRegistered(HandlerAdapter handlerAdapter) {
+                super.channelRegistered(handlerAdapter);
+                pipeline.setHandlerAdapter(handlerAdapter);
+                registered.add(handlerAdapter);
+            }
+
+            @Override
+            public void inputClosed() {
+            }
+
+            @Override
+            public void channelException(Exception exception) {
+            }
+        };
+        handler.getChannelReader().setNextForwarder(pipeline.getHead());
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.start();
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+            serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (SocketChannel client = SocketChannel.open(serverSocketChannel.getLocalAddress())) {
+                SocketChannel server = serverSocketChannel.accept();
+                server.configureBlocking(false);
+                dispatcher.registerChannel(server, handler);
+                assertNotNull(registered.poll(10, TimeUnit.SECONDS));
+
+                // handed over from the test thread, split over two inputs
+                pipeline.submit(ByteBuffer.wrap("first\nsec".getBytes(StandardCharsets.US_ASCII)));
+                pipeline.submit(ByteBuffer.wrap("ond\n".getBytes(StandardCharsets.US_ASCII)));
+                assertEquals("first", lines.poll(10, TimeUnit.SECONDS));
+                assertEquals("second", lines.poll(10, TimeUnit.SECONDS));
+
+                // read from the channel
+                client.write(ByteBuffer.wrap("third\n".getBytes(StandardCharsets.US_ASCII)));
+                assertEquals("third", lines.poll(10, TimeUnit.SECONDS));
+
+                for (Thread thread : threads) {
+                    assertTrue(thread != Thread.currentThread());
+                }
+            }
+        }
+    }
+}
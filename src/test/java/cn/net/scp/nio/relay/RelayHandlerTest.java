@@ -0,0 +1,122 @@
+package cn.net.scp.nio.relay;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import cn.net.scp.nio.Dispatcher;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RelayHandlerTest {
+
+    private Dispatcher dispatcher;
+    private ServerSocketChannel serverSocketChannel;
+    private SocketChannel client;
+    private SocketChannel upstream;
+    private RelayHandler downstreamSide;
+    private RelayHandler upstreamSide;
+
+    @Before
+    public void setUp() throws IOException {
+        dispatcher = new Dispatcher();
+        dispatcher.start();
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        // client <-> [downstream side | upstream side] <-> upstream
+        client = SocketChannel.open(serverSocketChannel.getLocalAddress());
+        SocketChannel accepted = serverSocketChannel.accept();
+        SocketChannel relayUpstream = SocketChannel.open(serverSocketChannel.getLocalAddress());
+        upstream = serverSocketChannel.accept();
+        accepted.configureBlocking(false);
+        relayUpstream.configureBlocking(false);
+
+        downstreamSide = new RelayHandler(4096);
+        upstreamSide = new RelayHandler(4096);
+        RelayHandler.link(downstreamSide, upstreamSide);
+        dispatcher.registerChannel(accepted, downstreamSide);
+        dispatcher.registerChannel(relayUpstream, upstreamSide);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        upstream.close();
+        serverSocketChannel.close();
+    }
+
+    @Test
+    public void relaysLargeDataWithoutLosingRemainders() throws Exception {
+        byte[] data = new byte[8 * 1024 * 1024];
+        new Random(42).nextBytes(data);
+        // fill all buffers before the upstream starts reading
+        client.configureBlocking(false);
+        ByteBuffer output = ByteBuffer.wrap(data);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        int idleRounds = 0;
+        while (output.hasRemaining() && (idleRounds < 100) && (System.nanoTime() < deadline)) {
+            if (client.write(output) == 0) {
+                idleRounds++;
+                Thread.sleep(1);
+            } else {
+                idleRounds = 0;
+            }
+        }
+        assertTrue(output.hasRemaining());
+        RelayChannelWriter writer = (RelayChannelWriter) upstreamSide.getChannelWriter();
+        assertTrue(writer.getStallCounter() > 0);
+        // only the read buffer of the other side is kept
+        assertTrue(writer.remaining() <= 4096);
+
+        upstream.configureBlocking(false);
+        ByteBuffer input = ByteBuffer.allocate(data.length);
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (input.hasRemaining() && (System.nanoTime() < deadline)) {
+            client.write(output);
+            if (upstream.read(input) == 0) {
+                Thread.sleep(1);
+            }
+        }
+        assertArrayEquals(data, input.array());
+    }
+
+    @Test
+    public void halfCloseIsPropagated() throws Exception {
+        client.write(ByteBuffer.wrap("request".getBytes()));
+        client.shutdownOutput();
+        // the upstream reads the request and the end of the stream
+        assertEquals("request", readAll(upstream));
+
+        // the other direction still works
+        upstream.write(ByteBuffer.wrap("response".getBytes()));
+        upstream.shutdownOutput();
+        assertEquals("response", readAll(client));
+
+        // both directions are closed, the relay closes its channels
+        for (int i = 0; (i < 1000) && !dispatcher.getHandlerAdapters().isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(dispatcher.getHandlerAdapters().isEmpty());
+    }
+
+    private static String readAll(SocketChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        while (channel.read(buffer) != -1) {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("too much data");
+            }
+        }
+        buffer.flip();
+        return new String(buffer.array(), 0, buffer.limit());
+    }
+}
@@ -0,0 +1,158 @@
+package cn.net.scp.nio.ssl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import cn.net.scp.nio.Dispatcher;
+import cn.net.scp.nio.transform.AbstractForwarder;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HandshakeExecutorTest {
+
+    private static final String PASSWORD = "password";
+    private static final String ALIAS = "server";
+    private static final int CONNECTIONS = 8;
+
+    private File keyStoreFile;
+    private Dispatcher dispatcher;
+    private ServerSocketChannel serverSocketChannel;
+    private ThreadPoolExecutor handshakeExecutor;
+    private final List<EchoHandler> handlers = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        // a self-signed certificate for the server, also used as truststore by the clients
+        keyStoreFile = File.createTempFile("HandshakeExecutorTest", ".jks");
+        keyStoreFile.delete();
+        Process keytool = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin"
+            + File.separator + "keytool", "-genkeypair", "-keyalg", "RSA", "-keysize", "2048", "-alias", ALIAS,
+            "-dname", "CN=localhost", "-validity", "1", "-storetype", "JKS", "-keystore",
+            keyStoreFile.getAbsolutePath(), "-storepass", PASSWORD, "-keypass", PASSWORD)
+            .redirectErrorStream(true).start();
+        assertTrue(keytool.waitFor(60, TimeUnit.SECONDS));
+        assertEquals(0, keytool.exitValue());
+
+        dispatcher = new Dispatcher();
+        dispatcher.start();
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        handshakeExecutor = SSLTools.newHandshakeExecutor(2, CONNECTIONS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        handshakeExecutor.shutdownNow();
+        serverSocketChannel.close();
+        keyStoreFile.delete();
+    }
+
+    @Test
+    public void handshakesRunOnTheHandshakeExecutor() throws Exception {
+        final SSLContext serverContext = SSLTools.getServerSSLContext(keyStoreFile.toURI().toURL(), PASSWORD,
+            keyStoreFile.toURI().toURL(), PASSWORD, ALIAS);
+        final SSLContext clientContext = SSLTools.getClientSSLContext(keyStoreFile.toURI().toURL(), PASSWORD);
+
+        ExecutorService clients = Executors.newFixedThreadPool(CONNECTIONS);
+        List<Future<String>> responses = new ArrayList<>();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            final String request = "request " + i;
+            responses.add(clients.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return echo(clientContext, request);
+                }
+            }));
+            SocketChannel accepted = serverSocketChannel.accept();
+            accepted.configureBlocking(false);
+            EchoHandler handler = new EchoHandler(accepted, serverContext);
+            handler.sslInputForwarder.setDelegatedTaskExecutor(handshakeExecutor);
+            handlers.add(handler);
+            dispatcher.registerChannel(accepted, handler);
+        }
+        for (int i = 0; i < CONNECTIONS; i++) {
+            assertEquals("request " + i, responses.get(i).get(30, TimeUnit.SECONDS));
+        }
+        clients.shutdown();
+
+        long offloadedTasks = 0;
+        for (EchoHandler handler : handlers) {
+            offloadedTasks += handler.sslInputForwarder.getOffloadedTaskCounter();
+            // reading was resumed after the tasks
+            assertFalse(handler.handlerAdapter.isReadingSuspended());
+        }
+        assertTrue(offloadedTasks > 0);
+        assertTrue(handshakeExecutor.getCompletedTaskCount() > 0);
+    }
+
+    private String echo(SSLContext clientContext, String request) throws IOException {
+        try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket(
+            InetAddress.getLoopbackAddress(), serverSocketChannel.socket().getLocalPort())) {
+            socket.setSoTimeout(30000);
+            // TLS 1.3 session resumption is not supported by the SSL forwarders yet
+            socket.setEnabledProtocols(new String[]{"TLSv1.2"});
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write(request.getBytes(StandardCharsets.US_ASCII));
+            outputStream.flush();
+            byte[] response = new byte[request.length()];
+            InputStream inputStream = socket.getInputStream();
+            for (int read = 0; read < response.length; ) {
+                int bytesRead = inputStream.read(response, read, response.length - read);
+                if (bytesRead == -1) {
+                    throw new IOException("connection closed");
+                }
+                read += bytesRead;
+            }
+            return new String(response, StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static class EchoHandler extends AbstractSSLChannelHandler {
+
+        EchoHandler(SocketChannel socketChannel, SSLContext sslContext) {
+            super(socketChannel, sslContext, false, 1024, 64 * 1024, 1024);
+            sslInputForwarder.setNextForwarder(new AbstractForwarder<ByteBuffer, Void>() {
+                @Override
+                public void forward(ByteBuffer input) throws IOException {
+                    byteBufferToArrayForwarder.forward(input);
+                }
+            });
+        }
+
+        @Override
+        public void inputClosed() {
+            try {
+                handlerAdapter.closeChannel();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        @Override
+        public void channelException(Exception exception) {
+            exception.printStackTrace();
+        }
+    }
+}
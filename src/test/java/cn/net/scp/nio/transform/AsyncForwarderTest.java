@@ -0,0 +1,130 @@
+package cn.net.scp.nio.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import cn.net.scp.nio.AbstractChannelHandler;
+import cn.net.scp.nio.Dispatcher;
+import cn.net.scp.nio.HandlerAdapter;
+import cn.net.scp.nio.pipeline.Pipeline;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AsyncForwarderTest {
+
+    @Test
+    public void orderIsPreserved() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            int count = 10000;
+            List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch done = new CountDownLatch(count);
+            Thread testThread = Thread.currentThread();
+            AsyncForwarder<Integer> asyncForwarder = new AsyncForwarder<>(executor, 100);
+            asyncForwarder.setNextForwarder(new AbstractForwarder<Integer, Void>() {
+                @Override
+                public void forward(Integer input) {
+                    assertTrue(Thread.currentThread() != testThread);
+                    received.add(input);
+                    done.countDown();
+                }
+            });
+            for (int i = 0; i < count; i++) {
+                asyncForwarder.forward(i);
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, received.get(i).intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void fullQueueSuspendsReading() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch blocked = new CountDownLatch(1);
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        AsyncForwarder<String> asyncForwarder = new AsyncForwarder<>(executor, 4);
+        Pipeline<String> pipeline = new Pipeline<>(asyncForwarder);
+        pipeline.setNextForwarder(new AbstractForwarder<String, Void>() {
+            @Override
+            public void forward(String input) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                received.add(input);
+            }
+        });
+        BlockingQueue<HandlerAdapter> registered = new LinkedBlockingQueue<>();
+        AbstractChannelHandler handler = new AbstractChannelHandler() {
+            @Override
+            public void channelRegistered(HandlerAdapter handlerAdapter) {
+                super.channelRegistered(handlerAdapter);
+                pipeline.setHandlerAdapter(handlerAdapter);
+                registered.add(handlerAdapter);
+            }
+
+            @Override
+            public void inputClosed() {
+            }
+
+            @Override
+            public void channelException(Exception exception) {
+            }
+        };
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.start();
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+            serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (SocketChannel client = SocketChannel.open(serverSocketChannel.getLocalAddress())) {
+                assertTrue(client.isConnected());
+                SocketChannel server = serverSocketChannel.accept();
+                server.configureBlocking(false);
+                dispatcher.registerChannel(server, handler);
+                HandlerAdapter handlerAdapter = registered.poll(10, TimeUnit.SECONDS);
+                assertNotNull(handlerAdapter);
+
+                for (int i = 0; i < 6; i++) {
+                    pipeline.submit("message " + i);
+                }
+                waitFor(handlerAdapter, true);
+                assertTrue(asyncForwarder.isReadingSuspended());
+
+                blocked.countDown();
+                for (int i = 0; i < 6; i++) {
+                    assertEquals("message " + i, received.poll(10, TimeUnit.SECONDS));
+                }
+                waitFor(handlerAdapter, false);
+                assertFalse(asyncForwarder.isReadingSuspended());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void waitFor(HandlerAdapter handlerAdapter, boolean suspended) throws InterruptedException {
+        for (int i = 0; (i < 1000) && (handlerAdapter.isReadingSuspended() != suspended); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(suspended, handlerAdapter.isReadingSuspended());
+    }
+}
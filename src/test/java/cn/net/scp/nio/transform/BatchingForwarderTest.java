@@ -0,0 +1,111 @@
+package cn.net.scp.nio.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import cn.net.scp.nio.AbstractChannelHandler;
+import cn.net.scp.nio.Dispatcher;
+import cn.net.scp.nio.HandlerAdapter;
+import cn.net.scp.nio.pipeline.Pipeline;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class BatchingForwarderTest {
+
+    @Test
+    public void batchSizeAndFlush() throws IOException {
+        List<List<Integer>> batches = new ArrayList<>();
+        BatchingForwarder<Integer> batchingForwarder = new BatchingForwarder<>(3, 0,
+            batch -> batches.add(new ArrayList<>(batch)));
+        for (int i = 0; i < 7; i++) {
+            batchingForwarder.forward(i);
+        }
+        assertEquals(1, batchingForwarder.getPendingMessages());
+        batchingForwarder.readCompleted();
+        batchingForwarder.readCompleted();
+        assertEquals(Arrays.asList(Arrays.asList(0, 1, 2), Arrays.asList(3, 4, 5), Arrays.asList(6)), batches);
+        assertEquals(3, batchingForwarder.getBatchCounter());
+        assertEquals(7, batchingForwarder.getMessageCounter());
+    }
+
+    @Test
+    public void batchesAreDeliveredAfterReadEvents() throws Exception {
+        int messageCount = 100;
+        BlockingQueue<Integer> batchSizes = new LinkedBlockingQueue<>();
+        List<Integer> messages = new ArrayList<>();
+        LengthFieldFormat format = LengthFieldFormat.bigEndian(4);
+        Pipeline<ByteBuffer> pipeline = new Pipeline<>(
+            new LengthFieldInputForwarder(format, ByteBufferForwardingMode.DUPLICATE, null, 1024),
+            new BatchingForwarder<ByteBuffer>(1000, 0, batch -> {
+                for (ByteBuffer frame : batch) {
+                    messages.add(frame.getInt());
+                }
+                batchSizes.add(batch.size());
+            }));
+        BlockingQueue<HandlerAdapter> registered = new LinkedBlockingQueue<>();
+        AbstractChannelHandler handler = new AbstractChannelHandler() {
+            @Override
+            public void channelRegistered(HandlerAdapter handlerAdapter) {
+                super.channelRegistered(handlerAdapter);
+                pipeline.setHandlerAdapter(handlerAdapter);
+                registered.add(handlerAdapter);
+            }
+
+            @Override
+            public void inputClosed() {
+            }
+
+            @Override
+            public void channelException(Exception exception) {
+            }
+        };
+        handler.getChannelReader().setNextForwarder(pipeline.getHead());
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.start();
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+            serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (SocketChannel client = SocketChannel.open(serverSocketChannel.getLocalAddress())) {
+                SocketChannel server = serverSocketChannel.accept();
+                server.configureBlocking(false);
+                dispatcher.registerChannel(server, handler);
+                assertNotNull(registered.poll(10, TimeUnit.SECONDS));
+
+                ByteBuffer frames = ByteBuffer.allocate(messageCount * 8);
+                for (int i = 0; i < messageCount; i++) {
+                    frames.putInt(4).putInt(i);
+                }
+                frames.flip();
+                while (frames.hasRemaining()) {
+                    client.write(frames);
+                }
+
+                int received = 0;
+                int batchCount = 0;
+                while (received < messageCount) {
+                    Integer batchSize = batchSizes.poll(10, TimeUnit.SECONDS);
+                    assertNotNull(batchSize);
+                    received += batchSize;
+                    batchCount++;
+                }
+                assertEquals(messageCount, received);
+                assertTrue(batchCount < messageCount);
+                for (int i = 0; i < messageCount; i++) {
+                    assertEquals(i, messages.get(i).intValue());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package cn.net.scp.nio.transform;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ChannelReaderTest {
+
+    private static final int BODY_SIZE = 5 * 1024 * 1024 + 17;
+    private static final byte[] AFTER = "after the body".getBytes();
+
+    @Test
+    public void bodyIsWrittenToFile() throws Exception {
+        byte[] body = new byte[BODY_SIZE];
+        new Random(48).nextBytes(body);
+        for (boolean direct : new boolean[]{true, false}) {
+            File file = File.createTempFile("ChannelReaderTest", ".bin");
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                ingest(direct, body, randomAccessFile.getChannel());
+            }
+            assertArrayEquals(body, Files.readAllBytes(file.toPath()));
+            file.delete();
+        }
+    }
+
+    private static void ingest(boolean direct, byte[] body, final FileChannel fileChannel) throws Exception {
+        Pipe pipe = Pipe.open();
+        final ChannelReader channelReader = new ChannelReader(direct, 1024, 64 * 1024);
+        pipe.source().configureBlocking(false);
+        channelReader.setChannel(pipe.source());
+
+        // the stream: length header, body, more data for the pipeline
+        final ByteArrayOutputStream forwarded = new ByteArrayOutputStream();
+        final FileIngest[] completed = new FileIngest[1];
+        channelReader.setNextForwarder(new AbstractForwarder<ByteBuffer, Void>() {
+            private boolean headerRead;
+
+            @Override
+            public void forward(ByteBuffer input) {
+                if (!headerRead) {
+                    if (input.remaining() < 8) {
+                        return;
+                    }
+                    headerRead = true;
+                    long length = input.getLong();
+                    channelReader.ingestToFile(new FileIngest(fileChannel, 0, length, 1024 * 1024,
+                        fileIngest -> completed[0] = fileIngest));
+                    return;
+                }
+                while (input.hasRemaining()) {
+                    forwarded.write(input.get());
+                }
+            }
+        });
+
+        final ByteBuffer stream = ByteBuffer.allocate(8 + body.length + AFTER.length);
+        stream.putLong(body.length);
+        stream.put(body);
+        stream.put(AFTER);
+        stream.flip();
+        final Pipe.SinkChannel sink = pipe.sink();
+        Thread writer = new Thread(() -> {
+            try {
+                while (stream.hasRemaining()) {
+                    // small writes, so that the body starts in the read buffer
+                    ByteBuffer slice = stream.duplicate();
+                    slice.limit(Math.min(slice.limit(), slice.position() + 4096));
+                    stream.position(stream.position() + sink.write(slice));
+                }
+                sink.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+        writer.start();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!channelReader.isClosed() && (System.nanoTime() < deadline)) {
+            if (!channelReader.read()) {
+                Thread.sleep(1);
+            }
+        }
+        writer.join();
+        pipe.source().close();
+
+        assertNull(channelReader.getFileIngest());
+        FileIngest fileIngest = completed[0];
+        assertEquals(BODY_SIZE, fileIngest.getTransferred());
+        // after at least every megabyte and the rest at the end
+        assertTrue(fileIngest.getSyncCounter() >= 5);
+        assertTrue(fileIngest.getSyncCounter() <= 6);
+        assertArrayEquals(AFTER, forwarded.toByteArray());
+        assertTrue(channelReader.getReadCounter() >= 8 + BODY_SIZE + AFTER.length);
+    }
+}
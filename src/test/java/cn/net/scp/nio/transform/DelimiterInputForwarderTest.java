@@ -0,0 +1,70 @@
+package cn.net.scp.nio.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class DelimiterInputForwarderTest {
+
+    private static List<String> split(DelimiterInputForwarder forwarder, String stream, int segmentSize) throws IOException {
+        final List<String> frames = new ArrayList<>();
+        forwarder.setNextForwarder(new AbstractForwarder<ByteBuffer, Void>() {
+            @Override
+            public void forward(ByteBuffer input) {
+                byte[] bytes = new byte[input.remaining()];
+                input.get(bytes);
+                frames.add(new String(bytes, StandardCharsets.US_ASCII));
+            }
+        });
+        byte[] bytes = stream.getBytes(StandardCharsets.US_ASCII);
+        for (int position = 0; position < bytes.length; position += segmentSize) {
+            forwarder.forward(ByteBuffer.wrap(bytes, position, Math.min(segmentSize, bytes.length - position)));
+        }
+        return frames;
+    }
+
+    @Test
+    public void lines() throws IOException {
+        String stream = "first line\r\n\nthird line with more than eight bytes\n\r\nlast\n";
+        List<String> expected = Arrays.asList("first line", "", "third line with more than eight bytes", "", "last");
+        for (int segmentSize = 1; segmentSize <= stream.length(); segmentSize++) {
+            for (ByteBufferForwardingMode mode : ByteBufferForwardingMode.values()) {
+                DelimiterInputForwarder forwarder = DelimiterInputForwarder.lines(100);
+                forwarder.setForwardingMode(mode);
+                assertEquals("segment size " + segmentSize, expected, split(forwarder, stream, segmentSize));
+                assertEquals(0, forwarder.getPendingLength());
+            }
+        }
+    }
+
+    @Test
+    public void sequence() throws IOException {
+        String stream = "a||b|c||||d||";
+        for (int segmentSize = 1; segmentSize <= stream.length(); segmentSize++) {
+            DelimiterInputForwarder stripping = new DelimiterInputForwarder("||".getBytes(), true, 100);
+            assertEquals(Arrays.asList("a", "b|c", "", "d"), split(stripping, stream, segmentSize));
+            DelimiterInputForwarder keeping = new DelimiterInputForwarder("||".getBytes(), false, 100);
+            assertEquals(Arrays.asList("a||", "b|c||", "||", "d||"), split(keeping, stream, segmentSize));
+        }
+    }
+
+    @Test
+    public void maxLineLength() throws IOException {
+        for (int segmentSize : new int[]{1, 4, 100}) {
+            assertEquals(Arrays.asList("1234", "12"), split(DelimiterInputForwarder.lines(4), "1234\r\n12\n", segmentSize));
+            try {
+                split(DelimiterInputForwarder.lines(4), "12345\n", segmentSize);
+                fail("line longer than 4 byte was accepted (segment size " + segmentSize + ")");
+            } catch (IOException expected) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package cn.net.scp.nio.transform;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import cn.net.scp.nio.AbstractChannelHandler;
+import cn.net.scp.nio.Dispatcher;
+import cn.net.scp.nio.HandlerAdapter;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileRegionForwarderTest {
+
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+    private static final int OFFSET = 1000;
+    private static final int LENGTH = 3 * 1024 * 1024;
+    private static final byte[] HEAD = "head".getBytes();
+    private static final byte[] TAIL = "tail".getBytes();
+
+    private Dispatcher dispatcher;
+    private ServerSocketChannel serverSocketChannel;
+    private SocketChannel client;
+    private ChannelWriter channelWriter;
+    private File file;
+    private RandomAccessFile randomAccessFile;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws Exception {
+        content = new byte[FILE_SIZE];
+        new Random(47).nextBytes(content);
+        file = File.createTempFile("FileRegionForwarderTest", ".bin");
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.write(content);
+
+        dispatcher = new Dispatcher();
+        dispatcher.start();
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        // small socket buffers, so that the file does not fit into them
+        client = SocketChannel.open();
+        client.socket().setReceiveBufferSize(64 * 1024);
+        client.connect(serverSocketChannel.getLocalAddress());
+        SocketChannel server = serverSocketChannel.accept();
+        server.socket().setSendBufferSize(64 * 1024);
+        server.configureBlocking(false);
+        final CountDownLatch registered = new CountDownLatch(1);
+        AbstractChannelHandler handler = new AbstractChannelHandler() {
+            @Override
+            public void channelRegistered(HandlerAdapter handlerAdapter) {
+                super.channelRegistered(handlerAdapter);
+                registered.countDown();
+            }
+
+            @Override
+            public void inputClosed() {
+            }
+
+            @Override
+            public void channelException(Exception exception) {
+            }
+        };
+        dispatcher.registerChannel(server, handler);
+        assertTrue(registered.await(10, TimeUnit.SECONDS));
+        channelWriter = handler.getChannelWriter();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        serverSocketChannel.close();
+        randomAccessFile.close();
+        file.delete();
+    }
+
+    @Test
+    public void fileRegionsAreTransferredInOrder() throws Exception {
+        FileRegionForwarder fileRegionForwarder = new FileRegionForwarder(channelWriter);
+        fileRegionForwarder.setNextForwarder(channelWriter);
+        send(fileRegionForwarder);
+        // the client did not read yet, so the rest of the region is queued without reading it
+        assertTrue(channelWriter.hasRemaining());
+        assertEquals(1, fileRegionForwarder.getTransferredRegionCounter());
+        assertEquals(0, fileRegionForwarder.getMappedChunkCounter());
+        assertReceived();
+    }
+
+    @Test
+    public void fileRegionsAreMappedInChunksBehindOtherStages() throws Exception {
+        // a stage between the forwarder and the ChannelWriter, like SSL encryption
+        AbstractForwarder<ByteBuffer, ByteBuffer> copyingStage = new AbstractForwarder<ByteBuffer, ByteBuffer>() {
+            @Override
+            public void forward(ByteBuffer input) throws IOException {
+                ByteBuffer copy = ByteBuffer.allocate(input.remaining());
+                copy.put(input);
+                copy.flip();
+                nextForwarder.forward(copy);
+            }
+        };
+        copyingStage.setNextForwarder(channelWriter);
+        FileRegionForwarder fileRegionForwarder = new FileRegionForwarder(channelWriter, 64 * 1024, 64 * 1024);
+        fileRegionForwarder.setNextForwarder(copyingStage);
+        send(fileRegionForwarder);
+        // only a few chunks are mapped before the client reads
+        assertTrue(channelWriter.remaining() <= 2 * 64 * 1024);
+        assertTrue(fileRegionForwarder.getMappedChunkCounter() < LENGTH / (64 * 1024));
+        assertReceived();
+        assertEquals(LENGTH / (64 * 1024), fileRegionForwarder.getMappedChunkCounter());
+        assertEquals(0, fileRegionForwarder.getTransferredRegionCounter());
+    }
+
+    @Test
+    public void plainTextIsThrottledDuringTheHandshake() throws Exception {
+        // the peer never answers, so the SSLOutputForwarder keeps all plaintext
+        SSLEngine sslEngine = SSLContext.getDefault().createSSLEngine("localhost", 443);
+        sslEngine.setUseClientMode(true);
+        SSLInputForwarder sslInputForwarder = new SSLInputForwarder(sslEngine);
+        SSLOutputForwarder sslOutputForwarder = new SSLOutputForwarder(sslEngine, 1024);
+        sslInputForwarder.setSSLOutputForwarder(sslOutputForwarder);
+        sslOutputForwarder.setSSLInputForwarder(sslInputForwarder);
+        sslOutputForwarder.setNextForwarder(channelWriter);
+        ByteBufferToArrayForwarder byteBufferToArrayForwarder = new ByteBufferToArrayForwarder();
+        byteBufferToArrayForwarder.setNextForwarder(sslOutputForwarder);
+        FileRegionForwarder fileRegionForwarder = new FileRegionForwarder(channelWriter, 64 * 1024, 64 * 1024);
+        fileRegionForwarder.setNextForwarder(byteBufferToArrayForwarder);
+        fileRegionForwarder.setSSLOutputForwarder(sslOutputForwarder);
+        send(fileRegionForwarder);
+        assertTrue(sslOutputForwarder.getRemainingPlaintext() <= 2 * 64 * 1024);
+        assertTrue(fileRegionForwarder.getMappedChunkCounter() <= 2);
+        fileRegionForwarder.close();
+    }
+
+    private void send(FileRegionForwarder fileRegionForwarder) throws IOException {
+        FileChannel fileChannel = randomAccessFile.getChannel();
+        fileRegionForwarder.forward(ByteBuffer.wrap(HEAD));
+        fileRegionForwarder.forwardFileRegion(new FileRegion(fileChannel, OFFSET, LENGTH));
+        fileRegionForwarder.forward(ByteBuffer.wrap(TAIL));
+    }
+
+    private void assertReceived() throws Exception {
+        ByteBuffer expected = ByteBuffer.allocate(HEAD.length + LENGTH + TAIL.length);
+        expected.put(HEAD);
+        expected.put(content, OFFSET, LENGTH);
+        expected.put(TAIL);
+
+        ByteBuffer received = ByteBuffer.allocate(expected.capacity());
+        client.configureBlocking(false);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (received.hasRemaining() && (System.nanoTime() < deadline)) {
+            if (client.read(received) == 0) {
+                Thread.sleep(1);
+            }
+        }
+        assertArrayEquals(expected.array(), received.array());
+        for (int i = 0; (i < 1000) && channelWriter.hasRemaining(); i++) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, channelWriter.remaining());
+    }
+}
@@ -0,0 +1,215 @@
+package cn.net.scp.nio.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import cn.net.scp.nio.buffer.ByteBufferPool;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class LengthFieldForwarderTest {
+
+    private static final String[] MESSAGES = {"", "a", "hello world", new String(new char[300]).replace('\0', 'x')};
+
+    private static ByteBuffer encode(LengthFieldFormat format) throws IOException {
+        LengthFieldOutputForwarder encoder = new LengthFieldOutputForwarder(format, ByteBufferForwardingMode.COPY);
+        final ByteBuffer stream = ByteBuffer.allocate(4096);
+        encoder.setNextForwarder(new AbstractForwarder<ByteBuffer[], Void>() {
+            @Override
+            public void forward(ByteBuffer[] input) {
+                for (ByteBuffer byteBuffer : input) {
+                    stream.put(byteBuffer);
+                }
+            }
+        });
+        for (String message : MESSAGES) {
+            encoder.forward(new ByteBuffer[]{ByteBuffer.wrap(("T" + message).getBytes(StandardCharsets.US_ASCII))});
+        }
+        stream.flip();
+        return stream;
+    }
+
+    private static List<String> decode(LengthFieldFormat format, ByteBuffer stream, int segmentSize, ByteBufferForwardingMode mode) throws IOException {
+        LengthFieldInputForwarder decoder = new LengthFieldInputForwarder(format, mode, null, Integer.MAX_VALUE);
+        final List<String> frames = new ArrayList<>();
+        decoder.setNextForwarder(new AbstractForwarder<ByteBuffer, Void>() {
+            @Override
+            public void forward(ByteBuffer input) {
+                byte[] bytes = new byte[input.remaining()];
+                input.get(bytes);
+                frames.add(new String(bytes, StandardCharsets.US_ASCII));
+            }
+        });
+        for (int position = 0; position < stream.limit(); position += segmentSize) {
+            ByteBuffer segment = stream.duplicate();
+            segment.position(position);
+            segment.limit(Math.min(position + segmentSize, stream.limit()));
+            decoder.forward(segment);
+        }
+        return frames;
+    }
+
+    private static void assertRoundTrip(LengthFieldFormat format, String prefix) throws IOException {
+        ByteBuffer stream = encode(format);
+        for (int segmentSize : new int[]{1, 2, 3, 7, 4096}) {
+            for (ByteBufferForwardingMode mode : ByteBufferForwardingMode.values()) {
+                List<String> frames = decode(format, stream, segmentSize, mode);
+                assertEquals(MESSAGES.length, frames.size());
+                for (int i = 0; i < MESSAGES.length; i++) {
+                    String frame = frames.get(i);
+                    assertEquals(format + ", segment size " + segmentSize, MESSAGES[i], frame.substring(frame.length() - MESSAGES[i].length()));
+                    assertEquals(prefix, frame.substring(0, Math.min(prefix.length(), frame.length())));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void bigEndian() throws IOException {
+        assertRoundTrip(LengthFieldFormat.bigEndian(2), "T");
+    }
+
+    @Test
+    public void littleEndian() throws IOException {
+        ByteBuffer stream = encode(LengthFieldFormat.littleEndian(4));
+        assertEquals(1, stream.order(ByteOrder.LITTLE_ENDIAN).getInt(0));
+        assertRoundTrip(LengthFieldFormat.littleEndian(4), "T");
+    }
+
+    @Test
+    public void varint() throws IOException {
+        ByteBuffer stream = encode(LengthFieldFormat.varint());
+        // 301 byte message: 0xAD 0x02
+        int lastFrame = stream.limit() - 303;
+        assertEquals((byte) 0xAD, stream.get(lastFrame));
+        assertEquals((byte) 0x02, stream.get(lastFrame + 1));
+        assertRoundTrip(LengthFieldFormat.varint(), "T");
+    }
+
+    @Test
+    public void offsetLengthIncludesHeaderNotStripped() throws IOException {
+        LengthFieldFormat format = new LengthFieldFormat(1, 2, ByteOrder.BIG_ENDIAN, 0, true, false);
+        ByteBuffer stream = encode(format);
+        // type byte, then length including the 3 byte header
+        assertEquals('T', stream.get(0));
+        assertEquals(3, stream.getShort(1));
+        assertRoundTrip(format, "T");
+    }
+
+    @Test
+    public void varintIncludingHeaderWithAdjustment() throws IOException {
+        assertRoundTrip(new LengthFieldFormat(1, LengthFieldFormat.VARINT, ByteOrder.BIG_ENDIAN, -2, true, true), "");
+    }
+
+    @Test
+    public void pooledDuplicatesStayValid() throws IOException {
+        // frames of equal size, so that a recycled reassembly buffer would be reused
+        String[] messages = {"first", "other", "third"};
+        ByteBuffer stream = ByteBuffer.allocate(messages.length * 7);
+        for (String message : messages) {
+            stream.putShort((short) message.length());
+            stream.put(message.getBytes(StandardCharsets.US_ASCII));
+        }
+        stream.flip();
+        LengthFieldInputForwarder decoder = new LengthFieldInputForwarder(LengthFieldFormat.bigEndian(2),
+            ByteBufferForwardingMode.DUPLICATE, new ByteBufferPool(), Integer.MAX_VALUE);
+        // the receiver keeps the frames, like an asynchronous queue
+        final List<ByteBuffer> frames = new ArrayList<>();
+        decoder.setNextForwarder(new AbstractForwarder<ByteBuffer, Void>() {
+            @Override
+            public void forward(ByteBuffer input) {
+                frames.add(input);
+            }
+        });
+        // single bytes, so that every frame is reassembled
+        for (int position = 0; position < stream.limit(); position++) {
+            ByteBuffer segment = stream.duplicate();
+            segment.position(position);
+            segment.limit(position + 1);
+            decoder.forward(segment);
+        }
+        assertEquals(messages.length, frames.size());
+        for (int i = 0; i < messages.length; i++) {
+            assertEquals(messages[i], StandardCharsets.US_ASCII.decode(frames.get(i)).toString());
+        }
+    }
+
+    private static ByteBuffer encode(LengthFieldFormat format, ByteBufferForwardingMode mode, int coalesceThreshold, boolean batch) throws IOException {
+        LengthFieldOutputForwarder encoder = new LengthFieldOutputForwarder(format, mode);
+        encoder.setCoalesceThreshold(coalesceThreshold);
+        final List<ByteBuffer[]> arrays = new ArrayList<>();
+        encoder.setNextForwarder(new AbstractForwarder<ByteBuffer[], Void>() {
+            @Override
+            public void forward(ByteBuffer[] input) {
+                if (input.length == 0) {
+                    throw new IllegalArgumentException("empty array");
+                }
+                arrays.add(input.clone());
+            }
+        });
+        ByteBuffer[][] messages = new ByteBuffer[MESSAGES.length][];
+        for (int i = 0; i < MESSAGES.length; i++) {
+            messages[i] = new ByteBuffer[]{ByteBuffer.wrap(("T" + MESSAGES[i]).getBytes(StandardCharsets.US_ASCII))};
+        }
+        if (batch) {
+            encoder.forwardBatch(messages);
+        } else {
+            for (ByteBuffer[] message : messages) {
+                encoder.forward(message);
+            }
+        }
+        // all forwarded buffers are written after framing, DIRECT mode reuses them
+        ByteBuffer stream = ByteBuffer.allocate(4096);
+        for (ByteBuffer[] array : arrays) {
+            for (ByteBuffer byteBuffer : array) {
+                stream.put(byteBuffer);
+            }
+        }
+        stream.flip();
+        return stream;
+    }
+
+    @Test
+    public void batchAndCoalescing() throws IOException {
+        LengthFieldFormat format = new LengthFieldFormat(1, LengthFieldFormat.VARINT, ByteOrder.BIG_ENDIAN, 0, false, true);
+        ByteBuffer expected = encode(format);
+        for (ByteBufferForwardingMode mode : ByteBufferForwardingMode.values()) {
+            for (int coalesceThreshold : new int[]{0, 12, 1000}) {
+                for (boolean batch : new boolean[]{false, true}) {
+                    if ((mode == ByteBufferForwardingMode.DIRECT) && (!batch || (coalesceThreshold < 1000))) {
+                        // reused buffers must be consumed before the next message is framed
+                        continue;
+                    }
+                    assertEquals(mode + ", " + coalesceThreshold + ", batch " + batch, expected, encode(format, mode, coalesceThreshold, batch));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pooledHeadersAreTakenFromThePool() throws IOException {
+        ByteBufferPool pool = new ByteBufferPool();
+        LengthFieldOutputForwarder encoder = new LengthFieldOutputForwarder(LengthFieldFormat.bigEndian(2),
+            ByteBufferForwardingMode.POOLED_COPY, pool);
+        final List<ByteBuffer> headers = new ArrayList<>();
+        encoder.setNextForwarder(new AbstractForwarder<ByteBuffer[], Void>() {
+            @Override
+            public void forward(ByteBuffer[] input) {
+                headers.add(input[0]);
+                // the receiver gives the header back when it is written
+                pool.give(input[0]);
+            }
+        });
+        for (int i = 0; i < 3; i++) {
+            encoder.forward(new ByteBuffer[]{ByteBuffer.wrap("message".getBytes(StandardCharsets.US_ASCII))});
+        }
+        assertEquals(3, headers.size());
+        assertSame(headers.get(0), headers.get(1));
+        assertSame(headers.get(0), headers.get(2));
+    }
+}
@@ -0,0 +1,170 @@
+package cn.net.scp.nio.transform;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import cn.net.scp.nio.AbstractChannelHandler;
+import cn.net.scp.nio.Dispatcher;
+import cn.net.scp.nio.HandlerAdapter;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedFileSourceForwarderTest {
+
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+    private static final int OFFSET = 1000;
+    private static final int LENGTH = 3 * 1024 * 1024 + 5;
+    private static final int WINDOW_SIZE = 256 * 1024;
+    private static final int SLICE_SIZE = 16 * 1024;
+
+    private Dispatcher dispatcher;
+    private ServerSocketChannel serverSocketChannel;
+    private SocketChannel client;
+    private ChannelWriter channelWriter;
+    private File file;
+    private RandomAccessFile randomAccessFile;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws Exception {
+        content = new byte[FILE_SIZE];
+        new Random(49).nextBytes(content);
+        file = File.createTempFile("MappedFileSourceForwarderTest", ".bin");
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.write(content);
+
+        dispatcher = new Dispatcher();
+        dispatcher.start();
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        // small socket buffers, so that the file does not fit into them
+        client = SocketChannel.open();
+        client.socket().setReceiveBufferSize(64 * 1024);
+        client.connect(serverSocketChannel.getLocalAddress());
+        SocketChannel server = serverSocketChannel.accept();
+        server.socket().setSendBufferSize(64 * 1024);
+        server.configureBlocking(false);
+        final CountDownLatch registered = new CountDownLatch(1);
+        AbstractChannelHandler handler = new AbstractChannelHandler() {
+            @Override
+            public void channelRegistered(HandlerAdapter handlerAdapter) {
+                super.channelRegistered(handlerAdapter);
+                registered.countDown();
+            }
+
+            @Override
+            public void inputClosed() {
+            }
+
+            @Override
+            public void channelException(Exception exception) {
+            }
+        };
+        dispatcher.registerChannel(server, handler);
+        assertTrue(registered.await(10, TimeUnit.SECONDS));
+        channelWriter = handler.getChannelWriter();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        serverSocketChannel.close();
+        randomAccessFile.close();
+        file.delete();
+    }
+
+    @Test
+    public void slicesAreWrittenAsSharedBuffers() throws Exception {
+        MappedFileSourceForwarder source = new MappedFileSourceForwarder(channelWriter, WINDOW_SIZE, SLICE_SIZE,
+            SLICE_SIZE);
+        source.setNextForwarder(channelWriter);
+        stream(source);
+    }
+
+    @Test
+    public void slicesPassOtherStages() throws Exception {
+        // a stage between the source and the ChannelWriter, like SSL encryption
+        AbstractForwarder<ByteBuffer, ByteBuffer> copyingStage = new AbstractForwarder<ByteBuffer, ByteBuffer>() {
+            @Override
+            public void forward(ByteBuffer input) throws IOException {
+                ByteBuffer copy = ByteBuffer.allocate(input.remaining());
+                copy.put(input);
+                copy.flip();
+                nextForwarder.forward(copy);
+            }
+        };
+        copyingStage.setNextForwarder(channelWriter);
+        MappedFileSourceForwarder source = new MappedFileSourceForwarder(channelWriter, WINDOW_SIZE, SLICE_SIZE,
+            SLICE_SIZE);
+        source.setNextForwarder(copyingStage);
+        stream(source);
+    }
+
+    @Test
+    public void plainTextIsThrottledDuringTheHandshake() throws Exception {
+        // the peer never answers, so the SSLOutputForwarder keeps all plaintext
+        SSLEngine sslEngine = SSLContext.getDefault().createSSLEngine("localhost", 443);
+        sslEngine.setUseClientMode(true);
+        SSLInputForwarder sslInputForwarder = new SSLInputForwarder(sslEngine);
+        SSLOutputForwarder sslOutputForwarder = new SSLOutputForwarder(sslEngine, 1024);
+        sslInputForwarder.setSSLOutputForwarder(sslOutputForwarder);
+        sslOutputForwarder.setSSLInputForwarder(sslInputForwarder);
+        sslOutputForwarder.setNextForwarder(channelWriter);
+        ByteBufferToArrayForwarder byteBufferToArrayForwarder = new ByteBufferToArrayForwarder();
+        byteBufferToArrayForwarder.setNextForwarder(sslOutputForwarder);
+        MappedFileSourceForwarder source = new MappedFileSourceForwarder(channelWriter, WINDOW_SIZE, SLICE_SIZE,
+            SLICE_SIZE);
+        source.setNextForwarder(byteBufferToArrayForwarder);
+        source.setSSLOutputForwarder(sslOutputForwarder);
+        source.send(new FileRegion(randomAccessFile.getChannel(), OFFSET, LENGTH));
+        assertTrue(sslOutputForwarder.getRemainingPlaintext() <= 2 * SLICE_SIZE);
+        assertTrue(source.getSliceCounter() <= 2);
+        source.close();
+    }
+
+    private void stream(MappedFileSourceForwarder source) throws Exception {
+        source.send(new FileRegion(randomAccessFile.getChannel(), OFFSET, LENGTH));
+        // the client did not read yet, only a few slices are forwarded
+        assertTrue(source.hasRemaining());
+        assertTrue(channelWriter.remaining() <= 2 * SLICE_SIZE);
+        assertTrue(source.getMappedWindowCounter() < 3);
+
+        byte[] expected = new byte[LENGTH];
+        System.arraycopy(content, OFFSET, expected, 0, LENGTH);
+        ByteBuffer received = ByteBuffer.allocate(LENGTH);
+        client.configureBlocking(false);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (received.hasRemaining() && (System.nanoTime() < deadline)) {
+            if (client.read(received) == 0) {
+                Thread.sleep(1);
+            }
+        }
+        assertArrayEquals(expected, received.array());
+        assertEquals((LENGTH + SLICE_SIZE - 1) / SLICE_SIZE, source.getSliceCounter());
+
+        // all windows are unmapped when they have been written
+        long windows = (LENGTH + WINDOW_SIZE - 1) / WINDOW_SIZE;
+        assertEquals(windows, source.getMappedWindowCounter());
+        for (int i = 0; (i < 1000) && (source.getUnmappedWindowCounter() < windows); i++) {
+            Thread.sleep(1);
+        }
+        assertEquals(windows, source.getUnmappedWindowCounter());
+        assertFalse(source.hasRemaining());
+    }
+}
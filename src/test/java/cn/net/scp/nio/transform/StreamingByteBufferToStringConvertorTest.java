@@ -0,0 +1,68 @@
+package cn.net.scp.nio.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class StreamingByteBufferToStringConvertorTest {
+
+    private static String decode(StreamingByteBufferToStringConvertor convertor, byte[] bytes, int segmentSize, boolean direct) throws IOException {
+        final StringBuilder stringBuilder = new StringBuilder();
+        convertor.setNextForwarder(new AbstractForwarder<String, Void>() {
+            @Override
+            public void forward(String input) {
+                stringBuilder.append(input);
+            }
+        });
+        for (int position = 0; position < bytes.length; position += segmentSize) {
+            int length = Math.min(segmentSize, bytes.length - position);
+            ByteBuffer segment = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+            segment.put(bytes, position, length).flip();
+            convertor.forward(segment);
+            assertEquals(0, segment.remaining());
+        }
+        return stringBuilder.toString();
+    }
+
+    private static void assertStreaming(String text, Charset charset) throws IOException {
+        byte[] bytes = text.getBytes(charset);
+        for (int segmentSize = 1; segmentSize <= bytes.length; segmentSize++) {
+            for (boolean direct : new boolean[]{false, true}) {
+                StreamingByteBufferToStringConvertor convertor = new StreamingByteBufferToStringConvertor(charset);
+                assertEquals(charset + ", segment size " + segmentSize, text, decode(convertor, bytes, segmentSize, direct));
+                assertEquals(0, convertor.getPendingLength());
+            }
+        }
+    }
+
+    @Test
+    public void splitMultiByteCharacters() throws IOException {
+        String text = "plain ASCII, then äöü, € and 😀 in between more ASCII text";
+        assertStreaming(text, StandardCharsets.UTF_8);
+        assertStreaming(text, StandardCharsets.UTF_16BE);
+    }
+
+    @Test
+    public void fastPaths() throws IOException {
+        assertStreaming("only ASCII characters here", StandardCharsets.US_ASCII);
+        assertStreaming("Latin-1: äöüÿ", StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void malformedInput() throws IOException {
+        StreamingByteBufferToStringConvertor convertor = new StreamingByteBufferToStringConvertor(StandardCharsets.UTF_8);
+        try {
+            decode(convertor, new byte[]{'a', (byte) 0xFF, 'b'}, 3, false);
+            fail("malformed input was accepted");
+        } catch (IOException expected) {
+            // expected
+        }
+        // the convertor can be used again after an error
+        assertEquals("ok", decode(convertor, "ok".getBytes(StandardCharsets.UTF_8), 1, false));
+    }
+}
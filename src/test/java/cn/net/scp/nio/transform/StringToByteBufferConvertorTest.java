@@ -0,0 +1,69 @@
+package cn.net.scp.nio.transform;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import cn.net.scp.nio.buffer.ByteBufferPool;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class StringToByteBufferConvertorTest {
+
+    private static final String[] STRINGS = {"", "ASCII only", "Gr\u00fc\u00dfe", "\u20ac 1,-", "emoji \ud83d\ude00 and \u4e2d\u6587", "x"};
+
+    private static byte[] getBytes(ByteBuffer byteBuffer) {
+        byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void allModesAndCharsets() throws ConvertException {
+        Charset[] charsets = {StandardCharsets.UTF_8, StandardCharsets.UTF_16, Charset.forName("GB18030")};
+        for (Charset charset : charsets) {
+            for (ByteBufferForwardingMode mode : ByteBufferForwardingMode.values()) {
+                StringToByteBufferConvertor convertor = new StringToByteBufferConvertor(charset, mode, new ByteBufferPool());
+                for (String string : STRINGS) {
+                    assertArrayEquals(charset + ", " + mode + ": " + string, string.getBytes(charset), getBytes(convertor.convert(string)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void singleByteCharsets() throws ConvertException {
+        StringToByteBufferConvertor latin1 = new StringToByteBufferConvertor(StandardCharsets.ISO_8859_1);
+        assertArrayEquals("Gr\u00fc\u00dfe".getBytes(StandardCharsets.ISO_8859_1), getBytes(latin1.convert("Gr\u00fc\u00dfe")));
+        StringToByteBufferConvertor ascii = new StringToByteBufferConvertor(StandardCharsets.US_ASCII);
+        assertArrayEquals("plain".getBytes(StandardCharsets.US_ASCII), getBytes(ascii.convert("plain")));
+        try {
+            ascii.convert("Gr\u00fc\u00dfe");
+            fail("unmappable character was accepted");
+        } catch (ConvertException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void malformedUtf8() {
+        StringToByteBufferConvertor convertor = new StringToByteBufferConvertor(StandardCharsets.UTF_8);
+        try {
+            convertor.convert("unpaired \uD83D surrogate");
+            fail("unpaired surrogate was accepted");
+        } catch (ConvertException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void directModeReusesBuffer() throws ConvertException {
+        StringToByteBufferConvertor convertor = new StringToByteBufferConvertor(StandardCharsets.UTF_8, ByteBufferForwardingMode.DIRECT, null);
+        ByteBuffer first = convertor.convert("first");
+        assertEquals(5, first.remaining());
+        assertSame(first, convertor.convert("second"));
+    }
+}
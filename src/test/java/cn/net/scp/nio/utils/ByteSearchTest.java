@@ -0,0 +1,58 @@
+package cn.net.scp.nio.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+
+public class ByteSearchTest {
+
+    private static int naiveIndexOf(ByteBuffer buffer, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void indexOfMatchesNaiveSearch() {
+        // values around zero and 0x80 provoke false positives in naive SWAR variants
+        byte[] bytes = {1, 0, (byte) 0x80, 10, (byte) 0xFF, 13, 10, 0, 1, (byte) 0x7F, 0, 0, 10, 2, 3, 4, 5, 6, 7, 8, 10};
+        for (ByteOrder byteOrder : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            for (boolean direct : new boolean[]{false, true}) {
+                ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(bytes.length) : ByteBuffer.allocate(bytes.length);
+                buffer.put(bytes).flip();
+                buffer.order(byteOrder);
+                for (byte value : new byte[]{0, 1, 10, 13, (byte) 0x80, (byte) 0xFF, 42}) {
+                    for (int from = 0; from <= bytes.length; from++) {
+                        for (int to = from; to <= bytes.length; to++) {
+                            assertEquals(naiveIndexOf(buffer, from, to, value), ByteSearch.indexOf(buffer, from, to, value));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void indexOfSequence() {
+        ByteBuffer buffer = ByteBuffer.wrap("abc\r\r\ndef\r\n".getBytes());
+        byte[] crlf = {'\r', '\n'};
+        assertEquals(4, ByteSearch.indexOf(buffer, 0, buffer.limit(), crlf));
+        assertEquals(9, ByteSearch.indexOf(buffer, 5, buffer.limit(), crlf));
+        assertEquals(-1, ByteSearch.indexOf(buffer, 5, buffer.limit() - 1, crlf));
+    }
+
+    @Test
+    public void isAscii() {
+        ByteBuffer buffer = ByteBuffer.wrap("0123456789abcdefä".getBytes(java.nio.charset.StandardCharsets.ISO_8859_1));
+        assertTrue(ByteSearch.isAscii(buffer, 0, 16));
+        assertFalse(ByteSearch.isAscii(buffer, 0, 17));
+        assertFalse(ByteSearch.isAscii(buffer, 9, 17));
+    }
+}